@@ -0,0 +1,50 @@
+package daproxy.conf;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The allowList check made by every CONNECT, against the per-request regex loop it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class AllowListBenchmark {
+
+    private static final List<String> ALLOW_LIST = List.of("blog.digitalabyss.ca", "api.example.com",
+            ".*\\.cdn\\.example\\.net", ".*\\.internal\\.example\\.org", "build-[0-9]+\\.ci\\.example\\.com");
+
+    @Param({ "blog.digitalabyss.ca", "img.cdn.example.net", "build-42.ci.example.com", "not.allowed.com" })
+    private String host;
+
+    private AllowListMatcher matcher;
+
+    @Setup
+    public void setUp() {
+        matcher = new AllowListMatcher(ALLOW_LIST, 4096);
+    }
+
+    @Benchmark
+    public boolean matcher() {
+        return matcher.isAllowed(host);
+    }
+
+    @Benchmark
+    public boolean regexLoop() {
+        for (String allowed : ALLOW_LIST) {
+            if (host.matches(allowed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,55 @@
+package daproxy.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import daproxy.pool.TimingWheel;
+import daproxy.relay.Direction;
+import daproxy.relay.Tunnel;
+
+/**
+ * Copy throughput of the blocking stream relay, without the network, so the cost of the copy loop and its per-write
+ * bookkeeping shows up on its own. Divide the payload size by the reported time for bytes per second.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class IOHelperBenchmark {
+
+    @Param({ "65536", "1048576" })
+    private int payloadSize;
+
+    private byte[] payload;
+    private Tunnel tunnel;
+
+    @Setup
+    public void setUp() {
+        payload = new byte[payloadSize];
+        new Random(0).nextBytes(payload);
+        // the wheel is never started, so the idle timeout never fires
+        tunnel = new Tunnel(null, null, new TimingWheel(100, 16, TimingWheel.clockMillis()), 60_000);
+    }
+
+    @Benchmark
+    public void writeInputToOutput() throws IOException {
+        try {
+            IOHelper.writeInputToOutput(new ByteArrayInputStream(payload), OutputStream.nullOutputStream(), tunnel,
+                    Direction.UPSTREAM);
+        } catch (EOFException endOfStream) {
+            // expected once the payload is drained
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package daproxy.http;
+
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import daproxy.http.exceptions.IncompleteRequestException;
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.http.parsers.ConnectParser;
+import daproxy.http.request.Request;
+
+/**
+ * The work done on every accepted connection before the upstream is dialed: finding the request method, parsing the
+ * CONNECT request, and splitting its authority into host and port.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RequestParsingBenchmark {
+
+    private final byte[] connect = bytes("CONNECT blog.digitalabyss.ca:443 HTTP/1.1\r\n"
+            + "Host: blog.digitalabyss.ca:443\r\nUser-Agent: curl/7.68.0\r\nProxy-Connection: Keep-Alive\r\n\r\n");
+    // the last method tried by the lookup
+    private final byte[] patch = bytes("PATCH /resource HTTP/1.1\r\n\r\n");
+
+    private final RequestHandler handler = new RequestHandler(null);
+    private final ConnectParser parser = new ConnectParser();
+    private final Url url = new Url("blog.digitalabyss.ca:443");
+
+    private static byte[] bytes(String request) {
+        return request.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public RequestMethod parseConnectMethod() throws InvalidRequestException {
+        return handler.parseHTTPMethod(connect, connect.length);
+    }
+
+    @Benchmark
+    public RequestMethod parsePatchMethod() throws InvalidRequestException {
+        return handler.parseHTTPMethod(patch, patch.length);
+    }
+
+    @Benchmark
+    public RequestMethod parseConnectMethodLoop() throws InvalidRequestException {
+        return loopParseHTTPMethod(connect, connect.length);
+    }
+
+    @Benchmark
+    public RequestMethod parsePatchMethodLoop() throws InvalidRequestException {
+        return loopParseHTTPMethod(patch, patch.length);
+    }
+
+    /**
+     * The lookup parseHTTPMethod made before the MethodTable, kept as the baseline: try every method in turn.
+     */
+    private static RequestMethod loopParseHTTPMethod(byte[] request, int length) throws InvalidRequestException {
+        for (RequestMethod m : RequestMethod.values()) {
+            byte[] mB = m.toString().getBytes(StandardCharsets.US_ASCII);
+            if (length < mB.length + 1) {
+                continue;
+            }
+            int i = 0;
+            for (; i < length && i < mB.length; i++) {
+                if (mB[i] != request[i]) {
+                    break;
+                }
+            }
+            if (i < mB.length || request[i] != ' ') {
+                continue;
+            }
+            return m;
+        }
+        throw new InvalidRequestException("Did not find valid request method");
+    }
+
+    @Benchmark
+    public Request parseConnectRequest() throws InvalidRequestException, IncompleteRequestException {
+        return parser.parse(connect, connect.length);
+    }
+
+    @Benchmark
+    public void parseUrl(Blackhole bh) throws MalformedURLException {
+        bh.consume(url.getHost());
+        bh.consume(url.getPort());
+    }
+}
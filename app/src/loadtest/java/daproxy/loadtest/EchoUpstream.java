@@ -0,0 +1,66 @@
+package daproxy.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Stands in for the remote site: echoes back every byte it receives, optionally over TLS, so the load generator can
+ * check what came back through the tunnel.
+ */
+public class EchoUpstream implements Runnable {
+
+    private final ServerSocket serverSocket;
+
+    /**
+     * @param tls - a server context to terminate TLS with, or null for plain TCP
+     */
+    public EchoUpstream(SSLContext tls) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        serverSocket = tls == null ? new ServerSocket(0, 1024, loopback)
+                : tls.getServerSocketFactory().createServerSocket(0, 1024, loopback);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "EchoUpstreamAcceptor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(() -> echo(socket), "EchoUpstream");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException ex) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Echo upstream failed to accept: " + ex);
+                }
+            }
+        }
+    }
+
+    private static void echo(Socket socket) {
+        byte[] buf = new byte[16 * 1024];
+        try (socket; InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+        } catch (IOException ex) {
+            // the client hung up mid-tunnel
+        }
+    }
+}
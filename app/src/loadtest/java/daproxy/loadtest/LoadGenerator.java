@@ -0,0 +1,189 @@
+package daproxy.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import daproxy.metrics.LatencyHistogram;
+
+/**
+ * Opens tunnels through the proxy from a fixed number of connections, each in a loop: CONNECT, wait for the 200,
+ * optionally handshake TLS with the upstream, echo the payload through the tunnel in chunks, and close. Only tunnels
+ * started after the warmup are counted.
+ */
+public class LoadGenerator {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final InetSocketAddress proxy;
+    private final String upstream;
+    private final SSLContext tls;
+    private final byte[] payload;
+
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LatencyHistogram tlsLatency = new LatencyHistogram();
+    private final LongAdder tunnels = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    /**
+     * @param proxy
+     * @param upstreamPort - port of the echo upstream on the loopback address
+     * @param tls - a client context to handshake with the upstream, or null for plain TCP
+     * @param payloadSize - bytes echoed through every tunnel
+     */
+    public LoadGenerator(InetSocketAddress proxy, int upstreamPort, SSLContext tls, int payloadSize) {
+        this.proxy = proxy;
+        this.upstream = "127.0.0.1:" + upstreamPort;
+        this.tls = tls;
+        this.payload = new byte[payloadSize];
+        new Random(0).nextBytes(payload);
+    }
+
+    /**
+     * Runs the load and blocks until it is done.
+     * @param connections
+     * @param warmupMillis
+     * @param durationMillis - measured time, after the warmup
+     */
+    public void run(int connections, long warmupMillis, long durationMillis) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread thread = new Thread(this::work, "LoadGenerator-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            workers.add(thread);
+        }
+        Thread.sleep(warmupMillis);
+        measuring = true;
+        Thread.sleep(durationMillis);
+        measuring = false;
+        running = false;
+        for (Thread worker : workers) {
+            worker.join(5000);
+        }
+    }
+
+    private void work() {
+        byte[] response = new byte[CHUNK_SIZE];
+        while (running) {
+            boolean measured = measuring;
+            try {
+                tunnel(response, measured);
+                if (measured) {
+                    tunnels.increment();
+                }
+            } catch (IOException ex) {
+                if (measured) {
+                    errors.increment();
+                }
+            }
+        }
+    }
+
+    private void tunnel(byte[] response, boolean measured) throws IOException {
+        try (Socket socket = new Socket()) {
+            long start = System.nanoTime();
+            socket.connect(proxy);
+            socket.setTcpNoDelay(true);
+            socket.getOutputStream().write(("CONNECT " + upstream + " HTTP/1.1\r\nHost: " + upstream + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            readConnectResponse(socket.getInputStream());
+            if (measured) {
+                connectLatency.recordSince(start);
+            }
+
+            Socket tunnel = socket;
+            if (tls != null) {
+                long handshakeStart = System.nanoTime();
+                SSLSocket sslSocket = (SSLSocket) tls.getSocketFactory().createSocket(socket, "localhost",
+                        socket.getPort(), true);
+                sslSocket.startHandshake();
+                if (measured) {
+                    tlsLatency.recordSince(handshakeStart);
+                }
+                tunnel = sslSocket;
+            }
+            echo(tunnel, response);
+            if (measured) {
+                bytes.add(2L * payload.length);
+            }
+        }
+    }
+
+    /**
+     * Reads up to the end of the response headers, one byte at a time so nothing after them is consumed.
+     */
+    private static void readConnectResponse(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            head.append((char) b);
+            if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+                if (!head.toString().startsWith("HTTP/1.1 200")) {
+                    throw new IOException("CONNECT refused: " + head.toString().trim());
+                }
+                return;
+            }
+        }
+        throw new IOException("Proxy closed the connection before responding");
+    }
+
+    /**
+     * Writes the payload a chunk at a time and reads each chunk back before sending the next, so neither side can
+     * fill up the other's buffers.
+     */
+    private void echo(Socket tunnel, byte[] response) throws IOException {
+        OutputStream out = tunnel.getOutputStream();
+        InputStream in = tunnel.getInputStream();
+        for (int offset = 0; offset < payload.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, payload.length - offset);
+            out.write(payload, offset, length);
+            out.flush();
+            int received = 0;
+            while (received < length) {
+                int read = in.read(response, received, length - received);
+                if (read == -1) {
+                    throw new IOException("Tunnel closed after " + (offset + received) + " bytes");
+                }
+                received += read;
+            }
+            if (!Arrays.equals(payload, offset, offset + length, response, 0, length)) {
+                throw new IOException("Tunnel corrupted the payload at offset " + offset);
+            }
+        }
+    }
+
+    public LatencyHistogram.Snapshot getConnectLatency() {
+        return connectLatency.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getTlsLatency() {
+        return tlsLatency.snapshot();
+    }
+
+    public long getTunnels() {
+        return tunnels.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+}
@@ -0,0 +1,162 @@
+package daproxy.loadtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+
+import daproxy.Server;
+import daproxy.conf.Config;
+import daproxy.metrics.LatencyHistogram;
+
+/**
+ * Reproduces the docs/Benchmarking.md scenario without the network: boots the proxy on an ephemeral port, a local echo
+ * upstream, and a CONNECT load generator, then reports tunnels per second, connect latency and tunnel throughput.
+ *
+ * Arguments are key=value pairs. connections, warmup (seconds), duration (seconds), payload (bytes), tls (true/false)
+ * and minRps drive the harness; every other key is applied to the proxy configuration, e.g. relayMode=NIO. If the
+ * tunnel rate falls below minRps, or any tunnel fails, the process exits with 1 so the run can gate a release.
+ */
+public class LoadTest {
+
+    private static final String STORE_PASSWORD = "loadtest";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int connections = Integer.parseInt(options.getOrDefault("connections", "50"));
+        long warmup = Long.parseLong(options.getOrDefault("warmup", "2"));
+        long duration = Long.parseLong(options.getOrDefault("duration", "10"));
+        int payload = Integer.parseInt(options.getOrDefault("payload", "16384"));
+        boolean tls = Boolean.parseBoolean(options.getOrDefault("tls", "false"));
+        double minRps = Double.parseDouble(options.getOrDefault("minRps", "0"));
+        for (String harnessOption : List.of("connections", "warmup", "duration", "payload", "tls", "minRps")) {
+            options.remove(harnessOption);
+        }
+
+        Config.useConfig(proxyConfig(options));
+        Server server = new Server();
+        int proxyPort = server.bind();
+        Thread acceptor = new Thread(server::serve, "LoadTestServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        KeyStore keyStore = tls ? generateKeyStore() : null;
+        EchoUpstream upstream = new EchoUpstream(tls ? serverContext(keyStore) : null);
+        upstream.start();
+
+        LoadGenerator generator = new LoadGenerator(new InetSocketAddress("127.0.0.1", proxyPort), upstream.getPort(),
+                tls ? trustingClientContext() : null, payload);
+        System.out.printf("Running %d connections for %ds after %ds warmup, %d byte payload, tls=%s, config %s%n",
+                connections, duration, warmup, payload, tls, options);
+        generator.run(connections, warmup * 1000, duration * 1000);
+        server.stop();
+
+        double seconds = duration;
+        double rps = generator.getTunnels() / seconds;
+        System.out.printf("tunnels:         %d (%.1f/s), errors: %d%n", generator.getTunnels(), rps,
+                generator.getErrors());
+        printLatency("connect latency:", generator.getConnectLatency());
+        if (tls) {
+            printLatency("tls handshake:  ", generator.getTlsLatency());
+        }
+        System.out.printf("throughput:      %.1f MiB/s%n", generator.getBytes() / seconds / (1024 * 1024));
+
+        boolean passed = rps >= minRps && generator.getErrors() == 0;
+        if (!passed) {
+            System.out.printf("FAILED: required %.1f tunnels/s with no errors%n", minRps);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Applies the remaining options over the defaults as if they were lines of conf.yaml.
+     */
+    private static Config proxyConfig(Map<String, String> overrides) {
+        StringBuilder yaml = new StringBuilder();
+        overrides.forEach((key, value) -> yaml.append(key).append(": ").append(value).append('\n'));
+        // later keys win
+        yaml.append("listenPort: 0\nwatchConfig: false\nallowList: ['127.0.0.1', localhost]\n");
+        return Config.parse(yaml.toString());
+    }
+
+    private static void printLatency(String label, LatencyHistogram.Snapshot latency) {
+        System.out.printf("%s p50=%.3fms p99=%.3fms p999=%.3fms%n", label, latency.percentile(0.5) / 1000.0,
+                latency.percentile(0.99) / 1000.0, latency.percentile(0.999) / 1000.0);
+    }
+
+    /**
+     * Creates a self-signed certificate for the echo upstream with the JDK's keytool.
+     */
+    private static KeyStore generateKeyStore() throws IOException, InterruptedException, GeneralSecurityException {
+        File file = File.createTempFile("daproxy-loadtest", ".p12");
+        file.delete();
+        file.deleteOnExit();
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "upstream", "-keyalg", "EC",
+                "-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12", "-keystore", file.getPath(),
+                "-storepass", STORE_PASSWORD).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed to generate a certificate");
+        }
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            keyStore.load(in, STORE_PASSWORD.toCharArray());
+        }
+        Files.delete(file.toPath());
+        return keyStore;
+    }
+
+    private static SSLContext serverContext(KeyStore keyStore) throws GeneralSecurityException {
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, STORE_PASSWORD.toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * The upstream's certificate is generated per run, so the client accepts any certificate.
+     */
+    private static SSLContext trustingClientContext() throws GeneralSecurityException {
+        TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[] { trustAll }, null);
+        return context;
+    }
+}
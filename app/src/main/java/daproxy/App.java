@@ -4,10 +4,17 @@ import com.beust.jcommander.JCommander;
 
 import daproxy.conf.CliArgs;
 import daproxy.conf.Config;
+import daproxy.conf.ConfigWatcher;
+import daproxy.log.AccessLog;
+import daproxy.metrics.AdminServer;
+import daproxy.upstream.CircuitBreaker;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class App {
+
+    private static final long ACCESS_LOG_CLOSE_MILLIS = 2000;
+
     public String getGreeting() {
         return "Starting DA.Proxy";
     }
@@ -21,10 +28,33 @@ public class App {
 
         try {
             Config.loadConfig(parsedArgs.getPathToConfigFile());
-            new Server().start();
+            if (Config.getConfig().isWatchConfig()) {
+                new ConfigWatcher(parsedArgs.getPathToConfigFile()).start();
+            }
+            if (Config.getConfig().getAdminPort() > 0) {
+                AdminServer admin = new AdminServer(Config.getConfig().getAdminAddress(),
+                        Config.getConfig().getAdminPort());
+                admin.serveText("/breakers", () -> CircuitBreaker.shared().describe());
+                admin.start();
+            }
+            Server server = new Server();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(server), "DrainThread"));
+            server.start();
         } catch (Exception ex) {
             log.error("Error booting server", ex);
         }
 
     }
+
+    /**
+     * Run on SIGTERM or SIGINT. The JVM keeps running the other threads until this returns, so tunnels can finish.
+     */
+    private static void drain(Server server) {
+        try {
+            server.drain(Config.getConfig().getDrainTimeoutMillis());
+            AccessLog.shared().close(ACCESS_LOG_CLOSE_MILLIS);
+        } catch (Exception ex) {
+            log.error("Error draining connections", ex);
+        }
+    }
 }
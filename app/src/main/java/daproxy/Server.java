@@ -1,18 +1,48 @@
 package daproxy;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import daproxy.conf.Config;
 import daproxy.http.RequestHandler;
+import daproxy.metrics.Counter;
+import daproxy.metrics.Metrics;
+import daproxy.pool.Drain;
 import daproxy.pool.RequestPool;
+import daproxy.relay.Tunnel;
 import lombok.extern.slf4j.Slf4j;
 
-import java.net.ServerSocket;
-
+/**
+ * Accepts client connections and submits them to the RequestPool. Each listen address is bound acceptorThreads times
+ * with SO_REUSEPORT, one channel per acceptor thread, so the kernel spreads incoming connections across the threads
+ * instead of them all waiting on one accept queue. Where SO_REUSEPORT is not available, each address is bound once
+ * and its acceptor threads share the channel.
+ *
+ * For a restart without refusing connections, either start the new process with reusePort set on both, so it can bind
+ * while the old one drains, or let a supervisor hand the listening socket over with inheritChannel.
+ */
 @Slf4j
 public class Server {
 
+    private static final long DRAIN_POLL_MILLIS = 50;
+    private static final long MIN_ACCEPT_BACKOFF_MILLIS = 10;
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    private static final Counter ACCEPTED = Metrics.counter("daproxy_connections_accepted_total",
+            "Client connections accepted by the listener");
+    private static final Counter ACCEPT_ERRORS = Metrics.counter("daproxy_accept_errors_total",
+            "Failed accepts, e.g. because the process ran out of file descriptors");
+
     private final RequestPool pool = new RequestPool();
+    private final List<ServerSocketChannel> channels = new ArrayList<>();
+    private final List<ServerSocketChannel> acceptors = new ArrayList<>(); // one entry per acceptor thread
 
     public Server() {
 
@@ -20,20 +50,191 @@ public class Server {
 
     public void start() {
         try {
-            Config conf = Config.getConfig();
+            bind();
+            serve();
+        } catch (Exception ex) {
+            log.error("Unable to start the server. Exiting.", ex);
+        }
+    }
 
-            try (ServerSocket sSocket = new ServerSocket(conf.getListenPort())){
+    /**
+     * Binds the configured listenAddresses, or listenPort on every interface when there are none. A port of 0 binds
+     * an ephemeral port, shared by the acceptors of that address, see getPort().
+     * @return the port bound for the first address
+     * @throws IOException
+     */
+    public int bind() throws IOException {
+        Config conf = Config.getConfig();
+        int acceptorThreads = Math.max(1, conf.getAcceptorThreads());
+        if (conf.isInheritChannel()) {
+            ServerSocketChannel inherited = inheritedChannel();
+            channels.add(inherited);
+            for (int i = 0; i < acceptorThreads; i++) {
+                acceptors.add(inherited);
+            }
+            log.info("Listening on inherited {} with {} acceptor threads", inherited.getLocalAddress(),
+                    acceptorThreads);
+            return getPort();
+        }
 
-                while(true) {
-                    Socket aSocket = sSocket.accept();
-    
-                    pool.submit(new RequestHandler(aSocket));
-    
+        boolean reusePort = acceptorThreads > 1 || conf.isReusePort();
+        try {
+            for (InetSocketAddress address : listenAddresses(conf)) {
+                ServerSocketChannel first = open(address, conf.getBacklog(), reusePort);
+                InetSocketAddress bound = (InetSocketAddress) first.getLocalAddress();
+                acceptors.add(first);
+                for (int i = 1; i < acceptorThreads; i++) {
+                    if (first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                        acceptors.add(open(bound, conf.getBacklog(), true));
+                    } else {
+                        acceptors.add(first);
+                    }
                 }
+                log.info("Listening on {} with {} acceptor threads", bound, acceptorThreads);
             }
-        } catch (Exception ex) {
-            log.error("Unable to start the server. Exiting.", ex);
-        }   
+        } catch (IOException ex) {
+            stop();
+            throw ex;
+        }
+        return getPort();
+    }
+
+    /**
+     * A supervisor, e.g. systemd socket activation or inetd in wait mode, can keep the listening socket open across
+     * restarts and pass it to each new process as its standard input. Connections queued on it while the new process
+     * starts are then accepted rather than refused.
+     */
+    private static ServerSocketChannel inheritedChannel() throws IOException {
+        Channel channel = System.inheritedChannel();
+        if (!(channel instanceof ServerSocketChannel)) {
+            throw new IOException("inheritChannel is set, but no listening socket was inherited");
+        }
+        return (ServerSocketChannel) channel;
+    }
+
+    // Accept through a channel so the sockets can later be handed to the NIO relay.
+    private ServerSocketChannel open(InetSocketAddress address, int backlog, boolean reusePort) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channels.add(channel);
+        if (reusePort && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        channel.bind(address, backlog);
+        return channel;
+    }
+
+    /**
+     * @param conf
+     * @return the addresses to listen on. Each entry of listenAddresses is host:port, [ipv6]:port, or a bare port
+     * for every interface.
+     * @throws IllegalArgumentException if an entry has no valid port
+     */
+    static List<InetSocketAddress> listenAddresses(Config conf) {
+        List<String> configured = conf.getListenAddresses();
+        if (configured == null || configured.isEmpty()) {
+            return List.of(new InetSocketAddress(conf.getListenPort()));
+        }
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String entry : configured) {
+            int colon = entry.lastIndexOf(':');
+            String host = colon < 0 ? "" : entry.substring(0, colon);
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            int port;
+            try {
+                port = Integer.parseInt(entry.substring(colon + 1).trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("listenAddresses entry " + entry + " has no valid port", ex);
+            }
+            addresses.add(host.isEmpty() || host.equals("*") ? new InetSocketAddress(port)
+                    : new InetSocketAddress(host, port));
+        }
+        return addresses;
+    }
+
+    /**
+     * Accepts connections until stop() is called. The calling thread becomes the last acceptor.
+     */
+    public void serve() {
+        for (int i = 0; i < acceptors.size() - 1; i++) {
+            ServerSocketChannel channel = acceptors.get(i);
+            Thread thread = new Thread(() -> accept(channel), "AcceptorThread-" + (i + 1));
+            thread.start();
+        }
+        accept(acceptors.get(acceptors.size() - 1));
+    }
+
+    /**
+     * Accepts connections on the channel until it is closed. Other errors, e.g. running out of file descriptors, are
+     * waited out with a growing pause, as the channel stays bound and the kernel keeps sending it connections.
+     */
+    private void accept(ServerSocketChannel channel) {
+        long backoffMillis = MIN_ACCEPT_BACKOFF_MILLIS;
+        while (true) {
+            try {
+                Socket aSocket = channel.accept().socket();
+                ACCEPTED.inc();
+                backoffMillis = MIN_ACCEPT_BACKOFF_MILLIS;
+
+                pool.submit(new RequestHandler(aSocket));
+
+            } catch (ClosedChannelException ex) {
+                log.info("Stopped accepting connections on {}", Thread.currentThread().getName());
+                return;
+            } catch (IOException ex) {
+                ACCEPT_ERRORS.inc();
+                log.error("Acceptor " + Thread.currentThread().getName() + " failed, retrying in " + backoffMillis
+                        + " ms", ex);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoffMillis = Math.min(backoffMillis * 2, MAX_ACCEPT_BACKOFF_MILLIS);
+            }
+        }
     }
-    
+
+    /**
+     * Stops accepting new connections. Connections already accepted carry on.
+     */
+    public void stop() throws IOException {
+        for (ServerSocketChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Stops accepting, closes kept-alive connections waiting for a request, and waits for the remaining requests and
+     * tunnels to finish. Whatever is still open at the deadline is closed.
+     * @param timeoutMillis - how long to wait
+     * @return true if everything finished before the deadline
+     */
+    public boolean drain(long timeoutMillis) throws IOException, InterruptedException {
+        stop();
+        Drain.begin();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        log.info("Draining {} connections and {} tunnels for up to {} ms", Drain.getOpenConnections(),
+                Tunnel.getOpenCount(), timeoutMillis);
+
+        while (Drain.getOpenConnections() > 0 || Tunnel.getOpenCount() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                log.warn("Drain deadline passed. Closing {} connections and {} tunnels.",
+                        Drain.getOpenConnections(), Tunnel.getOpenCount());
+                Tunnel.closeAll();
+                return false;
+            }
+            Thread.sleep(DRAIN_POLL_MILLIS);
+        }
+        log.info("Drained all connections");
+        return true;
+    }
+
+    public int getPort() {
+        return channels.get(0).socket().getLocalPort();
+    }
+
 }
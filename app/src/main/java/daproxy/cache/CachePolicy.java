@@ -0,0 +1,228 @@
+package daproxy.cache;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+
+import daproxy.http.HttpHead;
+
+/**
+ * The rules a shared cache follows to decide what it may store, and for how long a stored response can be served
+ * without asking the origin again. See https://httpwg.org/specs/rfc9111.html
+ *
+ * Responses are keyed by url alone, so responses that Vary are never stored. Responses that set cookies are not
+ * stored either, as they are usually meant for a single client.
+ */
+public final class CachePolicy {
+
+    // https://httpwg.org/specs/rfc9110.html#overview.of.status.codes - cacheable without explicit freshness
+    private static final Set<Integer> HEURISTICALLY_CACHEABLE = Set.of(200, 203, 204, 300, 301, 308, 404, 405, 410,
+            414, 501);
+    private static final double HEURISTIC_FRACTION = 0.1;
+    private static final long MAX_HEURISTIC_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private CachePolicy() {
+    }
+
+    /**
+     * @param request - a request without a body
+     * @return true if the request may be answered from the cache.
+     */
+    public static boolean isCacheableRequest(HttpHead request) {
+        String method = request.getMethod();
+        return ("GET".equals(method) || "HEAD".equals(method)) && request.get("Range") == null
+                && !hasDirective(request, "no-store");
+    }
+
+    /**
+     * @param request
+     * @param response - with hop-by-hop headers removed
+     * @return true if a shared cache may store the response to a GET.
+     */
+    public static boolean isStorable(HttpHead request, HttpHead response) {
+        if (!HEURISTICALLY_CACHEABLE.contains(response.getStatus()) || hasDirective(response, "no-store")
+                || hasDirective(response, "private") || response.get("Set-Cookie") != null) {
+            return false;
+        }
+        String vary = response.get("Vary");
+        if (vary != null && !vary.isBlank()) {
+            return false;
+        }
+        // https://httpwg.org/specs/rfc9111.html#caching.authenticated.responses
+        if (request.get("Authorization") != null && !hasDirective(response, "public")
+                && !hasDirective(response, "s-maxage") && !hasDirective(response, "must-revalidate")) {
+            return false;
+        }
+        return hasDirective(response, "public") || hasDirective(response, "s-maxage")
+                || hasDirective(response, "max-age") || response.get("Expires") != null
+                || response.get("ETag") != null || response.get("Last-Modified") != null;
+    }
+
+    /**
+     * @param cached
+     * @param request
+     * @param now
+     * @return true if the cached response can be served to the request without revalidating it.
+     */
+    public static boolean isFresh(CachedResponse cached, HttpHead request, long now) {
+        if (hasDirective(request, "no-cache")
+                || (request.get("Cache-Control") == null && request.hasToken("Pragma", "no-cache"))) {
+            return false;
+        }
+        long age = cached.currentAge(now);
+        long maxAge = directiveSeconds(request, "max-age");
+        if (maxAge >= 0 && age > maxAge * 1000) {
+            return false;
+        }
+        return cached.isFresh(now);
+    }
+
+    /**
+     * @param request
+     * @return true if the client is validating a response it already holds.
+     */
+    public static boolean hasConditionals(HttpHead request) {
+        return request.get("If-None-Match") != null || request.get("If-Modified-Since") != null;
+    }
+
+    /**
+     * @param request
+     * @param cached
+     * @return true if the client's conditional request matches the cached response, so a 304 answers it.
+     */
+    public static boolean isNotModified(HttpHead request, CachedResponse cached) {
+        String ifNoneMatch = request.get("If-None-Match");
+        if (ifNoneMatch != null) {
+            String etag = cached.getETag();
+            if (etag == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String candidate = tag.strip();
+                if ("*".equals(candidate) || weak(candidate).equals(weak(etag))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = parseDate(request.get("If-Modified-Since"));
+        long lastModified = parseDate(cached.getLastModified());
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    /**
+     * @return how long the response stays fresh from when it was generated, in milliseconds.
+     */
+    static long freshnessLifetime(HttpHead response, long responseTime) {
+        if (hasDirective(response, "no-cache")) {
+            return 0;
+        }
+        long seconds = directiveSeconds(response, "s-maxage");
+        if (seconds < 0) {
+            seconds = directiveSeconds(response, "max-age");
+        }
+        if (seconds >= 0) {
+            return seconds * 1000;
+        }
+
+        long date = parseDate(response.get("Date"));
+        if (date < 0) {
+            date = responseTime;
+        }
+        String expires = response.get("Expires");
+        if (expires != null) {
+            long expiresAt = parseDate(expires);
+            return expiresAt < 0 ? 0 : Math.max(0, expiresAt - date); // an invalid date means already expired
+        }
+
+        long lastModified = parseDate(response.get("Last-Modified"));
+        if (lastModified >= 0 && HEURISTICALLY_CACHEABLE.contains(response.getStatus())) {
+            return Math.min(MAX_HEURISTIC_MILLIS, (long) ((date - lastModified) * HEURISTIC_FRACTION));
+        }
+        return 0;
+    }
+
+    /**
+     * https://httpwg.org/specs/rfc9111.html#age.calculations
+     * @return the age of the response when it was received, in milliseconds.
+     */
+    static long initialAge(HttpHead response, long requestTime, long responseTime) {
+        long date = parseDate(response.get("Date"));
+        long apparentAge = date < 0 ? 0 : Math.max(0, responseTime - date);
+        long ageValue = 0;
+        String age = response.get("Age");
+        if (age != null) {
+            try {
+                ageValue = Math.max(0, Long.parseLong(age.strip())) * 1000;
+            } catch (NumberFormatException ex) {
+                ageValue = 0;
+            }
+        }
+        long responseDelay = Math.max(0, responseTime - requestTime);
+        return Math.max(apparentAge, ageValue + responseDelay);
+    }
+
+    /**
+     * @param head
+     * @param name
+     * @return true if Cache-Control lists the directive, with or without an argument.
+     */
+    static boolean hasDirective(HttpHead head, String name) {
+        return directive(head, name) != null;
+    }
+
+    /**
+     * @return the directive's argument in seconds, or -1 if it is absent or not a number.
+     */
+    static long directiveSeconds(HttpHead head, String name) {
+        String value = directive(head, name);
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the directive's argument without quotes, an empty string if it has none, or null if it is absent.
+     */
+    private static String directive(HttpHead head, String name) {
+        for (String value : head.getAll("Cache-Control")) {
+            for (String element : value.split(",")) {
+                String directive = element.strip();
+                int equals = directive.indexOf('=');
+                String directiveName = equals < 0 ? directive : directive.substring(0, equals).strip();
+                if (directiveName.equalsIgnoreCase(name)) {
+                    String argument = equals < 0 ? "" : directive.substring(equals + 1).strip();
+                    if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+                        argument = argument.substring(1, argument.length() - 1);
+                    }
+                    return argument;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the date in milliseconds since the epoch, or -1 if it is absent or malformed.
+     */
+    static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.strip(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+    }
+
+    private static String weak(String etag) {
+        return etag.regionMatches(true, 0, "W/", 0, 2) ? etag.substring(2) : etag;
+    }
+}
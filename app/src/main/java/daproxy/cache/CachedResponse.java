@@ -0,0 +1,162 @@
+package daproxy.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import daproxy.http.HttpHead;
+import daproxy.http.exceptions.InvalidRequestException;
+
+/**
+ * A stored response: its head with hop-by-hop headers removed, its body exactly as it was framed on the wire, and when
+ * it was received. Immutable, so one instance can be served to many clients at once.
+ */
+public final class CachedResponse {
+
+    // https://httpwg.org/specs/rfc9111.html#freshening.responses - a 304 does not describe the stored body's framing
+    private static final Set<String> KEPT_ON_REVALIDATION = Set.of("content-length", "transfer-encoding");
+
+    private final HttpHead head;
+    private final byte[] headBytes;
+    private final byte[] body;
+    private final long responseTime;
+    private final long initialAge;
+    private final long freshness;
+
+    /**
+     * @param head - the response head, with hop-by-hop headers removed. No longer changed by the caller.
+     * @param body - the body as framed by the head. No longer changed by the caller.
+     * @param requestTime - when the request was sent to the origin
+     * @param responseTime - when the response head arrived
+     */
+    public CachedResponse(HttpHead head, byte[] body, long requestTime, long responseTime) {
+        this(head, body, responseTime, CachePolicy.initialAge(head, requestTime, responseTime),
+                CachePolicy.freshnessLifetime(head, responseTime));
+    }
+
+    private CachedResponse(HttpHead head, byte[] body, long responseTime, long initialAge, long freshness) {
+        this.head = head;
+        this.headBytes = head.toBytes(statusLine(head));
+        this.body = body;
+        this.responseTime = responseTime;
+        this.initialAge = initialAge;
+        this.freshness = freshness;
+    }
+
+    /**
+     * @return a copy of the head, to add per-client headers to.
+     */
+    public HttpHead copyHead() {
+        return head.copy();
+    }
+
+    /**
+     * @return the stored body, which must not be modified.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getStatusLine() {
+        return statusLine(head);
+    }
+
+    public String getETag() {
+        return head.get("ETag");
+    }
+
+    public String getLastModified() {
+        return head.get("Last-Modified");
+    }
+
+    public boolean hasValidators() {
+        return getETag() != null || getLastModified() != null;
+    }
+
+    /**
+     * @param now
+     * @return the age of the response in milliseconds, including its age when it arrived.
+     */
+    public long currentAge(long now) {
+        return initialAge + Math.max(0, now - responseTime);
+    }
+
+    public boolean isFresh(long now) {
+        return currentAge(now) < freshness;
+    }
+
+    /**
+     * @return the number of bytes the response takes up in a cache tier.
+     */
+    public int getWeight() {
+        return headBytes.length + body.length;
+    }
+
+    /**
+     * Updates the stored response with the headers of a 304 the origin sent in answer to a conditional request.
+     * @param notModified
+     * @param requestTime
+     * @param responseTime
+     * @return the freshened response, with the same body.
+     */
+    public CachedResponse revalidated(HttpHead notModified, long requestTime, long responseTime) {
+        HttpHead update = notModified.copy();
+        update.removeHopByHop();
+        HttpHead merged = head.copy();
+        Set<String> replaced = new HashSet<>();
+        for (String name : update.getNames()) {
+            String lowerCase = name.toLowerCase(Locale.ROOT);
+            if (!KEPT_ON_REVALIDATION.contains(lowerCase) && replaced.add(lowerCase)) {
+                merged.remove(name);
+                for (String value : update.getAll(name)) {
+                    merged.add(name, value);
+                }
+            }
+        }
+        return new CachedResponse(merged, body, requestTime, responseTime);
+    }
+
+    /**
+     * @return the response in the form the disk tier stores.
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(getWeight() + 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(responseTime);
+            out.writeLong(initialAge);
+            out.writeLong(freshness);
+            out.writeInt(headBytes.length);
+            out.write(headBytes);
+            out.writeInt(body.length);
+            out.write(body);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to write to memory", ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    static CachedResponse fromBytes(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            long responseTime = in.readLong();
+            long initialAge = in.readLong();
+            long freshness = in.readLong();
+            byte[] headBytes = new byte[in.readInt()];
+            in.readFully(headBytes);
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new CachedResponse(HttpHead.parse(headBytes, 0, headBytes.length), body, responseTime, initialAge,
+                    freshness);
+        } catch (InvalidRequestException ex) {
+            throw new IOException("Stored response head is malformed", ex);
+        }
+    }
+
+    private static String statusLine(HttpHead head) {
+        return "HTTP/1.1 " + head.getStatus() + " " + head.getReason();
+    }
+}
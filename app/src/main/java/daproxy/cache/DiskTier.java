@@ -0,0 +1,128 @@
+package daproxy.cache;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The optional second tier: responses evicted from memory are appended to a memory-mapped file used as a ring. When
+ * the write position wraps around, the oldest responses are overwritten, so the file never grows past its capacity
+ * and eviction costs nothing more than a write. Reads and writes are plain memory copies, with the operating system
+ * paging the file in and out.
+ *
+ * The index lives in memory, so the file is truncated on startup rather than reused. All methods hold the tier's lock.
+ */
+@Slf4j
+final class DiskTier {
+
+    private final Path file;
+    private final int capacity;
+    private final MappedByteBuffer map;
+    private final Map<String, Slot> index = new HashMap<>();
+    private final NavigableMap<Integer, String> byOffset = new TreeMap<>();
+    private int writePosition;
+    private long bytes;
+
+    /**
+     * @param file
+     * @param capacity - at most 2GB, the largest region a single mapping covers
+     * @throws IOException if the file cannot be created or mapped
+     */
+    DiskTier(Path file, long capacity) throws IOException {
+        this.file = file;
+        this.capacity = (int) Math.min(capacity, Integer.MAX_VALUE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the mapping stays valid after the channel is closed
+            this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        }
+    }
+
+    synchronized void put(String key, CachedResponse response) {
+        byte[] record = response.toBytes();
+        if (record.length > capacity) {
+            return;
+        }
+        remove(key);
+        if (writePosition + record.length > capacity) {
+            writePosition = 0;
+        }
+        overwrite(writePosition, record.length);
+        map.duplicate().position(writePosition).put(record);
+        index.put(key, new Slot(writePosition, record.length));
+        byOffset.put(writePosition, key);
+        bytes += record.length;
+        writePosition += record.length;
+    }
+
+    /**
+     * @param key
+     * @return the response, or null if it is not held or could not be read back.
+     */
+    synchronized CachedResponse get(String key) {
+        Slot slot = index.get(key);
+        if (slot == null) {
+            return null;
+        }
+        byte[] record = new byte[slot.length];
+        map.duplicate().position(slot.offset).get(record);
+        try {
+            return CachedResponse.fromBytes(record);
+        } catch (IOException ex) {
+            log.error("Dropping unreadable response for {} from {}", key, file, ex);
+            remove(key);
+            return null;
+        }
+    }
+
+    synchronized void remove(String key) {
+        Slot slot = index.remove(key);
+        if (slot != null) {
+            byOffset.remove(slot.offset);
+            bytes -= slot.length;
+        }
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Drops every response stored in the region about to be written.
+     */
+    private void overwrite(int start, int length) {
+        Map.Entry<Integer, String> before = byOffset.lowerEntry(start);
+        if (before != null && before.getKey() + index.get(before.getValue()).length > start) {
+            remove(before.getValue());
+        }
+        Iterator<String> overlapping = byOffset.subMap(start, true, start + length, false).values().iterator();
+        while (overlapping.hasNext()) {
+            Slot slot = index.remove(overlapping.next());
+            bytes -= slot.length;
+            overlapping.remove();
+        }
+    }
+
+    private static final class Slot {
+        private final int offset;
+        private final int length;
+
+        Slot(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
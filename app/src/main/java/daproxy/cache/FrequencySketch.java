@@ -0,0 +1,79 @@
+package daproxy.cache;
+
+/**
+ * A count-min sketch estimating how often each key has been seen recently, in a fixed amount of memory. Each key
+ * increments one small counter in each of several rows, and its estimate is the smallest of those counters, so
+ * collisions can only overestimate. Once enough increments have been made, every counter is halved, so the sketch
+ * follows changes in popularity. See https://arxiv.org/abs/1512.00727
+ *
+ * Not thread safe.
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+    private static final int SAMPLE_FACTOR = 10;
+
+    private final byte[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedEntries - the number of distinct keys expected to be cached at once
+     */
+    FrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(16, expectedEntries - 1)) << 1;
+        this.table = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = SAMPLE_FACTOR * width;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            if (table[row][index] < MAX_COUNT) {
+                table[row][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @param key
+     * @return the estimated number of recent occurrences, at most 15.
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, table[row][indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (byte[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash + SEEDS[row]) * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x45D9F3B;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,178 @@
+package daproxy.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The in-memory tier, bounded by the bytes its responses take up and evicting with W-TinyLFU.
+ * https://arxiv.org/abs/1512.00727
+ *
+ * New responses enter a small LRU window. When the window overflows, its least recently used response becomes a
+ * candidate for the main area, and is only admitted if the frequency sketch has seen it more often than the main
+ * area's next victim. This keeps a burst of one-off fetches from flushing out responses that are used again and again.
+ * The main area is a segmented LRU: a response used again while on probation is promoted to the protected segment.
+ *
+ * Each segment is a LinkedHashMap in insertion order, so the eldest entry is least recently used, and using an entry
+ * moves it to the end. All methods hold the tier's lock, but responses evicted by put() are only handed to onEvict
+ * once it is released, so a slow onEvict, e.g. a write to the DiskTier, does not hold up other callers.
+ */
+final class HotTier {
+
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+    // Sizes the frequency sketch, assuming responses are about this large on average.
+    private static final int EXPECTED_WEIGHT = 16 * 1024;
+
+    private final long maxBytes;
+    private final long windowMax;
+    private final long protectedMax;
+    private final FrequencySketch sketch;
+    private final BiConsumer<String, CachedResponse> onEvict;
+
+    private final LinkedHashMap<String, CachedResponse> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, CachedResponse> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, CachedResponse> protect = new LinkedHashMap<>();
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+
+    /**
+     * @param maxBytes
+     * @param onEvict - given each response evicted to make room, outside the tier's lock
+     */
+    HotTier(long maxBytes, BiConsumer<String, CachedResponse> onEvict) {
+        this.maxBytes = maxBytes;
+        this.windowMax = Math.max(1, (long) (maxBytes * WINDOW_SHARE));
+        this.protectedMax = (long) ((maxBytes - windowMax) * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / EXPECTED_WEIGHT)));
+        this.onEvict = onEvict;
+    }
+
+    /**
+     * Counts a use of the key, whether or not it is held.
+     * @param key
+     * @return the response, or null if not held.
+     */
+    synchronized CachedResponse get(String key) {
+        sketch.increment(key);
+        CachedResponse response = window.remove(key);
+        if (response != null) {
+            window.put(key, response);
+            return response;
+        }
+        response = probation.remove(key);
+        if (response != null) {
+            probationBytes -= response.getWeight();
+            protect.put(key, response);
+            protectedBytes += response.getWeight();
+            demoteProtected();
+            return response;
+        }
+        response = protect.remove(key);
+        if (response != null) {
+            protect.put(key, response);
+        }
+        return response;
+    }
+
+    /**
+     * Adds or replaces the response, which may then be evicted at once if it is not used often enough.
+     */
+    void put(String key, CachedResponse response) {
+        List<Map.Entry<String, CachedResponse>> evicted = new ArrayList<>();
+        synchronized (this) {
+            remove(key);
+            if (response.getWeight() > maxBytes) {
+                evicted.add(Map.entry(key, response));
+            } else {
+                window.put(key, response);
+                windowBytes += response.getWeight();
+                evict(evicted);
+            }
+        }
+        for (Map.Entry<String, CachedResponse> entry : evicted) {
+            onEvict.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    synchronized void remove(String key) {
+        CachedResponse removed;
+        if ((removed = window.remove(key)) != null) {
+            windowBytes -= removed.getWeight();
+        } else if ((removed = probation.remove(key)) != null) {
+            probationBytes -= removed.getWeight();
+        } else if ((removed = protect.remove(key)) != null) {
+            protectedBytes -= removed.getWeight();
+        }
+    }
+
+    synchronized long getBytes() {
+        return windowBytes + probationBytes + protectedBytes;
+    }
+
+    synchronized int size() {
+        return window.size() + probation.size() + protect.size();
+    }
+
+    synchronized boolean contains(String key) {
+        return window.containsKey(key) || probation.containsKey(key) || protect.containsKey(key);
+    }
+
+    private void evict(List<Map.Entry<String, CachedResponse>> evicted) {
+        while (windowBytes > windowMax) {
+            Map.Entry<String, CachedResponse> candidate = removeEldest(window);
+            windowBytes -= candidate.getValue().getWeight();
+            if (admit(candidate, evicted)) {
+                probation.put(candidate.getKey(), candidate.getValue());
+                probationBytes += candidate.getValue().getWeight();
+            } else {
+                evicted.add(candidate);
+            }
+        }
+    }
+
+    /**
+     * Evicts victims from the main area until the candidate fits, unless a victim is used at least as often.
+     */
+    private boolean admit(Map.Entry<String, CachedResponse> candidate,
+            List<Map.Entry<String, CachedResponse>> evicted) {
+        int candidateFrequency = sketch.frequency(candidate.getKey());
+        while (getBytes() + candidate.getValue().getWeight() > maxBytes) {
+            LinkedHashMap<String, CachedResponse> segment = probation.isEmpty() ? protect : probation;
+            if (segment.isEmpty()) {
+                return false;
+            }
+            if (sketch.frequency(segment.keySet().iterator().next()) >= candidateFrequency) {
+                return false;
+            }
+            Map.Entry<String, CachedResponse> victim = removeEldest(segment);
+            if (segment == probation) {
+                probationBytes -= victim.getValue().getWeight();
+            } else {
+                protectedBytes -= victim.getValue().getWeight();
+            }
+            evicted.add(victim);
+        }
+        return true;
+    }
+
+    private void demoteProtected() {
+        while (protectedBytes > protectedMax && protect.size() > 1) {
+            Map.Entry<String, CachedResponse> demoted = removeEldest(protect);
+            protectedBytes -= demoted.getValue().getWeight();
+            probation.put(demoted.getKey(), demoted.getValue());
+            probationBytes += demoted.getValue().getWeight();
+        }
+    }
+
+    private static Map.Entry<String, CachedResponse> removeEldest(LinkedHashMap<String, CachedResponse> segment) {
+        Iterator<Map.Entry<String, CachedResponse>> eldest = segment.entrySet().iterator();
+        Map.Entry<String, CachedResponse> entry = eldest.next();
+        eldest.remove();
+        return Map.entry(entry.getKey(), entry.getValue());
+    }
+}
@@ -0,0 +1,241 @@
+package daproxy.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import daproxy.conf.Config;
+import daproxy.http.AbsoluteUrl;
+import daproxy.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A shared cache of responses to forwarded GET requests, keyed by url. Responses are held in memory by a HotTier, and
+ * those it evicts move to an optional DiskTier; a response found on disk moves back into memory.
+ *
+ * Concurrent misses for the same url are collapsed: the first caller to start a Fill fetches from the origin, and the
+ * others wait for its response instead of each making their own request.
+ */
+@Slf4j
+public class ResponseCache {
+
+    private final HotTier hot;
+    private final DiskTier disk;
+    private final int maxEntryBytes;
+    private final long lockTimeoutMillis;
+    private final Map<String, CompletableFuture<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxBytes - memory held by cached responses
+     * @param maxEntryBytes - larger responses are not stored
+     * @param diskFile - the file backing the disk tier, or null for none
+     * @param diskBytes - size of the disk tier
+     * @param lockTimeoutMillis - how long a collapsed request waits for the fetch it joined
+     */
+    public ResponseCache(long maxBytes, int maxEntryBytes, Path diskFile, long diskBytes, long lockTimeoutMillis) {
+        this.disk = openDisk(diskFile, diskBytes);
+        this.hot = new HotTier(maxBytes, disk == null ? (key, response) -> { } : disk::put);
+        this.maxEntryBytes = maxEntryBytes;
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    /**
+     * @return the cache configured by the cache settings.
+     */
+    public static ResponseCache shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final ResponseCache INSTANCE = create(Config.getConfig());
+
+        private static ResponseCache create(Config conf) {
+            ResponseCache cache = new ResponseCache(conf.getCacheMaxBytes(), conf.getCacheMaxEntryBytes(),
+                    conf.getCacheDiskPath() == null ? null : Path.of(conf.getCacheDiskPath()),
+                    conf.getCacheDiskBytes(), conf.getCacheLockTimeoutMillis());
+            Metrics.gauge("daproxy_cache_memory_bytes", "Bytes of responses cached in memory", cache::getMemoryBytes);
+            Metrics.gauge("daproxy_cache_disk_bytes", "Bytes of responses cached on disk", cache::getDiskBytes);
+            return cache;
+        }
+    }
+
+    private static DiskTier openDisk(Path diskFile, long diskBytes) {
+        if (diskFile == null) {
+            return null;
+        }
+        try {
+            return new DiskTier(diskFile, diskBytes);
+        } catch (IOException ex) {
+            log.error("Unable to open cache file " + diskFile + ". Caching in memory only.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * @param url
+     * @return the key of the url's responses. The host is already lower case, and the fragment removed.
+     */
+    public static String key(AbsoluteUrl url) {
+        return "http://" + url.getHost() + ":" + url.getPort() + url.getPathAndQuery();
+    }
+
+    /**
+     * @param key
+     * @return the stored response, fresh or not, or null if there is none.
+     */
+    public CachedResponse get(String key) {
+        CachedResponse response = hot.get(key);
+        if (response == null && disk != null) {
+            response = disk.get(key);
+            if (response != null) {
+                disk.remove(key);
+                hot.put(key, response);
+            }
+        }
+        return response;
+    }
+
+    public void put(String key, CachedResponse response) {
+        if (response.getWeight() <= maxEntryBytes) {
+            hot.put(key, response);
+        }
+    }
+
+    /**
+     * Drops the stored response, e.g. after a successful POST to the same url.
+     */
+    public void invalidate(String key) {
+        hot.remove(key);
+        if (disk != null) {
+            disk.remove(key);
+        }
+    }
+
+    /**
+     * @param key
+     * @return a Fill that leads the fetch of key if no other is in flight, or follows the one that is.
+     */
+    public Fill startFill(String key) {
+        CompletableFuture<CachedResponse> future = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> existing = inFlight.putIfAbsent(key, future);
+        return existing == null ? new Fill(key, future, true) : new Fill(key, existing, false);
+    }
+
+    public long getMemoryBytes() {
+        return hot.getBytes();
+    }
+
+    public long getDiskBytes() {
+        return disk == null ? 0 : disk.getBytes();
+    }
+
+    /**
+     * One fetch of a url from the origin. The leader captures the body as it is relayed to its client, and must
+     * finish the fill whatever happens, so followers are never left waiting on it.
+     */
+    public final class Fill {
+        private final String key;
+        private final CompletableFuture<CachedResponse> future;
+        private final boolean leader;
+        private Capture capture;
+
+        private Fill(String key, CompletableFuture<CachedResponse> future, boolean leader) {
+            this.key = key;
+            this.future = future;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Followers wait for the leader's response.
+         * @return the response, or null if it could not be stored or took longer than the lock timeout.
+         */
+        public CachedResponse await() {
+            try {
+                return future.get(lockTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException ex) {
+                return null;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        /**
+         * @param out - the client's connection
+         * @return a stream writing to out, that also keeps what was written unless it exceeds the largest entry.
+         */
+        public OutputStream capture(OutputStream out) {
+            capture = new Capture(out, maxEntryBytes);
+            return capture;
+        }
+
+        /**
+         * @return the body written to the capture stream, or null if it was too large to keep.
+         */
+        public byte[] getCapturedBody() {
+            return capture == null || capture.overflowed ? null : capture.captured.toByteArray();
+        }
+
+        /**
+         * Stores the response and hands it to any followers. Only the first call has an effect.
+         * @param response - or null if nothing could be stored
+         */
+        public void finish(CachedResponse response) {
+            if (!leader || future.isDone()) {
+                return;
+            }
+            if (response != null) {
+                put(key, response);
+            }
+            inFlight.remove(key, future);
+            future.complete(response);
+        }
+    }
+
+    private static final class Capture extends FilterOutputStream {
+        private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        private final int limit;
+        private boolean overflowed;
+
+        Capture(OutputStream out, int limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            keep(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            keep(b, off, len);
+        }
+
+        private void keep(byte[] b, int off, int len) {
+            if (overflowed) {
+                return;
+            }
+            if (captured.size() + len > limit) {
+                overflowed = true;
+                captured.reset();
+                return;
+            }
+            captured.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package daproxy.conf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a host is in the allowList. The list is compiled once, when the configuration is loaded, into three
+ * tiers:
+ * 1) Plain host names (blog.digitalabyss.ca or blog\.digitalabyss\.ca) go into a hash set and match exactly, ignoring
+ * case.
+ * 2) Wildcard domains (*.example.com or .*\.example\.com) go into a trie of reversed labels and match any host below
+ * that domain.
+ * 3) Anything else is treated as a regular expression, which must match the whole host, as String.matches did. Each
+ * is compiled on its own, so backreferences and group numbers mean what they did in the entry.
+ * Decisions made by the last two tiers are remembered in a bounded cache that is read without locking.
+ */
+public class AllowListMatcher {
+
+    private static final Pattern LITERAL_HOST = Pattern.compile("[A-Za-z0-9-]+(?:\\\\?\\.[A-Za-z0-9-]+)*");
+    private static final String[] WILDCARD_PREFIXES = { "*.", ".*\\.", ".*." };
+
+    private final Set<String> exactHosts = new HashSet<>();
+    private final SuffixNode wildcardDomains = new SuffixNode();
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final DecisionCache recentDecisions;
+
+    public AllowListMatcher(List<String> allowList, int cacheSize) {
+        for (String entry : allowList == null ? Collections.<String>emptyList() : allowList) {
+            String wildcardDomain = stripWildcardPrefix(entry);
+            if (wildcardDomain != null) {
+                addWildcardDomain(unescapeHost(wildcardDomain));
+            } else if (LITERAL_HOST.matcher(entry).matches()) {
+                exactHosts.add(unescapeHost(entry));
+            } else {
+                patterns.add(Pattern.compile(entry));
+            }
+        }
+        recentDecisions = new DecisionCache(cacheSize);
+    }
+
+    /**
+     * @param host
+     * @return true if the host matches any entry of the allowList.
+     */
+    public boolean isAllowed(String host) {
+        String lowerCaseHost = host.toLowerCase(Locale.ROOT);
+        if (exactHosts.contains(lowerCaseHost)) {
+            return true;
+        }
+
+        Boolean decision = recentDecisions.get(host);
+        if (decision == null) {
+            decision = matchesWildcardDomain(lowerCaseHost) || matchesPattern(host);
+            recentDecisions.put(host, decision);
+        }
+        return decision;
+    }
+
+    int getCachedDecisionCount() {
+        return recentDecisions.entries.size();
+    }
+
+    private boolean matchesPattern(String host) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(host).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param entry
+     * @return the domain below the wildcard, or null if the entry is not a wildcard domain.
+     */
+    private static String stripWildcardPrefix(String entry) {
+        for (String prefix : WILDCARD_PREFIXES) {
+            if (entry.startsWith(prefix) && LITERAL_HOST.matcher(entry.substring(prefix.length())).matches()) {
+                return entry.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    private static String unescapeHost(String host) {
+        return host.replace("\\.", ".").toLowerCase(Locale.ROOT);
+    }
+
+    private void addWildcardDomain(String domain) {
+        SuffixNode node = wildcardDomains;
+        String[] labels = domain.split("\\.");
+        for (int i = labels.length - 1; i >= 0; i--) {
+            node = node.children.computeIfAbsent(labels[i], label -> new SuffixNode());
+        }
+        node.wildcard = true;
+    }
+
+    private boolean matchesWildcardDomain(String host) {
+        SuffixNode node = wildcardDomains;
+        int end = host.length();
+        while (end > 0) {
+            int dot = host.lastIndexOf('.', end - 1);
+            node = node.children.get(host.substring(dot + 1, end));
+            if (node == null) {
+                return false;
+            }
+            if (node.wildcard && dot >= 0) { // at least one more label below the wildcard domain
+                return true;
+            }
+            end = dot;
+        }
+        return false;
+    }
+
+    private static final class SuffixNode {
+        private final Map<String, SuffixNode> children = new HashMap<>();
+        private boolean wildcard;
+    }
+
+    /**
+     * Recent decisions, bounded by clock eviction rather than LRU order, so a hit never takes a lock: it only sets the
+     * entry's referenced bit. When an insert takes the cache over its size, one thread at a time sweeps a hand over
+     * the entries, clearing referenced bits and evicting the first entry found without one. Hosts asked about again
+     * survive a sweep, and one-off hosts go first.
+     */
+    private static final class DecisionCache {
+        private final int maxSize;
+        private final Map<String, Decision> entries = new ConcurrentHashMap<>();
+        private final ReentrantLock evicting = new ReentrantLock();
+        private Iterator<Decision> hand; // guarded by evicting
+
+        DecisionCache(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        Boolean get(String host) {
+            Decision decision = entries.get(host);
+            if (decision == null) {
+                return null;
+            }
+            if (!decision.referenced) {
+                decision.referenced = true; // only written once, so hits do not keep dirtying the cache line
+            }
+            return decision.allowed;
+        }
+
+        void put(String host, boolean allowed) {
+            if (maxSize <= 0) {
+                return;
+            }
+            entries.putIfAbsent(host, new Decision(allowed));
+            if (entries.size() > maxSize && evicting.tryLock()) {
+                try {
+                    evict();
+                } finally {
+                    evicting.unlock();
+                }
+            }
+        }
+
+        private void evict() {
+            // two passes clear every referenced bit, so the sweep always ends
+            for (int limit = 2 * entries.size() + 1; entries.size() > maxSize && limit > 0; limit--) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = entries.values().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                Decision decision = hand.next();
+                if (decision.referenced) {
+                    decision.referenced = false;
+                } else {
+                    hand.remove();
+                }
+            }
+        }
+    }
+
+    private static final class Decision {
+        private final boolean allowed;
+        private volatile boolean referenced;
+
+        Decision(boolean allowed) {
+            this.allowed = allowed;
+        }
+    }
+}
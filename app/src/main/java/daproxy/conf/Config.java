@@ -8,27 +8,250 @@ import java.io.InputStream;
 import java.util.List;
 
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.introspector.BeanAccess;
 
 import lombok.Getter;
-import lombok.Setter;
 
+/**
+ * The proxy configuration, bound from conf.yaml. Each load produces a new snapshot which is published atomically once
+ * it is fully built, so readers should call getConfig() once per request and keep using that snapshot. Snapshots have
+ * no setters: YAML is bound straight into the fields, and the lists are copied when the snapshot is published.
+ */
 public class Config {
 
     @Getter
-    private static Config config;
+    private static volatile Config config;
 
-    @Getter @Setter
+    @Getter
     private List<String> allowList;
 
-    @Getter @Setter
+    @Getter
+    private int allowListCacheSize = 4096;
+
+    @Getter
+    private AllowListMatcher allowListMatcher;
+
+    @Getter
     private int listenPort;
 
+    @Getter
+    private List<String> listenAddresses = List.of(); // host:port entries, replacing listenPort when set
+
+    @Getter
+    private int acceptorThreads = 1; // per listen address
+
+    @Getter
+    private int backlog = 1024;
+
+    @Getter
+    private boolean reusePort = false; // lets a new process bind while this one drains
+
+    @Getter
+    private boolean inheritChannel = false; // accept on the listening socket passed in as stdin
+
+    @Getter
+    private long drainTimeoutMillis = 30000;
+
+    @Getter
+    private RelayMode relayMode = RelayMode.BLOCKING;
+
+    @Getter
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+
+    @Getter
+    private int maxConcurrentRequests = 10000;
+
+    @Getter
+    private boolean admissionControlEnabled = true;
+
+    @Getter
+    private int admissionInitialLimit = 64;
+
+    @Getter
+    private int admissionMinLimit = 8; // the maximum is maxConcurrentRequests
+
+    @Getter
+    private long admissionMaxQueueWaitMillis = 1000;
+
+    @Getter
+    private int clientMaxConcurrentRequests = 0; // 0 leaves clients to their fair share only
+
+    @Getter
+    private int relayBufferSize = 64 * 1024;
+
+    @Getter
+    private long maxRelayBufferMemory = 256L * 1024 * 1024;
+
+    @Getter
+    private long bandwidthGlobalBytesPerSecond = 0; // per direction, 0 for no limit
+
+    @Getter
+    private long bandwidthPerClientBytesPerSecond = 0;
+
+    @Getter
+    private long bandwidthPerDestinationBytesPerSecond = 0;
+
+    @Getter
+    private long bandwidthBurstBytes = 256 * 1024;
+
+    @Getter
+    private boolean http2Enabled = false; // accept h2c prior knowledge connections carrying CONNECT streams
+
+    @Getter
+    private int http2MaxConcurrentStreams = 100;
+
+    @Getter
+    private int http2InitialWindowSize = 256 * 1024; // per stream, client to upstream
+
+    @Getter
+    private boolean watchConfig = true;
+
+    @Getter
+    private long handshakeTimeoutMillis = 1500;
+
+    @Getter
+    private long idleTimeoutMillis = 300000;
+
+    @Getter
+    private long keepAliveTimeoutMillis = 15000; // a kept-alive client connection waiting for its next request
+
+    @Getter
+    private long timerTickMillis = 100;
+
+    @Getter
+    private long dnsCacheTtlMillis = 60000;
+
+    @Getter
+    private long dnsNegativeCacheTtlMillis = 5000;
+
+    @Getter
+    private int dnsCacheMaxEntries = 10000;
+
+    @Getter
+    private long upstreamConnectTimeoutMillis = 10000;
+
+    @Getter
+    private long happyEyeballsDelayMillis = 250;
+
+    @Getter
+    private boolean circuitBreakerEnabled = true;
+
+    @Getter
+    private long circuitBreakerWindowMillis = 10000;
+
+    @Getter
+    private int circuitBreakerMinRequests = 5;
+
+    @Getter
+    private double circuitBreakerFailureRatio = 0.5;
+
+    @Getter
+    private long circuitBreakerSlowConnectMillis = 3000; // slower connects count as failures
+
+    @Getter
+    private long circuitBreakerOpenMillis = 5000; // doubling with each ejection
+
+    @Getter
+    private long circuitBreakerMaxOpenMillis = 60000;
+
+    @Getter
+    private int circuitBreakerHalfOpenProbes = 1;
+
+    @Getter
+    private boolean upstreamPoolEnabled = false;
+
+    @Getter
+    private int upstreamPoolMinIdle = 1;
+
+    @Getter
+    private int upstreamPoolMaxIdle = 8;
+
+    @Getter
+    private long upstreamPoolMaxAgeMillis = 30000;
+
+    @Getter
+    private long upstreamPoolRefreshMillis = 1000;
+
+    @Getter
+    private List<String> upstreamPoolPrewarm = List.of();
+
+    @Getter
+    private int originPoolMaxIdle = 8;
+
+    @Getter
+    private long originPoolIdleTimeoutMillis = 30000;
+
+    @Getter
+    private boolean cacheEnabled = false;
+
+    @Getter
+    private long cacheMaxBytes = 64L * 1024 * 1024;
+
+    @Getter
+    private int cacheMaxEntryBytes = 8 * 1024 * 1024;
+
+    @Getter
+    private String cacheDiskPath; // no disk tier unless set
+
+    @Getter
+    private long cacheDiskBytes = 1024L * 1024 * 1024;
+
+    @Getter
+    private long cacheLockTimeoutMillis = 5000;
+
+    @Getter
+    private String accessLogPath; // no access log unless set
+
+    @Getter
+    private int accessLogBufferSize = 8192;
+
+    @Getter
+    private long accessLogFlushMillis = 100;
+
+    @Getter
+    private String adminAddress = "127.0.0.1";
+
+    @Getter
+    private int adminPort = 0; // 0 disables the admin server
+
 
     public static void loadConfig(String filename) throws FileNotFoundException, IOException{
-        Yaml yaml = new Yaml();
         try (InputStream ios = new FileInputStream(new File(filename))) {
-            config = yaml.loadAs(ios, Config.class);
+            useConfig(orDefaults(yaml().loadAs(ios, Config.class)));
         }
             
     }
+
+    /**
+     * Binds a configuration from YAML in the format of conf.yaml, e.g. for a test harness. Settings it does not
+     * mention keep their defaults.
+     * @param yaml
+     * @return the unpublished configuration
+     */
+    public static Config parse(String yaml) {
+        return orDefaults(yaml().loadAs(yaml, Config.class));
+    }
+
+    private static Yaml yaml() {
+        Yaml yaml = new Yaml();
+        yaml.setBeanAccess(BeanAccess.FIELD);
+        return yaml;
+    }
+
+    private static Config orDefaults(Config loaded) {
+        return loaded == null ? new Config() : loaded; // an empty document
+    }
+
+    /**
+     * Publishes a configuration, e.g. one from parse(), as if it had been loaded from a file.
+     * @param loaded
+     */
+    public static void useConfig(Config loaded) {
+        loaded.allowList = loaded.allowList == null ? null : List.copyOf(loaded.allowList);
+        loaded.listenAddresses = loaded.listenAddresses == null ? List.of() : List.copyOf(loaded.listenAddresses);
+        loaded.upstreamPoolPrewarm = loaded.upstreamPoolPrewarm == null ? List.of()
+                : List.copyOf(loaded.upstreamPoolPrewarm);
+        loaded.allowListMatcher = new AllowListMatcher(loaded.getAllowList(), loaded.getAllowListCacheSize());
+        config = loaded;
+    }
 }
@@ -0,0 +1,176 @@
+package daproxy.conf;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watches the configuration file and reloads it when it changes. The new snapshot, including its allowList matcher,
+ * is built on this thread and then swapped in, so requests in flight keep the snapshot they started with. If the new
+ * file cannot be loaded, the current configuration stays in place.
+ */
+@Slf4j
+public class ConfigWatcher implements Runnable {
+
+    // Editors often write a file in several steps. Wait for them to settle before reloading.
+    private static final long SETTLE_TIME = 100;
+
+    // Settings only read when the server starts, by name.
+    private static final Map<String, Function<Config, Object>> RESTART_ONLY = restartOnlySettings();
+
+    private final Path configFile;
+    private volatile Thread thread;
+
+    public ConfigWatcher(String filename) {
+        this.configFile = Path.of(filename).toAbsolutePath();
+    }
+
+    /**
+     * Starts watching on a daemon thread.
+     */
+    public void start() {
+        Thread watcher = new Thread(this, "ConfigWatcher");
+        watcher.setDaemon(true);
+        thread = watcher;
+        watcher.start();
+    }
+
+    /**
+     * Stops watching, e.g. at the end of a test.
+     */
+    public void stop() {
+        Thread watcher = thread;
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            configFile.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+
+            while (true) {
+                WatchKey key = watcher.take();
+                Thread.sleep(SETTLE_TIME);
+
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (configFile.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (IOException ex) {
+            log.error("Unable to watch configuration file " + configFile, ex);
+        } catch (InterruptedException ex) {
+            log.debug("ConfigWatcher interrupted, and ceasing to watch for changes", ex);
+        }
+    }
+
+    void reload() {
+        Config previous = Config.getConfig();
+        try {
+            Config.loadConfig(configFile.toString());
+        } catch (Exception ex) {
+            log.error("Unable to reload configuration file " + configFile + ". Keeping the current configuration.", ex);
+            return;
+        }
+        log.info("Reloaded configuration from {}", configFile);
+        warnAboutRestartOnlySettings(previous, Config.getConfig());
+    }
+
+    private static Map<String, Function<Config, Object>> restartOnlySettings() {
+        Map<String, Function<Config, Object>> settings = new LinkedHashMap<>();
+        settings.put("listenPort", Config::getListenPort);
+        settings.put("listenAddresses", Config::getListenAddresses);
+        settings.put("acceptorThreads", Config::getAcceptorThreads);
+        settings.put("backlog", Config::getBacklog);
+        settings.put("reusePort", Config::isReusePort);
+        settings.put("inheritChannel", Config::isInheritChannel);
+        settings.put("executionMode", Config::getExecutionMode);
+        settings.put("maxConcurrentRequests", Config::getMaxConcurrentRequests);
+        settings.put("admissionControlEnabled", Config::isAdmissionControlEnabled);
+        settings.put("admissionInitialLimit", Config::getAdmissionInitialLimit);
+        settings.put("admissionMinLimit", Config::getAdmissionMinLimit);
+        settings.put("admissionMaxQueueWaitMillis", Config::getAdmissionMaxQueueWaitMillis);
+        settings.put("clientMaxConcurrentRequests", Config::getClientMaxConcurrentRequests);
+        settings.put("timerTickMillis", Config::getTimerTickMillis);
+        settings.put("relayBufferSize", Config::getRelayBufferSize);
+        settings.put("maxRelayBufferMemory", Config::getMaxRelayBufferMemory);
+        settings.put("bandwidthGlobalBytesPerSecond", Config::getBandwidthGlobalBytesPerSecond);
+        settings.put("bandwidthPerClientBytesPerSecond", Config::getBandwidthPerClientBytesPerSecond);
+        settings.put("bandwidthPerDestinationBytesPerSecond", Config::getBandwidthPerDestinationBytesPerSecond);
+        settings.put("bandwidthBurstBytes", Config::getBandwidthBurstBytes);
+        settings.put("dnsCacheTtlMillis", Config::getDnsCacheTtlMillis);
+        settings.put("dnsNegativeCacheTtlMillis", Config::getDnsNegativeCacheTtlMillis);
+        settings.put("dnsCacheMaxEntries", Config::getDnsCacheMaxEntries);
+        settings.put("upstreamConnectTimeoutMillis", Config::getUpstreamConnectTimeoutMillis);
+        settings.put("happyEyeballsDelayMillis", Config::getHappyEyeballsDelayMillis);
+        settings.put("circuitBreakerEnabled", Config::isCircuitBreakerEnabled);
+        settings.put("circuitBreakerWindowMillis", Config::getCircuitBreakerWindowMillis);
+        settings.put("circuitBreakerMinRequests", Config::getCircuitBreakerMinRequests);
+        settings.put("circuitBreakerFailureRatio", Config::getCircuitBreakerFailureRatio);
+        settings.put("circuitBreakerSlowConnectMillis", Config::getCircuitBreakerSlowConnectMillis);
+        settings.put("circuitBreakerOpenMillis", Config::getCircuitBreakerOpenMillis);
+        settings.put("circuitBreakerMaxOpenMillis", Config::getCircuitBreakerMaxOpenMillis);
+        settings.put("circuitBreakerHalfOpenProbes", Config::getCircuitBreakerHalfOpenProbes);
+        settings.put("upstreamPoolMinIdle", Config::getUpstreamPoolMinIdle);
+        settings.put("upstreamPoolMaxIdle", Config::getUpstreamPoolMaxIdle);
+        settings.put("upstreamPoolMaxAgeMillis", Config::getUpstreamPoolMaxAgeMillis);
+        settings.put("upstreamPoolRefreshMillis", Config::getUpstreamPoolRefreshMillis);
+        settings.put("upstreamPoolPrewarm", Config::getUpstreamPoolPrewarm);
+        settings.put("originPoolMaxIdle", Config::getOriginPoolMaxIdle);
+        settings.put("originPoolIdleTimeoutMillis", Config::getOriginPoolIdleTimeoutMillis);
+        settings.put("cacheMaxBytes", Config::getCacheMaxBytes);
+        settings.put("cacheMaxEntryBytes", Config::getCacheMaxEntryBytes);
+        settings.put("cacheDiskPath", Config::getCacheDiskPath);
+        settings.put("cacheDiskBytes", Config::getCacheDiskBytes);
+        settings.put("cacheLockTimeoutMillis", Config::getCacheLockTimeoutMillis);
+        settings.put("accessLogPath", Config::getAccessLogPath);
+        settings.put("accessLogBufferSize", Config::getAccessLogBufferSize);
+        settings.put("accessLogFlushMillis", Config::getAccessLogFlushMillis);
+        settings.put("watchConfig", Config::isWatchConfig);
+        settings.put("adminAddress", Config::getAdminAddress);
+        settings.put("adminPort", Config::getAdminPort);
+        return settings;
+    }
+
+    private static void warnAboutRestartOnlySettings(Config previous, Config current) {
+        List<String> changed = restartOnlyChanges(previous, current);
+        if (!changed.isEmpty()) {
+            log.warn("Changes to {} only take effect after a restart", String.join(", ", changed));
+        }
+    }
+
+    /**
+     * @return the names of the restart-only settings that differ, in the order they are declared.
+     */
+    static List<String> restartOnlyChanges(Config previous, Config current) {
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Function<Config, Object>> setting : RESTART_ONLY.entrySet()) {
+            if (!Objects.equals(setting.getValue().apply(previous), setting.getValue().apply(current))) {
+                changed.add(setting.getKey());
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,11 @@
+package daproxy.conf;
+
+/**
+ * Selects which threads run accepted requests.
+ */
+public enum ExecutionMode {
+    /** A fixed pool of platform threads draining a bounded queue. */
+    PLATFORM,
+    /** A new virtual thread per connection, bounded by a concurrency limit. Requires JDK 21. */
+    VIRTUAL
+}
@@ -0,0 +1,16 @@
+package daproxy.conf;
+
+/**
+ * Selects how bytes are shuttled between the client and upstream sockets of a CONNECT tunnel.
+ */
+public enum RelayMode {
+    /** Two blocking threads per tunnel, one for each direction. */
+    BLOCKING,
+    /** A small set of selector event loops shared by every tunnel. */
+    NIO,
+    /**
+     * Two blocking threads per tunnel moving bytes inside the kernel with splice(2). Linux only, and needs the JVM
+     * flags listed in the README; falls back to BLOCKING with a warning when it cannot be used.
+     */
+    SPLICE
+}
@@ -0,0 +1,245 @@
+package daproxy.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import daproxy.conf.Config;
+import daproxy.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caches the results of another Resolver so a CONNECT to a busy host does not pay for a lookup.
+ * 1) Successful lookups are kept for the positive TTL, failed lookups for the negative TTL.
+ * 2) Concurrent lookups of the same uncached host are coalesced into a single call to the delegate.
+ * 3) A hit on an entry that is close to expiring schedules a background refresh, so busy hosts never expire.
+ * 4) At maxEntries, storing a new host evicts an expired entry or one that has not been hit lately, clock style.
+ */
+@Slf4j
+public class CachingResolver implements Resolver {
+
+    // Refresh once this fraction of the positive TTL has passed.
+    private static final double REFRESH_AHEAD = 0.8;
+
+    private final Resolver delegate;
+    private final long positiveTtl;
+    private final long negativeTtl;
+    private final int maxEntries;
+    private final Executor refresher;
+    private final LongSupplier clock;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final ReentrantLock storing = new ReentrantLock();
+    private Iterator<Entry> hand; // guarded by storing
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingResolver(Resolver delegate, long positiveTtl, long negativeTtl, int maxEntries, Executor refresher,
+            LongSupplier clock) {
+        this.delegate = delegate;
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+        this.maxEntries = maxEntries;
+        this.refresher = refresher;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the resolver used for upstream connections, caching the system resolver as configured.
+     */
+    public static CachingResolver shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final CachingResolver INSTANCE = create(Config.getConfig());
+
+        private static CachingResolver create(Config conf) {
+            Executor refresher = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DnsRefreshThread");
+                thread.setDaemon(true);
+                return thread;
+            });
+            CachingResolver resolver = new CachingResolver(new SystemResolver(), conf.getDnsCacheTtlMillis(),
+                    conf.getDnsNegativeCacheTtlMillis(), conf.getDnsCacheMaxEntries(), refresher,
+                    System::currentTimeMillis);
+            Metrics.counter("daproxy_dns_cache_hits_total", "Lookups answered from the DNS cache", resolver::getHits);
+            Metrics.counter("daproxy_dns_cache_misses_total", "Lookups that went to the system resolver",
+                    resolver::getMisses);
+            Metrics.counter("daproxy_dns_cache_evictions_total",
+                    "DNS cache entries evicted to make room for another host", resolver::getEvictions);
+            return resolver;
+        }
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = clock.getAsLong();
+        Entry entry = cache.get(host);
+        if (entry != null && now < entry.expiresAt) {
+            hits.increment();
+            if (!entry.referenced) {
+                entry.referenced = true; // only written once per sweep, so hits do not keep dirtying the cache line
+            }
+            if (entry.addresses != null && now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+                refresher.execute(() -> refresh(host));
+            }
+            return entry.get();
+        }
+
+        misses.increment();
+        return lookup(host).get();
+    }
+
+    private Entry lookup(String host) {
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inFlight.putIfAbsent(host, future);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException ex) {
+                throw (RuntimeException) ex.getCause();
+            }
+        }
+
+        try {
+            Entry entry = load(host);
+            store(host, entry);
+            future.complete(entry);
+            return entry;
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(host, future);
+        }
+    }
+
+    private void refresh(String host) {
+        refreshes.increment();
+        Entry entry = load(host);
+        if (entry.addresses != null) {
+            entry.referenced = true; // refreshes follow a hit
+            store(host, entry);
+        } else {
+            // keep serving the previous addresses until they expire
+            log.debug("Background refresh of {} failed", host, entry.error);
+            Entry current = cache.get(host);
+            if (current != null) {
+                current.refreshing.set(false);
+            }
+        }
+    }
+
+    private Entry load(String host) {
+        long now = clock.getAsLong();
+        try {
+            return new Entry(delegate.resolve(host), null, now + positiveTtl,
+                    now + (long) (positiveTtl * REFRESH_AHEAD));
+        } catch (UnknownHostException ex) {
+            return new Entry(null, ex, now + negativeTtl, Long.MAX_VALUE);
+        }
+    }
+
+    private void store(String host, Entry entry) {
+        if (maxEntries <= 0 || cache.replace(host, entry) != null) {
+            return;
+        }
+        // only new hosts take the lock, after a lookup that took far longer
+        storing.lock();
+        try {
+            if (cache.size() >= maxEntries && !cache.containsKey(host)) {
+                evictOne(clock.getAsLong());
+            }
+            cache.put(host, entry);
+        } finally {
+            storing.unlock();
+        }
+    }
+
+    /**
+     * Sweeps a hand over the entries, clearing referenced bits, and evicts the first entry found expired or without
+     * one. Two passes clear every bit, so the sweep always ends.
+     */
+    private void evictOne(long now) {
+        for (int limit = 2 * cache.size() + 1; limit > 0; limit--) {
+            if (hand == null || !hand.hasNext()) {
+                hand = cache.values().iterator();
+                if (!hand.hasNext()) {
+                    return;
+                }
+            }
+            Entry entry = hand.next();
+            if (entry.referenced && now < entry.expiresAt) {
+                entry.referenced = false;
+            } else {
+                hand.remove();
+                evictions.increment();
+                return;
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    private static final class Entry {
+        private final InetAddress[] addresses;
+        private final UnknownHostException error;
+        private final long expiresAt;
+        private final long refreshAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile boolean referenced;
+
+        Entry(InetAddress[] addresses, UnknownHostException error, long expiresAt, long refreshAt) {
+            this.addresses = addresses;
+            this.error = error;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+
+        InetAddress[] get() throws UnknownHostException {
+            if (addresses == null) {
+                throw new UnknownHostException(error.getMessage());
+            }
+            return addresses.clone();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package daproxy.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+public interface Resolver {
+
+    /**
+     * @param host - a host name or IP literal
+     * @return all addresses of the host, in the order they should be tried.
+     * @throws UnknownHostException if the host has no addresses
+     */
+    public InetAddress[] resolve(String host) throws UnknownHostException;
+
+}
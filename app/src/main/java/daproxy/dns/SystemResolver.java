@@ -0,0 +1,15 @@
+package daproxy.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves hosts with the JVM's resolver.
+ */
+public class SystemResolver implements Resolver {
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+}
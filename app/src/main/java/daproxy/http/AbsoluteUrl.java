@@ -0,0 +1,106 @@
+package daproxy.http;
+
+import java.util.Locale;
+
+import daproxy.http.exceptions.InvalidRequestException;
+
+/**
+ * The target of a request sent to a forward proxy, which must be in absolute-form:
+ * https://httpwg.org/specs/rfc7230.html#absolute-form e.g. http://blog.digitalabyss.ca:8080/path?query
+ * Only the http scheme is forwarded; https goes through CONNECT.
+ */
+public class AbsoluteUrl {
+
+    private static final String HTTP_SCHEME = "http://";
+    private static final int DEFAULT_PORT = 80;
+
+    private final String host;
+    private final int port;
+    private final String authority;
+    private final String pathAndQuery;
+
+    private AbsoluteUrl(String host, int port, String authority, String pathAndQuery) {
+        this.host = host;
+        this.port = port;
+        this.authority = authority;
+        this.pathAndQuery = pathAndQuery;
+    }
+
+    /**
+     * @param target - the request target from the request line
+     * @return the parsed url
+     * @throws InvalidRequestException if the target is not an absolute http url with a host
+     */
+    public static AbsoluteUrl parse(String target) throws InvalidRequestException {
+        if (!target.regionMatches(true, 0, HTTP_SCHEME, 0, HTTP_SCHEME.length())) {
+            throw new InvalidRequestException("Proxy requests must use an absolute http:// url: " + target);
+        }
+        int start = HTTP_SCHEME.length();
+        int end = start;
+        while (end < target.length() && target.charAt(end) != '/' && target.charAt(end) != '?'
+                && target.charAt(end) != '#') {
+            end++;
+        }
+        String authority = target.substring(start, end);
+        if (authority.isEmpty() || authority.indexOf('@') >= 0) {
+            throw new InvalidRequestException("Invalid authority in url: " + target);
+        }
+
+        int fragment = target.indexOf('#', end);
+        String pathAndQuery = target.substring(end, fragment < 0 ? target.length() : fragment);
+        if (pathAndQuery.isEmpty() || pathAndQuery.charAt(0) == '?') {
+            pathAndQuery = "/" + pathAndQuery;
+        }
+
+        // an IPv6 literal is bracketed, and contains colons of its own
+        int portSeparator = authority.lastIndexOf(':');
+        if (portSeparator < authority.lastIndexOf(']')) {
+            portSeparator = -1;
+        }
+        String host = portSeparator < 0 ? authority : authority.substring(0, portSeparator);
+        int port = DEFAULT_PORT;
+        if (portSeparator >= 0 && portSeparator < authority.length() - 1) {
+            try {
+                port = Integer.parseInt(authority.substring(portSeparator + 1));
+            } catch (NumberFormatException ex) {
+                throw new InvalidRequestException("Invalid port in url: " + target);
+            }
+            if (port <= 0 || port > 65535) {
+                throw new InvalidRequestException("Invalid port in url: " + target);
+            }
+        }
+        boolean bracketed = host.startsWith("[");
+        if (bracketed != host.endsWith("]") || !bracketed && host.indexOf(':') >= 0) {
+            throw new InvalidRequestException("Invalid host in url: " + target);
+        }
+        if (bracketed) {
+            host = host.substring(1, host.length() - 1);
+        }
+        if (host.isEmpty()) {
+            throw new InvalidRequestException("Missing host in url: " + target);
+        }
+        return new AbsoluteUrl(host.toLowerCase(Locale.ROOT), port, authority, pathAndQuery);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return host and port as they appeared in the url, for the Host header.
+     */
+    public String getAuthority() {
+        return authority;
+    }
+
+    /**
+     * @return the origin-form target to send to the origin server, never empty.
+     */
+    public String getPathAndQuery() {
+        return pathAndQuery;
+    }
+}
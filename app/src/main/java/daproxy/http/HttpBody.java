@@ -0,0 +1,196 @@
+package daproxy.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import daproxy.http.exceptions.InvalidRequestException;
+
+/**
+ * How the body of a message is delimited, following https://httpwg.org/specs/rfc7230.html#message.body.length, and
+ * how to relay it. Bodies are streamed as they arrive with their framing unchanged, so chunked bodies stay chunked,
+ * except on their way to HTTP/1.0 recipients, which cannot parse chunked framing.
+ */
+public class HttpBody {
+
+    public enum Framing {
+        NONE, CONTENT_LENGTH, CHUNKED, UNTIL_CLOSE
+    }
+
+    private static final HttpBody NONE = new HttpBody(Framing.NONE, 0);
+    private static final HttpBody CHUNKED = new HttpBody(Framing.CHUNKED, -1);
+    private static final HttpBody UNTIL_CLOSE = new HttpBody(Framing.UNTIL_CLOSE, -1);
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Framing framing;
+    private final long length;
+
+    private HttpBody(Framing framing, long length) {
+        this.framing = framing;
+        this.length = length;
+    }
+
+    /**
+     * @param request
+     * @return the body of the request
+     * @throws InvalidRequestException if the framing is ambiguous, which could be used to smuggle a request
+     */
+    public static HttpBody forRequest(HttpHead request) throws InvalidRequestException {
+        if (request.get("Transfer-Encoding") != null) {
+            if (!isChunked(request)) {
+                throw new InvalidRequestException("Request body is not chunked: " + request.get("Transfer-Encoding"));
+            }
+            request.remove("Content-Length");
+            return CHUNKED;
+        }
+        long contentLength = contentLength(request);
+        if (contentLength < -1) {
+            throw new InvalidRequestException("Invalid Content-Length: " + request.getAll("Content-Length"));
+        }
+        return contentLength > 0 ? new HttpBody(Framing.CONTENT_LENGTH, contentLength) : NONE;
+    }
+
+    /**
+     * @param requestMethod - responses to HEAD never have a body
+     * @param response
+     * @return the body of the response
+     * @throws IOException if the Content-Length is invalid
+     */
+    public static HttpBody forResponse(String requestMethod, HttpHead response) throws IOException {
+        int status = response.getStatus();
+        if ("HEAD".equals(requestMethod) || status < 200 || status == 204 || status == 304) {
+            return NONE;
+        }
+        if (response.get("Transfer-Encoding") != null) {
+            response.remove("Content-Length");
+            return isChunked(response) ? CHUNKED : UNTIL_CLOSE;
+        }
+        long contentLength = contentLength(response);
+        if (contentLength < -1) {
+            throw new IOException("Upstream sent an invalid Content-Length: " + response.getAll("Content-Length"));
+        }
+        if (contentLength == -1) {
+            return UNTIL_CLOSE;
+        }
+        return contentLength > 0 ? new HttpBody(Framing.CONTENT_LENGTH, contentLength) : NONE;
+    }
+
+    private static boolean isChunked(HttpHead head) {
+        List<String> codings = head.getAll("Transfer-Encoding");
+        String[] last = codings.get(codings.size() - 1).split(",");
+        return last[last.length - 1].strip().equalsIgnoreCase("chunked");
+    }
+
+    /**
+     * @return the length, -1 if there is no Content-Length, or -2 if it is invalid or differs between headers.
+     */
+    private static long contentLength(HttpHead head) {
+        long length = -1;
+        for (String value : head.getAll("Content-Length")) {
+            for (String element : value.split(",")) {
+                long parsed;
+                try {
+                    parsed = Long.parseLong(element.strip());
+                } catch (NumberFormatException ex) {
+                    return -2;
+                }
+                if (parsed < 0 || (length >= 0 && parsed != length)) {
+                    return -2;
+                }
+                length = parsed;
+            }
+        }
+        return length;
+    }
+
+    public Framing getFraming() {
+        return framing;
+    }
+
+    /**
+     * Copies the body from in to out as it arrives.
+     * @throws IOException if either connection fails, or a chunked body is malformed
+     */
+    public void copy(HttpInput in, OutputStream out) throws IOException {
+        switch (framing) {
+        case CONTENT_LENGTH:
+            in.copyTo(out, length);
+            break;
+        case CHUNKED:
+            copyChunked(in, out, true);
+            break;
+        case UNTIL_CLOSE:
+            in.copyToEnd(out);
+            break;
+        default:
+            break;
+        }
+        out.flush();
+    }
+
+    /**
+     * Copies the body from in to out as it arrives, with any chunked framing and trailer fields removed, for an
+     * HTTP/1.0 recipient: https://httpwg.org/specs/rfc9112.html#chunked.encoding. The recipient must be told where
+     * the body ends some other way, by a Content-Length or by closing the connection.
+     * @throws IOException if either connection fails, or a chunked body is malformed
+     */
+    public void copyUnchunked(HttpInput in, OutputStream out) throws IOException {
+        if (framing != Framing.CHUNKED) {
+            copy(in, out);
+            return;
+        }
+        copyChunked(in, out, false);
+        out.flush();
+    }
+
+    /**
+     * @param framed - whether to copy the chunk lines and trailer fields, or only the chunks' data
+     */
+    private static void copyChunked(HttpInput in, OutputStream out, boolean framed) throws IOException {
+        while (true) {
+            String sizeLine = in.readLine();
+            if (framed) {
+                writeLine(out, sizeLine);
+            }
+            long size = chunkSize(sizeLine);
+            if (size == 0) {
+                String trailer;
+                do {
+                    trailer = in.readLine();
+                    if (framed) {
+                        writeLine(out, trailer);
+                    }
+                } while (!trailer.isEmpty());
+                return;
+            }
+            in.copyTo(out, size);
+            if (!in.readLine().isEmpty()) {
+                throw new IOException("Chunk is longer than its size");
+            }
+            if (framed) {
+                out.write(CRLF);
+            }
+            out.flush();
+        }
+    }
+
+    private static long chunkSize(String line) throws IOException {
+        int extension = line.indexOf(';');
+        String size = (extension < 0 ? line : line.substring(0, extension)).strip();
+        try {
+            long parsed = Long.parseLong(size, 16);
+            if (parsed < 0) {
+                throw new IOException("Negative chunk size: " + line);
+            }
+            return parsed;
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid chunk size: " + line);
+        }
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(CRLF);
+    }
+}
@@ -0,0 +1,222 @@
+package daproxy.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import daproxy.http.exceptions.InvalidRequestException;
+
+/**
+ * The start line and header fields of an HTTP/1.x request or response. Header names are matched ignoring case, and
+ * keep their order and spelling when written back out.
+ */
+public class HttpHead {
+
+    // https://httpwg.org/specs/rfc7230.html#header.connection - only meaningful for a single connection
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-connection",
+            "proxy-authenticate", "proxy-authorization", "te", "trailer", "upgrade");
+
+    private final String[] startLine;
+    private final List<String> names = new ArrayList<>();
+    private final List<String> values = new ArrayList<>();
+
+    private HttpHead(String[] startLine) {
+        this.startLine = startLine;
+    }
+
+    /**
+     * @param buf
+     * @param offset - the first byte of the start line
+     * @param end - one past the LF of the blank line ending the head
+     * @return the parsed head
+     * @throws InvalidRequestException if the start line does not have three parts, or a header line is malformed
+     */
+    public static HttpHead parse(byte[] buf, int offset, int end) throws InvalidRequestException {
+        String[] lines = new String(buf, offset, end - offset, StandardCharsets.ISO_8859_1).split("\r?\n");
+        HttpHead head = new HttpHead(splitStartLine(lines[0]));
+
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.isEmpty()) {
+                break;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0 || line.charAt(0) == ' ' || line.charAt(0) == '\t') {
+                throw new InvalidRequestException("Malformed header line: " + line);
+            }
+            String name = line.substring(0, colon);
+            if (name.indexOf(' ') >= 0 || name.indexOf('\t') >= 0) {
+                throw new InvalidRequestException("Whitespace in header name: " + name);
+            }
+            head.add(name, line.substring(colon + 1).strip());
+        }
+        return head;
+    }
+
+    private static String[] splitStartLine(String line) throws InvalidRequestException {
+        int first = line.indexOf(' ');
+        int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+        if (first <= 0 || second == first + 1 || second < 0 && !line.startsWith("HTTP/")) {
+            throw new InvalidRequestException("Malformed start line: " + line);
+        }
+        if (second < 0) { // a status line may leave out the reason phrase
+            return new String[] { line.substring(0, first), line.substring(first + 1), "" };
+        }
+        return new String[] { line.substring(0, first), line.substring(first + 1, second), line.substring(second + 1) };
+    }
+
+    public String getMethod() {
+        return startLine[0];
+    }
+
+    public String getTarget() {
+        return startLine[1];
+    }
+
+    public String getRequestVersion() {
+        return startLine[2];
+    }
+
+    public String getResponseVersion() {
+        return startLine[0];
+    }
+
+    /**
+     * @return the status code of a response.
+     * @throws NumberFormatException if the status is not a number
+     */
+    public int getStatus() {
+        return Integer.parseInt(startLine[1]);
+    }
+
+    public String getReason() {
+        return startLine[2];
+    }
+
+    /**
+     * @return a copy that can be changed without affecting this head.
+     */
+    public HttpHead copy() {
+        HttpHead copy = new HttpHead(startLine.clone());
+        copy.names.addAll(names);
+        copy.values.addAll(values);
+        return copy;
+    }
+
+    /**
+     * @return the name of every header field, in order, once for each time it appears.
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @param name
+     * @return the first value of the header, or null if absent.
+     */
+    public String get(String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                return values.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param name
+     * @return every value of the header, in order.
+     */
+    public List<String> getAll(String name) {
+        List<String> all = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                all.add(values.get(i));
+            }
+        }
+        return all;
+    }
+
+    /**
+     * @param name - a header holding a comma separated list, e.g. Connection
+     * @param token
+     * @return true if any value of the header lists the token, ignoring case.
+     */
+    public boolean hasToken(String name, String token) {
+        for (String value : getAll(name)) {
+            for (String element : value.split(",")) {
+                if (element.strip().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void add(String name, String value) {
+        names.add(name);
+        values.add(value);
+    }
+
+    public void remove(String name) {
+        for (int i = names.size() - 1; i >= 0; i--) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                names.remove(i);
+                values.remove(i);
+            }
+        }
+    }
+
+    public void set(String name, String value) {
+        remove(name);
+        add(name, value);
+    }
+
+    /**
+     * Removes the headers that only apply to the connection they arrived on, including any named by Connection.
+     * Transfer-Encoding is kept, as bodies are relayed with their framing intact.
+     */
+    public void removeHopByHop() {
+        for (String value : getAll("Connection")) {
+            for (String element : value.split(",")) {
+                if (!element.isBlank() && !element.strip().equalsIgnoreCase("transfer-encoding")) {
+                    remove(element.strip());
+                }
+            }
+        }
+        for (int i = names.size() - 1; i >= 0; i--) {
+            if (HOP_BY_HOP.contains(names.get(i).toLowerCase(Locale.ROOT))) {
+                names.remove(i);
+                values.remove(i);
+            }
+        }
+    }
+
+    /**
+     * @param version - the HTTP version of the message, HTTP/1.0 or HTTP/1.1
+     * @return true if the sender of this message expects to keep its connection open afterwards.
+     */
+    public boolean isKeepAlive(String version) {
+        if ("HTTP/1.0".equals(version)) {
+            return hasToken("Connection", "keep-alive") || hasToken("Proxy-Connection", "keep-alive");
+        }
+        return !hasToken("Connection", "close") && !hasToken("Proxy-Connection", "close");
+    }
+
+    /**
+     * @param startLine - the start line to send, which may differ from the one received
+     * @return the head, ready to write to a connection.
+     */
+    public byte[] toBytes(String startLine) {
+        StringBuilder out = new StringBuilder(startLine.length() + 32 * names.size() + 4);
+        out.append(startLine).append("\r\n");
+        for (int i = 0; i < names.size(); i++) {
+            out.append(names.get(i)).append(": ").append(values.get(i)).append("\r\n");
+        }
+        out.append("\r\n");
+        return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,167 @@
+package daproxy.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.http.exceptions.RequestTooLargeException;
+import daproxy.http.parsers.HttpHeadScanner;
+import daproxy.http.parsers.RequestScanner.Status;
+import daproxy.pool.TimingWheel;
+
+/**
+ * Buffered reading of HTTP/1.x messages from one connection: heads, chunk lines, and body bytes. Bytes read past the
+ * end of one message stay buffered for the next, which is what makes pipelined requests work.
+ */
+public class HttpInput {
+
+    private static final int END_OF_STREAM = -1;
+    private static final byte LF = (byte) '\n';
+
+    private final InputStream in;
+    private final byte[] buf;
+    private final TimingWheel.Timeout idle;
+    private final HttpHeadScanner scanner = new HttpHeadScanner();
+    private int pos;
+    private int limit;
+
+    /**
+     * @param in
+     * @param buf - bounds the size of a head or a chunk line
+     * @param initial - bytes already read from the connection, at most buf.length
+     * @param idle - touched whenever bytes arrive
+     */
+    public HttpInput(InputStream in, byte[] buf, byte[] initial, TimingWheel.Timeout idle) {
+        this.in = in;
+        this.buf = buf;
+        this.idle = idle;
+        System.arraycopy(initial, 0, buf, 0, initial.length);
+        this.limit = initial.length;
+    }
+
+    /**
+     * @return the next message head, or null if the connection ended cleanly before it started.
+     * @throws IOException if the connection ended part way through the head
+     * @throws InvalidRequestException if the head is malformed, or too large for the buffer
+     */
+    public HttpHead readHead() throws IOException, InvalidRequestException {
+        compact();
+        scanner.reset();
+        Status status;
+        while ((status = scanner.scan(buf, limit)) == Status.NEED_MORE) {
+            if (limit == buf.length) {
+                throw new RequestTooLargeException("Message head exceeds " + buf.length + " bytes");
+            }
+            if (!fill()) {
+                if (limit == 0) {
+                    return null;
+                }
+                throw new EOFException("Connection closed part way through a message head");
+            }
+        }
+        if (status == Status.INVALID) {
+            throw new InvalidRequestException(scanner.getError());
+        }
+        HttpHead head = HttpHead.parse(buf, 0, scanner.getEnd());
+        pos = scanner.getEnd();
+        return head;
+    }
+
+    /**
+     * @return the next line, without its line ending.
+     * @throws IOException if the connection ends first, or the line does not fit in the buffer
+     */
+    public String readLine() throws IOException {
+        int scanned = pos;
+        while (true) {
+            for (; scanned < limit; scanned++) {
+                if (buf[scanned] == LF) {
+                    int end = scanned > pos && buf[scanned - 1] == '\r' ? scanned - 1 : scanned;
+                    String line = new String(buf, pos, end - pos, StandardCharsets.ISO_8859_1);
+                    pos = scanned + 1;
+                    return line;
+                }
+            }
+            if (pos > 0) {
+                scanned -= pos;
+                compact();
+            } else if (limit == buf.length) {
+                throw new IOException("Line exceeds " + buf.length + " bytes");
+            }
+            if (!fill()) {
+                throw new EOFException("Connection closed part way through a line");
+            }
+        }
+    }
+
+    /**
+     * Copies exactly length bytes to out, the buffered ones first. Out is flushed whenever the copy has to wait for
+     * more bytes to arrive.
+     * @throws IOException if the connection ends first
+     */
+    public void copyTo(OutputStream out, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            if (pos == limit) {
+                pos = limit = 0;
+                out.flush(); // pass on what has arrived before waiting for more
+                if (!fill()) {
+                    throw new EOFException("Connection closed with " + remaining + " body bytes outstanding");
+                }
+            }
+            int count = (int) Math.min(limit - pos, remaining);
+            out.write(buf, pos, count);
+            pos += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Copies everything up to the end of the connection to out.
+     */
+    public void copyToEnd(OutputStream out) throws IOException {
+        do {
+            out.write(buf, pos, limit - pos);
+            pos = limit = 0;
+            out.flush();
+        } while (fill());
+    }
+
+    /**
+     * @return true if bytes beyond the last message have already arrived.
+     */
+    public boolean hasBuffered() {
+        return pos < limit;
+    }
+
+    /**
+     * @return the bytes read beyond the last message, which are no longer buffered here.
+     */
+    public byte[] drainBuffered() {
+        byte[] drained = new byte[limit - pos];
+        System.arraycopy(buf, pos, drained, 0, drained.length);
+        pos = limit;
+        return drained;
+    }
+
+    private void compact() {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buf, limit, buf.length - limit);
+        if (read == END_OF_STREAM) {
+            return false;
+        }
+        limit += read;
+        idle.touch();
+        return true;
+    }
+}
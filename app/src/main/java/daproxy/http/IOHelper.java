@@ -1,9 +1,16 @@
 package daproxy.http;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import daproxy.pool.BufferPool;
+import daproxy.relay.Direction;
+import daproxy.relay.Tunnel;
 
 //import daproxy.log.LogUtils;
 
@@ -11,15 +18,21 @@ public class IOHelper {
 
     private static final int BUFFER_SIZE = 1024;
     private static final int END_OF_STREAM = -1;
+    // a throttled relay wakes up at least this often to notice its tunnel closing
+    private static final long MAX_PAUSE_NANOS = 100_000_000L;
 
     /**
-     * A helper method to write bytes from an InputStream to an OutputStream, and throw an exception once detecting the socket is closed.
+     * A helper method to write bytes from an InputStream to an OutputStream, and throw an EOFException once detecting the socket is closed.
      * NOTE: using InputStream.transferTo(OutputStream) seems to block indefinitely and hangs the server.
+     * When the tunnel is shaped, reading pauses after each write for as long as the tunnel asks.
      * @param in
      * @param out
+     * @param tunnel - told about every write, to count the bytes and keep it from idling out
+     * @param direction
      * @throws IOException
      */
-    public static void writeInputToOutput(InputStream in, OutputStream out) throws IOException {
+    public static void writeInputToOutput(InputStream in, OutputStream out, Tunnel tunnel, Direction direction)
+            throws IOException {
         int recvBytes;
         byte[] buf = new byte[BUFFER_SIZE];
 
@@ -27,10 +40,56 @@ public class IOHelper {
             // System.out.println("Thread: Writing " + recvBytes + " to socket");
             // System.out.println("HEX Output: " + LogUtils.bytesToHex(buf, 0, recvBytes));
             out.write(buf, 0, recvBytes);
+            tunnel.transferred(direction, recvBytes);
+            pause(tunnel, tunnel.throttle(direction, recvBytes));
         }
 
         if (recvBytes == END_OF_STREAM) { // socket is closed
-            throw new SocketException("Detected closed socket");
+            throw new EOFException("Detected closed socket");
+        }
+    }
+
+    /**
+     * Same as writeInputToOutput, but copies between blocking channels through a pooled direct buffer, so the data
+     * never passes through the heap and no buffer is allocated per call.
+     * @param in
+     * @param out
+     * @param tunnel - told about every write, to count the bytes and keep it from idling out
+     * @param direction
+     * @throws IOException
+     */
+    public static void writeChannelToChannel(SocketChannel in, SocketChannel out, Tunnel tunnel, Direction direction)
+            throws IOException {
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer buf = pool.acquire();
+        try {
+            while (in.read(buf) != END_OF_STREAM) {
+                buf.flip();
+                int recvBytes = buf.remaining();
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                buf.clear();
+                tunnel.transferred(direction, recvBytes);
+                pause(tunnel, tunnel.throttle(direction, recvBytes));
+            }
+        } finally {
+            pool.release(buf);
+        }
+
+        throw new EOFException("Detected closed socket");
+    }
+
+    /**
+     * Pauses for as long as a shaped tunnel asks, waking up now and then to stop early if the tunnel closes.
+     * @param tunnel
+     * @param nanos - from Tunnel.throttle()
+     */
+    public static void pause(Tunnel tunnel, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (nanos > 0 && !tunnel.isClosed()) {
+            LockSupport.parkNanos(Math.min(nanos, MAX_PAUSE_NANOS));
+            nanos = deadline - System.nanoTime();
         }
     }
 
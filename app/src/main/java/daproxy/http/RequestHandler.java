@@ -2,123 +2,221 @@ package daproxy.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import daproxy.http.exceptions.IncompleteRequestException;
+import daproxy.conf.Config;
 import daproxy.http.exceptions.InvalidRequestException;
 import daproxy.http.exceptions.NotYetImplementedException;
-import daproxy.http.parsers.ParserMap;
-import daproxy.http.parsers.RequestParser;
+import daproxy.http.exceptions.RequestTooLargeException;
+import daproxy.http.parsers.MethodTable;
+import daproxy.http.parsers.PrefaceScanner;
+import daproxy.http.parsers.RequestScanner;
 import daproxy.http.request.Request;
 import daproxy.log.LogUtils;
+import daproxy.metrics.Counter;
+import daproxy.metrics.LatencyHistogram;
+import daproxy.metrics.Metrics;
+import daproxy.pool.AdmissionController;
+import daproxy.pool.ByteArrayPool;
+import daproxy.pool.Drain;
+import daproxy.pool.RequestPool;
+import daproxy.pool.TimingWheel;
+import daproxy.relay.NioRelay;
+import daproxy.relay.Tunnel;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class RequestHandler implements Runnable{
 
     private static final int REQUEST_BUFFER_SIZE = 8092;
+    // Requests are parsed entirely within waitForConnect(), which copies out what it needs, so buffers are only
+    // borrowed for that long. A pool rather than a ThreadLocal, since with virtual threads every connection is a new
+    // thread.
+    private static final int POOLED_REQUEST_BUFFERS = 64;
+    private static final ByteArrayPool REQUEST_BUFFERS = new ByteArrayPool(REQUEST_BUFFER_SIZE,
+            POOLED_REQUEST_BUFFERS);
+    private static final LatencyHistogram HANDSHAKE_LATENCY = Metrics.histogram("daproxy_handshake_seconds",
+            "Time from accepting a connection until its request was parsed");
+    private static final Counter INVALID_REQUESTS = Metrics.counter("daproxy_requests_invalid_total",
+            "Requests answered with a 400");
 
     private final Socket socket;
+    private final AtomicBoolean tracked = new AtomicBoolean();
+    private AdmissionController.Permit permit;
+    private RequestPool pool; // null when run directly, e.g. by a test
 
     public RequestHandler(Socket socket) {
         this.socket = socket;
     }
 
+    /**
+     * @param pool - parks the connection if it is kept alive, and runs the handler for its next request
+     */
+    public void resubmitTo(RequestPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Counts the connection as open until the handler finishes or rejects it, so a drain waits for it.
+     */
+    public void track() {
+        if (tracked.compareAndSet(false, true)) {
+            Drain.connectionOpened();
+        }
+    }
+
+    /**
+     * @param permit - held until the request has been read, and released if it never is
+     */
+    public void admit(AdmissionController.Permit permit) {
+        this.permit = permit;
+    }
+
+    public InetAddress getClientAddress() {
+        return socket.getInetAddress();
+    }
+
     @Override
     public void run() {
         SocketAddress remoteAddr = socket.getRemoteSocketAddress();
-        SocketAddress localAddr = socket.getLocalSocketAddress();
+        if (permit != null && !permit.start()) {
+            log.debug("Turning away {} after waiting too long for a thread", remoteAddr);
+            reject();
+            return;
+        }
+        boolean keptAlive = false;
         try {
-            log.debug("accepted connection from {} with connection {} ", remoteAddr, localAddr);
-
-            Request request = waitForConnect();
+            Request request;
+            TimingWheel.Timeout handshake = TimingWheel.shared().schedule(Config.getConfig().getHandshakeTimeoutMillis(),
+                    this::terminate);
+            try {
+                request = waitForConnect();
+            } finally {
+                handshake.cancel();
+            }
+            if (permit != null) {
+                permit.served();
+            }
 
             request.handle(socket);
+            keptAlive = request.isKeptAlive();
             // respondOK()
 
+        } catch (RequestTooLargeException ex) {
+            log.error("Request Too Large", ex);
+            INVALID_REQUESTS.inc();
+            respond(Response.REQUEST_HEADER_FIELDS_TOO_LARGE);
         } catch (InvalidRequestException | NotYetImplementedException ex) {
             log.error("Invalid Request Received", ex);
-            try {
-                socket.getOutputStream().write(Response.BAD_REQUEST.toString().getBytes(StandardCharsets.US_ASCII));
-            } catch (IOException ioEX) {
-                log.error("Error writing BAD Request to client", ioEX);
-            }
+            INVALID_REQUESTS.inc();
+            respond(Response.BAD_REQUEST);
         } catch (IOException ex) { // AN IOException will occur if the read request is blocking and the socket is
             // closed by the thread pool.
             log.error("Client Socket " + remoteAddr + " closed.", ex);
         } finally {
-            try {
-                socket.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
+            if (permit != null) {
+                permit.release();
+            }
+            if (keptAlive && pool != null) {
+                pool.park(socket);
+            } else if (!NioRelay.isHandedOff(socket) && !Tunnel.isOpen(socket)) {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    log.error("Error trying to close socket", ex);
+                }
             }
+            finish();
         }
     }
 
+    private void finish() {
+        if (tracked.compareAndSet(true, false)) {
+            Drain.connectionClosed();
+        }
+    }
+
+    private void respond(Response response) {
+        try {
+            socket.getOutputStream().write(response.toString().getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException ioEX) {
+            log.error("Error writing " + response.name() + " to client", ioEX);
+        }
+    }
+
+    /**
+     * @param request
+     * @param length
+     * @return the method the complete request starts with.
+     * @throws InvalidRequestException if there is no known method followed by a space
+     */
     public RequestMethod parseHTTPMethod(byte[] request, int length) throws InvalidRequestException {
         if (length < RequestMethod.shortest()) {
             throw new InvalidRequestException("Incoming request too short");
         }
-        log.debug("Request =  {}", request);
-
-        for(RequestMethod m : RequestMethod.values()) {
-            byte[] mB = m.toString().getBytes(StandardCharsets.US_ASCII);
-
-            if(length < mB.length + 1) { // +1 for checking for a space after
-                continue;
-            }
-            log.debug("Considering  {} mb.length = {} ", m, mB.length);
-            int i = 0;
-            for( ; i < length && i < mB.length; i++) {
-                if (mB[i] != request[i]) {
-                    log.debug("Considering {} breaking at i = {} ", m, i);
-                    break;
-
-                }
-            }
-            log.debug("Considering {} i = {}", m, i);
-            if (i < mB.length) {
-                continue;
-            }
-
-            if(request[i] != ' ') {
-                log.debug("request[{}] = {}", i, request[i] );
-                continue;
-            }
-            return m;
+        MethodTable.Entry entry = MethodTable.lookup(request, length);
+        if (entry == null) {
+            throw new InvalidRequestException("Did not find valid request method");
         }
-
-        throw new InvalidRequestException("Did not find valid request method");
+        return entry.getMethod();
     }
 
+    /**
+     * Reads until a complete request has arrived. Each read lands directly after the previous one in a request buffer
+     * borrowed from the pool, and the scanner resumes where it stopped, so a request trickling in a byte at a time is still
+     * only scanned once.
+     * @return the parsed request
+     * @throws IOException
+     * @throws InvalidRequestException - RequestTooLargeException if the request does not fit in the buffer
+     */
     public Request waitForConnect() throws IOException, InvalidRequestException {
+        long start = System.nanoTime();
         InputStream in = socket.getInputStream();
+        byte[] buf = REQUEST_BUFFERS.acquire();
+        int length = 0;
+        RequestScanner scanner = null;
 
-        ByteBuffer buff = ByteBuffer.wrap(new byte[REQUEST_BUFFER_SIZE]);
-        while (true) {
-            byte[] tmp = new byte[REQUEST_BUFFER_SIZE];
-            int numBytes = in.read(tmp); // whenever I try to use readAllBytes, it just hangs indefintely.
-
-            if (numBytes == -1) {
-                throw new SocketException("Detected closed socket");
-            }
+        try {
+            while (true) {
+                if (length == buf.length) {
+                    throw new RequestTooLargeException("Request exceeds " + buf.length + " bytes");
+                }
+                int numBytes = in.read(buf, length, buf.length - length); // whenever I try to use readAllBytes, it just hangs indefintely.
 
-            buff.put(tmp, 0, numBytes);
+                if (numBytes == -1) {
+                    throw new SocketException("Detected closed socket");
+                }
+                length += numBytes;
 
-            // log.debug("Received new bytes: " + LogUtils.bytesToHex(tmp, 0, numBytes));
-            // log.debug("Request Buffer: " + LogUtils.bytesToHex(buff.array(), 0, buff.position()));
+                if (scanner == null && Config.getConfig().isHttp2Enabled() && PrefaceScanner.matches(buf, length)) {
+                    scanner = new PrefaceScanner();
+                }
+                if (scanner == null) {
+                    MethodTable.Entry method = MethodTable.lookup(buf, length);
+                    if (method == null) {
+                        continue;
+                    }
+                    scanner = method.getParser().newScanner();
+                }
 
-            try {
-                RequestMethod rm = parseHTTPMethod(buff.array(), buff.position());
-                RequestParser parser = ParserMap.get(rm);
-                return parser.parse(buff.array(), buff.position());// firstRequest.toString());
-            } catch (IncompleteRequestException ex) {
-                log.debug("Partially formed request. Waiting for more");
+                switch (scanner.scan(buf, length)) {
+                case COMPLETE:
+                    Request request = scanner.toRequest(buf, length);
+                    HANDSHAKE_LATENCY.recordSince(start);
+                    return request;
+                case INVALID:
+                    throw new InvalidRequestException(scanner.getError());
+                default:
+                    log.debug("Partially formed request. Waiting for more");
+                }
             }
+        } finally {
+            REQUEST_BUFFERS.release(buf);
         }
 
         // RFC2817 [Page 7]: Like any other pipelined HTTP/1.1 request, data to be
@@ -141,6 +239,7 @@ public class RequestHandler implements Runnable{
             log.error("Error writing Service Unavailable to client", ioEX);
         } finally {
             terminate();
+            finish();
         }
     }
 
@@ -4,6 +4,7 @@ public enum RequestMethod {
     GET, HEAD, POST, PUT, DELETE, CONNECT, OPTIONS, TRACE, PATCH;
 
     private static final int SHORTEST_REQUEST = 3;
+    private static final int LONGEST_REQUEST = 7;
 
     /**
      * 
@@ -12,4 +13,12 @@ public enum RequestMethod {
     public static int shortest() {
         return SHORTEST_REQUEST;
     }
+
+    /**
+     * 
+     * @return The length of the longest RequestMethod.
+     */
+    public static int longest() {
+        return LONGEST_REQUEST;
+    }
 }
@@ -0,0 +1,21 @@
+package daproxy.http.exceptions;
+
+import java.io.IOException;
+
+/**
+ * An HTTP/2 connection error: the peer broke the protocol, and the connection is closed with a GOAWAY carrying the
+ * error code. See https://www.rfc-editor.org/rfc/rfc9113#section-5.4.1
+ */
+public class Http2Exception extends IOException {
+
+    private final int errorCode;
+
+    public Http2Exception(int errorCode, String errorMessage) {
+        super(errorMessage);
+        this.errorCode = errorCode;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+}
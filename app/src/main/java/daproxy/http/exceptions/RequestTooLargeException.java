@@ -0,0 +1,10 @@
+package daproxy.http.exceptions;
+
+/**
+ * The request did not fit in the request buffer.
+ */
+public class RequestTooLargeException extends InvalidRequestException {
+    public RequestTooLargeException(String errorMessage) {
+        super(errorMessage);
+    }
+}
@@ -0,0 +1,134 @@
+package daproxy.http.parsers;
+
+import java.nio.charset.StandardCharsets;
+
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.http.request.ConnectRequest;
+import daproxy.http.request.Request;
+
+/**
+ * A byte-level state machine for CONNECT requests: CONNECT SP authority SP HTTP/1.1 CRLF, then header lines up to a
+ * blank line. Lines may be padded with spaces, as ConnectParser always allowed. The scanner only keeps indexes into
+ * the caller's buffer, so scanning allocates nothing.
+ */
+public class ConnectScanner implements RequestScanner {
+
+    private static final byte[] CONNECT_TOKEN = "CONNECT ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_TOKEN = "HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte SP = (byte) ' ';
+    private static final byte CR = (byte) '\r';
+    private static final byte LF = (byte) '\n';
+
+    private enum State {
+        METHOD, URL, PROTOCOL, END_OF_FIRST_LINE, HEADERS, DONE, FAILED
+    }
+
+    private State state;
+    private int pos;
+    private int tokenIndex;
+    private int urlEnd;
+    private int headersStart;
+    private boolean blankLine;
+    private int end;
+    private String error;
+
+    public ConnectScanner() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        state = State.METHOD;
+        pos = 0;
+        tokenIndex = 0;
+        blankLine = true;
+        error = null;
+    }
+
+    @Override
+    public Status scan(byte[] buf, int length) {
+        for (; pos < length && state != State.DONE && state != State.FAILED; pos++) {
+            byte b = buf[pos];
+            switch (state) {
+            case METHOD:
+                if (b != CONNECT_TOKEN[tokenIndex]) {
+                    return fail("Invalid Request.  Server only handles CONNECT Requests");
+                }
+                if (++tokenIndex == CONNECT_TOKEN.length) {
+                    state = State.URL;
+                }
+                break;
+            case URL:
+                if (b == SP) {
+                    urlEnd = pos;
+                    tokenIndex = 0;
+                    state = State.PROTOCOL;
+                }
+                break;
+            case PROTOCOL:
+                if (b != HTTP_TOKEN[tokenIndex]) {
+                    return fail("Invalid HTTP Protocol. Server only handles HTTP/1.1");
+                }
+                if (++tokenIndex == HTTP_TOKEN.length) {
+                    state = State.END_OF_FIRST_LINE;
+                }
+                break;
+            case END_OF_FIRST_LINE:
+                if (b != SP && b != CR && b != LF) {
+                    return fail("Invalid characters after Protocol.");
+                }
+                if (b == LF && buf[pos - 1] == CR) {
+                    headersStart = pos;
+                    state = State.HEADERS;
+                }
+                break;
+            case HEADERS:
+                if (b == LF && buf[pos - 1] == CR) {
+                    if (blankLine) {
+                        end = pos;
+                        state = State.DONE;
+                    }
+                    blankLine = true;
+                } else if (b != SP && b != CR && b != LF) {
+                    blankLine = false;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected state " + state);
+            }
+        }
+
+        if (state == State.DONE) {
+            return Status.COMPLETE;
+        }
+        return state == State.FAILED ? Status.INVALID : Status.NEED_MORE;
+    }
+
+    private Status fail(String reason) {
+        state = State.FAILED;
+        error = reason;
+        return Status.INVALID;
+    }
+
+    @Override
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public Request toRequest(byte[] buf, int length) throws InvalidRequestException {
+        if (state != State.DONE) {
+            throw new InvalidRequestException("CONNECT request is not complete");
+        }
+        String url = new String(buf, CONNECT_TOKEN.length, urlEnd - CONNECT_TOKEN.length, StandardCharsets.US_ASCII);
+        String headersBlob = new String(buf, headersStart, end - headersStart, StandardCharsets.US_ASCII);
+        return new ConnectRequest(url, headersBlob, ConnectParser.keepRemainingBytesForWriting(buf, length, end));
+    }
+
+    /**
+     * @return the index of the LF ending the request, once complete.
+     */
+    public int getEnd() {
+        return end;
+    }
+}
@@ -0,0 +1,29 @@
+package daproxy.http.parsers;
+
+import daproxy.http.exceptions.IncompleteRequestException;
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.http.request.Request;
+
+/**
+ * Parses requests to forward to an origin server, i.e. every method but CONNECT.
+ */
+public class ForwardParser implements RequestParser {
+
+    @Override
+    public Request parse(byte[] request, int length) throws InvalidRequestException, IncompleteRequestException {
+        HttpHeadScanner scanner = new HttpHeadScanner();
+        switch (scanner.scan(request, length)) {
+        case COMPLETE:
+            return scanner.toRequest(request, length);
+        case INVALID:
+            throw new InvalidRequestException(scanner.getError());
+        default:
+            throw new IncompleteRequestException("Request head is incomplete");
+        }
+    }
+
+    @Override
+    public RequestScanner newScanner() {
+        return new HttpHeadScanner();
+    }
+}
@@ -0,0 +1,78 @@
+package daproxy.http.parsers;
+
+import java.util.Arrays;
+
+import daproxy.http.HttpHead;
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.http.request.ForwardRequest;
+import daproxy.http.request.Request;
+
+/**
+ * Finds the blank line ending an HTTP/1.x message head, resuming across reads. The head is only parsed into an
+ * HttpHead once it is complete. Used for requests to forward, and for the responses to them.
+ */
+public class HttpHeadScanner implements RequestScanner {
+
+    private static final byte CR = (byte) '\r';
+    private static final byte LF = (byte) '\n';
+
+    private int pos;
+    private int lineLength;
+    private int end;
+    private String error;
+
+    public HttpHeadScanner() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        pos = 0;
+        lineLength = 0;
+        end = -1;
+        error = null;
+    }
+
+    @Override
+    public Status scan(byte[] buf, int length) {
+        if (error != null) {
+            return Status.INVALID;
+        }
+        for (; end < 0 && pos < length; pos++) {
+            byte b = buf[pos];
+            if (b == LF) {
+                if (lineLength == 0) {
+                    if (pos <= 1) {
+                        error = "Message starts with an empty line";
+                        return Status.INVALID;
+                    }
+                    end = pos + 1;
+                }
+                lineLength = 0;
+            } else if (b != CR) {
+                lineLength++;
+            }
+        }
+        return end < 0 ? Status.NEED_MORE : Status.COMPLETE;
+    }
+
+    @Override
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return one past the LF ending the head, once complete.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public Request toRequest(byte[] buf, int length) throws InvalidRequestException {
+        if (end < 0) {
+            throw new InvalidRequestException("Request head is not complete");
+        }
+        return new ForwardRequest(HttpHead.parse(buf, 0, end), Arrays.copyOfRange(buf, end, length));
+    }
+}
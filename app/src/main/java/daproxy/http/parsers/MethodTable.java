@@ -0,0 +1,97 @@
+package daproxy.http.parsers;
+
+import java.nio.charset.StandardCharsets;
+
+import daproxy.http.RequestMethod;
+import daproxy.http.exceptions.InvalidRequestException;
+
+/**
+ * Resolves the request method and its parser in one pass over the first bytes of a request. No two methods share both
+ * their first byte and their length, so the pair indexes straight into a table holding at most one candidate, which
+ * is then compared byte for byte. Nothing is allocated unless the request is invalid.
+ */
+public final class MethodTable {
+
+    private static final int ASCII = 128;
+    private static final int MAX_TOKEN = RequestMethod.longest() + 1; // the method and the space after it
+    private static final Entry[][] TABLE = build();
+
+    private MethodTable() {
+    }
+
+    private static Entry[][] build() {
+        Entry[][] table = new Entry[ASCII][];
+        for (RequestMethod method : RequestMethod.values()) {
+            byte[] name = method.name().getBytes(StandardCharsets.US_ASCII);
+            Entry[] byLength = table[name[0]];
+            if (byLength == null) {
+                byLength = table[name[0]] = new Entry[MAX_TOKEN];
+            }
+            if (byLength[name.length] != null) {
+                throw new IllegalStateException(method + " collides with " + byLength[name.length].method);
+            }
+            byLength[name.length] = new Entry(method, name, ParserMap.get(method));
+        }
+        return table;
+    }
+
+    /**
+     * @param buf - the request from its first byte
+     * @param length - number of valid bytes in buf
+     * @return the method and its parser, or null if the method and the space after it have not fully arrived yet.
+     * @throws InvalidRequestException if the request does not start with a known method followed by a space
+     */
+    public static Entry lookup(byte[] buf, int length) throws InvalidRequestException {
+        if (length == 0) {
+            return null;
+        }
+        Entry[] byLength = buf[0] >= 0 ? TABLE[buf[0]] : null;
+        if (byLength == null) {
+            throw new InvalidRequestException("Did not find valid request method");
+        }
+
+        int limit = Math.min(length, MAX_TOKEN);
+        for (int i = 1; i < limit; i++) {
+            if (buf[i] == ' ') {
+                Entry entry = byLength[i];
+                if (entry == null || !entry.matches(buf)) {
+                    throw new InvalidRequestException("Did not find valid request method");
+                }
+                return entry;
+            }
+        }
+        if (length >= MAX_TOKEN) {
+            throw new InvalidRequestException("Did not find valid request method");
+        }
+        return null;
+    }
+
+    public static final class Entry {
+        private final RequestMethod method;
+        private final byte[] name;
+        private final RequestParser parser;
+
+        private Entry(RequestMethod method, byte[] name, RequestParser parser) {
+            this.method = method;
+            this.name = name;
+            this.parser = parser;
+        }
+
+        private boolean matches(byte[] buf) {
+            for (int i = 1; i < name.length; i++) { // the first byte picked this entry
+                if (buf[i] != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public RequestMethod getMethod() {
+            return method;
+        }
+
+        public RequestParser getParser() {
+            return parser;
+        }
+    }
+}
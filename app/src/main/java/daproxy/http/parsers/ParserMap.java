@@ -11,7 +11,7 @@ public class ParserMap {
        RequestMethod.CONNECT, new ConnectParser()
     ));
     
-    private static final RequestParser DEFAULT = new DefaultParser();
+    private static final RequestParser DEFAULT = new ForwardParser();
     public static RequestParser get(RequestMethod rm) {
         if(!H_MAP.containsKey(rm)) {
             return DEFAULT;
@@ -0,0 +1,56 @@
+package daproxy.http.parsers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import daproxy.http.request.Http2Request;
+import daproxy.http.request.Request;
+
+/**
+ * Recognizes the connection preface of an HTTP/2 client using prior knowledge, see
+ * https://www.rfc-editor.org/rfc/rfc9113#section-3.4. The preface reads like an HTTP/1.1 request with the method PRI,
+ * so it is told apart by its first two bytes: no other method starts with PR.
+ */
+public class PrefaceScanner implements RequestScanner {
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private String error;
+
+    /**
+     * @param buf
+     * @param length - number of valid bytes in buf
+     * @return true if the bytes so far, at least two, could be the start of the preface.
+     */
+    public static boolean matches(byte[] buf, int length) {
+        if (length < 2) {
+            return false;
+        }
+        int n = Math.min(length, PREFACE.length);
+        return Arrays.equals(buf, 0, n, PREFACE, 0, n);
+    }
+
+    @Override
+    public Status scan(byte[] buf, int length) {
+        if (!matches(buf, length)) {
+            error = "Invalid HTTP/2 connection preface";
+            return Status.INVALID;
+        }
+        return length < PREFACE.length ? Status.NEED_MORE : Status.COMPLETE;
+    }
+
+    @Override
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public Request toRequest(byte[] buf, int length) {
+        return new Http2Request(Arrays.copyOfRange(buf, PREFACE.length, length));
+    }
+
+    @Override
+    public void reset() {
+        error = null;
+    }
+}
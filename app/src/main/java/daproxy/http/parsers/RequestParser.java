@@ -6,4 +6,9 @@ import daproxy.http.request.Request;
 
 public interface RequestParser {
     public Request parse(byte[] request, int length) throws InvalidRequestException, IncompleteRequestException;
+
+    /**
+     * @return a scanner that parses the request as it arrives.
+     */
+    public RequestScanner newScanner();
 }
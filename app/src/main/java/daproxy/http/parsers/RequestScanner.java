@@ -0,0 +1,43 @@
+package daproxy.http.parsers;
+
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.http.request.Request;
+
+/**
+ * Parses a request incrementally as its bytes arrive. Each call to scan() picks up where the previous call stopped, so
+ * a request split over many reads is only looked at once, and running out of bytes is an ordinary result rather than
+ * an exception.
+ */
+public interface RequestScanner {
+
+    public enum Status {
+        NEED_MORE, COMPLETE, INVALID
+    }
+
+    /**
+     * @param buf - the request from its first byte. Bytes already scanned must not change between calls.
+     * @param length - number of valid bytes in buf
+     * @return COMPLETE once the whole request has been seen, INVALID as soon as it cannot be a valid request,
+     * otherwise NEED_MORE.
+     */
+    public Status scan(byte[] buf, int length);
+
+    /**
+     * @return why the request is invalid, once scan() returned INVALID.
+     */
+    public String getError();
+
+    /**
+     * Builds the request once scan() returned COMPLETE. Everything needed is copied out of buf.
+     * @param buf
+     * @param length - number of valid bytes in buf, which may include bytes sent after the request
+     * @return the request
+     * @throws InvalidRequestException
+     */
+    public Request toRequest(byte[] buf, int length) throws InvalidRequestException;
+
+    /**
+     * Prepares the scanner for a new request.
+     */
+    public void reset();
+}
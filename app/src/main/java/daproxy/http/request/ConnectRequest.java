@@ -2,13 +2,28 @@ package daproxy.http.request;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 
 import daproxy.conf.Config;
-import daproxy.http.IOHelper;
 import daproxy.http.RequestMethod;
 import daproxy.http.Response;
 import daproxy.http.Url;
 import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.log.AccessLog;
+import daproxy.log.AccessRecord;
+import daproxy.log.AccessRecord.Outcome;
+import daproxy.metrics.Counter;
+import daproxy.metrics.LatencyHistogram;
+import daproxy.metrics.Metrics;
+import daproxy.pool.TimingWheel;
+import daproxy.relay.Direction;
+import daproxy.relay.Relays;
+import daproxy.relay.Shaper;
+import daproxy.relay.Tunnel;
+import daproxy.upstream.CircuitBreaker;
+import daproxy.upstream.Dialer;
+import daproxy.upstream.UpstreamPool;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -19,6 +34,23 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class ConnectRequest implements Request {
 
+    private static final Counter DENIED = Metrics.counter("daproxy_connect_denied_total",
+            "CONNECT requests to hosts outside the allowList");
+    private static final Counter FAILED = Metrics.counter("daproxy_connect_failed_total",
+            "CONNECT requests whose upstream connection could not be made");
+    private static final Counter ESTABLISHED = Metrics.counter("daproxy_tunnels_established_total",
+            "Tunnels established");
+    private static final LatencyHistogram CONNECT_LATENCY = Metrics.histogram("daproxy_upstream_connect_seconds",
+            "Time to resolve and connect to the upstream, or to borrow a pooled connection");
+
+    private static final Counter EARLY_DATA = Metrics.counter("daproxy_connect_early_data_total",
+            "CONNECT requests whose client sent tunnel data before the 200 response");
+    private static final byte[] ESTABLISHED_RESPONSE = Response.CONNECTION_ESTABLISHED.toString()
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BAD_GATEWAY = Response.BAD_GATEWAY.toString().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SERVICE_UNAVAILABLE = Response.SERVICE_UNAVAILABLE.toString()
+            .getBytes(StandardCharsets.US_ASCII);
+
     private final Url url;
     private final String headersBlob;
     private final byte[] firstBytesToWrite;
@@ -38,77 +70,99 @@ public class ConnectRequest implements Request {
         return url;
     }
 
+    /**
+     * @return bytes the client sent after the request without waiting for the response, to be tunneled.
+     */
+    public byte[] getFirstBytesToWrite() {
+        return firstBytesToWrite;
+    }
+
     @Override
     public Response handle(Socket socket) throws InvalidRequestException {
-        log.debug("Handling a Connect Request to url: {}", url);
-        log.debug("Did not handle headers: {}", headersBlob);
-        log.debug("Did not write possible first bytes: {} ", firstBytesToWrite);
+        long arrivedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        AccessLog accessLog = AccessLog.shared();
+        String target = null;
         try {
-            boolean matches = false;
-            for(String allowedUrl : Config.getConfig().getAllowList()) {
-                if (getUrl().getHost().matches(allowedUrl)) {
-                    matches = true;
-                    break;
-                }
-            }
-            if (!matches) {
-                throw new InvalidRequestException("host " + getUrl().getHost() + " is not in allowList of" + Config.getConfig().getAllowList());
+            Config conf = Config.getConfig();
+            target = getUrl().getHost() + ":" + getUrl().getPort();
+            if (!conf.getAllowListMatcher().isAllowed(getUrl().getHost())) {
+                DENIED.inc();
+                accessLog.log(new AccessRecord(arrivedAt, socket.getInetAddress(), target, Outcome.DENIED, -1, 0, 0,
+                        elapsedMillis(start), null));
+                throw new InvalidRequestException("host " + getUrl().getHost() + " is not in allowList of" + conf.getAllowList());
             }
 
+            CircuitBreaker.Attempt attempt = CircuitBreaker.shared().tryAcquire(getUrl().getHost(), getUrl().getPort());
+            if (attempt == null) {
+                FAILED.inc();
+                accessLog.log(new AccessRecord(arrivedAt, socket.getInetAddress(), target, Outcome.FAILED, -1, 0, 0,
+                        elapsedMillis(start), null));
+                socket.getOutputStream().write(SERVICE_UNAVAILABLE);
+                return Response.SERVICE_UNAVAILABLE;
+            }
 
-            Socket downstreamSocket = new Socket(url.getHost(), url.getPort()); // extractPort());
+            Socket downstreamSocket;
+            long connectStart = System.nanoTime();
+            try {
+                downstreamSocket = connectUpstream(conf).socket();
+            } catch (IOException ex) {
+                attempt.failed();
+                FAILED.inc();
+                accessLog.log(new AccessRecord(arrivedAt, socket.getInetAddress(), target, Outcome.FAILED,
+                        (System.nanoTime() - connectStart) / 1000, 0, 0, elapsedMillis(start), null));
+                log.debug("Unable to connect to {}", target, ex);
+                socket.getOutputStream().write(BAD_GATEWAY);
+                return Response.BAD_GATEWAY;
+            }
+            long connectMicros = (System.nanoTime() - connectStart) / 1000;
+            attempt.succeeded(connectMicros);
+            CONNECT_LATENCY.record(connectMicros);
             // if this connects, we can give a 200 OK back to client, which will then allow
-            // it to initate further packet transfers.
-            // BufferedWriter br = new BufferedWriter(new
-            // OutputStreamWriter(socket.getOutputStream()));
-            Response resp = Response.CONNECTION_ESTABLISHED;
-
-            socket.getOutputStream().write(resp.toString().getBytes());
-            socket.getOutputStream().flush();
-            log.debug("Wrote  {} to client socket to indicate successful connect to downstream", resp);
-
-            // read from client, write to server. read from remote, write to client. repeat.
-
-            new Thread(() -> {
-                writeAllData(socket, downstreamSocket);
-
-            }).start();
+            // it to initate further packet transfers. Bytes the client sent ahead of the 200, e.g. a TLS ClientHello,
+            // go to the upstream first, so its reply is not held up by our response.
+            try {
+                socket.setTcpNoDelay(true);
+                downstreamSocket.setTcpNoDelay(true);
+                if (firstBytesToWrite.length > 0) {
+                    downstreamSocket.getOutputStream().write(firstBytesToWrite);
+                    EARLY_DATA.inc();
+                }
+                socket.getOutputStream().write(ESTABLISHED_RESPONSE);
+            } catch (IOException ex) {
+                downstreamSocket.close();
+                throw ex;
+            }
 
-            writeAllData(downstreamSocket, socket);
+            Tunnel tunnel = new Tunnel(socket, downstreamSocket, TimingWheel.shared(), conf.getIdleTimeoutMillis());
+            tunnel.transferred(Direction.UPSTREAM, firstBytesToWrite.length);
+            tunnel.shape(Shaper.shared().forTunnel(socket.getInetAddress(), getUrl().getHost()));
+            ESTABLISHED.inc();
+            if (accessLog.isEnabled()) {
+                String tunnelTarget = target;
+                tunnel.onClose(() -> accessLog.log(new AccessRecord(arrivedAt, socket.getInetAddress(), tunnelTarget,
+                        Outcome.ALLOWED, connectMicros, tunnel.getBytes(Direction.UPSTREAM),
+                        tunnel.getBytes(Direction.DOWNSTREAM), elapsedMillis(start),
+                        tunnel.getCloseReason().getLabel())));
+            }
+            Relays.get(conf.getRelayMode()).relay(tunnel);
 
         } catch (IOException ex) {
-            ex.printStackTrace();
+            log.debug("Unable to establish tunnel to {}", target, ex);
         }
 
         return Response.CONNECTION_ESTABLISHED;
     }
 
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
 
-    public void writeAllData(Socket input, Socket output) {
-        while (!input.isClosed() && !output.isClosed()) {
-            try {
-                // log.debug("Thread: Socket (bound, connected, closed, in avail): (" + input.isBound()
-                //         + ", " + input.isConnected() + ", " + input.isClosed() + ", "
-                //         + input.getInputStream().available() + ")");
-                // log.debug("Thread: Downstream Socket (bound, connected, closed, in avail): ("
-                //         + output.isBound() + ", " + output.isConnected() + ", "
-                //         + output.isClosed() + ", " + output.getInputStream().available()
-                //         + ")");
-
-                IOHelper.writeInputToOutput(input.getInputStream(), output.getOutputStream());
-            } catch (IOException ex) {
-                log.debug("Caught IOException - usually means connection is closed", ex);
-                try {
-                    input.close();
-                } catch (Exception ex2) {
-                    log.error("Error trying to close input socket", ex2);
-                }
-                try {
-                    output.close();
-                } catch (Exception ex2) {
-                    log.error("Error trying to close output socket", ex2);
-                }
-            }
-        } 
+    private SocketChannel connectUpstream(Config conf) throws IOException {
+        if (conf.isUpstreamPoolEnabled()) {
+            return UpstreamPool.shared().borrow(url.getHost(), url.getPort());
+        }
+        return Dialer.shared().dial(url.getHost(), url.getPort());
     }
+
 }
\ No newline at end of file
@@ -0,0 +1,521 @@
+package daproxy.http.request;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import daproxy.cache.CachePolicy;
+import daproxy.cache.CachedResponse;
+import daproxy.cache.ResponseCache;
+import daproxy.conf.Config;
+import daproxy.http.AbsoluteUrl;
+import daproxy.http.HttpBody;
+import daproxy.http.HttpHead;
+import daproxy.http.HttpInput;
+import daproxy.http.RequestMethod;
+import daproxy.http.Response;
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.metrics.Counter;
+import daproxy.metrics.Metrics;
+import daproxy.pool.Drain;
+import daproxy.pool.TimingWheel;
+import daproxy.upstream.CircuitBreaker;
+import daproxy.upstream.Dialer;
+import daproxy.upstream.OriginPool;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A plain HTTP request sent to the proxy in absolute-form, e.g. GET http://blog.digitalabyss.ca/ HTTP/1.1, which is
+ * forwarded to the origin server in origin-form. See https://httpwg.org/specs/rfc7230.html#intermediaries
+ *
+ * The client connection is kept alive, and requests pipelined on it are answered in order. Hop-by-hop headers are
+ * removed in both directions, bodies are streamed with their framing intact, and connections to origin servers are
+ * returned to the OriginPool after each complete response. When the ResponseCache is enabled, GET and HEAD requests
+ * are answered from it where RFC 9111 allows.
+ *
+ * Between requests, handle() returns and leaves the connection to wait for its next one without a thread, see
+ * isKeptAlive(). Sockets without a channel cannot be watched that way, so their thread waits for the next request,
+ * for up to keepAliveTimeoutMillis.
+ */
+@Slf4j
+public class ForwardRequest implements Request {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BAD_GATEWAY = Response.BAD_GATEWAY.toString().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SERVICE_UNAVAILABLE = Response.SERVICE_UNAVAILABLE.toString()
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final String NOT_MODIFIED = "HTTP/1.1 304 Not Modified";
+    private static final String HTTP_1_0 = "HTTP/1.0";
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS", "TRACE");
+
+    private static final Counter FORWARDED = Metrics.counter("daproxy_forward_requests_total",
+            "Plain HTTP requests forwarded to an origin server");
+    private static final Counter DENIED = Metrics.counter("daproxy_forward_denied_total",
+            "Plain HTTP requests to hosts outside the allowList");
+    private static final Counter FAILED = Metrics.counter("daproxy_forward_failed_total",
+            "Plain HTTP requests answered with a 502");
+    private static final Counter CACHE_HITS = cacheCounter("hit");
+    private static final Counter CACHE_MISSES = cacheCounter("miss");
+    private static final Counter CACHE_REVALIDATED = cacheCounter("revalidated");
+    private static final Counter CACHE_COLLAPSED = cacheCounter("collapsed");
+
+    private final HttpHead head;
+    private final byte[] bufferedBytes;
+    private final byte[] upstreamBuffer = new byte[BUFFER_SIZE];
+    private volatile Socket client;
+    private volatile Socket upstream;
+    private volatile boolean keptAlive;
+
+    /**
+     * @param head - the request head
+     * @param bufferedBytes - bytes read after the head: the start of the body, or of pipelined requests
+     */
+    public ForwardRequest(HttpHead head, byte[] bufferedBytes) {
+        this.head = head;
+        this.bufferedBytes = bufferedBytes;
+    }
+
+    @Override
+    public RequestMethod getMethod() {
+        return RequestMethod.valueOf(head.getMethod());
+    }
+
+    public HttpHead getHead() {
+        return head;
+    }
+
+    /**
+     * Serves requests on the client connection until either side closes it, or it waits for the next request.
+     */
+    @Override
+    public Response handle(Socket socket) throws InvalidRequestException {
+        client = socket;
+        TimingWheel.Timeout idle = TimingWheel.shared().scheduleIdle(Config.getConfig().getIdleTimeoutMillis(),
+                this::abort);
+        try {
+            socket.setTcpNoDelay(true);
+            HttpInput in = new HttpInput(socket.getInputStream(), new byte[BUFFER_SIZE], bufferedBytes, idle);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+
+            HttpHead request = head;
+            while (request != null) {
+                if (RequestMethod.CONNECT.name().equals(request.getMethod())) {
+                    // a kept-alive connection may go on to open a tunnel, which brings its own idle timeout
+                    idle.cancel();
+                    new ConnectRequest(request.getTarget(), "", in.drainBuffered()).handle(socket);
+                    return Response.CONNECTION_ESTABLISHED;
+                }
+                if (!forward(request, in, out, idle)) {
+                    break;
+                }
+                if (!in.hasBuffered() && socket.getChannel() != null) {
+                    keptAlive = true;
+                    break;
+                }
+                request = awaitNext(in);
+            }
+        } catch (IOException ex) {
+            log.debug("Caught IOException - usually means connection is closed", ex);
+        } finally {
+            idle.cancel();
+            closeUpstream();
+        }
+        return Response.OK;
+    }
+
+    @Override
+    public boolean isKeptAlive() {
+        return keptAlive;
+    }
+
+    /**
+     * Waits for the next request on the kept-alive connection, for up to keepAliveTimeoutMillis when nothing of it
+     * has arrived yet. A drain closes the connection while it waits.
+     * @return the next request, or null if the client closed the connection
+     */
+    private HttpHead awaitNext(HttpInput in) throws IOException, InvalidRequestException {
+        if (in.hasBuffered()) {
+            return in.readHead();
+        }
+        if (!Drain.enterIdle(client)) {
+            return null;
+        }
+        TimingWheel.Timeout keepAlive = TimingWheel.shared().schedule(Config.getConfig().getKeepAliveTimeoutMillis(),
+                this::abort);
+        try {
+            return in.readHead();
+        } finally {
+            keepAlive.cancel();
+            Drain.exitIdle(client);
+        }
+    }
+
+    /**
+     * Sends one request to its origin and relays the response, or answers it from the cache.
+     * @return true if the client connection can carry another request.
+     */
+    private boolean forward(HttpHead request, HttpInput in, OutputStream out, TimingWheel.Timeout idle)
+            throws IOException, InvalidRequestException {
+        String version = request.getRequestVersion();
+        if (!"HTTP/1.1".equals(version) && !HTTP_1_0.equals(version)) {
+            throw new InvalidRequestException("Unsupported protocol: " + version);
+        }
+        try {
+            RequestMethod.valueOf(request.getMethod());
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidRequestException("Unknown method: " + request.getMethod());
+        }
+        AbsoluteUrl url = AbsoluteUrl.parse(request.getTarget());
+        Config conf = Config.getConfig();
+        if (!conf.getAllowListMatcher().isAllowed(url.getHost())) {
+            DENIED.inc();
+            throw new InvalidRequestException("host " + url.getHost() + " is not in allowList of" + conf.getAllowList());
+        }
+
+        boolean clientKeepAlive = request.isKeepAlive(version) && !Drain.isDraining();
+        HttpBody requestBody = HttpBody.forRequest(request);
+        boolean expectContinue = request.hasToken("Expect", "100-continue");
+        request.removeHopByHop();
+        request.remove("Expect"); // the proxy answers 100-continue itself
+        request.set("Host", url.getAuthority());
+        FORWARDED.inc();
+
+        ResponseCache cache = conf.isCacheEnabled() ? ResponseCache.shared() : null;
+        if (cache != null && requestBody.getFraming() == HttpBody.Framing.NONE
+                && CachePolicy.isCacheableRequest(request)) {
+            return forwardCached(request, version, clientKeepAlive, url, requestBody, cache, in, out, idle);
+        }
+
+        Origin origin = exchange(request, url, requestBody, expectContinue, in, out, idle);
+        if (origin == null) {
+            return false;
+        }
+        // https://httpwg.org/specs/rfc9111.html#invalidation
+        if (cache != null && !SAFE_METHODS.contains(request.getMethod()) && origin.response.getStatus() < 400) {
+            cache.invalidate(ResponseCache.key(url));
+        }
+        return relay(request.getMethod(), version, clientKeepAlive, url, origin, out, out);
+    }
+
+    /**
+     * Serves a GET or HEAD from the cache when it holds a fresh response. Otherwise the request goes to the origin,
+     * revalidating a stale response if it can, and the response is stored as it is relayed. Concurrent misses for the
+     * same url wait for the first one's response rather than each going to the origin.
+     */
+    private boolean forwardCached(HttpHead request, String version, boolean clientKeepAlive, AbsoluteUrl url,
+            HttpBody requestBody, ResponseCache cache, HttpInput in, OutputStream out, TimingWheel.Timeout idle)
+            throws IOException {
+        String key = ResponseCache.key(url);
+        CachedResponse cached = cache.get(key);
+        if (cached != null && CachePolicy.isFresh(cached, request, System.currentTimeMillis())) {
+            CACHE_HITS.inc();
+            return serve(cached, request, version, clientKeepAlive, out, idle);
+        }
+
+        // only a GET can fill the cache, but a HEAD can be answered from a GET's response
+        ResponseCache.Fill fill = "GET".equals(request.getMethod()) ? cache.startFill(key) : null;
+        if (fill != null && !fill.isLeader()) {
+            CachedResponse filled = fill.await();
+            if (filled != null) {
+                CACHE_COLLAPSED.inc();
+                return serve(filled, request, version, clientKeepAlive, out, idle);
+            }
+            fill = null;
+        }
+        CACHE_MISSES.inc();
+
+        try {
+            HttpHead upstreamRequest = request;
+            boolean revalidating = fill != null && cached != null && cached.hasValidators()
+                    && !CachePolicy.hasConditionals(request);
+            if (revalidating) {
+                upstreamRequest = request.copy();
+                if (cached.getETag() != null) {
+                    upstreamRequest.set("If-None-Match", cached.getETag());
+                }
+                if (cached.getLastModified() != null) {
+                    upstreamRequest.set("If-Modified-Since", cached.getLastModified());
+                }
+            }
+
+            long requestTime = System.currentTimeMillis();
+            Origin origin = exchange(upstreamRequest, url, requestBody, false, in, out, idle);
+            if (origin == null) {
+                return false;
+            }
+            long responseTime = System.currentTimeMillis();
+            HttpHead response = origin.response;
+
+            if (revalidating && response.getStatus() == 304) {
+                CACHE_REVALIDATED.inc();
+                CachedResponse updated = cached.revalidated(response, requestTime, responseTime);
+                fill.finish(updated);
+                release(url, origin, response.isKeepAlive(response.getResponseVersion()));
+                return serve(updated, request, version, clientKeepAlive, out, idle);
+            }
+
+            HttpBody responseBody = HttpBody.forResponse(request.getMethod(), response);
+            response.removeHopByHop();
+            boolean store = fill != null && responseBody.getFraming() != HttpBody.Framing.UNTIL_CLOSE
+                    && CachePolicy.isStorable(request, response);
+            if (!store) {
+                if (fill != null && cached != null && response.getStatus() != 304) {
+                    cache.invalidate(key); // replaced by a response that cannot be stored
+                }
+                return relay(request.getMethod(), version, clientKeepAlive, url, origin, out, out);
+            }
+
+            HttpHead stored = response.copy();
+            boolean keepAlive = relay(request.getMethod(), version, clientKeepAlive, url, origin, out,
+                    fill.capture(out));
+            byte[] body = fill.getCapturedBody();
+            if (body != null && isUnchunked(version, responseBody)) {
+                // what was captured is the body without its chunked framing
+                stored.remove("Transfer-Encoding");
+                stored.set("Content-Length", Integer.toString(body.length));
+            }
+            if (body != null) {
+                fill.finish(new CachedResponse(stored, body, requestTime, responseTime));
+            }
+            return keepAlive;
+        } finally {
+            if (fill != null) {
+                fill.finish(null);
+            }
+        }
+    }
+
+    /**
+     * Sends the request to the origin, over a pooled connection when there is one.
+     * @return the origin's final response, or null after answering the client with a 502.
+     */
+    private Origin exchange(HttpHead request, AbsoluteUrl url, HttpBody requestBody, boolean expectContinue,
+            HttpInput in, OutputStream out, TimingWheel.Timeout idle) throws IOException {
+        byte[] upstreamHead = request.toBytes(request.getMethod() + " " + url.getPathAndQuery() + " HTTP/1.1");
+        SocketChannel channel = OriginPool.shared().poll(url.getHost(), url.getPort());
+        HttpInput upstreamIn;
+        HttpHead response;
+        while (true) {
+            boolean reused = channel != null;
+            if (!reused) {
+                channel = dial(url, out);
+                if (channel == null) {
+                    return null;
+                }
+            }
+            upstream = channel.socket();
+            try {
+                OutputStream upstreamOut = new BufferedOutputStream(upstream.getOutputStream(), BUFFER_SIZE);
+                upstreamOut.write(upstreamHead);
+                if (expectContinue) {
+                    out.write(CONTINUE);
+                    out.flush();
+                    expectContinue = false;
+                }
+                requestBody.copy(in, upstreamOut);
+
+                upstreamIn = new HttpInput(upstream.getInputStream(), upstreamBuffer, new byte[0], idle);
+                response = upstreamIn.readHead();
+                if (response != null) {
+                    break;
+                }
+                throw new IOException("Origin closed the connection without responding");
+            } catch (IOException | InvalidRequestException ex) {
+                closeUpstream();
+                // a kept-alive connection may have been closed by the origin just as it was reused
+                if (reused && requestBody.getFraming() == HttpBody.Framing.NONE) {
+                    log.debug("Retrying on a new connection after a reused one failed", ex);
+                    channel = null;
+                    continue;
+                }
+                FAILED.inc();
+                log.debug("Error forwarding request to {}", url.getAuthority(), ex);
+                out.write(BAD_GATEWAY);
+                out.flush();
+                return null;
+            }
+        }
+
+        try {
+            while (response.getStatus() < 200) { // interim responses, e.g. 100 Continue
+                response.removeHopByHop();
+                out.write(response.toBytes(statusLine(response)));
+                out.flush();
+                response = upstreamIn.readHead();
+                if (response == null) {
+                    throw new IOException("Origin closed the connection after an interim response");
+                }
+            }
+        } catch (NumberFormatException | InvalidRequestException ex) {
+            throw new IOException("Origin sent a malformed response", ex);
+        }
+        return new Origin(channel, upstreamIn, response);
+    }
+
+    /**
+     * Relays the origin's response to the client, then returns the origin connection to the pool if it can be reused.
+     * A chunked body is sent to an HTTP/1.0 client without its framing, and ended by closing the connection.
+     * @param out - the client connection, for the head
+     * @param bodyOut - the stream to write the body to, out or a stream that also stores it
+     * @return true if the client connection can carry another request.
+     */
+    private boolean relay(String method, String version, boolean clientKeepAlive, AbsoluteUrl url, Origin origin,
+            OutputStream out, OutputStream bodyOut) throws IOException {
+        HttpHead response = origin.response;
+        HttpBody responseBody = HttpBody.forResponse(method, response);
+        boolean originKeepAlive = response.isKeepAlive(response.getResponseVersion())
+                && responseBody.getFraming() != HttpBody.Framing.UNTIL_CLOSE;
+        boolean unchunked = isUnchunked(version, responseBody);
+        boolean keepAlive = clientKeepAlive && responseBody.getFraming() != HttpBody.Framing.UNTIL_CLOSE && !unchunked;
+        response.removeHopByHop();
+        if (unchunked) {
+            response.remove("Transfer-Encoding");
+        }
+        writeHead(response, statusLine(response), version, keepAlive, out);
+        if (unchunked) {
+            responseBody.copyUnchunked(origin.in, bodyOut);
+        } else {
+            responseBody.copy(origin.in, bodyOut);
+        }
+        release(url, origin, originKeepAlive);
+        return keepAlive;
+    }
+
+    /**
+     * Answers the request with a stored response, or a 304 if the client's conditional request matches it. A chunked
+     * body is sent to an HTTP/1.0 client without its framing, and with a Content-Length.
+     */
+    private static boolean serve(CachedResponse cached, HttpHead request, String version, boolean clientKeepAlive,
+            OutputStream out, TimingWheel.Timeout idle) throws IOException {
+        HttpHead response = cached.copyHead();
+        response.set("Age", Long.toString(cached.currentAge(System.currentTimeMillis()) / 1000));
+        byte[] body = cached.getBody();
+        HttpBody storedBody = HttpBody.forResponse("GET", response);
+        if (isUnchunked(version, storedBody)) {
+            ByteArrayOutputStream unchunked = new ByteArrayOutputStream(body.length);
+            storedBody.copyUnchunked(new HttpInput(new ByteArrayInputStream(body), new byte[BUFFER_SIZE], new byte[0],
+                    idle), unchunked);
+            body = unchunked.toByteArray();
+            response.remove("Transfer-Encoding");
+            response.set("Content-Length", Integer.toString(body.length));
+        }
+        if (CachePolicy.isNotModified(request, cached)) {
+            response.remove("Transfer-Encoding");
+            writeHead(response, NOT_MODIFIED, version, clientKeepAlive, out);
+        } else {
+            writeHead(response, cached.getStatusLine(), version, clientKeepAlive, out);
+            if (!"HEAD".equals(request.getMethod())) {
+                out.write(body);
+            }
+        }
+        out.flush();
+        return clientKeepAlive;
+    }
+
+    /**
+     * @return true if the body is chunked but the client is an HTTP/1.0 one, which cannot parse chunked framing:
+     * https://httpwg.org/specs/rfc9112.html#chunked.encoding
+     */
+    private static boolean isUnchunked(String version, HttpBody body) {
+        return HTTP_1_0.equals(version) && body.getFraming() == HttpBody.Framing.CHUNKED;
+    }
+
+    private static void writeHead(HttpHead response, String statusLine, String version, boolean keepAlive,
+            OutputStream out) throws IOException {
+        if (!keepAlive) {
+            response.set("Connection", "close");
+        } else if (HTTP_1_0.equals(version)) {
+            response.set("Connection", "keep-alive");
+        }
+        out.write(response.toBytes(statusLine));
+    }
+
+    private void release(AbsoluteUrl url, Origin origin, boolean reusable) {
+        if (reusable && !origin.in.hasBuffered()) {
+            upstream = null;
+            OriginPool.shared().release(url.getHost(), url.getPort(), origin.channel);
+        } else {
+            closeUpstream();
+        }
+    }
+
+    /**
+     * @return a new connection to the origin, or null after answering the client with a 502, or a 503 if the origin's
+     * circuit breaker is open.
+     */
+    private SocketChannel dial(AbsoluteUrl url, OutputStream out) throws IOException {
+        CircuitBreaker.Attempt attempt = CircuitBreaker.shared().tryAcquire(url.getHost(), url.getPort());
+        if (attempt == null) {
+            FAILED.inc();
+            out.write(SERVICE_UNAVAILABLE);
+            out.flush();
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            SocketChannel channel = Dialer.shared().dial(url.getHost(), url.getPort());
+            attempt.succeeded((System.nanoTime() - start) / 1000);
+            return channel;
+        } catch (IOException ex) {
+            attempt.failed();
+            FAILED.inc();
+            log.debug("Unable to connect to {}", url.getAuthority(), ex);
+            out.write(BAD_GATEWAY);
+            out.flush();
+            return null;
+        }
+    }
+
+    private static Counter cacheCounter(String result) {
+        return Metrics.counter("daproxy_cache_requests_total", "Cacheable requests by how they were answered",
+                "result", result);
+    }
+
+    private static String statusLine(HttpHead response) {
+        return "HTTP/1.1 " + response.getStatus() + " " + response.getReason();
+    }
+
+    /**
+     * Run by the idle timeout: unblocks whichever read is waiting by closing both connections.
+     */
+    private void abort() {
+        log.debug("Closing idle forward proxy connection");
+        closeUpstream();
+        try {
+            client.close();
+        } catch (IOException ex) {
+            log.error("Error trying to close socket", ex);
+        }
+    }
+
+    private void closeUpstream() {
+        Socket socket = upstream;
+        upstream = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                log.error("Error trying to close upstream socket", ex);
+            }
+        }
+    }
+
+    private static final class Origin {
+        private final SocketChannel channel;
+        private final HttpInput in;
+        private final HttpHead response;
+
+        Origin(SocketChannel channel, HttpInput in, HttpHead response) {
+            this.channel = channel;
+            this.in = in;
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package daproxy.http.request;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import daproxy.http.RequestMethod;
+import daproxy.http.Response;
+import daproxy.http2.Http2Connection;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An HTTP/2 connection, opened with the connection preface instead of a request. It carries any number of CONNECT
+ * streams, each tunneled like a ConnectRequest, and is served until the client closes it.
+ */
+@Slf4j
+public class Http2Request implements Request {
+
+    private final byte[] firstBytes;
+
+    /**
+     * @param firstBytes - bytes the client sent after the preface, the start of its first frame
+     */
+    public Http2Request(byte[] firstBytes) {
+        this.firstBytes = firstBytes;
+    }
+
+    /**
+     * @return CONNECT, the only method served over HTTP/2.
+     */
+    @Override
+    public RequestMethod getMethod() {
+        return RequestMethod.CONNECT;
+    }
+
+    public byte[] getFirstBytes() {
+        return firstBytes;
+    }
+
+    @Override
+    public Response handle(Socket socket) {
+        try {
+            new Http2Connection(socket, firstBytes).serve();
+        } catch (IOException ex) {
+            log.debug("Unable to serve HTTP/2 connection", ex);
+        }
+        return Response.OK;
+    }
+}
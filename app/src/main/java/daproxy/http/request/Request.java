@@ -22,4 +22,12 @@ public interface Request {
      */
     public Response handle(Socket socket) throws InvalidRequestException;
 
+    /**
+     * @return true if handle() returned between requests on a kept-alive connection, which should then wait for its
+     * next request without holding a thread rather than be closed.
+     */
+    public default boolean isKeptAlive() {
+        return false;
+    }
+
 }
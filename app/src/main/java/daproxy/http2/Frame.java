@@ -0,0 +1,49 @@
+package daproxy.http2;
+
+/**
+ * HTTP/2 frame types, flags, settings and error codes, see https://www.rfc-editor.org/rfc/rfc9113#section-6
+ */
+final class Frame {
+
+    static final int HEADER_LENGTH = 9;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    static final int DEFAULT_WINDOW = 65535;
+    static final int MAX_WINDOW = Integer.MAX_VALUE;
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int CONNECT_ERROR = 0xa;
+
+    private Frame() {
+    }
+}
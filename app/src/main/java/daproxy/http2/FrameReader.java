@@ -0,0 +1,74 @@
+package daproxy.http2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import daproxy.http.exceptions.Http2Exception;
+
+/**
+ * Reads frames one at a time into a reused payload buffer. The fields describe the last frame read.
+ */
+final class FrameReader {
+
+    private final InputStream in;
+    private final byte[] header = new byte[Frame.HEADER_LENGTH];
+    private final byte[] payload;
+
+    int type;
+    int flags;
+    int streamId;
+    int length;
+
+    /**
+     * @param in
+     * @param maxFrameSize - as advertised to the peer; longer frames are a FRAME_SIZE_ERROR
+     */
+    FrameReader(InputStream in, int maxFrameSize) {
+        this.in = in;
+        this.payload = new byte[maxFrameSize];
+    }
+
+    /**
+     * @return false if the peer closed the connection between frames.
+     * @throws EOFException if it closed the connection part way through a frame
+     */
+    boolean next() throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return false;
+        }
+        header[0] = (byte) first;
+        readFully(header, 1, Frame.HEADER_LENGTH - 1);
+        length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | (header[2] & 0xff);
+        type = header[3] & 0xff;
+        flags = header[4] & 0xff;
+        streamId = readInt(header, 5) & 0x7fffffff;
+        if (length > payload.length) {
+            throw new Http2Exception(Frame.FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds "
+                    + payload.length);
+        }
+        readFully(payload, 0, length);
+        return true;
+    }
+
+    byte[] payload() {
+        return payload;
+    }
+
+    private void readFully(byte[] buf, int offset, int count) throws IOException {
+        while (count > 0) {
+            int read = in.read(buf, offset, count);
+            if (read == -1) {
+                throw new EOFException("Connection closed part way through a frame");
+            }
+            offset += read;
+            count -= read;
+        }
+    }
+
+    static int readInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xff) << 24 | (buf[offset + 1] & 0xff) << 16 | (buf[offset + 2] & 0xff) << 8
+                | (buf[offset + 3] & 0xff);
+    }
+}
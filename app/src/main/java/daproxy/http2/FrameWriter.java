@@ -0,0 +1,72 @@
+package daproxy.http2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes frames for the connection's thread and every stream's thread. Each frame is written and flushed whole under
+ * the writer's lock, so frames from different streams never interleave.
+ */
+final class FrameWriter {
+
+    private final OutputStream out;
+    private final byte[] header = new byte[Frame.HEADER_LENGTH];
+
+    FrameWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    synchronized void write(int type, int flags, int streamId, byte[] payload, int offset, int length)
+            throws IOException {
+        header[0] = (byte) (length >>> 16);
+        header[1] = (byte) (length >>> 8);
+        header[2] = (byte) length;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        writeInt(header, 5, streamId);
+        out.write(header);
+        out.write(payload, offset, length);
+        out.flush();
+    }
+
+    void write(int type, int flags, int streamId, byte[] payload) throws IOException {
+        write(type, flags, streamId, payload, 0, payload.length);
+    }
+
+    void settings(int... idsAndValues) throws IOException {
+        byte[] payload = new byte[idsAndValues.length / 2 * 6];
+        for (int i = 0; i < idsAndValues.length; i += 2) {
+            int offset = i / 2 * 6;
+            payload[offset] = (byte) (idsAndValues[i] >>> 8);
+            payload[offset + 1] = (byte) idsAndValues[i];
+            writeInt(payload, offset + 2, idsAndValues[i + 1]);
+        }
+        write(Frame.SETTINGS, 0, 0, payload);
+    }
+
+    void windowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+        write(Frame.WINDOW_UPDATE, 0, streamId, payload);
+    }
+
+    void rstStream(int streamId, int errorCode) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, errorCode);
+        write(Frame.RST_STREAM, 0, streamId, payload);
+    }
+
+    void goAway(int lastStreamId, int errorCode) throws IOException {
+        byte[] payload = new byte[8];
+        writeInt(payload, 0, lastStreamId);
+        writeInt(payload, 4, errorCode);
+        write(Frame.GOAWAY, 0, 0, payload);
+    }
+
+    static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+}
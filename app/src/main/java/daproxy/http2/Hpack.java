@@ -0,0 +1,226 @@
+package daproxy.http2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import daproxy.http.exceptions.Http2Exception;
+
+/**
+ * HPACK header compression, see https://www.rfc-editor.org/rfc/rfc7541
+ *
+ * A Hpack instance decodes the header blocks of one connection, keeping the dynamic table the peer's encoder builds
+ * up. Every block must be decoded in order, even for streams that are refused, or the table falls out of step.
+ * Responses are only ever a :status, which encode() writes without touching the peer's dynamic table.
+ */
+final class Hpack {
+
+    /**
+     * A decoded header field. Names are lower case, as HTTP/2 requires.
+     */
+    static final class Field {
+        final String name;
+        final String value;
+
+        Field(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        int size() {
+            return name.length() + value.length() + 32; // RFC 7541 section 4.1
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + value;
+        }
+    }
+
+    // RFC 7541 Appendix A
+    private static final Field[] STATIC_TABLE = {
+        null, // indexes start at 1
+        new Field(":authority", ""), new Field(":method", "GET"), new Field(":method", "POST"),
+        new Field(":path", "/"), new Field(":path", "/index.html"), new Field(":scheme", "http"),
+        new Field(":scheme", "https"), new Field(":status", "200"), new Field(":status", "204"),
+        new Field(":status", "206"), new Field(":status", "304"), new Field(":status", "400"),
+        new Field(":status", "404"), new Field(":status", "500"), new Field("accept-charset", ""),
+        new Field("accept-encoding", "gzip, deflate"), new Field("accept-language", ""),
+        new Field("accept-ranges", ""), new Field("accept", ""), new Field("access-control-allow-origin", ""),
+        new Field("age", ""), new Field("allow", ""), new Field("authorization", ""),
+        new Field("cache-control", ""), new Field("content-disposition", ""), new Field("content-encoding", ""),
+        new Field("content-language", ""), new Field("content-length", ""), new Field("content-location", ""),
+        new Field("content-range", ""), new Field("content-type", ""), new Field("cookie", ""),
+        new Field("date", ""), new Field("etag", ""), new Field("expect", ""), new Field("expires", ""),
+        new Field("from", ""), new Field("host", ""), new Field("if-match", ""),
+        new Field("if-modified-since", ""), new Field("if-none-match", ""), new Field("if-range", ""),
+        new Field("if-unmodified-since", ""), new Field("last-modified", ""), new Field("link", ""),
+        new Field("location", ""), new Field("max-forwards", ""), new Field("proxy-authenticate", ""),
+        new Field("proxy-authorization", ""), new Field("range", ""), new Field("referer", ""),
+        new Field("refresh", ""), new Field("retry-after", ""), new Field("server", ""),
+        new Field("set-cookie", ""), new Field("strict-transport-security", ""),
+        new Field("transfer-encoding", ""), new Field("user-agent", ""), new Field("vary", ""),
+        new Field("via", ""), new Field("www-authenticate", ""),
+    };
+    private static final int STATUS_NAME_INDEX = 8;
+
+    private final Deque<Field> dynamicTable = new ArrayDeque<>();
+    private final int maxTableSizeLimit;
+    private final int maxHeaderListSize;
+    private int maxTableSize;
+    private int tableSize;
+
+    /**
+     * @param maxTableSize - SETTINGS_HEADER_TABLE_SIZE as advertised to the peer
+     * @param maxHeaderListSize - SETTINGS_MAX_HEADER_LIST_SIZE as advertised to the peer
+     */
+    Hpack(int maxTableSize, int maxHeaderListSize) {
+        this.maxTableSizeLimit = maxTableSize;
+        this.maxTableSize = maxTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    /**
+     * @param status
+     * @return a header block holding only the status.
+     */
+    static byte[] encodeStatus(int status) {
+        for (int i = STATUS_NAME_INDEX; i < STATIC_TABLE.length && STATIC_TABLE[i].name.equals(":status"); i++) {
+            if (STATIC_TABLE[i].value.equals(Integer.toString(status))) {
+                return new byte[] { (byte) (0x80 | i) }; // indexed field
+            }
+        }
+        byte[] value = Integer.toString(status).getBytes(StandardCharsets.US_ASCII);
+        byte[] block = new byte[2 + value.length];
+        block[0] = STATUS_NAME_INDEX; // literal without indexing, indexed name
+        block[1] = (byte) value.length; // not Huffman encoded
+        System.arraycopy(value, 0, block, 2, value.length);
+        return block;
+    }
+
+    /**
+     * @param block - a complete header block, HEADERS and CONTINUATION fragments joined
+     * @param length
+     * @return the fields in the order they were sent.
+     * @throws Http2Exception COMPRESSION_ERROR if the block cannot be decoded
+     */
+    List<Field> decode(byte[] block, int length) throws Http2Exception {
+        List<Field> fields = new ArrayList<>();
+        int listSize = 0;
+        int[] pos = { 0 };
+        while (pos[0] < length) {
+            int b = block[pos[0]] & 0xff;
+            Field field;
+            if ((b & 0x80) != 0) { // indexed field
+                field = get(readInt(block, pos, length, 7));
+            } else if ((b & 0x40) != 0) { // literal with incremental indexing
+                field = readLiteral(block, pos, length, 6);
+                add(field);
+            } else if ((b & 0x20) != 0) { // dynamic table size update
+                if (!fields.isEmpty()) {
+                    throw new Http2Exception(Frame.COMPRESSION_ERROR, "Table size update after a header field");
+                }
+                int size = readInt(block, pos, length, 5);
+                if (size > maxTableSizeLimit) {
+                    throw new Http2Exception(Frame.COMPRESSION_ERROR, "Table size " + size + " exceeds "
+                            + maxTableSizeLimit);
+                }
+                maxTableSize = size;
+                evict(0);
+                continue;
+            } else { // literal without indexing, or never indexed
+                field = readLiteral(block, pos, length, 4);
+            }
+            listSize += field.size();
+            if (listSize > maxHeaderListSize) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Header list exceeds " + maxHeaderListSize
+                        + " bytes");
+            }
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    private Field get(int index) throws Http2Exception {
+        if (index > 0 && index < STATIC_TABLE.length) {
+            return STATIC_TABLE[index];
+        }
+        int dynamicIndex = index - STATIC_TABLE.length;
+        if (index == 0 || dynamicIndex >= dynamicTable.size()) {
+            throw new Http2Exception(Frame.COMPRESSION_ERROR, "Invalid header table index " + index);
+        }
+        for (Field field : dynamicTable) { // newest first
+            if (dynamicIndex-- == 0) {
+                return field;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private void add(Field field) {
+        evict(field.size());
+        if (field.size() <= maxTableSize) {
+            dynamicTable.addFirst(field);
+            tableSize += field.size();
+        }
+    }
+
+    /**
+     * Evicts the oldest fields until the table has room for another of the given size, or is empty.
+     */
+    private void evict(int room) {
+        while (!dynamicTable.isEmpty() && tableSize + room > maxTableSize) {
+            tableSize -= dynamicTable.removeLast().size();
+        }
+    }
+
+    int getTableSize() {
+        return tableSize;
+    }
+
+    private Field readLiteral(byte[] block, int[] pos, int length, int prefixBits) throws Http2Exception {
+        int nameIndex = readInt(block, pos, length, prefixBits);
+        String name = nameIndex == 0 ? readString(block, pos, length) : get(nameIndex).name;
+        return new Field(name, readString(block, pos, length));
+    }
+
+    private static String readString(byte[] block, int[] pos, int length) throws Http2Exception {
+        if (pos[0] >= length) {
+            throw new Http2Exception(Frame.COMPRESSION_ERROR, "Truncated header block");
+        }
+        boolean huffman = (block[pos[0]] & 0x80) != 0;
+        int stringLength = readInt(block, pos, length, 7);
+        if (stringLength > length - pos[0]) {
+            throw new Http2Exception(Frame.COMPRESSION_ERROR, "Truncated header block");
+        }
+        String value = huffman
+                ? new String(Huffman.decode(block, pos[0], stringLength), StandardCharsets.ISO_8859_1)
+                : new String(block, pos[0], stringLength, StandardCharsets.ISO_8859_1);
+        pos[0] += stringLength;
+        return value;
+    }
+
+    /**
+     * Reads an integer with an N bit prefix, RFC 7541 section 5.1, advancing pos past it.
+     */
+    static int readInt(byte[] block, int[] pos, int length, int prefixBits) throws Http2Exception {
+        int max = (1 << prefixBits) - 1;
+        int value = block[pos[0]++] & max;
+        if (value < max) {
+            return value;
+        }
+        for (int shift = 0; shift <= 21; shift += 7) {
+            if (pos[0] >= length) {
+                break;
+            }
+            int b = block[pos[0]++] & 0xff;
+            value += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new Http2Exception(Frame.COMPRESSION_ERROR, "Invalid or oversized integer in header block");
+    }
+}
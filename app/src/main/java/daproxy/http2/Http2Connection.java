@@ -0,0 +1,590 @@
+package daproxy.http2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import daproxy.conf.Config;
+import daproxy.conf.RelayMode;
+import daproxy.http.Url;
+import daproxy.http.exceptions.Http2Exception;
+import daproxy.log.AccessLog;
+import daproxy.log.AccessRecord;
+import daproxy.log.AccessRecord.Outcome;
+import daproxy.metrics.Counter;
+import daproxy.metrics.Metrics;
+import daproxy.pool.Drain;
+import daproxy.pool.TimingWheel;
+import daproxy.relay.CloseReason;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves one HTTP/2 connection opened with prior knowledge (h2c, RFC 9113 section 3.3), carrying any number of CONNECT
+ * streams (RFC 9113 section 8.5). Each stream is tunneled to its own upstream connection as an HTTP/1.1 CONNECT would
+ * be, with the same allowList, circuit breaker, bandwidth limits and access log, and the same status codes, sent as the
+ * stream's :status.
+ *
+ * The calling thread reads frames. Each stream has a thread that connects upstream and then sends what the upstream
+ * sends as DATA frames, and a thread that writes the client's DATA to the upstream. Flow control bounds what is
+ * buffered in between: the client's window for a stream only reopens once its data has been written upstream, and
+ * DATA is only sent while the client's windows have room. The streams' threads follow executionMode whatever the
+ * relayMode, which only applies to HTTP/1.1 tunnels.
+ *
+ * When a drain begins, the client is sent a GOAWAY naming the last stream accepted, and new streams are refused. The
+ * open streams carry on, and the connection is closed once they have all finished.
+ */
+@Slf4j
+public class Http2Connection {
+
+    private static final int CONNECTION_WINDOW = 16 * 1024 * 1024;
+    private static final int HEADER_TABLE_SIZE = 4096;
+    private static final int MAX_HEADER_LIST_SIZE = 16 * 1024;
+    private static final int MAX_HEADER_BLOCK = 64 * 1024;
+    private static final int BUFFER_SIZE = Frame.HEADER_LENGTH + Frame.DEFAULT_MAX_FRAME_SIZE;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final AtomicInteger ACTIVE_STREAMS = new AtomicInteger();
+    private static final AtomicBoolean RELAY_MODE_LOGGED = new AtomicBoolean();
+    private static final Counter CONNECTIONS = Metrics.counter("daproxy_http2_connections_total",
+            "HTTP/2 connections accepted");
+    private static final Counter STREAMS = Metrics.counter("daproxy_http2_streams_total",
+            "HTTP/2 CONNECT streams requested");
+    private static final Counter REFUSED = Metrics.counter("daproxy_http2_streams_refused_total",
+            "HTTP/2 streams refused because the connection had too many or the proxy was draining");
+
+    static {
+        Metrics.gauge("daproxy_http2_streams_active", "HTTP/2 CONNECT streams currently open", ACTIVE_STREAMS::get);
+    }
+
+    private final Socket socket;
+    private final FrameReader reader;
+    private final FrameWriter writer;
+    private final Config conf;
+    private final Hpack hpack = new Hpack(HEADER_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+    private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+    private final Runnable drainHandle = this::drain;
+    private final TimingWheel.Timeout idleTimeout;
+
+    // written by the reading thread, and read by a drain for its GOAWAY
+    private volatile int lastStreamId;
+
+    // only touched by the reading thread
+    private int receiveWindow = CONNECTION_WINDOW;
+    private int unacknowledged;
+    private ByteArrayOutputStream headerBlock;
+    private int headerStreamId;
+    private int headerFlags;
+
+    // guarded by this, together with every stream's send window
+    private int sendWindow = Frame.DEFAULT_WINDOW;
+    private int peerInitialWindow = Frame.DEFAULT_WINDOW;
+    private boolean closed;
+    private boolean goingAway;
+
+    /**
+     * @param socket - the client connection, after the preface
+     * @param firstBytes - bytes read along with the preface, the start of the first frame
+     */
+    public Http2Connection(Socket socket, byte[] firstBytes) throws IOException {
+        this.socket = socket;
+        this.conf = Config.getConfig();
+        this.reader = new FrameReader(new BufferedInputStream(new SequenceInputStream(
+                new ByteArrayInputStream(firstBytes), socket.getInputStream()), BUFFER_SIZE),
+                Frame.DEFAULT_MAX_FRAME_SIZE);
+        this.writer = new FrameWriter(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+        this.idleTimeout = TimingWheel.shared().scheduleIdle(conf.getIdleTimeoutMillis(), () -> {
+            log.debug("Closing HTTP/2 connection idle for {} ms", conf.getIdleTimeoutMillis());
+            goAway(Frame.NO_ERROR);
+        });
+    }
+
+    /**
+     * Reads frames until the client closes the connection or breaks the protocol.
+     */
+    public void serve() {
+        CONNECTIONS.inc();
+        if (conf.getRelayMode() != RelayMode.BLOCKING && RELAY_MODE_LOGGED.compareAndSet(false, true)) {
+            log.info("relayMode {} does not apply to HTTP/2 CONNECT streams, which are relayed by threads of their own",
+                    conf.getRelayMode());
+        }
+        CloseReason reason = CloseReason.CLIENT_CLOSED;
+        try {
+            writer.settings(Frame.SETTINGS_MAX_CONCURRENT_STREAMS, conf.getHttp2MaxConcurrentStreams(),
+                    Frame.SETTINGS_INITIAL_WINDOW_SIZE, conf.getHttp2InitialWindowSize(),
+                    Frame.SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+            writer.windowUpdate(0, CONNECTION_WINDOW - Frame.DEFAULT_WINDOW);
+            if (!Drain.register(drainHandle)) {
+                drain();
+            }
+
+            boolean first = true;
+            while (reader.next()) {
+                touch();
+                if (first && (reader.type != Frame.SETTINGS || (reader.flags & Frame.FLAG_ACK) != 0)) {
+                    throw new Http2Exception(Frame.PROTOCOL_ERROR, "Expected SETTINGS after the preface");
+                }
+                first = false;
+                onFrame();
+            }
+        } catch (Http2Exception ex) {
+            log.debug("HTTP/2 protocol error from {}", socket.getRemoteSocketAddress(), ex);
+            reason = CloseReason.ERROR;
+            goAway(ex.getErrorCode());
+        } catch (IOException ex) {
+            log.debug("HTTP/2 connection closed", ex);
+        } finally {
+            Drain.unregister(drainHandle);
+            idleTimeout.cancel();
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            for (Http2Stream stream : streams.values()) {
+                stream.reset(reason, -1);
+            }
+        }
+    }
+
+    private void onFrame() throws IOException {
+        byte[] payload = reader.payload();
+        int length = reader.length;
+        int streamId = reader.streamId;
+        if (headerBlock != null && reader.type != Frame.CONTINUATION) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Expected CONTINUATION");
+        }
+
+        switch (reader.type) {
+        case Frame.DATA:
+            onData(streamId, reader.flags, payload, length);
+            break;
+        case Frame.HEADERS:
+            onHeaders(streamId, reader.flags, payload, length);
+            break;
+        case Frame.CONTINUATION:
+            if (headerBlock == null || streamId != headerStreamId) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+            }
+            appendHeaderBlock(payload, 0, length);
+            if ((reader.flags & Frame.FLAG_END_HEADERS) != 0) {
+                onHeaderBlock();
+            }
+            break;
+        case Frame.PRIORITY:
+            requireStream(streamId);
+            requireLength(length, 5);
+            break;
+        case Frame.RST_STREAM:
+            requireStream(streamId);
+            requireLength(length, 4);
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "RST_STREAM on idle stream " + streamId);
+            }
+            Http2Stream reset = streams.get(streamId);
+            if (reset != null) {
+                reset.reset(CloseReason.CLIENT_CLOSED, -1);
+            }
+            break;
+        case Frame.SETTINGS:
+            onSettings(streamId, reader.flags, payload, length);
+            break;
+        case Frame.PING:
+            if (streamId != 0) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "PING on stream " + streamId);
+            }
+            requireLength(length, 8);
+            if ((reader.flags & Frame.FLAG_ACK) == 0) {
+                writer.write(Frame.PING, Frame.FLAG_ACK, 0, payload, 0, 8);
+            }
+            break;
+        case Frame.GOAWAY:
+            log.debug("Client sent GOAWAY with error {}", length >= 8 ? FrameReader.readInt(payload, 4) : -1);
+            break;
+        case Frame.WINDOW_UPDATE:
+            requireLength(length, 4);
+            onWindowUpdate(streamId, FrameReader.readInt(payload, 0) & 0x7fffffff);
+            break;
+        case Frame.PUSH_PROMISE:
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Clients cannot push");
+        default:
+            break; // unknown frame types are ignored
+        }
+    }
+
+    private static void requireStream(int streamId) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Frame requires a stream");
+        }
+    }
+
+    private static void requireLength(int length, int expected) throws Http2Exception {
+        if (length != expected) {
+            throw new Http2Exception(Frame.FRAME_SIZE_ERROR, "Expected a " + expected + " byte payload");
+        }
+    }
+
+    private void onSettings(int streamId, int flags, byte[] payload, int length) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & Frame.FLAG_ACK) != 0) {
+            requireLength(length, 0);
+            return;
+        }
+        if (length % 6 != 0) {
+            throw new Http2Exception(Frame.FRAME_SIZE_ERROR, "SETTINGS length " + length);
+        }
+        for (int offset = 0; offset < length; offset += 6) {
+            int id = (payload[offset] & 0xff) << 8 | (payload[offset + 1] & 0xff);
+            int value = FrameReader.readInt(payload, offset + 2);
+            if (id == Frame.SETTINGS_INITIAL_WINDOW_SIZE) {
+                if (value < 0) {
+                    throw new Http2Exception(Frame.FLOW_CONTROL_ERROR, "Initial window size too large");
+                }
+                changeInitialWindow(value);
+            } else if (id == Frame.SETTINGS_MAX_FRAME_SIZE
+                    && (value < Frame.DEFAULT_MAX_FRAME_SIZE || value > 0xffffff)) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Invalid max frame size " + value);
+            }
+            // DATA frames are never larger than the default, and responses never use the dynamic table, so the
+            // other settings need no action
+        }
+        writer.write(Frame.SETTINGS, Frame.FLAG_ACK, 0, EMPTY);
+    }
+
+    private synchronized void changeInitialWindow(int value) throws Http2Exception {
+        int delta = value - peerInitialWindow;
+        peerInitialWindow = value;
+        for (Http2Stream stream : streams.values()) {
+            if ((long) stream.sendWindow + delta > Frame.MAX_WINDOW) {
+                throw new Http2Exception(Frame.FLOW_CONTROL_ERROR, "Stream window overflow");
+            }
+            stream.sendWindow += delta;
+        }
+        notifyAll();
+    }
+
+    private void onWindowUpdate(int streamId, int increment) throws IOException {
+        if (streamId == 0) {
+            if (increment == 0) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "WINDOW_UPDATE of 0");
+            }
+            synchronized (this) {
+                if ((long) sendWindow + increment > Frame.MAX_WINDOW) {
+                    throw new Http2Exception(Frame.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                sendWindow += increment;
+                notifyAll();
+            }
+            return;
+        }
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return; // may already be closed on our side
+        }
+        if (increment == 0) {
+            stream.reset(CloseReason.ERROR, Frame.PROTOCOL_ERROR);
+            return;
+        }
+        boolean overflow;
+        synchronized (this) {
+            overflow = (long) stream.sendWindow + increment > Frame.MAX_WINDOW;
+            if (!overflow) {
+                stream.sendWindow += increment;
+                notifyAll();
+            }
+        }
+        if (overflow) {
+            stream.reset(CloseReason.ERROR, Frame.FLOW_CONTROL_ERROR);
+        }
+    }
+
+    private void onData(int streamId, int flags, byte[] payload, int length) throws IOException {
+        requireStream(streamId);
+        // the whole frame counts against the windows, padding included
+        receiveWindow -= length;
+        if (receiveWindow < 0) {
+            throw new Http2Exception(Frame.FLOW_CONTROL_ERROR, "Connection window exceeded");
+        }
+        unacknowledged += length;
+        if (unacknowledged >= CONNECTION_WINDOW / 2) {
+            writer.windowUpdate(0, unacknowledged);
+            receiveWindow += unacknowledged;
+            unacknowledged = 0;
+        }
+
+        int offset = 0;
+        int end = length;
+        if ((flags & Frame.FLAG_PADDED) != 0) {
+            int padding = length > 0 ? payload[0] & 0xff : 0;
+            if (length == 0 || padding >= length) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Invalid padding");
+            }
+            offset = 1;
+            end -= padding;
+        }
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            return; // closed on our side already
+        }
+        stream.receive(payload, offset, end - offset, length, (flags & Frame.FLAG_END_STREAM) != 0);
+    }
+
+    private void onHeaders(int streamId, int flags, byte[] payload, int length) throws IOException {
+        requireStream(streamId);
+        int offset = 0;
+        int end = length;
+        if ((flags & Frame.FLAG_PADDED) != 0) {
+            int padding = length > 0 ? payload[0] & 0xff : 0;
+            if (length == 0 || padding >= length) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Invalid padding");
+            }
+            offset = 1;
+            end -= padding;
+        }
+        if ((flags & Frame.FLAG_PRIORITY) != 0) {
+            offset += 5;
+            if (offset > end) {
+                throw new Http2Exception(Frame.FRAME_SIZE_ERROR, "HEADERS too short for its priority");
+            }
+        }
+        headerBlock = new ByteArrayOutputStream();
+        headerStreamId = streamId;
+        headerFlags = flags;
+        appendHeaderBlock(payload, offset, end - offset);
+        if ((flags & Frame.FLAG_END_HEADERS) != 0) {
+            onHeaderBlock();
+        }
+    }
+
+    private void appendHeaderBlock(byte[] payload, int offset, int length) throws Http2Exception {
+        if (headerBlock.size() + length > MAX_HEADER_BLOCK) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Header block exceeds " + MAX_HEADER_BLOCK + " bytes");
+        }
+        headerBlock.write(payload, offset, length);
+    }
+
+    private void onHeaderBlock() throws IOException {
+        byte[] block = headerBlock.toByteArray();
+        headerBlock = null;
+        // decoded even when the stream is refused, to keep the dynamic table in step with the client
+        List<Hpack.Field> fields = hpack.decode(block, block.length);
+        int streamId = headerStreamId;
+
+        if (streamId % 2 == 0 || streamId <= lastStreamId) {
+            Http2Stream stream = streams.get(streamId);
+            if (stream == null) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "HEADERS on closed stream " + streamId);
+            }
+            stream.reset(CloseReason.ERROR, Frame.PROTOCOL_ERROR); // CONNECT streams have no trailers
+            return;
+        }
+        lastStreamId = streamId;
+        STREAMS.inc();
+
+        if (Drain.isDraining() || streams.size() >= conf.getHttp2MaxConcurrentStreams()) {
+            refuse(streamId);
+            return;
+        }
+        open(streamId, fields, (headerFlags & Frame.FLAG_END_STREAM) != 0);
+    }
+
+    /**
+     * Resets a new stream as never processed, so the client may retry it, e.g. on another connection.
+     */
+    private void refuse(int streamId) throws IOException {
+        REFUSED.inc();
+        writer.rstStream(streamId, Frame.REFUSED_STREAM);
+    }
+
+    private void open(int streamId, List<Hpack.Field> fields, boolean endStream) throws IOException {
+        long arrivedAt = System.currentTimeMillis();
+        String method = null;
+        String authority = null;
+        boolean malformed = endStream; // a tunnel needs the request stream left open
+        for (Hpack.Field field : fields) {
+            if (field.name.equals(":method")) {
+                method = field.value;
+            } else if (field.name.equals(":authority")) {
+                authority = field.value;
+            } else if (field.name.startsWith(":")) {
+                malformed = true; // CONNECT has no :scheme or :path, and extended CONNECT (:protocol) is not offered
+            }
+        }
+        if (malformed || !"CONNECT".equals(method) || authority == null) {
+            log.debug("Invalid request on stream {}: {}", streamId, fields);
+            reject(streamId, 400);
+            return;
+        }
+
+        Url url = new Url(authority);
+        String host;
+        int port;
+        try {
+            host = url.getHost();
+            port = url.getPort();
+        } catch (MalformedURLException ex) {
+            reject(streamId, 400);
+            return;
+        }
+        InetAddress client = socket.getInetAddress();
+        if (!Config.getConfig().getAllowListMatcher().isAllowed(host)) {
+            AccessLog.shared().log(new AccessRecord(arrivedAt, client, host + ":" + port, Outcome.DENIED, -1, 0, 0,
+                    System.currentTimeMillis() - arrivedAt, null));
+            log.debug("host {} is not in allowList", host);
+            reject(streamId, 400);
+            return;
+        }
+
+        Http2Stream stream;
+        synchronized (this) {
+            if (goingAway) {
+                stream = null; // a drain began since the stream was accepted, and may close the connection
+            } else {
+                stream = new Http2Stream(this, streamId, host, port, client, arrivedAt,
+                        conf.getHttp2InitialWindowSize(), peerInitialWindow);
+                streams.put(streamId, stream);
+            }
+        }
+        if (stream == null) {
+            refuse(streamId);
+            return;
+        }
+        ACTIVE_STREAMS.incrementAndGet();
+        stream.start();
+    }
+
+    /**
+     * Answers the stream with the status and ends it, asking the client to stop sending on it.
+     */
+    void reject(int streamId, int status) throws IOException {
+        respond(streamId, status, true);
+        writer.rstStream(streamId, Frame.NO_ERROR);
+    }
+
+    void respond(int streamId, int status, boolean endStream) throws IOException {
+        int flags = Frame.FLAG_END_HEADERS | (endStream ? Frame.FLAG_END_STREAM : 0);
+        writer.write(Frame.HEADERS, flags, streamId, Hpack.encodeStatus(status));
+    }
+
+    void data(int streamId, byte[] buf, int offset, int length, boolean endStream) throws IOException {
+        writer.write(Frame.DATA, endStream ? Frame.FLAG_END_STREAM : 0, streamId, buf, offset, length);
+    }
+
+    void windowUpdate(int streamId, int increment) throws IOException {
+        writer.windowUpdate(streamId, increment);
+    }
+
+    void rstStream(int streamId, int errorCode) throws IOException {
+        writer.rstStream(streamId, errorCode);
+    }
+
+    /**
+     * Waits until both the connection's and the stream's send windows have room.
+     * @param stream
+     * @param max
+     * @return the number of bytes, at most max, the stream may now send, or -1 if the stream or connection closed.
+     */
+    int reserve(Http2Stream stream, int max) throws InterruptedIOException {
+        synchronized (this) {
+            try {
+                while (!closed && !stream.isReset() && (sendWindow <= 0 || stream.sendWindow <= 0)) {
+                    wait();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the flow control window");
+            }
+            if (closed || stream.isReset()) {
+                return -1;
+            }
+            int granted = Math.min(max, Math.min(sendWindow, stream.sendWindow));
+            sendWindow -= granted;
+            stream.sendWindow -= granted;
+            return granted;
+        }
+    }
+
+    /**
+     * Wakes threads waiting in reserve(), e.g. because their stream was reset.
+     */
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Postpones the connection's idle timeout.
+     */
+    void touch() {
+        idleTimeout.touch();
+    }
+
+    void closed(Http2Stream stream) {
+        if (streams.remove(stream.id, stream)) {
+            ACTIVE_STREAMS.decrementAndGet();
+            boolean done;
+            synchronized (this) {
+                done = goingAway && streams.isEmpty();
+            }
+            if (done) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Run when a drain begins: tells the client that no more streams will be accepted, and closes the connection at
+     * once if none are open. Otherwise the last stream to finish closes it.
+     */
+    private void drain() {
+        try {
+            writer.goAway(lastStreamId, Frame.NO_ERROR);
+        } catch (IOException ex) {
+            log.debug("Unable to send GOAWAY", ex);
+        }
+        boolean done;
+        synchronized (this) {
+            goingAway = true;
+            done = streams.isEmpty();
+        }
+        if (done) {
+            close();
+        }
+    }
+
+    /**
+     * Sends a GOAWAY and closes the connection, abandoning any open streams.
+     */
+    private void goAway(int errorCode) {
+        try {
+            writer.goAway(lastStreamId, errorCode);
+        } catch (IOException ex) {
+            log.debug("Unable to send GOAWAY", ex);
+        }
+        close();
+    }
+
+    private void close() {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            log.error("Error trying to close socket", ex);
+        }
+    }
+}
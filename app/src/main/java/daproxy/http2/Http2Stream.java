@@ -0,0 +1,359 @@
+package daproxy.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import daproxy.conf.Config;
+import daproxy.log.AccessLog;
+import daproxy.log.AccessRecord;
+import daproxy.log.AccessRecord.Outcome;
+import daproxy.pool.TimingWheel;
+import daproxy.pool.VirtualThreads;
+import daproxy.relay.CloseReason;
+import daproxy.relay.Direction;
+import daproxy.relay.Shaper;
+import daproxy.relay.Tunnel;
+import daproxy.upstream.CircuitBreaker;
+import daproxy.upstream.Dialer;
+import daproxy.upstream.UpstreamPool;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One CONNECT stream of an Http2Connection, tunneled to its own upstream connection. The client's DATA is queued by
+ * the connection's reading thread and written upstream by this stream's writer thread, while its main thread sends
+ * what the upstream sends back as DATA frames. Those threads follow executionMode; relayMode does not apply, as the
+ * client side is framed rather than a socket of its own. The stream counts as an open Tunnel until it finishes.
+ */
+@Slf4j
+final class Http2Stream implements Tunnel.Stream {
+
+    private static final long MAX_PAUSE_NANOS = 100_000_000L;
+    private static final byte[] END = new byte[0]; // the client ended the stream
+    private static final byte[] RESET = new byte[0]; // the stream was reset, stop writing
+
+    final int id;
+    // guarded by the connection
+    int sendWindow;
+
+    private final Http2Connection connection;
+    private final String host;
+    private final int port;
+    private final InetAddress client;
+    private final long arrivedAt;
+    private final long start = System.nanoTime();
+    private final AtomicInteger receiveWindow;
+    private final BlockingQueue<byte[]> inbound = new LinkedBlockingQueue<>();
+    private final AtomicInteger halvesOpen = new AtomicInteger(2);
+    private final AtomicBoolean reset = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final AtomicReference<CloseReason> closeReason = new AtomicReference<>();
+    private final AtomicLong bytesUp = new AtomicLong();
+    private final AtomicLong bytesDown = new AtomicLong();
+    private boolean remoteClosed; // only touched by the connection's reading thread
+    private volatile Socket upstream;
+    private volatile boolean established; // connected, and ready to be finished by a reset
+    private volatile long connectMicros = -1;
+    private volatile Shaper.Limit limit;
+    private volatile TimingWheel.Timeout idleTimeout;
+
+    /**
+     * @param connection
+     * @param id
+     * @param host - the :authority's host, already allowed
+     * @param port
+     * @param client - for the access log and bandwidth limits
+     * @param arrivedAt - when the HEADERS arrived, in epoch milliseconds
+     * @param initialWindow - what the client may send before the first WINDOW_UPDATE
+     * @param sendWindow - what may be sent to the client before its first WINDOW_UPDATE
+     */
+    Http2Stream(Http2Connection connection, int id, String host, int port, InetAddress client, long arrivedAt,
+            int initialWindow, int sendWindow) {
+        this.connection = connection;
+        this.id = id;
+        this.host = host;
+        this.port = port;
+        this.client = client;
+        this.arrivedAt = arrivedAt;
+        this.receiveWindow = new AtomicInteger(initialWindow);
+        this.sendWindow = sendWindow;
+    }
+
+    private static class ThreadsHolder {
+        private static final ThreadFactory INSTANCE = VirtualThreads.factory(Config.getConfig().getExecutionMode(),
+                "Http2StreamThread-");
+    }
+
+    void start() {
+        Tunnel.streamOpened(this);
+        ThreadFactory threads = ThreadsHolder.INSTANCE;
+        threads.newThread(() -> {
+            if (connect()) {
+                threads.newThread(this::writeUpstream).start();
+                readUpstream();
+            }
+        }).start();
+    }
+
+    boolean isReset() {
+        return reset.get();
+    }
+
+    /**
+     * Queues DATA from the client for the upstream. Called on the connection's reading thread.
+     * @param buf
+     * @param offset
+     * @param length - of the data
+     * @param flowControlled - the frame's whole payload, padding included
+     * @param endStream
+     */
+    void receive(byte[] buf, int offset, int length, int flowControlled, boolean endStream) throws IOException {
+        if (remoteClosed) {
+            reset(CloseReason.ERROR, Frame.STREAM_CLOSED);
+            return;
+        }
+        if (receiveWindow.addAndGet(-flowControlled) < 0) {
+            reset(CloseReason.ERROR, Frame.FLOW_CONTROL_ERROR);
+            return;
+        }
+        int padding = flowControlled - length;
+        if (padding > 0) {
+            // nothing will be written upstream for the padding, so it is credited back at once
+            receiveWindow.addAndGet(padding);
+            connection.windowUpdate(id, padding);
+        }
+        if (length > 0) {
+            inbound.add(Arrays.copyOfRange(buf, offset, offset + length));
+        }
+        if (endStream) {
+            remoteClosed = true;
+            inbound.add(END);
+        }
+    }
+
+    /**
+     * @return true once connected and the 200 is sent.
+     */
+    private boolean connect() {
+        Config conf = Config.getConfig();
+        String target = host + ":" + port;
+        CircuitBreaker.Attempt attempt = CircuitBreaker.shared().tryAcquire(host, port);
+        if (attempt == null) {
+            fail(target, -1, 503);
+            return false;
+        }
+
+        long connectStart = System.nanoTime();
+        try {
+            upstream = conf.isUpstreamPoolEnabled()
+                    ? UpstreamPool.shared().borrow(host, port).socket()
+                    : Dialer.shared().dial(host, port).socket();
+        } catch (IOException ex) {
+            attempt.failed();
+            log.debug("Unable to connect to {}", target, ex);
+            fail(target, (System.nanoTime() - connectStart) / 1000, 502);
+            return false;
+        }
+        connectMicros = (System.nanoTime() - connectStart) / 1000;
+        attempt.succeeded(connectMicros);
+
+        limit = Shaper.shared().forTunnel(client, host);
+        idleTimeout = TimingWheel.shared().scheduleIdle(conf.getIdleTimeoutMillis(),
+                () -> reset(CloseReason.IDLE_TIMEOUT, Frame.CANCEL));
+        established = true;
+        if (reset.get()) {
+            finish(); // reset while connecting
+            return false;
+        }
+        try {
+            upstream.setTcpNoDelay(true);
+            connection.respond(id, 200, false);
+        } catch (IOException ex) {
+            log.debug("Unable to establish stream {} to {}", id, target, ex);
+            reset(CloseReason.ERROR, Frame.CONNECT_ERROR);
+            return false;
+        }
+        return true;
+    }
+
+    private void fail(String target, long connectMicros, int status) {
+        AccessLog.shared().log(new AccessRecord(arrivedAt, client, target, Outcome.FAILED, connectMicros, 0, 0,
+                elapsedMillis(), null));
+        try {
+            if (!reset.get()) {
+                connection.reject(id, status);
+            }
+        } catch (IOException ex) {
+            log.debug("Unable to answer stream {}", id, ex);
+        }
+        reset.set(true);
+        finished.set(true);
+        Tunnel.streamClosed(this);
+        connection.closed(this);
+    }
+
+    private void readUpstream() {
+        byte[] buf = new byte[Frame.DEFAULT_MAX_FRAME_SIZE];
+        try {
+            InputStream in = upstream.getInputStream();
+            while (true) {
+                int read = in.read(buf);
+                if (read == -1) {
+                    closeReason.compareAndSet(null, CloseReason.UPSTREAM_CLOSED);
+                    connection.data(id, buf, 0, 0, true);
+                    break;
+                }
+                // buffer at most one read while the client's windows are shut
+                for (int sent = 0; sent < read;) {
+                    int granted = connection.reserve(this, read - sent);
+                    if (granted < 0) {
+                        return;
+                    }
+                    connection.data(id, buf, sent, granted, false);
+                    sent += granted;
+                }
+                transferred(Direction.DOWNSTREAM, read);
+            }
+        } catch (IOException ex) {
+            if (!reset.get()) {
+                log.debug("Error relaying stream {} from {}", id, host, ex);
+                reset(CloseReason.ERROR, Frame.CONNECT_ERROR);
+            }
+            return;
+        }
+        halfClosed();
+    }
+
+    private void writeUpstream() {
+        try {
+            OutputStream out = upstream.getOutputStream();
+            while (true) {
+                byte[] chunk = inbound.take();
+                if (chunk == RESET) {
+                    return;
+                }
+                if (chunk == END) {
+                    closeReason.compareAndSet(null, CloseReason.CLIENT_CLOSED);
+                    upstream.shutdownOutput();
+                    break;
+                }
+                out.write(chunk);
+                // only written data reopens the window, so a slow upstream slows the client down
+                receiveWindow.addAndGet(chunk.length);
+                if (!reset.get()) {
+                    connection.windowUpdate(id, chunk.length);
+                }
+                transferred(Direction.UPSTREAM, chunk.length);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            reset(CloseReason.ERROR, Frame.INTERNAL_ERROR);
+            return;
+        } catch (IOException ex) {
+            if (!reset.get()) {
+                log.debug("Error relaying stream {} to {}", id, host, ex);
+                reset(CloseReason.ERROR, Frame.CONNECT_ERROR);
+            }
+            return;
+        }
+        halfClosed();
+    }
+
+    private void transferred(Direction direction, int bytes) throws InterruptedIOException {
+        (direction == Direction.UPSTREAM ? bytesUp : bytesDown).addAndGet(bytes);
+        direction.getBytes().add(bytes);
+        idleTimeout.touch();
+        connection.touch();
+        Shaper.Limit current = limit;
+        if (current == null) {
+            return;
+        }
+        long nanos = current.take(direction, bytes);
+        if (nanos <= 0) {
+            return;
+        }
+        direction.getThrottled().inc();
+        long deadline = System.nanoTime() + nanos;
+        while (nanos > 0 && !reset.get()) {
+            LockSupport.parkNanos(Math.min(nanos, MAX_PAUSE_NANOS));
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+            nanos = deadline - System.nanoTime();
+        }
+    }
+
+    private void halfClosed() {
+        if (halvesOpen.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    /**
+     * Abandons the stream and closes its upstream connection. Only the first call has any effect.
+     * @param reason - for the access log
+     * @param errorCode - sent in a RST_STREAM, or -1 to send none, e.g. because the client reset the stream
+     */
+    void reset(CloseReason reason, int errorCode) {
+        if (!reset.compareAndSet(false, true)) {
+            return;
+        }
+        closeReason.compareAndSet(null, reason);
+        if (errorCode >= 0) {
+            try {
+                connection.rstStream(id, errorCode);
+            } catch (IOException ex) {
+                log.debug("Unable to reset stream {}", id, ex);
+            }
+        }
+        inbound.add(RESET);
+        connection.wakeUp();
+        if (established) {
+            finish();
+        }
+    }
+
+    /**
+     * Resets the stream, e.g. once a drain's deadline has passed.
+     */
+    @Override
+    public void close(CloseReason reason) {
+        reset(reason, Frame.CANCEL);
+    }
+
+    private void finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            upstream.close();
+        } catch (IOException ex) {
+            log.error("Error trying to close socket", ex);
+        }
+        idleTimeout.cancel();
+        Shaper.Limit current = limit;
+        if (current != null) {
+            current.release();
+        }
+        Tunnel.streamClosed(this);
+        connection.closed(this);
+        AccessLog.shared().log(new AccessRecord(arrivedAt, client, host + ":" + port, Outcome.ALLOWED, connectMicros,
+                bytesUp.get(), bytesDown.get(), elapsedMillis(), closeReason.get().getLabel()));
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,155 @@
+package daproxy.log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import daproxy.conf.Config;
+import daproxy.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes one AccessRecord per CONNECT request to accessLogPath, as JSON lines. Request threads only offer the record
+ * to a lock-free RingBuffer, and a background thread writes whatever has accumulated in one batch, with one flush, at
+ * least every accessLogFlushMillis. When the buffer is full the record is dropped and counted, so a slow disk never
+ * holds up a tunnel.
+ */
+@Slf4j
+public class AccessLog implements Runnable {
+
+    private static final int BATCH_SIZE = 1024;
+
+    private final Path file;
+    private final RingBuffer<AccessRecord> buffer;
+    private final long flushIntervalNanos;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+    private volatile Thread writer;
+
+    /**
+     * @param file - or null to discard every record
+     * @param bufferSize - records held while waiting for the writer
+     * @param flushIntervalMillis - how long the writer sleeps when there is nothing to write
+     */
+    public AccessLog(Path file, int bufferSize, long flushIntervalMillis) {
+        this.file = file;
+        this.buffer = file == null ? null : new RingBuffer<>(bufferSize);
+        this.flushIntervalNanos = flushIntervalMillis * 1_000_000L;
+    }
+
+    /**
+     * @return the access log configured by accessLogPath. Its writer thread starts on first use.
+     */
+    public static AccessLog shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final AccessLog INSTANCE = create(Config.getConfig());
+
+        private static AccessLog create(Config conf) {
+            String path = conf.getAccessLogPath();
+            AccessLog accessLog = new AccessLog(path == null ? null : Path.of(path), conf.getAccessLogBufferSize(),
+                    conf.getAccessLogFlushMillis());
+            if (accessLog.isEnabled()) {
+                accessLog.start();
+                Metrics.counter("daproxy_access_log_records_total", "Access log records written",
+                        accessLog::getWritten);
+                Metrics.counter("daproxy_access_log_dropped_total",
+                        "Access log records dropped because the writer fell behind", accessLog::getDropped);
+            }
+            return accessLog;
+        }
+    }
+
+    public boolean isEnabled() {
+        return buffer != null;
+    }
+
+    /**
+     * Starts the writer on a daemon thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "AccessLogWriter");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * Queues the record for writing, or drops it if the buffer is full. Never blocks.
+     * @param record
+     */
+    public void log(AccessRecord record) {
+        if (buffer != null && !buffer.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<AccessRecord> batch = new ArrayList<>(BATCH_SIZE);
+        StringBuilder lines = new StringBuilder();
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND)) {
+            while (true) {
+                boolean closing = closed; // read before draining, so nothing offered before close() is missed
+                if (buffer.drainTo(batch, BATCH_SIZE) == 0) {
+                    if (closing) {
+                        break;
+                    }
+                    LockSupport.parkNanos(this, flushIntervalNanos);
+                    continue;
+                }
+                write(out, batch, lines);
+            }
+        } catch (IOException ex) {
+            log.error("Unable to open access log " + file + ". Records will be dropped.", ex);
+        }
+    }
+
+    private void write(Writer out, List<AccessRecord> batch, StringBuilder lines) {
+        lines.setLength(0);
+        for (AccessRecord record : batch) {
+            record.appendTo(lines);
+        }
+        try {
+            out.append(lines);
+            out.flush();
+            written.add(batch.size());
+        } catch (IOException ex) {
+            dropped.add(batch.size());
+            log.error("Unable to write to access log " + file, ex);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Writes out the records already queued, and stops the writer.
+     * @param timeoutMillis - how long to wait for the writer
+     */
+    public void close(long timeoutMillis) throws InterruptedException {
+        closed = true;
+        Thread thread = writer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join(timeoutMillis);
+        }
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
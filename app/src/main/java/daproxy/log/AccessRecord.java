@@ -0,0 +1,102 @@
+package daproxy.log;
+
+import java.net.InetAddress;
+import java.time.Instant;
+
+/**
+ * One line of the access log: what happened to a CONNECT request, and for an established tunnel, how it went. Built
+ * on the request's thread and formatted on the writer's.
+ */
+public final class AccessRecord {
+
+    public enum Outcome {
+        ALLOWED, DENIED, FAILED
+    }
+
+    private final long time;
+    private final InetAddress client;
+    private final String target;
+    private final Outcome outcome;
+    private final long connectMicros;
+    private final long bytesUp;
+    private final long bytesDown;
+    private final long durationMillis;
+    private final String closeReason;
+
+    /**
+     * @param time - when the request arrived, in epoch milliseconds
+     * @param client
+     * @param target - host:port
+     * @param outcome
+     * @param connectMicros - time to connect upstream, or -1 if no connection was attempted
+     * @param bytesUp - client to upstream
+     * @param bytesDown - upstream to client
+     * @param durationMillis - from the request arriving until the tunnel closed
+     * @param closeReason - or null if no tunnel was established
+     */
+    public AccessRecord(long time, InetAddress client, String target, Outcome outcome, long connectMicros,
+            long bytesUp, long bytesDown, long durationMillis, String closeReason) {
+        this.time = time;
+        this.client = client;
+        this.target = target;
+        this.outcome = outcome;
+        this.connectMicros = connectMicros;
+        this.bytesUp = bytesUp;
+        this.bytesDown = bytesDown;
+        this.durationMillis = durationMillis;
+        this.closeReason = closeReason;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Appends the record as one line of JSON.
+     * @param line
+     */
+    void appendTo(StringBuilder line) {
+        line.append("{\"time\":\"").append(Instant.ofEpochMilli(time)).append('"');
+        line.append(",\"client\":");
+        appendString(line, client == null ? null : client.getHostAddress());
+        line.append(",\"target\":");
+        appendString(line, target);
+        line.append(",\"outcome\":\"").append(outcome.name().toLowerCase()).append('"');
+        if (connectMicros >= 0) {
+            line.append(",\"connect_us\":").append(connectMicros);
+        }
+        line.append(",\"bytes_up\":").append(bytesUp);
+        line.append(",\"bytes_down\":").append(bytesDown);
+        line.append(",\"duration_ms\":").append(durationMillis);
+        if (closeReason != null) {
+            line.append(",\"close\":\"").append(closeReason).append('"');
+        }
+        line.append("}\n");
+    }
+
+    private static void appendString(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder();
+        appendTo(line);
+        return line.toString().trim();
+    }
+}
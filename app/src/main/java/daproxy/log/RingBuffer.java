@@ -0,0 +1,85 @@
+package daproxy.log;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer, after Dmitry Vyukov's bounded MPMC queue
+ * https://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+ *
+ * Each slot carries a sequence number telling producers and the consumer whose turn it is, so a producer only needs
+ * one compareAndSet to claim a slot, and never waits: when the buffer is full, offer() fails at once.
+ * @param <T>
+ */
+class RingBuffer<T> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // only touched by the consumer
+
+    /**
+     * @param capacity - rounded up to a power of two
+     */
+    RingBuffer(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @param item
+     * @return false if the buffer is full.
+     */
+    boolean offer(T item) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long lag = sequences.get(index) - position;
+            if (lag == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, item);
+                    sequences.set(index, position + 1); // publish to the consumer
+                    return true;
+                }
+            } else if (lag < 0) {
+                return false; // the consumer has not freed this slot since the last lap
+            }
+            // otherwise another producer claimed the slot first
+        }
+    }
+
+    /**
+     * Moves items to the sink in the order they were offered. Only one thread may call this.
+     * @param sink
+     * @param max
+     * @return the number of items moved.
+     */
+    int drainTo(Collection<? super T> sink, int max) {
+        int moved = 0;
+        while (moved < max) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break; // empty, or a producer has claimed the slot but not yet published it
+            }
+            sink.add(slots.get(index));
+            slots.set(index, null);
+            sequences.set(index, head + capacity); // free the slot for the next lap
+            head++;
+            moved++;
+        }
+        return moved;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
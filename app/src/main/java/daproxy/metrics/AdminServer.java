@@ -0,0 +1,70 @@
+package daproxy.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the registered metrics at /metrics in the Prometheus text format, on a port separate from the proxy so
+ * scrapes never compete with tunnels for request threads. Other diagnostic pages can be added with serveText().
+ */
+@Slf4j
+public class AdminServer {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    public AdminServer(String address, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metrics", AdminServer::serveMetrics);
+    }
+
+    /**
+     * Serves a plain text diagnostic page, e.g. the state of each circuit breaker.
+     * @param path
+     * @param body - called on every request
+     */
+    public void serveText(String path, Supplier<String> body) {
+        server.createContext(path, exchange -> serve(exchange, "text/plain; charset=utf-8", body.get()));
+    }
+
+    public void start() {
+        server.start();
+        log.info("Serving metrics on {}", server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private static void serveMetrics(HttpExchange exchange) throws IOException {
+        serve(exchange, CONTENT_TYPE, Metrics.scrape());
+    }
+
+    private static void serve(HttpExchange exchange, String contentType, String text) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = text.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package daproxy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Backed by a LongAdder, so increments from many threads do not contend.
+ */
+public class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    public void inc() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
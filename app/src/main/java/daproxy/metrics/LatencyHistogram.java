@@ -0,0 +1,117 @@
+package daproxy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies in microseconds into log-linear buckets, in the style of HdrHistogram: every power of two is split
+ * into SUB_BUCKETS linear buckets, so reported percentiles are within 1/SUB_BUCKETS of the recorded value at any scale
+ * while recording stays a couple of bit operations and an uncontended add.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param micros - a latency in microseconds. Negative values are recorded as 0.
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts[bucketOf(value)].increment();
+        sum.add(value);
+    }
+
+    /**
+     * @param startNanos - a System.nanoTime() taken when the measured operation started
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value that falls into the bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    public Snapshot snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+        return new Snapshot(snapshot, count, sum.sum());
+    }
+
+    /**
+     * A point-in-time copy of the histogram, so several percentiles can be read consistently.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the sum of all recorded values, in microseconds.
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @param quantile - between 0 and 1
+         * @return the recorded value at the quantile, in microseconds, or 0 if nothing was recorded.
+         */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBoundOf(i);
+                }
+            }
+            return upperBoundOf(counts.length - 1);
+        }
+    }
+}
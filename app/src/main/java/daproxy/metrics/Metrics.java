@@ -0,0 +1,135 @@
+package daproxy.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The registry of every metric the proxy exposes. Metrics are registered once, usually into a static field of the
+ * class that updates them, and are then updated without touching the registry again. Registering the same name and
+ * label twice returns the metric registered first, except for gauges, whose supplier is replaced.
+ */
+public final class Metrics {
+
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    /**
+     * @param name
+     * @param help
+     * @param labelName - the one label distinguishing counters of the same name, e.g. direction
+     * @param labelValue
+     * @return the counter for the name and label value.
+     */
+    public static Counter counter(String name, String help, String labelName, String labelValue) {
+        return (Counter) register(name, help, Type.COUNTER, labels(labelName, labelValue), false, Counter::new);
+    }
+
+    /**
+     * Exposes a count kept elsewhere, e.g. by a component's own LongAdder, as a counter.
+     * @param name
+     * @param help
+     * @param value - read on every scrape, so it must be cheap and thread safe
+     */
+    public static void counter(String name, String help, LongSupplier value) {
+        register(name, help, Type.COUNTER, "", true, () -> value);
+    }
+
+    public static LatencyHistogram histogram(String name, String help) {
+        return (LatencyHistogram) register(name, help, Type.SUMMARY, "", false, LatencyHistogram::new);
+    }
+
+    /**
+     * @param name
+     * @param help
+     * @param value - read on every scrape, so it must be cheap and thread safe
+     */
+    public static void gauge(String name, String help, LongSupplier value) {
+        register(name, help, Type.GAUGE, "", true, () -> value);
+    }
+
+    private static String labels(String labelName, String labelValue) {
+        return labelName == null ? "" : labelName + "=\"" + labelValue + "\"";
+    }
+
+    private static synchronized Object register(String name, String help, Type type, String labels, boolean replace,
+            Supplier<Object> factory) {
+        Family family = FAMILIES.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        if (replace) {
+            family.children.put(labels, factory.get());
+            return family.children.get(labels);
+        }
+        return family.children.computeIfAbsent(labels, l -> factory.get());
+    }
+
+    /**
+     * @return every registered metric, in the Prometheus text exposition format.
+     */
+    public static synchronized String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : FAMILIES.values()) {
+            family.writeTo(out);
+        }
+        return out.toString();
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, SUMMARY
+    }
+
+    private static final class Family {
+        private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+        private static final double MICROS_PER_SECOND = 1_000_000.0;
+
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final Map<String, Object> children = new LinkedHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        void writeTo(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type.name().toLowerCase()).append('\n');
+            for (Map.Entry<String, Object> child : children.entrySet()) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof Counter) {
+                    sample(out, name, labels, ((Counter) metric).get());
+                } else if (metric instanceof LongSupplier) {
+                    sample(out, name, labels, ((LongSupplier) metric).getAsLong());
+                } else {
+                    LatencyHistogram.Snapshot snapshot = ((LatencyHistogram) metric).snapshot();
+                    for (double quantile : QUANTILES) {
+                        sample(out, name, "quantile=\"" + quantile + "\"",
+                                snapshot.percentile(quantile) / MICROS_PER_SECOND);
+                    }
+                    sample(out, name + "_sum", labels, snapshot.getSum() / MICROS_PER_SECOND);
+                    sample(out, name + "_count", labels, snapshot.getCount());
+                }
+            }
+        }
+
+        private static void sample(StringBuilder out, String name, String labels, Object value) {
+            out.append(name);
+            if (!labels.isEmpty()) {
+                out.append('{').append(labels).append('}');
+            }
+            out.append(' ').append(value).append('\n');
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package daproxy.pool;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import daproxy.metrics.Counter;
+import daproxy.metrics.Metrics;
+
+/**
+ * Decides whether an accepted connection is served, before it is queued for a request thread. A request holds its
+ * permit from being accepted until its request line and headers have been read, which covers the wait for a thread.
+ * The number of such requests is bounded by a GradientLimit, fed with how long each one waited for its thread, so once
+ * that wait starts climbing new connections get a fast 503 rather than waiting behind everyone else. How long the
+ * client then takes to send its request is not sampled, so slow clients cannot push the limit down.
+ *
+ * Once more than half of the limit is in use, each client address is held to its fair share: the limit divided by the
+ * number of clients with requests in flight. A single busy client then cannot crowd out the rest.
+ */
+public class AdmissionController {
+
+    private static final double FAIR_SHARE_THRESHOLD = 0.5;
+
+    private static final Counter SHED_LIMIT = shedCounter("limit");
+    private static final Counter SHED_CLIENT_SHARE = shedCounter("client_share");
+    private static final Counter SHED_QUEUE_WAIT = shedCounter("queue_wait");
+
+    private final GradientLimit limit;
+    private final int clientMaxConcurrent;
+    private final long maxQueueWaitNanos;
+    private final LongSupplier nanoClock;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<InetAddress, Integer> perClient = new ConcurrentHashMap<>();
+
+    /**
+     * @param initialLimit
+     * @param minLimit
+     * @param maxLimit
+     * @param clientMaxConcurrent - a fixed cap on each client's requests, or 0 for only the fair share
+     * @param maxQueueWaitMillis - requests that wait longer than this for a thread are turned away
+     * @param nanoClock - e.g. System::nanoTime
+     */
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, int clientMaxConcurrent,
+            long maxQueueWaitMillis, LongSupplier nanoClock) {
+        this.limit = new GradientLimit(initialLimit, minLimit, maxLimit, nanoClock.getAsLong());
+        this.clientMaxConcurrent = clientMaxConcurrent;
+        this.maxQueueWaitNanos = maxQueueWaitMillis * 1_000_000L;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @param client - the client's address
+     * @return a permit to be released when the request is done, or null if the request must be turned away.
+     */
+    public Permit tryAcquire(InetAddress client) {
+        int currentLimit = limit.getLimit();
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= currentLimit) {
+                SHED_LIMIT.inc();
+                return null;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+
+        int cap = clientCap(current + 1, currentLimit, client);
+        boolean[] admitted = new boolean[1];
+        perClient.compute(client, (address, count) -> {
+            int held = count == null ? 0 : count;
+            if (held >= cap) {
+                return count;
+            }
+            admitted[0] = true;
+            return held + 1;
+        });
+        if (!admitted[0]) {
+            inFlight.decrementAndGet();
+            SHED_CLIENT_SHARE.inc();
+            return null;
+        }
+        return new Permit(client, nanoClock.getAsLong());
+    }
+
+    private int clientCap(int inFlightAfter, int currentLimit, InetAddress client) {
+        int cap = Integer.MAX_VALUE;
+        if (inFlightAfter > currentLimit * FAIR_SHARE_THRESHOLD) {
+            int clients = perClient.size() + (perClient.containsKey(client) ? 0 : 1);
+            cap = Math.max(1, currentLimit / clients);
+        }
+        return clientMaxConcurrent > 0 ? Math.min(cap, clientMaxConcurrent) : cap;
+    }
+
+    private static Counter shedCounter(String reason) {
+        return Metrics.counter("daproxy_requests_shed_total", "Connections turned away with a 503 by admission control",
+                "reason", reason);
+    }
+
+    public int getLimit() {
+        return limit.getLimit();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * An admitted request. Its wait for a thread is sampled when it starts, and its slot is freed at most once.
+     */
+    public final class Permit {
+        private final InetAddress client;
+        private final long admittedAt;
+        private boolean released;
+
+        private Permit(InetAddress client, long admittedAt) {
+            this.client = client;
+            this.admittedAt = admittedAt;
+        }
+
+        /**
+         * Called once the request has a thread, and records how long it waited for it.
+         * @return false if it waited longer than the maximum queue wait, and should be turned away. The wait is
+         * recorded as a drop, which lowers the limit, and the permit is released.
+         */
+        public boolean start() {
+            long now = nanoClock.getAsLong();
+            boolean dropped = now - admittedAt > maxQueueWaitNanos;
+            limit.onSample(now, now - admittedAt, inFlight.get(), dropped);
+            if (!dropped) {
+                return true;
+            }
+            SHED_QUEUE_WAIT.inc();
+            release();
+            return false;
+        }
+
+        /**
+         * Called once the request has been read, and releases the permit.
+         */
+        public void served() {
+            release();
+        }
+
+        public void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            perClient.computeIfPresent(client, (address, count) -> count <= 1 ? null : count - 1);
+            inFlight.decrementAndGet();
+        }
+    }
+}
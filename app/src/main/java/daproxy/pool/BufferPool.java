@@ -0,0 +1,121 @@
+package daproxy.pool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import daproxy.conf.Config;
+import daproxy.metrics.Metrics;
+
+/**
+ * A pool of equally sized direct ByteBuffers used to relay tunnel data without copying it through the heap.
+ * 
+ * Released buffers go to a shared queue. Long-lived threads (the NIO event loops) can additionally enable a small
+ * private cache so most acquire/release pairs never touch shared state. Short-lived threads do not get a cache, so
+ * buffers are never stranded with a thread that has exited.
+ * 
+ * The total off-heap memory allocated by the pool is capped. Once the cap is reached, acquire() hands out heap buffers
+ * which are left to the garbage collector instead of being pooled.
+ */
+public class BufferPool {
+
+    private static final int THREAD_CACHE_SIZE = 8;
+
+    private final int bufferSize;
+    private final long maxDirectMemory;
+    private final AtomicLong allocatedDirectMemory = new AtomicLong();
+    private final Queue<ByteBuffer> shared = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ArrayDeque<ByteBuffer>> threadCache = new ThreadLocal<>();
+
+    public BufferPool(int bufferSize, long maxDirectMemory) {
+        this.bufferSize = bufferSize;
+        this.maxDirectMemory = maxDirectMemory;
+    }
+
+    /**
+     * @return the pool sized by relayBufferSize and maxRelayBufferMemory in the configuration.
+     */
+    public static BufferPool shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final BufferPool INSTANCE = create(Config.getConfig());
+
+        private static BufferPool create(Config conf) {
+            BufferPool pool = new BufferPool(conf.getRelayBufferSize(), conf.getMaxRelayBufferMemory());
+            Metrics.gauge("daproxy_relay_buffer_direct_bytes", "Direct memory allocated for relay buffers",
+                    pool::getAllocatedDirectMemory);
+            return pool;
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return the number of off-heap bytes allocated by this pool, whether in use or pooled.
+     */
+    public long getAllocatedDirectMemory() {
+        return allocatedDirectMemory.get();
+    }
+
+    /**
+     * Gives the calling thread a private cache of released buffers. Only call this from threads that live as long as
+     * the pool.
+     */
+    public void enableThreadCache() {
+        if (threadCache.get() == null) {
+            threadCache.set(new ArrayDeque<>(THREAD_CACHE_SIZE));
+        }
+    }
+
+    /**
+     * @return a cleared buffer of getBufferSize() bytes. Hand it back with release() once done.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = null;
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        if (cache != null) {
+            buf = cache.pollFirst();
+        }
+        if (buf == null) {
+            buf = shared.poll();
+        }
+        if (buf == null) {
+            buf = allocate();
+        }
+        buf.clear();
+        return buf;
+    }
+
+    private ByteBuffer allocate() {
+        long allocated;
+        do {
+            allocated = allocatedDirectMemory.get();
+            if (allocated + bufferSize > maxDirectMemory) {
+                return ByteBuffer.allocate(bufferSize);
+            }
+        } while (!allocatedDirectMemory.compareAndSet(allocated, allocated + bufferSize));
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer obtained from acquire() to the pool. The caller must not use it afterwards.
+     * @param buf
+     */
+    public void release(ByteBuffer buf) {
+        if (!buf.isDirect() || buf.capacity() != bufferSize) {
+            return; // heap buffers handed out over the cap are left to the garbage collector
+        }
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        if (cache != null && cache.size() < THREAD_CACHE_SIZE) {
+            cache.addFirst(buf);
+        } else {
+            shared.offer(buf);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package daproxy.pool;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small pool of equally sized heap arrays, for code that needs a byte[] only briefly, e.g. while reading a request.
+ * Unlike a ThreadLocal, it never holds more than its slots however many threads come and go, which matters when every
+ * connection gets its own virtual thread.
+ *
+ * Arrays sit in a fixed array of slots. Both acquire() and release() start at a random slot and claim the first one
+ * that suits with a single atomic operation, so threads rarely contend and no call allocates unless the pool is empty.
+ */
+public class ByteArrayPool {
+
+    private final int arraySize;
+    private final AtomicReferenceArray<byte[]> slots;
+
+    /**
+     * @param arraySize
+     * @param maxPooled - arrays kept for reuse. Arrays released beyond that are left to the garbage collector.
+     */
+    public ByteArrayPool(int arraySize, int maxPooled) {
+        this.arraySize = arraySize;
+        this.slots = new AtomicReferenceArray<>(maxPooled);
+    }
+
+    /**
+     * @return an array of the pool's size, with whatever contents it was released with. Hand it back with release().
+     */
+    public byte[] acquire() {
+        int length = slots.length();
+        int start = length == 0 ? 0 : ThreadLocalRandom.current().nextInt(length);
+        for (int i = 0; i < length; i++) {
+            int index = (start + i) % length;
+            if (slots.get(index) != null) {
+                byte[] buf = slots.getAndSet(index, null);
+                if (buf != null) {
+                    return buf;
+                }
+            }
+        }
+        return new byte[arraySize];
+    }
+
+    /**
+     * Returns an array obtained from acquire() to the pool. The caller must not use it afterwards.
+     * @param buf
+     */
+    public void release(byte[] buf) {
+        if (buf.length != arraySize) {
+            return;
+        }
+        int length = slots.length();
+        int start = length == 0 ? 0 : ThreadLocalRandom.current().nextInt(length);
+        for (int i = 0; i < length; i++) {
+            int index = (start + i) % length;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, buf)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the arrays waiting to be reused.
+     */
+    public int getPooledCount() {
+        int count = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,115 @@
+package daproxy.pool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * What a graceful shutdown waits for. Every accepted connection is counted until its handler finishes, and kept-alive
+ * connections waiting for their next request are tracked so a drain can close them straight away: they have nothing
+ * in flight, and their clients expect idle connections to be closed. Once draining, responses ask the client to close
+ * the connection, so the remaining connections finish after their current request. Connections that multiplex many
+ * requests, e.g. HTTP/2, register to be told when a drain begins, so they can ask their clients to stop opening new
+ * ones while the open ones finish.
+ */
+@Slf4j
+public final class Drain {
+
+    private static volatile boolean draining;
+    private static final AtomicInteger OPEN_CONNECTIONS = new AtomicInteger();
+    private static final Set<Closeable> IDLE = ConcurrentHashMap.newKeySet();
+    private static final Set<Runnable> MULTIPLEXED = ConcurrentHashMap.newKeySet();
+
+    private Drain() {
+    }
+
+    public static boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Starts draining, closes every connection that is waiting for its next request, and tells the multiplexed ones.
+     */
+    public static void begin() {
+        draining = true;
+        for (Closeable connection : IDLE) {
+            if (IDLE.remove(connection)) {
+                closeQuietly(connection);
+            }
+        }
+        for (Runnable onDrain : MULTIPLEXED) {
+            if (MULTIPLEXED.remove(onDrain)) {
+                onDrain.run();
+            }
+        }
+    }
+
+    /**
+     * Stops draining, so connections are kept alive again. Used when a drain is abandoned, e.g. between tests.
+     */
+    public static void cancel() {
+        draining = false;
+    }
+
+    public static void connectionOpened() {
+        OPEN_CONNECTIONS.incrementAndGet();
+    }
+
+    public static void connectionClosed() {
+        OPEN_CONNECTIONS.decrementAndGet();
+    }
+
+    /**
+     * @return accepted connections whose handler has not finished yet. Tunnels handed off to the NIO relay are not
+     * included.
+     */
+    public static int getOpenConnections() {
+        return OPEN_CONNECTIONS.get();
+    }
+
+    /**
+     * Marks a connection as waiting for its next request until exitIdle() is called.
+     * @param connection
+     * @return false if a drain has started, in which case the caller should close the connection instead.
+     */
+    public static boolean enterIdle(Closeable connection) {
+        IDLE.add(connection);
+        if (draining && IDLE.remove(connection)) {
+            return false;
+        }
+        return true;
+    }
+
+    public static void exitIdle(Closeable connection) {
+        IDLE.remove(connection);
+    }
+
+    /**
+     * Registers a multiplexed connection to be told when a drain begins, until unregister() is called.
+     * @param onDrain - run once, on the thread that begins the drain
+     * @return false if a drain has started, in which case the caller should run onDrain itself.
+     */
+    public static boolean register(Runnable onDrain) {
+        MULTIPLEXED.add(onDrain);
+        if (draining && MULTIPLEXED.remove(onDrain)) {
+            return false;
+        }
+        return true;
+    }
+
+    public static void unregister(Runnable onDrain) {
+        MULTIPLEXED.remove(onDrain);
+    }
+
+    private static void closeQuietly(Closeable connection) {
+        try {
+            connection.close();
+        } catch (IOException ex) {
+            log.error("Error trying to close idle connection", ex);
+        }
+    }
+}
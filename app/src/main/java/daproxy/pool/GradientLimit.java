@@ -0,0 +1,91 @@
+package daproxy.pool;
+
+/**
+ * A concurrency limit that adapts to the latency of admitted requests, in the style of Netflix's Gradient2 limiter
+ * https://github.com/Netflix/concurrency-limits
+ *
+ * Latency samples are averaged over short windows and compared with a long-term average. While a window's latency
+ * stays within TOLERANCE of the long-term average, the limit grows by about its square root, letting a little queueing
+ * happen. Once latency climbs, the limit shrinks in proportion, down to half per window. A dropped request, one that
+ * waited so long it was turned away, cuts the limit multiplicatively as in AIMD. The limit only grows while requests
+ * actually use most of it, so a quiet period does not leave it too high to protect against the next burst.
+ */
+class GradientLimit {
+
+    private static final double TOLERANCE = 2.0;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF = 0.9;
+    private static final int LONG_WINDOW = 600;
+    private static final long WINDOW_NANOS = 100_000_000L;
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private double longRtt;
+
+    private long windowStart;
+    private long windowSum;
+    private int windowCount;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+
+    /**
+     * @param initialLimit
+     * @param minLimit
+     * @param maxLimit
+     * @param now - the current System.nanoTime()
+     */
+    GradientLimit(int initialLimit, int minLimit, int maxLimit, long now) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.windowStart = now;
+    }
+
+    int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @param now - the current System.nanoTime()
+     * @param rttNanos - how long the request waited for a thread
+     * @param inFlight - requests admitted when the sample was taken
+     * @param dropped - the request waited too long and was turned away
+     */
+    synchronized void onSample(long now, long rttNanos, int inFlight, boolean dropped) {
+        windowSum += rttNanos;
+        windowCount++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+        windowDropped |= dropped;
+        if (now - windowStart < WINDOW_NANOS || windowCount < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+
+        update(Math.max(1, windowSum / windowCount), windowMaxInFlight, windowDropped);
+        windowStart = now;
+        windowSum = 0;
+        windowCount = 0;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+    }
+
+    private void update(long shortRtt, int maxInFlight, boolean dropped) {
+        if (dropped) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+            return;
+        }
+
+        longRtt = longRtt == 0 ? shortRtt : longRtt + (shortRtt - longRtt) * 2 / (LONG_WINDOW + 1);
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95; // latency has dropped for good, so let the long-term average catch up
+        }
+        if (maxInFlight < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+}
@@ -0,0 +1,189 @@
+package daproxy.pool;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import daproxy.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Kept-alive client connections waiting for their next request, watched by one selector thread so they hold no request
+ * thread while they wait. As soon as the next request starts to arrive, the connection is switched back to blocking
+ * mode and handed on, e.g. to its RequestPool as if it had just been accepted. Connections that stay quiet for their
+ * timeout are closed, and so are all of them when a drain begins.
+ */
+@Slf4j
+public class KeepAlive implements Runnable {
+
+    private final Selector selector;
+    private final TimingWheel wheel;
+    private final Queue<Parked> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger parkedCount = new AtomicInteger();
+
+    KeepAlive(Selector selector, TimingWheel wheel) {
+        this.selector = selector;
+        this.wheel = wheel;
+    }
+
+    /**
+     * @return the watcher shared by every RequestPool. Its selector thread starts on first use.
+     */
+    public static KeepAlive shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final KeepAlive INSTANCE = create();
+
+        private static KeepAlive create() {
+            KeepAlive keepAlive;
+            try {
+                keepAlive = new KeepAlive(Selector.open(), TimingWheel.shared());
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Unable to open the keep-alive selector", ex);
+            }
+            Thread thread = new Thread(keepAlive, "KeepAliveThread");
+            thread.setDaemon(true);
+            thread.start();
+            Metrics.gauge("daproxy_keepalive_connections", "Kept-alive connections waiting for their next request",
+                    keepAlive::getParkedCount);
+            return keepAlive;
+        }
+    }
+
+    /**
+     * Watches the connection until its next request starts to arrive. The connection counts as idle for a drain, see
+     * Drain.enterIdle(), until onRequest calls Drain.exitIdle().
+     * @param socket - a client connection with a channel, and nothing read ahead of the next request
+     * @param timeoutMillis - how long to wait before closing the connection
+     * @param onRequest - run on the selector thread, with the socket blocking again, once the client sends more
+     * bytes. Must not block.
+     */
+    public void park(Socket socket, long timeoutMillis, Runnable onRequest) {
+        if (!Drain.enterIdle(socket)) {
+            closeQuietly(socket);
+            return;
+        }
+        try {
+            socket.getChannel().configureBlocking(false);
+        } catch (IOException ex) {
+            log.debug("Unable to park kept-alive connection - usually means connection is closed", ex);
+            Drain.exitIdle(socket);
+            closeQuietly(socket);
+            return;
+        }
+        Parked parked = new Parked(socket, onRequest);
+        parkedCount.incrementAndGet();
+        parked.timeout = wheel.schedule(timeoutMillis, () -> expire(parked));
+        pending.add(parked);
+        selector.wakeup();
+    }
+
+    public int getParkedCount() {
+        return parkedCount.get();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                selector.select();
+                registerPending();
+
+                List<Parked> ready = new ArrayList<>();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    key.cancel();
+                    ready.add((Parked) key.attachment());
+                }
+                selector.selectedKeys().clear();
+                if (!ready.isEmpty()) {
+                    // deregisters the cancelled keys, as a channel cannot block again while it is registered
+                    selector.selectNow();
+                    selector.selectedKeys().clear(); // still ready, so selected again next time
+                    ready.forEach(this::wake);
+                }
+            } catch (ClosedSelectorException ex) {
+                return;
+            } catch (IOException ex) {
+                log.error("Keep-alive selector failed to select", ex);
+            }
+        }
+    }
+
+    private void registerPending() {
+        Parked parked;
+        while ((parked = pending.poll()) != null) {
+            try {
+                parked.socket.getChannel().register(selector, SelectionKey.OP_READ, parked);
+            } catch (IOException ex) {
+                // closed while queued, e.g. by a drain
+                expire(parked);
+            }
+        }
+    }
+
+    private void wake(Parked parked) {
+        if (!parked.done.compareAndSet(false, true)) {
+            return;
+        }
+        parkedCount.decrementAndGet();
+        parked.timeout.cancel();
+        SocketChannel channel = parked.socket.getChannel();
+        try {
+            channel.configureBlocking(true);
+        } catch (IOException ex) {
+            log.debug("Unable to resume kept-alive connection - usually means connection is closed", ex);
+            Drain.exitIdle(parked.socket);
+            closeQuietly(parked.socket);
+            return;
+        }
+        try {
+            parked.onRequest.run();
+        } catch (RuntimeException ex) {
+            log.error("Unable to resume kept-alive connection", ex);
+            Drain.exitIdle(parked.socket);
+            closeQuietly(parked.socket);
+        }
+    }
+
+    private void expire(Parked parked) {
+        if (!parked.done.compareAndSet(false, true)) {
+            return;
+        }
+        parkedCount.decrementAndGet();
+        parked.timeout.cancel();
+        Drain.exitIdle(parked.socket);
+        closeQuietly(parked.socket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            log.error("Error trying to close kept-alive connection", ex);
+        }
+    }
+
+    private static final class Parked {
+        private final Socket socket;
+        private final Runnable onRequest;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile TimingWheel.Timeout timeout;
+
+        Parked(Socket socket, Runnable onRequest) {
+            this.socket = socket;
+            this.onRequest = onRequest;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package daproxy.pool;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import daproxy.http.RequestHandler;
+
+/**
+ * Runs requests on a fixed set of platform threads draining a queue bounded by QUEUE_SIZE.
+ */
+public class QueuedExecutor implements RequestExecutor {
+
+    private final int QUEUE_SIZE = 2048;
+    private final int corePoolSize = Runtime.getRuntime().availableProcessors() * 2;
+    private final BlockingQueue<RequestHandler> requestQueue;
+    private final Set<Thread> threadPool;
+
+    public QueuedExecutor() {
+        requestQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        threadPool = new HashSet<>();
+
+        for (int i = 0; i < corePoolSize; i++) {
+            Thread thread = new Thread(new SocketClosingThread(requestQueue), "RequestPoolThread-" + i);
+            thread.start();
+            threadPool.add(thread);
+        }
+    }
+
+    @Override
+    public boolean execute(RequestHandler handler) {
+        return requestQueue.offer(handler);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return requestQueue.size();
+    }
+}
@@ -0,0 +1,19 @@
+package daproxy.pool;
+
+import daproxy.http.RequestHandler;
+
+public interface RequestExecutor {
+
+    /**
+     * Schedules the handler to run.
+     * @param handler
+     * @return false if the executor is at capacity and the handler was not accepted.
+     */
+    public boolean execute(RequestHandler handler);
+
+    /**
+     * @return the number of accepted handlers that are waiting for a thread.
+     */
+    public int getQueueDepth();
+
+}
@@ -1,50 +1,96 @@
 package daproxy.pool;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.net.Socket;
 
+import daproxy.conf.Config;
+import daproxy.conf.ExecutionMode;
 import daproxy.http.RequestHandler;
+import daproxy.metrics.Counter;
+import daproxy.metrics.Metrics;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * A basic Thread pool implementation with two protections: 1) Bounded incoming
- * requests based on QUEUE_SIZE 2) Background thread to kill long running
- * requests to prevent a Denial-of-Service
+ * A basic Thread pool implementation with three protections: 1) An
+ * AdmissionController, which sheds connections early with a 503 once the wait
+ * for a thread starts climbing, or a client takes more than its fair share
+ * 2) Bounded incoming requests, either by queue size or by a concurrency limit
+ * depending on the configured execution mode 3) Deadlines on the shared
+ * TimingWheel, set by the requests themselves, which close connections that
+ * take too long to send their request or sit idle, to prevent a
+ * Denial-of-Service
  */
 
 @Slf4j
 public class RequestPool {
 
-    private final int QUEUE_SIZE = 2048;
-    private final int corePoolSize = Runtime.getRuntime().availableProcessors() * 2;
-    private final BlockingQueue<RequestHandler> requestQueue;
-    private final Map<RequestHandler, Long> activeRequests;
-    private final Set<Thread> threadPool;
-    private final LongRequestCanceller canceller;
+    private static final Counter REJECTED = Metrics.counter("daproxy_requests_rejected_total",
+            "Connections rejected with a 503 because the request pool was at capacity");
+
+    private final RequestExecutor executor;
+    private final AdmissionController admission; // null when disabled
 
     public RequestPool() {
+        Config conf = Config.getConfig();
+        executor = createExecutor(conf);
+        admission = createAdmissionController(conf);
+        Metrics.gauge("daproxy_request_queue_depth", "Accepted connections waiting for a request thread",
+                executor::getQueueDepth);
+    }
 
-        requestQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
-        activeRequests = new ConcurrentHashMap<>();
-        threadPool = new HashSet<>();
-        canceller = new LongRequestCanceller(activeRequests);
-        new Thread(canceller).start();
+    private AdmissionController createAdmissionController(Config conf) {
+        if (!conf.isAdmissionControlEnabled()) {
+            return null;
+        }
+        AdmissionController controller = new AdmissionController(conf.getAdmissionInitialLimit(),
+                conf.getAdmissionMinLimit(), conf.getMaxConcurrentRequests(), conf.getClientMaxConcurrentRequests(),
+                conf.getAdmissionMaxQueueWaitMillis(), System::nanoTime);
+        Metrics.gauge("daproxy_admission_limit", "Requests admission control currently lets wait or be read at once",
+                controller::getLimit);
+        Metrics.gauge("daproxy_admission_in_flight", "Admitted requests not yet read", controller::getInFlight);
+        return controller;
+    }
 
-        for (int i = 0; i < corePoolSize; i++) {
-            Thread thread = new Thread(new SocketClosingThread(requestQueue, activeRequests), "RequestPoolThread-" + i);
-            thread.start();
-            threadPool.add(thread);
+    private RequestExecutor createExecutor(Config conf) {
+        if (conf.getExecutionMode() == ExecutionMode.VIRTUAL) {
+            if (VirtualThreads.isSupported()) {
+                return new VirtualThreadExecutor(conf.getMaxConcurrentRequests());
+            }
+            log.warn("Virtual threads require JDK 21. Falling back to the platform thread pool.");
         }
+        return new QueuedExecutor();
     }
 
     public void submit(RequestHandler handler) {
-        if (!requestQueue.offer(handler)) { // System is at capacity.
+        handler.track();
+        handler.resubmitTo(this);
+        AdmissionController.Permit permit = null;
+        if (admission != null) {
+            permit = admission.tryAcquire(handler.getClientAddress());
+            if (permit == null) { // counted by the controller
+                handler.reject();
+                return;
+            }
+            handler.admit(permit);
+        }
+        if (!executor.execute(handler)) { // System is at capacity.
+            if (permit != null) {
+                permit.release();
+            }
+            REJECTED.inc();
             handler.reject();
         }
     }
 
+    /**
+     * Parks a kept-alive connection until its next request arrives, which is then submitted like a new connection.
+     * @param socket
+     */
+    public void park(Socket socket) {
+        KeepAlive.shared().park(socket, Config.getConfig().getKeepAliveTimeoutMillis(), () -> {
+            RequestHandler handler = new RequestHandler(socket);
+            handler.track(); // before leaving the idle set, so a drain never misses the connection
+            Drain.exitIdle(socket);
+            submit(handler);
+        });
+    }
 }
@@ -0,0 +1,229 @@
+package daproxy.pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import daproxy.conf.Config;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A hashed timing wheel for connection deadlines. Each tick only visits the timeouts hashed into that tick's bucket,
+ * so the cost of a tick does not grow with the number of open connections.
+ *
+ * Timeouts are handed to the timer thread through a queue, and buckets are only touched by the timer thread, so
+ * scheduling and cancelling never take a lock. Idle timeouts are reset by touch(), which only records the wheel's
+ * current time; when an idle timeout comes due, it is moved to a later bucket if there was activity in the meantime.
+ *
+ * Time is read from clockMillis(), which follows System.nanoTime(), so setting the wall clock neither fires nor holds
+ * back deadlines.
+ */
+@Slf4j
+public class TimingWheel implements Runnable {
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<Timeout>[] buckets;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startMillis;
+    private volatile long now;
+    private long lastTick;
+
+    /**
+     * @param tickMillis - resolution of the wheel
+     * @param wheelSize - number of buckets, rounded up to a power of two
+     * @param startMillis - the current time, from clockMillis()
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.buckets = new List[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.startMillis = startMillis;
+        this.now = startMillis;
+    }
+
+    /**
+     * @return the wheel used for connection timeouts. Its timer thread starts on first use.
+     */
+    public static TimingWheel shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final int WHEEL_SIZE = 512;
+        private static final TimingWheel INSTANCE = start(
+                new TimingWheel(Config.getConfig().getTimerTickMillis(), WHEEL_SIZE, clockMillis()));
+
+        private static TimingWheel start(TimingWheel wheel) {
+            Thread thread = new Thread(wheel, "TimingWheelThread");
+            thread.setDaemon(true);
+            thread.start();
+            return wheel;
+        }
+    }
+
+    /**
+     * @return the wheel's clock in milliseconds. Monotonic, but only meaningful relative to other readings.
+     */
+    public static long clockMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * @return the time of the last tick, from clockMillis(). Cheaper than reading the clock, and accurate to one tick.
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * @param delayMillis
+     * @param task - run on the timer thread once the delay has passed, unless cancelled first. Must not block.
+     * @return a handle to cancel the timeout.
+     */
+    public Timeout schedule(long delayMillis, Runnable task) {
+        return add(new Timeout(this, task, delayMillis, 0));
+    }
+
+    /**
+     * @param idleMillis
+     * @param task - run on the timer thread once touch() has not been called for idleMillis, unless cancelled first.
+     * Must not block.
+     * @return a handle to record activity or cancel the timeout.
+     */
+    public Timeout scheduleIdle(long idleMillis, Runnable task) {
+        return add(new Timeout(this, task, idleMillis, idleMillis));
+    }
+
+    private Timeout add(Timeout timeout) {
+        pending.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            advance(clockMillis());
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException ex) {
+                log.error("TimingWheel interrupted, and ceasing to expire connections", ex);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Expires everything due up to the given time. Only called by the timer thread.
+     * @param currentMillis - from clockMillis()
+     */
+    void advance(long currentMillis) {
+        long targetTick = (currentMillis - startMillis) / tickMillis;
+        now = currentMillis;
+
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (!timeout.cancelled) {
+                place(timeout);
+            }
+        }
+
+        for (long tick = lastTick + 1; tick <= targetTick; tick++) {
+            expireBucket(tick);
+        }
+        if (targetTick > lastTick) {
+            lastTick = targetTick;
+        }
+    }
+
+    private void place(Timeout timeout) {
+        long tick = Math.max(lastTick + 1, (timeout.deadline - startMillis + tickMillis - 1) / tickMillis);
+        timeout.deadlineTick = tick;
+        buckets[(int) (tick & mask)].add(timeout);
+    }
+
+    private void expireBucket(long tick) {
+        List<Timeout> bucket = buckets[(int) (tick & mask)];
+        List<Timeout> rescheduled = null;
+        for (int i = bucket.size() - 1; i >= 0; i--) {
+            Timeout timeout = bucket.get(i);
+            if (!timeout.cancelled && timeout.deadlineTick > tick) {
+                continue; // due in a later rotation
+            }
+            removeAt(bucket, i);
+            if (timeout.cancelled) {
+                continue;
+            }
+
+            long idleDeadline = timeout.lastActivity + timeout.idleMillis;
+            if (timeout.idleMillis > 0 && idleDeadline > startMillis + tick * tickMillis) {
+                timeout.deadline = idleDeadline;
+                if (rescheduled == null) {
+                    rescheduled = new ArrayList<>();
+                }
+                rescheduled.add(timeout);
+                continue;
+            }
+
+            timeout.cancelled = true;
+            try {
+                timeout.task.run();
+            } catch (RuntimeException ex) {
+                log.error("Timeout task failed", ex);
+            }
+        }
+
+        if (rescheduled != null) {
+            rescheduled.forEach(this::place); // always lands after this tick
+        }
+    }
+
+    private static void removeAt(List<Timeout> bucket, int i) {
+        int last = bucket.size() - 1;
+        bucket.set(i, bucket.get(last));
+        bucket.remove(last);
+    }
+
+    public static final class Timeout {
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long idleMillis;
+        private volatile boolean cancelled;
+        private volatile long lastActivity;
+        private long deadline;
+        private long deadlineTick;
+
+        private Timeout(TimingWheel wheel, Runnable task, long delayMillis, long idleMillis) {
+            this.wheel = wheel;
+            this.task = task;
+            this.idleMillis = idleMillis;
+            this.lastActivity = wheel.now();
+            this.deadline = lastActivity + delayMillis;
+        }
+
+        /**
+         * Records activity, postponing an idle timeout by its full idle time. Has no effect on other timeouts.
+         */
+        public void touch() {
+            lastActivity = wheel.now();
+        }
+
+        /**
+         * Stops the task from running. The timeout is dropped from its bucket the next time the bucket comes due.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
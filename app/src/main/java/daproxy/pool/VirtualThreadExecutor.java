@@ -0,0 +1,48 @@
+package daproxy.pool;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import daproxy.http.RequestHandler;
+
+/**
+ * Runs every request on its own virtual thread, so blocking socket reads no longer pin a platform thread. Instead of
+ * a queue, admission is bounded by the number of requests allowed to run at once.
+ */
+public class VirtualThreadExecutor implements RequestExecutor {
+
+    private final Semaphore permits;
+    private final ThreadFactory factory;
+
+    public VirtualThreadExecutor(int maxConcurrentRequests) {
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.factory = VirtualThreads.factory("RequestVirtualThread-");
+    }
+
+    @Override
+    public boolean execute(RequestHandler handler) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        try {
+            factory.newThread(() -> run(handler)).start();
+        } catch (RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+        return true;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return 0; // every accepted handler gets its own thread right away
+    }
+
+    private void run(RequestHandler handler) {
+        try {
+            handler.run();
+        } finally {
+            permits.release();
+        }
+    }
+}
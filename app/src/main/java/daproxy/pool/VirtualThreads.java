@@ -0,0 +1,82 @@
+package daproxy.pool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import daproxy.conf.ExecutionMode;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Virtual threads are only available from JDK 21, while the build still targets older JDKs, so the builder API
+ * (Thread.ofVirtual().name(prefix, 0).factory()) is looked up reflectively. Building a factory is reflective and
+ * restarts its thread counter, so callers build theirs once and keep it.
+ */
+@Slf4j
+public class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method NAME = findMethod("java.lang.Thread$Builder", "name", String.class, long.class);
+    private static final Method FACTORY = findMethod("java.lang.Thread$Builder", "factory");
+
+    private static Method findMethod(String className, String name, Class<?>... parameterTypes) {
+        try {
+            return findMethod(Class.forName(className), name, parameterTypes);
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            return clazz.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if this JVM can create virtual threads.
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null && NAME != null && FACTORY != null;
+    }
+
+    /**
+     * @param prefix - thread names are the prefix followed by a counter
+     * @return a factory creating virtual threads, or platform threads if this JVM does not support them.
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (!isSupported()) {
+            return platformFactory(prefix);
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            log.error("Unable to create virtual thread factory, using platform threads", ex);
+            return platformFactory(prefix);
+        }
+    }
+
+    /**
+     * @param mode
+     * @param prefix - thread names are the prefix followed by a counter
+     * @return a factory for threads matching the execution mode.
+     */
+    public static ThreadFactory factory(ExecutionMode mode, String prefix) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            return factory(prefix);
+        }
+        return platformFactory(prefix);
+    }
+
+    /**
+     * @param prefix
+     * @return a factory creating platform threads named like the virtual ones.
+     */
+    public static ThreadFactory platformFactory(String prefix) {
+        AtomicLong counter = new AtomicLong();
+        return task -> new Thread(task, prefix + counter.getAndIncrement());
+    }
+}
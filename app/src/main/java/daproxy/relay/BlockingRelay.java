@@ -0,0 +1,58 @@
+package daproxy.relay;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
+
+import daproxy.conf.Config;
+import daproxy.http.IOHelper;
+import daproxy.pool.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Relays each tunnel with two blocking threads of its own, one for each direction, and returns straight away so the
+ * request thread is free for the next connection. The threads are virtual when the configured execution mode is.
+ */
+@Slf4j
+public class BlockingRelay implements Relay {
+
+    private static class ThreadsHolder {
+        private static final ThreadFactory INSTANCE = VirtualThreads.factory(Config.getConfig().getExecutionMode(),
+                "BlockingRelayThread-");
+    }
+
+    @Override
+    public void relay(Tunnel tunnel) {
+        // read from client, write to server. read from remote, write to client. repeat.
+        ThreadsHolder.INSTANCE.newThread(() -> {
+            writeAllData(tunnel.getClient(), tunnel.getUpstream(), tunnel, Direction.UPSTREAM);
+
+        }).start();
+
+        ThreadsHolder.INSTANCE.newThread(() -> {
+            writeAllData(tunnel.getUpstream(), tunnel.getClient(), tunnel, Direction.DOWNSTREAM);
+
+        }).start();
+    }
+
+    /**
+     * Copies from input to output until either socket closes, then closes the tunnel.
+     */
+    public void writeAllData(Socket input, Socket output, Tunnel tunnel, Direction direction) {
+        CloseReason reason = CloseReason.ERROR;
+        try {
+            if (input.getChannel() != null && output.getChannel() != null) {
+                IOHelper.writeChannelToChannel(input.getChannel(), output.getChannel(), tunnel, direction);
+            } else {
+                IOHelper.writeInputToOutput(input.getInputStream(), output.getOutputStream(), tunnel, direction);
+            }
+        } catch (EOFException ex) {
+            reason = CloseReason.endOfStream(direction);
+        } catch (IOException ex) {
+            log.debug("Caught IOException - usually means connection is closed", ex);
+        } finally {
+            tunnel.close(reason);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package daproxy.relay;
+
+/**
+ * Why a tunnel was closed. Only the first reason counts, since closing one side makes the other side fail too.
+ */
+public enum CloseReason {
+    CLIENT_CLOSED("client_closed"),
+    UPSTREAM_CLOSED("upstream_closed"),
+    IDLE_TIMEOUT("idle_timeout"),
+    DRAIN("drain"),
+    ERROR("error");
+
+    private final String label;
+
+    CloseReason(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @param direction - the direction whose source reached end of stream
+     * @return which side closed the tunnel.
+     */
+    static CloseReason endOfStream(Direction direction) {
+        return direction == Direction.UPSTREAM ? CLIENT_CLOSED : UPSTREAM_CLOSED;
+    }
+}
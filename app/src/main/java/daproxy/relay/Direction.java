@@ -0,0 +1,29 @@
+package daproxy.relay;
+
+import daproxy.metrics.Counter;
+import daproxy.metrics.Metrics;
+
+/**
+ * The direction bytes move through a tunnel.
+ */
+public enum Direction {
+    UPSTREAM("upstream"), // client to upstream
+    DOWNSTREAM("downstream"); // upstream to client
+
+    private final Counter bytes;
+    private final Counter throttled;
+
+    Direction(String label) {
+        this.bytes = Metrics.counter("daproxy_relay_bytes_total", "Bytes relayed through tunnels", "direction", label);
+        this.throttled = Metrics.counter("daproxy_relay_throttled_total",
+                "Reads paused by bandwidth shaping", "direction", label);
+    }
+
+    public Counter getBytes() {
+        return bytes;
+    }
+
+    public Counter getThrottled() {
+        return throttled;
+    }
+}
@@ -0,0 +1,260 @@
+package daproxy.relay;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import daproxy.pool.BufferPool;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Relays tunnels on a fixed set of selector event loops instead of dedicating threads to each tunnel. Both sockets are
+ * switched to non-blocking mode and registered with one loop, chosen round-robin, which shuttles bytes in both
+ * directions until either side closes. A shaped tunnel's reads are paused by dropping read interest until its loop's
+ * select() times out at the resume time.
+ */
+@Slf4j
+public class NioRelay implements Relay {
+
+    private static final int END_OF_STREAM = -1;
+
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public NioRelay(int threads, BufferPool bufferPool) throws IOException {
+        loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop(Selector.open(), bufferPool);
+            Thread thread = new Thread(loops[i], "NioRelayThread-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * A socket whose channel has been switched to non-blocking mode has been handed to an event loop, which now owns
+     * it.
+     * @param socket
+     * @return true if the socket must not be closed by the caller.
+     */
+    public static boolean isHandedOff(Socket socket) {
+        SocketChannel channel = socket.getChannel();
+        return channel != null && !channel.isBlocking();
+    }
+
+    @Override
+    public void relay(Tunnel tunnel) throws IOException {
+        SocketChannel clientChannel = tunnel.getClient().getChannel();
+        SocketChannel upstreamChannel = tunnel.getUpstream().getChannel();
+        if (clientChannel == null || upstreamChannel == null) {
+            tunnel.close(CloseReason.ERROR);
+            throw new IOException("NIO relay requires sockets created from channels");
+        }
+
+        try {
+            clientChannel.configureBlocking(false);
+            upstreamChannel.configureBlocking(false);
+        } catch (IOException ex) {
+            tunnel.close(CloseReason.ERROR);
+            throw ex;
+        }
+
+        loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(tunnel);
+    }
+
+    private static final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final BufferPool bufferPool;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Endpoint> paused = new PriorityQueue<>(
+                Comparator.comparingLong((Endpoint endpoint) -> endpoint.resumeAt));
+
+        EventLoop(Selector selector, BufferPool bufferPool) {
+            this.selector = selector;
+            this.bufferPool = bufferPool;
+        }
+
+        /**
+         * Endpoints and selector registrations are only touched from the loop's own thread, so work from other threads
+         * is queued and the selector woken up.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(Tunnel tunnel) {
+            execute(() -> {
+                Endpoint client = new Endpoint(this, tunnel, tunnel.getClient().getChannel(), Direction.UPSTREAM,
+                        bufferPool);
+                Endpoint upstream = new Endpoint(this, tunnel, tunnel.getUpstream().getChannel(),
+                        Direction.DOWNSTREAM, bufferPool);
+                client.peer = upstream;
+                upstream.peer = client;
+                // the tunnel may also be closed by its idle timeout on another thread
+                tunnel.onClose(() -> execute(() -> {
+                    bufferPool.release(client.inbound);
+                    bufferPool.release(upstream.inbound);
+                }));
+                try {
+                    client.key = client.channel.register(selector, SelectionKey.OP_READ, client);
+                    upstream.key = upstream.channel.register(selector, SelectionKey.OP_READ, upstream);
+                } catch (IOException ex) {
+                    log.debug("Unable to register tunnel - usually means connection is closed", ex);
+                    tunnel.close(CloseReason.ERROR);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            bufferPool.enableThreadCache();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    selector.select(resumePaused());
+                    runTasks();
+                    resumePaused();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ((Endpoint) key.attachment()).onReady(key);
+                    }
+                } catch (IOException ex) {
+                    log.error("NIO event loop failed to select", ex);
+                }
+            }
+        }
+
+        /**
+         * Pauses reading from the endpoint until its resumeAt.
+         */
+        void pause(Endpoint endpoint) {
+            paused.add(endpoint);
+        }
+
+        /**
+         * Resumes reading from the endpoints whose pause is over.
+         * @return milliseconds until the next pause is over, or 0 if none is paused.
+         */
+        private long resumePaused() {
+            long now = System.nanoTime();
+            Endpoint endpoint;
+            while ((endpoint = paused.peek()) != null && endpoint.resumeAt - now <= 0) {
+                paused.poll();
+                endpoint.resume();
+            }
+            if (endpoint == null) {
+                return 0;
+            }
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(endpoint.resumeAt - now + 999_999));
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * One side of a tunnel. Bytes read from this channel are buffered in {@code inbound} until they are written to the
+     * peer. While the peer cannot accept more bytes, or the tunnel is throttled, reading from this channel is paused.
+     * Endpoints are only touched by their event loop's thread.
+     */
+    private static final class Endpoint {
+
+        private final EventLoop loop;
+        private final Tunnel tunnel;
+        private final SocketChannel channel;
+        private final Direction inboundDirection;
+        private final ByteBuffer inbound;
+        private Endpoint peer;
+        private SelectionKey key;
+        private boolean throttled;
+        private long resumeAt;
+
+        Endpoint(EventLoop loop, Tunnel tunnel, SocketChannel channel, Direction inboundDirection,
+                BufferPool bufferPool) {
+            this.loop = loop;
+            this.tunnel = tunnel;
+            this.channel = channel;
+            this.inboundDirection = inboundDirection;
+            this.inbound = bufferPool.acquire();
+        }
+
+        void onReady(SelectionKey readyKey) {
+            try {
+                if (readyKey.isValid() && readyKey.isWritable()) {
+                    peer.flush();
+                }
+                if (readyKey.isValid() && readyKey.isReadable()) {
+                    read();
+                }
+            } catch (IOException | CancelledKeyException ex) {
+                log.debug("Caught IOException - usually means connection is closed", ex);
+                tunnel.close(CloseReason.ERROR);
+            }
+        }
+
+        private void read() throws IOException {
+            int read = channel.read(inbound);
+            if (read == END_OF_STREAM) {
+                tunnel.close(CloseReason.endOfStream(inboundDirection));
+                return;
+            }
+            long pause = read > 0 ? tunnel.throttle(inboundDirection, read) : 0;
+            if (pause > 0) {
+                throttled = true;
+                resumeAt = System.nanoTime() + pause;
+                loop.pause(this);
+            }
+            flush();
+        }
+
+        void resume() {
+            throttled = false;
+            // otherwise reading resumes once the peer has taken what is buffered
+            if (key.isValid() && inbound.position() == 0) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        private void flush() throws IOException {
+            inbound.flip();
+            int written = peer.channel.write(inbound);
+            if (written > 0) {
+                tunnel.transferred(inboundDirection, written);
+            }
+            boolean drained = !inbound.hasRemaining();
+            inbound.compact();
+
+            if (drained) {
+                peer.key.interestOps(peer.key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (throttled) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                } else {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            } else {
+                peer.key.interestOps(peer.key.interestOps() | SelectionKey.OP_WRITE);
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+    }
+}
@@ -0,0 +1,16 @@
+package daproxy.relay;
+
+import java.io.IOException;
+
+public interface Relay {
+
+    /**
+     * Shuttles bytes between the client and upstream sockets of the tunnel until either side closes. Once called, the
+     * relay owns the tunnel and is responsible for closing it. Implementations may return before the tunnel is
+     * finished.
+     * @param tunnel
+     * @throws IOException if the tunnel could not be started
+     */
+    public void relay(Tunnel tunnel) throws IOException;
+
+}
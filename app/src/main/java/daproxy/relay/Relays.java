@@ -0,0 +1,54 @@
+package daproxy.relay;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import daproxy.conf.RelayMode;
+import daproxy.pool.BufferPool;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+public class Relays {
+
+    private static final Relay BLOCKING = new BlockingRelay();
+
+    /**
+     * @param mode
+     * @return the relay implementing the given mode. Event loop threads are only started the first time NIO is used.
+     */
+    public static Relay get(RelayMode mode) {
+        if (mode == RelayMode.NIO) {
+            return NioHolder.INSTANCE;
+        }
+        if (mode == RelayMode.SPLICE) {
+            return SpliceHolder.INSTANCE;
+        }
+        return BLOCKING;
+    }
+
+    private static class SpliceHolder {
+        private static final Relay INSTANCE = create();
+
+        private static Relay create() {
+            Splice splice = Splice.get();
+            if (splice == null) {
+                log.warn("splice(2) is not available, falling back to the blocking relay: {}",
+                        Splice.getUnavailableReason());
+                return BLOCKING;
+            }
+            return new SpliceRelay(splice, BLOCKING);
+        }
+    }
+
+    private static class NioHolder {
+        private static final NioRelay INSTANCE = create();
+
+        private static NioRelay create() {
+            try {
+                return new NioRelay(Runtime.getRuntime().availableProcessors(), BufferPool.shared());
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Unable to open NIO relay selectors", ex);
+            }
+        }
+    }
+}
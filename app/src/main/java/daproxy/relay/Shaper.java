@@ -0,0 +1,172 @@
+package daproxy.relay;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import daproxy.conf.Config;
+
+/**
+ * Shapes tunnel bandwidth with a hierarchy of token buckets: one for the whole proxy, one per client address and one
+ * per destination host, each kept separately for either direction. Every read takes its bytes from all the buckets
+ * that apply, and the relay pauses reading for the longest wait among them. Pausing reads rather than buffering lets
+ * TCP flow control push back on the sender.
+ *
+ * A rate of 0 leaves that level unlimited. Client and destination buckets are shared by the tunnels using them and
+ * dropped once the last one closes.
+ */
+public class Shaper {
+
+    private final long clientBytesPerSecond;
+    private final long destinationBytesPerSecond;
+    private final long burstBytes;
+    private final LongSupplier nanoClock;
+    private final TokenBucket[] global;
+    private final Map<InetAddress, Buckets> clients = new ConcurrentHashMap<>();
+    private final Map<String, Buckets> destinations = new ConcurrentHashMap<>();
+
+    /**
+     * @param globalBytesPerSecond - per direction, across all tunnels
+     * @param clientBytesPerSecond - per direction, across a client address's tunnels
+     * @param destinationBytesPerSecond - per direction, across the tunnels to a host
+     * @param burstBytes - moved at full speed before a bucket starts pausing reads
+     * @param nanoClock - e.g. System::nanoTime
+     */
+    public Shaper(long globalBytesPerSecond, long clientBytesPerSecond, long destinationBytesPerSecond,
+            long burstBytes, LongSupplier nanoClock) {
+        this.clientBytesPerSecond = clientBytesPerSecond;
+        this.destinationBytesPerSecond = destinationBytesPerSecond;
+        this.burstBytes = burstBytes;
+        this.nanoClock = nanoClock;
+        this.global = globalBytesPerSecond > 0 ? buckets(globalBytesPerSecond) : null;
+    }
+
+    /**
+     * @return the shaper configured by the bandwidth settings.
+     */
+    public static Shaper shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final Shaper INSTANCE = create(Config.getConfig());
+
+        private static Shaper create(Config conf) {
+            return new Shaper(conf.getBandwidthGlobalBytesPerSecond(), conf.getBandwidthPerClientBytesPerSecond(),
+                    conf.getBandwidthPerDestinationBytesPerSecond(), conf.getBandwidthBurstBytes(), System::nanoTime);
+        }
+    }
+
+    private TokenBucket[] buckets(long bytesPerSecond) {
+        long now = nanoClock.getAsLong();
+        TokenBucket[] buckets = new TokenBucket[Direction.values().length];
+        for (Direction direction : Direction.values()) {
+            buckets[direction.ordinal()] = new TokenBucket(bytesPerSecond, burstBytes, now);
+        }
+        return buckets;
+    }
+
+    /**
+     * @param client - the client's address
+     * @param host - the destination host
+     * @return the limit for a new tunnel, to be released when it closes, or null if no bandwidth limit is configured.
+     */
+    public Limit forTunnel(InetAddress client, String host) {
+        if (global == null && clientBytesPerSecond <= 0 && destinationBytesPerSecond <= 0) {
+            return null;
+        }
+        return new Limit(client, host);
+    }
+
+    private <K> Buckets acquire(Map<K, Buckets> map, K key, long bytesPerSecond) {
+        return map.compute(key, (k, shared) -> {
+            if (shared == null) {
+                shared = new Buckets(buckets(bytesPerSecond));
+            }
+            shared.users++;
+            return shared;
+        });
+    }
+
+    private static <K> void release(Map<K, Buckets> map, K key) {
+        map.computeIfPresent(key, (k, shared) -> --shared.users == 0 ? null : shared);
+    }
+
+    int getClientCount() {
+        return clients.size();
+    }
+
+    int getDestinationCount() {
+        return destinations.size();
+    }
+
+    private static final class Buckets {
+        private final TokenBucket[] byDirection;
+        private int users; // only changed inside the map's compute
+
+        Buckets(TokenBucket[] byDirection) {
+            this.byDirection = byDirection;
+        }
+    }
+
+    /**
+     * The buckets one tunnel takes from.
+     */
+    public final class Limit {
+
+        private final InetAddress client;
+        private final String host;
+        private final TokenBucket[] clientBuckets;
+        private final TokenBucket[] destinationBuckets;
+        private boolean released;
+
+        private Limit(InetAddress client, String host) {
+            this.client = client;
+            this.host = host;
+            this.clientBuckets = clientBytesPerSecond > 0
+                    ? acquire(clients, client, clientBytesPerSecond).byDirection
+                    : null;
+            this.destinationBuckets = destinationBytesPerSecond > 0
+                    ? acquire(destinations, host, destinationBytesPerSecond).byDirection
+                    : null;
+        }
+
+        /**
+         * @param direction
+         * @param bytes - just read
+         * @return how long to pause reading in this direction, in nanoseconds.
+         */
+        public long take(Direction direction, int bytes) {
+            long now = nanoClock.getAsLong();
+            int index = direction.ordinal();
+            long pause = 0;
+            if (global != null) {
+                pause = global[index].take(bytes, now);
+            }
+            if (clientBuckets != null) {
+                pause = Math.max(pause, clientBuckets[index].take(bytes, now));
+            }
+            if (destinationBuckets != null) {
+                pause = Math.max(pause, destinationBuckets[index].take(bytes, now));
+            }
+            return pause;
+        }
+
+        /**
+         * Lets go of the shared buckets. Safe to call more than once.
+         */
+        public synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (clientBuckets != null) {
+                Shaper.release(clients, client);
+            }
+            if (destinationBuckets != null) {
+                Shaper.release(destinations, host);
+            }
+        }
+    }
+}
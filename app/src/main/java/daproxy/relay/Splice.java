@@ -0,0 +1,254 @@
+package daproxy.relay;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.Channel;
+import java.nio.channels.Pipe;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * splice(2) and the few other Linux calls the SpliceRelay needs, bound through the Foreign Function &amp; Memory API:
+ * java.lang.foreign where the JDK has it, or the jdk.incubator.foreign module on JDK 17. Both are reached
+ * reflectively, so the build depends on neither.
+ *
+ * The JVM has to be started with --enable-native-access=ALL-UNNAMED, with --add-modules jdk.incubator.foreign on JDK
+ * 17, and with --add-exports java.base/sun.nio.ch=ALL-UNNAMED to read the channels' file descriptors. Without them,
+ * get() returns null and getUnavailableReason() says why.
+ */
+final class Splice {
+
+    static final int SPLICE_F_MOVE = 1;
+    private static final int SHUT_RDWR = 2;
+
+    private final MethodHandle splice;
+    private final MethodHandle dup;
+    private final MethodHandle shutdown;
+    private final MethodHandle close;
+    private final Method getFdVal;
+
+    private Splice(Binder binder) throws ReflectiveOperationException {
+        // pointer arguments, the offsets, are always NULL: sockets and pipes have no file position
+        splice = binder.bind("splice", long.class, int.class, Binder.POINTER, int.class, Binder.POINTER, long.class,
+                int.class);
+        dup = binder.bind("dup", int.class, int.class);
+        shutdown = binder.bind("shutdown", int.class, int.class, int.class);
+        close = binder.bind("close", int.class, int.class);
+        getFdVal = Class.forName("sun.nio.ch.SelChImpl").getMethod("getFDVal");
+    }
+
+    private static class Holder {
+        private static final Splice INSTANCE;
+        private static final String UNAVAILABLE_REASON;
+
+        static {
+            Splice splice = null;
+            String reason = null;
+            try {
+                splice = load();
+            } catch (ReflectiveOperationException | IOException | RuntimeException | LinkageError ex) {
+                Throwable cause = ex instanceof InvocationTargetException ? ex.getCause() : ex;
+                reason = cause.toString();
+            }
+            INSTANCE = splice;
+            UNAVAILABLE_REASON = reason;
+        }
+    }
+
+    /**
+     * @return the bound calls, or null if splice(2) cannot be used in this JVM.
+     */
+    static Splice get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @return why get() returns null, or null if it does not.
+     */
+    static String getUnavailableReason() {
+        return Holder.UNAVAILABLE_REASON;
+    }
+
+    private static Splice load() throws ReflectiveOperationException, IOException {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) {
+            throw new UnsupportedOperationException("splice(2) is only available on Linux");
+        }
+        Binder binder;
+        try {
+            binder = new Binder("java.lang.foreign");
+        } catch (ClassNotFoundException ex) {
+            binder = new Binder("jdk.incubator.foreign");
+        }
+        Splice splice = new Splice(binder);
+        // reading a descriptor needs sun.nio.ch exported, and duplicating it proves the binding works
+        Pipe pipe = Pipe.open();
+        try {
+            int source = splice.fd(pipe.source());
+            int copy = splice.dup(source);
+            if (copy < 0) {
+                throw new IOException("dup failed");
+            }
+            splice.close(copy);
+        } finally {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+        return splice;
+    }
+
+    /**
+     * Moves up to length bytes from in to out, one of which must be a pipe. Blocks until some bytes move.
+     * @return the number of bytes moved, 0 at the end of in, or -1 if the call failed.
+     */
+    long splice(int in, int out, long length) throws IOException {
+        try {
+            return (long) splice.invokeExact(in, out, length, SPLICE_F_MOVE);
+        } catch (Throwable ex) {
+            throw new IOException("splice failed", ex);
+        }
+    }
+
+    /**
+     * @return a new descriptor for the same socket or pipe, or -1 if the call failed.
+     */
+    int dup(int fd) throws IOException {
+        try {
+            return (int) dup.invokeExact(fd);
+        } catch (Throwable ex) {
+            throw new IOException("dup failed", ex);
+        }
+    }
+
+    /**
+     * Shuts down both directions of the socket, waking any thread blocked in splice on it.
+     * @return 0, or -1 if the call failed.
+     */
+    int shutdown(int fd) throws IOException {
+        try {
+            return (int) shutdown.invokeExact(fd, SHUT_RDWR);
+        } catch (Throwable ex) {
+            throw new IOException("shutdown failed", ex);
+        }
+    }
+
+    /**
+     * @return 0, or -1 if the call failed.
+     */
+    int close(int fd) throws IOException {
+        try {
+            return (int) close.invokeExact(fd);
+        } catch (Throwable ex) {
+            throw new IOException("close failed", ex);
+        }
+    }
+
+    /**
+     * @param channel - a socket or pipe channel
+     * @return its file descriptor, which stays owned by the channel.
+     */
+    int fd(Channel channel) throws IOException {
+        try {
+            return (int) getFdVal.invoke(channel);
+        } catch (ReflectiveOperationException ex) {
+            throw new IOException("Unable to read the descriptor of " + channel, ex);
+        }
+    }
+
+    /**
+     * Looks up C functions and builds downcall handles with one of the two shapes of the API: java.lang.foreign
+     * (Linker, ValueLayout.JAVA_INT, MemorySegment.NULL) or jdk.incubator.foreign (CLinker, CLinker.C_INT,
+     * MemoryAddress.NULL).
+     */
+    private static final class Binder {
+        static final Class<?> POINTER = Void.class;
+
+        private final boolean incubator;
+        private final Object linker;
+        private final Object lookup;
+        private final Method find;
+        private final Method downcallHandle;
+        private final Method describe;
+        private final Class<?> layoutClass;
+        private final Class<?> addressClass;
+        private final Object intLayout;
+        private final Object longLayout;
+        private final Object pointerLayout;
+        private final Object nullAddress;
+
+        Binder(String pkg) throws ReflectiveOperationException {
+            incubator = pkg.equals("jdk.incubator.foreign");
+            Class<?> descriptor = Class.forName(pkg + ".FunctionDescriptor");
+            layoutClass = Class.forName(pkg + ".MemoryLayout");
+            describe = descriptor.getMethod("of", layoutClass, Array.newInstance(layoutClass, 0).getClass());
+            Class<?> symbolLookup = Class.forName(pkg + ".SymbolLookup");
+            if (incubator) {
+                Class<?> cLinker = Class.forName(pkg + ".CLinker");
+                addressClass = Class.forName(pkg + ".MemoryAddress");
+                linker = cLinker.getMethod("getInstance").invoke(null);
+                lookup = cLinker.getMethod("systemLookup").invoke(null);
+                find = symbolLookup.getMethod("lookup", String.class);
+                downcallHandle = cLinker.getMethod("downcallHandle", Class.forName(pkg + ".Addressable"),
+                        MethodType.class, descriptor);
+                intLayout = cLinker.getField("C_INT").get(null);
+                longLayout = cLinker.getField("C_LONG").get(null);
+                pointerLayout = cLinker.getField("C_POINTER").get(null);
+            } else {
+                Class<?> nativeLinker = Class.forName(pkg + ".Linker");
+                Class<?> valueLayout = Class.forName(pkg + ".ValueLayout");
+                Class<?> options = Array.newInstance(Class.forName(pkg + ".Linker$Option"), 0).getClass();
+                addressClass = Class.forName(pkg + ".MemorySegment");
+                linker = nativeLinker.getMethod("nativeLinker").invoke(null);
+                lookup = nativeLinker.getMethod("defaultLookup").invoke(linker);
+                find = symbolLookup.getMethod("find", String.class);
+                downcallHandle = nativeLinker.getMethod("downcallHandle", addressClass, descriptor, options);
+                intLayout = valueLayout.getField("JAVA_INT").get(null);
+                longLayout = valueLayout.getField("JAVA_LONG").get(null);
+                pointerLayout = valueLayout.getField("ADDRESS").get(null);
+            }
+            nullAddress = addressClass.getField("NULL").get(null);
+        }
+
+        /**
+         * @param name - of the C function
+         * @param result - int.class or long.class
+         * @param params - int.class, long.class or POINTER, which is always passed NULL
+         * @return a handle taking only the int and long parameters.
+         */
+        MethodHandle bind(String name, Class<?> result, Class<?>... params) throws ReflectiveOperationException {
+            Optional<?> symbol = (Optional<?>) find.invoke(lookup, name);
+            if (symbol.isEmpty()) {
+                throw new NoSuchMethodException("No native function " + name);
+            }
+            Object layouts = Array.newInstance(layoutClass, params.length);
+            Class<?>[] carriers = new Class<?>[params.length];
+            for (int i = 0; i < params.length; i++) {
+                Array.set(layouts, i, layout(params[i]));
+                carriers[i] = params[i] == POINTER ? addressClass : params[i];
+            }
+            Object function = describe.invoke(null, layout(result), layouts);
+            MethodHandle handle = incubator
+                    ? (MethodHandle) downcallHandle.invoke(linker, symbol.get(), MethodType.methodType(result, carriers),
+                            function)
+                    : (MethodHandle) downcallHandle.invoke(linker, symbol.get(), function,
+                            Array.newInstance(downcallHandle.getParameterTypes()[2].getComponentType(), 0));
+            for (int i = params.length - 1; i >= 0; i--) {
+                if (params[i] == POINTER) {
+                    handle = MethodHandles.insertArguments(handle, i, nullAddress);
+                }
+            }
+            return handle;
+        }
+
+        private Object layout(Class<?> type) {
+            if (type == POINTER) {
+                return pointerLayout;
+            }
+            return type == long.class ? longLayout : intLayout;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package daproxy.relay;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+
+import daproxy.http.IOHelper;
+import daproxy.pool.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Relays each tunnel inside the kernel with splice(2): bytes move from one socket into a pipe and from the pipe into
+ * the other socket without being copied into the JVM. Each direction has a pipe and a platform thread of its own
+ * blocked in splice; a virtual thread would pin its carrier for the life of the tunnel.
+ *
+ * The relay splices duplicates of the sockets' descriptors and closes them itself once both directions are done, so a
+ * descriptor number can never be reused under a splice still running. Closing the tunnel shuts the duplicates down,
+ * which wakes both threads.
+ */
+@Slf4j
+public class SpliceRelay implements Relay {
+
+    private static final long CHUNK_SIZE = 64 * 1024; // the default capacity of a pipe
+
+    private final Splice splice;
+    private final Relay fallback;
+    private final ThreadFactory threads = VirtualThreads.platformFactory("SpliceRelayThread-");
+
+    /**
+     * @param splice - the bound calls, see Splice.get()
+     * @param fallback - relays tunnels whose sockets cannot be spliced, e.g. because they have no channel
+     */
+    SpliceRelay(Splice splice, Relay fallback) {
+        this.splice = splice;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void relay(Tunnel tunnel) throws IOException {
+        SocketChannel client = tunnel.getClient().getChannel();
+        SocketChannel upstream = tunnel.getUpstream().getChannel();
+        if (client == null || upstream == null || !client.isBlocking() || !upstream.isBlocking()) {
+            fallback.relay(tunnel);
+            return;
+        }
+
+        Descriptors fds = new Descriptors();
+        try {
+            fds.client = dup(splice.fd(client));
+            fds.upstream = dup(splice.fd(upstream));
+            fds.upstreamPipe = Pipe.open();
+            fds.downstreamPipe = Pipe.open();
+        } catch (IOException ex) {
+            // neither direction will run, so both releases happen here
+            fds.release();
+            fds.release();
+            tunnel.close(CloseReason.ERROR);
+            throw ex;
+        }
+        tunnel.onClose(fds::shutdown);
+        threads.newThread(() -> copy(fds.client, fds.upstream, fds.upstreamPipe, tunnel, Direction.UPSTREAM, fds))
+                .start();
+        threads.newThread(() -> copy(fds.upstream, fds.client, fds.downstreamPipe, tunnel, Direction.DOWNSTREAM, fds))
+                .start();
+    }
+
+    private int dup(int fd) throws IOException {
+        int copy = splice.dup(fd);
+        if (copy < 0) {
+            throw new IOException("Unable to duplicate descriptor " + fd);
+        }
+        return copy;
+    }
+
+    /**
+     * Splices from in to out through the pipe until either socket closes, then closes the tunnel.
+     */
+    private void copy(int in, int out, Pipe pipe, Tunnel tunnel, Direction direction, Descriptors fds) {
+        CloseReason reason = CloseReason.ERROR;
+        try {
+            int pipeIn = splice.fd(pipe.sink());
+            int pipeOut = splice.fd(pipe.source());
+            while (true) {
+                long read = splice.splice(in, pipeIn, CHUNK_SIZE);
+                if (read == 0) {
+                    reason = CloseReason.endOfStream(direction);
+                    break;
+                }
+                if (read < 0) {
+                    throw new IOException("splice from descriptor " + in + " failed");
+                }
+                for (long remaining = read; remaining > 0;) {
+                    long written = splice.splice(pipeOut, out, remaining);
+                    if (written <= 0) {
+                        throw new IOException("splice to descriptor " + out + " failed");
+                    }
+                    remaining -= written;
+                }
+                tunnel.transferred(direction, (int) read);
+                IOHelper.pause(tunnel, tunnel.throttle(direction, (int) read));
+            }
+        } catch (IOException ex) {
+            log.debug("Caught IOException - usually means connection is closed", ex);
+        } finally {
+            tunnel.close(reason);
+            fds.release();
+        }
+    }
+
+    /**
+     * The duplicated socket descriptors and pipes of one tunnel. Shutting down and closing exclude each other, so a
+     * shutdown never reaches a descriptor number that has been closed and reused.
+     */
+    private final class Descriptors {
+        private int client = -1;
+        private int upstream = -1;
+        private Pipe upstreamPipe;
+        private Pipe downstreamPipe;
+        private int running = 2;
+
+        synchronized void shutdown() {
+            if (running == 0) {
+                return;
+            }
+            for (int fd : new int[] { client, upstream }) {
+                try {
+                    if (fd >= 0) {
+                        splice.shutdown(fd);
+                    }
+                } catch (IOException ex) {
+                    log.error("Error trying to shut down socket", ex);
+                }
+            }
+        }
+
+        /**
+         * Called as each direction finishes. The last one closes everything.
+         */
+        synchronized void release() {
+            if (--running > 0) {
+                return;
+            }
+            for (int fd : new int[] { client, upstream }) {
+                try {
+                    if (fd >= 0) {
+                        splice.close(fd);
+                    }
+                } catch (IOException ex) {
+                    log.error("Error trying to close socket", ex);
+                }
+            }
+            for (Pipe pipe : new Pipe[] { upstreamPipe, downstreamPipe }) {
+                if (pipe != null) {
+                    closeQuietly(pipe);
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Pipe pipe) {
+        try {
+            pipe.sink().close();
+            pipe.source().close();
+        } catch (IOException ex) {
+            log.error("Error trying to close pipe", ex);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package daproxy.relay;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket of bytes, refilled at a fixed rate up to a burst. Rather than a token count and a refill timestamp it
+ * keeps a single time, when the bucket would be full again (the generic cell rate algorithm), so taking bytes is one
+ * compareAndSet and a bucket only one tunnel uses costs about as much as a counter.
+ *
+ * Bytes are always taken, even when the bucket holds fewer, and the caller is told how long to wait for the bucket to
+ * catch up. Relays take the bytes they just read, then pause reading for that long.
+ */
+final class TokenBucket {
+
+    private final double nanosPerByte;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    /**
+     * @param bytesPerSecond
+     * @param burstBytes - taken at once without waiting when the bucket is full
+     * @param now - in nanoseconds, from the clock later passed to take()
+     */
+    TokenBucket(long bytesPerSecond, long burstBytes, long now) {
+        this.nanosPerByte = 1e9 / bytesPerSecond;
+        this.burstNanos = (long) (burstBytes * nanosPerByte);
+        this.fullAt = new AtomicLong(now);
+    }
+
+    /**
+     * @param bytes
+     * @param now - in nanoseconds
+     * @return how long to wait, in nanoseconds, before taking more.
+     */
+    long take(int bytes, long now) {
+        long cost = (long) (bytes * nanosPerByte);
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - now > 0 ? current : now) + cost;
+            if (fullAt.compareAndSet(current, next)) {
+                return Math.max(0, next - now - burstNanos);
+            }
+        }
+    }
+}
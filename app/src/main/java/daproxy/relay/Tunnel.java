@@ -0,0 +1,204 @@
+package daproxy.relay;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import daproxy.metrics.Metrics;
+import daproxy.pool.TimingWheel;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An established CONNECT tunnel: the client socket, the upstream socket, and the idle timeout that closes both once no
+ * bytes have moved in either direction for a while. Relays call transferred() whenever they move bytes, and
+ * throttle() whenever they read them, pausing further reads for as long as it says.
+ */
+@Slf4j
+public class Tunnel {
+
+    private static final Map<Socket, Tunnel> OPEN = new ConcurrentHashMap<>(); // by client socket
+    private static final Set<Stream> OPEN_STREAMS = ConcurrentHashMap.newKeySet();
+
+    static {
+        Metrics.gauge("daproxy_tunnels_active", "Tunnels currently open, HTTP/2 CONNECT streams included",
+                Tunnel::getOpenCount);
+    }
+
+    /**
+     * A tunnel carried as one stream of a multiplexed client connection, e.g. an HTTP/2 CONNECT stream. It is counted
+     * and closed along with the other tunnels, but closes only its own upstream connection.
+     */
+    public interface Stream {
+        void close(CloseReason reason);
+    }
+
+    private final Socket client;
+    private final Socket upstream;
+    private final TimingWheel.Timeout idleTimeout;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong bytesUpstream = new AtomicLong();
+    private final AtomicLong bytesDownstream = new AtomicLong();
+    private volatile CloseReason closeReason;
+    private volatile Shaper.Limit limit;
+
+    public Tunnel(Socket client, Socket upstream, TimingWheel wheel, long idleTimeoutMillis) {
+        this.client = client;
+        this.upstream = upstream;
+        this.idleTimeout = wheel.scheduleIdle(idleTimeoutMillis, () -> {
+            log.debug("Closing tunnel idle for {} ms", idleTimeoutMillis);
+            close(CloseReason.IDLE_TIMEOUT);
+        });
+        OPEN.put(client, this);
+    }
+
+    /**
+     * @return the number of tunnels currently open, streams included.
+     */
+    public static int getOpenCount() {
+        return OPEN.size() + OPEN_STREAMS.size();
+    }
+
+    /**
+     * Closes every open tunnel and stream, e.g. once a drain's deadline has passed.
+     */
+    public static void closeAll() {
+        for (Tunnel tunnel : OPEN.values()) {
+            tunnel.close(CloseReason.DRAIN);
+        }
+        for (Stream stream : OPEN_STREAMS) {
+            stream.close(CloseReason.DRAIN);
+        }
+    }
+
+    /**
+     * @param client - a client connection
+     * @return true while a tunnel is open on the connection. The tunnel closes it, not the caller, as a relay may
+     * still be using it on threads of its own.
+     */
+    public static boolean isOpen(Socket client) {
+        return OPEN.containsKey(client);
+    }
+
+    /**
+     * Counts the stream as an open tunnel until streamClosed() is called.
+     */
+    public static void streamOpened(Stream stream) {
+        OPEN_STREAMS.add(stream);
+    }
+
+    public static void streamClosed(Stream stream) {
+        OPEN_STREAMS.remove(stream);
+    }
+
+    public Socket getClient() {
+        return client;
+    }
+
+    public Socket getUpstream() {
+        return upstream;
+    }
+
+    /**
+     * Records that bytes moved through the tunnel, postponing the idle timeout.
+     * @param direction
+     * @param bytes - the number of bytes written
+     */
+    public void transferred(Direction direction, int bytes) {
+        idleTimeout.touch();
+        direction.getBytes().add(bytes);
+        (direction == Direction.UPSTREAM ? bytesUpstream : bytesDownstream).addAndGet(bytes);
+    }
+
+    /**
+     * Shapes the tunnel's bandwidth until it closes.
+     * @param limit - or null for no limit
+     */
+    public void shape(Shaper.Limit limit) {
+        if (limit != null) {
+            this.limit = limit;
+            onClose(limit::release);
+        }
+    }
+
+    /**
+     * @param direction
+     * @param bytes - the number of bytes just read
+     * @return how long to pause reading in the direction, in nanoseconds, 0 if the tunnel is not shaped or within its
+     * limits.
+     */
+    public long throttle(Direction direction, int bytes) {
+        Shaper.Limit current = limit;
+        if (current == null) {
+            return 0;
+        }
+        long pause = current.take(direction, bytes);
+        if (pause > 0) {
+            direction.getThrottled().inc();
+        }
+        return pause;
+    }
+
+    /**
+     * @param direction
+     * @return the bytes relayed in the direction so far.
+     */
+    public long getBytes(Direction direction) {
+        return (direction == Direction.UPSTREAM ? bytesUpstream : bytesDownstream).get();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * @param listener - run once when the tunnel closes, on the closing thread. Runs immediately if already closed.
+     */
+    public void onClose(Runnable listener) {
+        closeListeners.add(listener);
+        if (closed.get() && closeListeners.remove(listener)) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @return why the tunnel was closed, or null while it is open.
+     */
+    public CloseReason getCloseReason() {
+        return closeReason;
+    }
+
+    /**
+     * Closes both sockets. Safe to call more than once and from any thread. Only the first reason is kept.
+     * @param reason
+     */
+    public void close(CloseReason reason) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        closeReason = reason;
+        idleTimeout.cancel();
+        OPEN.remove(client, this);
+        closeQuietly(client);
+        closeQuietly(upstream);
+        for (Runnable listener : closeListeners) {
+            if (closeListeners.remove(listener)) {
+                listener.run();
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            log.error("Error trying to close socket", ex);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package daproxy.upstream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import daproxy.conf.Config;
+import daproxy.metrics.Counter;
+import daproxy.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fails connects fast to destinations that keep failing, so a dark upstream costs its clients an immediate 503 rather
+ * than a request thread each until the connect times out.
+ *
+ * Each host:port has its own breaker, counting connects and the ones that failed or took longer than slowConnect over a
+ * sliding window. Once the window holds at least minRequests connects and the failed share reaches failureRatio, the
+ * breaker opens and the destination is ejected: connects are refused without dialing. After the ejection time it goes
+ * half open and lets halfOpenProbes connects through. If they all succeed it closes again, and if one fails it opens
+ * for longer. The ejection time doubles with each ejection, up to maxOpen, and starts over once the destination has
+ * stayed healthy for maxOpen.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN;
+
+        public String getLabel() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final int BUCKETS = 10;
+    private static final int MAX_DESTINATIONS = 10000;
+
+    private static final Counter REJECTED = Metrics.counter("daproxy_upstream_breaker_rejected_total",
+            "Connects refused without dialing because the destination's circuit breaker was open");
+    private static final Counter OPENED = Metrics.counter("daproxy_upstream_breaker_opened_total",
+            "Times a destination was ejected by its circuit breaker");
+
+    private final boolean enabled;
+    private final long bucketMillis;
+    private final int minRequests;
+    private final double failureRatio;
+    private final long slowConnectMicros;
+    private final long openMillis;
+    private final long maxOpenMillis;
+    private final int halfOpenProbes;
+    private final LongSupplier clock;
+    private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+
+    /**
+     * @param enabled - when false every connect is let through and nothing is recorded
+     * @param windowMillis - how far back connects are counted
+     * @param minRequests - connects in the window before the breaker may open
+     * @param failureRatio - share of failed or slow connects that opens the breaker
+     * @param slowConnectMillis - connects taking longer count as failed
+     * @param openMillis - the first ejection time
+     * @param maxOpenMillis - the longest ejection time
+     * @param halfOpenProbes - connects let through, and needing to succeed, before the breaker closes again
+     * @param clock - e.g. System::currentTimeMillis
+     */
+    public CircuitBreaker(boolean enabled, long windowMillis, int minRequests, double failureRatio,
+            long slowConnectMillis, long openMillis, long maxOpenMillis, int halfOpenProbes, LongSupplier clock) {
+        this.enabled = enabled;
+        this.bucketMillis = Math.max(1, windowMillis / BUCKETS);
+        this.minRequests = Math.max(1, minRequests);
+        this.failureRatio = failureRatio;
+        this.slowConnectMicros = slowConnectMillis * 1000;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = Math.max(openMillis, maxOpenMillis);
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.clock = clock;
+    }
+
+    /**
+     * @return the breaker configured by the circuitBreaker settings, shared by every upstream connect.
+     */
+    public static CircuitBreaker shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final CircuitBreaker INSTANCE = create(Config.getConfig());
+
+        private static CircuitBreaker create(Config conf) {
+            CircuitBreaker breaker = new CircuitBreaker(conf.isCircuitBreakerEnabled(),
+                    conf.getCircuitBreakerWindowMillis(), conf.getCircuitBreakerMinRequests(),
+                    conf.getCircuitBreakerFailureRatio(), conf.getCircuitBreakerSlowConnectMillis(),
+                    conf.getCircuitBreakerOpenMillis(), conf.getCircuitBreakerMaxOpenMillis(),
+                    conf.getCircuitBreakerHalfOpenProbes(), System::currentTimeMillis);
+            Metrics.gauge("daproxy_upstream_breakers_open", "Destinations whose circuit breaker is open or half open",
+                    breaker::getOpenCount);
+            return breaker;
+        }
+    }
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @return the attempt to report the connect's outcome to, or null if the destination is ejected and the connect
+     * must not be made.
+     */
+    public Attempt tryAcquire(String host, int port) {
+        if (!enabled) {
+            return Attempt.UNGUARDED;
+        }
+        long now = clock.getAsLong();
+        if (destinations.size() >= MAX_DESTINATIONS) {
+            prune(now);
+        }
+        Destination destination = destinations.computeIfAbsent(key(host, port), Destination::new);
+        Boolean probe = destination.acquire(now);
+        if (probe == null) {
+            REJECTED.inc();
+            return null;
+        }
+        return new Attempt(destination, probe);
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @return the destination's state, CLOSED if nothing is known about it.
+     */
+    public State getState(String host, int port) {
+        Destination destination = destinations.get(key(host, port));
+        return destination == null ? State.CLOSED : destination.state(clock.getAsLong());
+    }
+
+    public long getOpenCount() {
+        long now = clock.getAsLong();
+        return destinations.values().stream().filter(d -> d.state(now) != State.CLOSED).count();
+    }
+
+    /**
+     * @return one line per destination seen in the window or not closed: its state, connects and failures in the
+     * window, ejections so far, and how long it stays open.
+     */
+    public String describe() {
+        long now = clock.getAsLong();
+        List<String> lines = new ArrayList<>();
+        for (Destination destination : destinations.values()) {
+            String line = destination.describe(now);
+            if (line != null) {
+                lines.add(line);
+            }
+        }
+        lines.sort(null);
+        return lines.isEmpty() ? "" : String.join("\n", lines) + "\n";
+    }
+
+    private void prune(long now) {
+        destinations.values().removeIf(d -> d.isForgettable(now));
+    }
+
+    /**
+     * One connect let through by the breaker. Exactly one of succeeded() or failed() should be called.
+     */
+    public static final class Attempt {
+
+        private static final Attempt UNGUARDED = new Attempt(null, false);
+
+        private final Destination destination;
+        private final boolean probe;
+
+        private Attempt(Destination destination, boolean probe) {
+            this.destination = destination;
+            this.probe = probe;
+        }
+
+        /**
+         * @param connectMicros - slow connects count as failed
+         */
+        public void succeeded(long connectMicros) {
+            if (destination != null) {
+                destination.record(probe, destination.isSlow(connectMicros));
+            }
+        }
+
+        public void failed() {
+            if (destination != null) {
+                destination.record(probe, true);
+            }
+        }
+    }
+
+    private final class Destination {
+
+        private final String name;
+        private final long[] bucketEpochs = new long[BUCKETS];
+        private final int[] attempts = new int[BUCKETS];
+        private final int[] failures = new int[BUCKETS];
+        private State state = State.CLOSED;
+        private long openUntil;
+        private long openedAt;
+        private long closedAt;
+        private int ejections;
+        private int probesInFlight;
+        private int probeSuccesses;
+
+        Destination(String name) {
+            this.name = name;
+            Arrays.fill(bucketEpochs, -1);
+        }
+
+        boolean isSlow(long connectMicros) {
+            return connectMicros > slowConnectMicros;
+        }
+
+        /**
+         * @return whether the connect is a half open probe, or null if it must not be made.
+         */
+        synchronized Boolean acquire(long now) {
+            State current = state(now);
+            if (current == State.CLOSED) {
+                return false;
+            }
+            if (current == State.OPEN) {
+                return null;
+            }
+            if (state == State.OPEN) {
+                state = State.HALF_OPEN;
+                probesInFlight = 0;
+                probeSuccesses = 0;
+                log.info("Letting probes through to {} after {} ms", name, openUntil - openedAt);
+            }
+            if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+                return null;
+            }
+            probesInFlight++;
+            return true;
+        }
+
+        synchronized State state(long now) {
+            if (state == State.OPEN && now - openUntil >= 0) {
+                return State.HALF_OPEN;
+            }
+            return state;
+        }
+
+        synchronized void record(boolean probe, boolean failed) {
+            long now = clock.getAsLong();
+            if (probe) {
+                probesInFlight--;
+                if (state != State.HALF_OPEN) {
+                    return; // another probe already decided
+                }
+                if (failed) {
+                    open(now);
+                } else if (++probeSuccesses >= halfOpenProbes) {
+                    state = State.CLOSED;
+                    closedAt = now;
+                    Arrays.fill(bucketEpochs, -1);
+                    log.info("Closed circuit breaker for {}", name);
+                }
+                return;
+            }
+
+            long epoch = now / bucketMillis;
+            int index = (int) (epoch % BUCKETS);
+            if (bucketEpochs[index] != epoch) {
+                bucketEpochs[index] = epoch;
+                attempts[index] = 0;
+                failures[index] = 0;
+            }
+            attempts[index]++;
+            if (failed) {
+                failures[index]++;
+            }
+
+            if (state == State.CLOSED && failed) {
+                int total = sum(attempts, epoch);
+                if (total >= minRequests && sum(failures, epoch) >= failureRatio * total) {
+                    open(now);
+                }
+            }
+        }
+
+        private void open(long now) {
+            if (state == State.CLOSED && now - closedAt >= maxOpenMillis) {
+                ejections = 0; // healthy for long enough to start over
+            }
+            long duration = Math.min(maxOpenMillis, openMillis << Math.min(ejections, 20));
+            ejections++;
+            state = State.OPEN;
+            openedAt = now;
+            openUntil = now + duration;
+            OPENED.inc();
+            log.warn("Opened circuit breaker for {} for {} ms", name, duration);
+        }
+
+        private int sum(int[] counts, long epoch) {
+            int total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (epoch - bucketEpochs[i] < BUCKETS) {
+                    total += counts[i];
+                }
+            }
+            return total;
+        }
+
+        synchronized boolean isForgettable(long now) {
+            return state == State.CLOSED && now - closedAt >= maxOpenMillis && sum(attempts, now / bucketMillis) == 0;
+        }
+
+        synchronized String describe(long now) {
+            long epoch = now / bucketMillis;
+            int total = sum(attempts, epoch);
+            State current = state(now);
+            if (current == State.CLOSED && total == 0) {
+                return null;
+            }
+            StringBuilder line = new StringBuilder(name).append(' ').append(current.getLabel());
+            line.append(" connects=").append(total).append(" failures=").append(sum(failures, epoch));
+            line.append(" ejections=").append(ejections);
+            if (current == State.OPEN) {
+                line.append(" open_ms=").append(openUntil - now);
+            }
+            return line.toString();
+        }
+    }
+}
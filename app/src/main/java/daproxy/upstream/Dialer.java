@@ -0,0 +1,212 @@
+package daproxy.upstream;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import daproxy.conf.Config;
+import daproxy.dns.CachingResolver;
+import daproxy.dns.Resolver;
+import daproxy.metrics.Counter;
+import daproxy.metrics.Metrics;
+
+/**
+ * Opens connections to upstream hosts. Connections are made through channels so the resulting sockets can be handed
+ * to any relay.
+ *
+ * Every connect is bounded by the connect timeout, so an unreachable host fails the request instead of holding its
+ * thread for the operating system's SYN retries. A host with several addresses is connected to Happy Eyeballs style,
+ * see https://www.rfc-editor.org/rfc/rfc8305: the addresses are tried in turn, alternating between IPv6 and IPv4, with
+ * each attempt started after attemptDelay or as soon as the previous one fails, and the first to connect wins. A host
+ * whose IPv6 route is broken then costs attemptDelay rather than a timeout.
+ */
+public class Dialer {
+
+    private static final Counter TIMEOUTS = Metrics.counter("daproxy_upstream_connect_timeouts_total",
+            "Upstream connects abandoned after the connect timeout");
+    private static final Counter FALLBACKS = Metrics.counter("daproxy_upstream_connect_fallbacks_total",
+            "Upstream connects won by an address other than the first");
+
+    private final Resolver resolver;
+    private final long connectTimeoutMillis;
+    private final long attemptDelayMillis;
+
+    /**
+     * @param resolver
+     * @param connectTimeoutMillis - for the whole connect, across all addresses
+     * @param attemptDelayMillis - how long an attempt has before the next address is tried as well
+     */
+    public Dialer(Resolver resolver, long connectTimeoutMillis, long attemptDelayMillis) {
+        this.resolver = resolver;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.attemptDelayMillis = attemptDelayMillis;
+    }
+
+    /**
+     * @return the dialer used for upstream connections, resolving through the shared DNS cache.
+     */
+    public static Dialer shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final Dialer INSTANCE = create(Config.getConfig());
+
+        private static Dialer create(Config conf) {
+            return new Dialer(CachingResolver.shared(), conf.getUpstreamConnectTimeoutMillis(),
+                    conf.getHappyEyeballsDelayMillis());
+        }
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @return a connected, blocking channel.
+     * @throws IOException if the host cannot be resolved or connected to, SocketTimeoutException if the connect timed
+     * out
+     */
+    public SocketChannel dial(String host, int port) throws IOException {
+        List<InetAddress> addresses = interleave(resolver.resolve(host));
+        if (addresses.size() == 1) {
+            return connect(new InetSocketAddress(addresses.get(0), port));
+        }
+        return race(addresses, port);
+    }
+
+    private SocketChannel connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(address, (int) connectTimeoutMillis);
+            return channel;
+        } catch (SocketTimeoutException ex) {
+            TIMEOUTS.inc();
+            channel.close();
+            throw ex;
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private SocketChannel race(List<InetAddress> addresses, int port) throws IOException {
+        long now = System.nanoTime();
+        long deadline = now + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        long nextAttemptAt = now;
+        int next = 0;
+        int pending = 0;
+        IOException failure = null;
+        List<SocketChannel> attempts = new ArrayList<>();
+        SocketChannel winner = null;
+
+        try (Selector selector = Selector.open()) {
+            while (winner == null) {
+                now = System.nanoTime();
+                if (now - deadline >= 0) {
+                    TIMEOUTS.inc();
+                    throw new SocketTimeoutException("Connect to " + addresses + " port " + port + " timed out");
+                }
+                if (next < addresses.size() && (now - nextAttemptAt >= 0 || pending == 0)) {
+                    int index = next++;
+                    nextAttemptAt = now + TimeUnit.MILLISECONDS.toNanos(attemptDelayMillis);
+                    SocketChannel channel = SocketChannel.open();
+                    attempts.add(channel);
+                    try {
+                        channel.configureBlocking(false);
+                        if (channel.connect(new InetSocketAddress(addresses.get(index), port))) {
+                            winner = channel;
+                        } else {
+                            channel.register(selector, SelectionKey.OP_CONNECT, index);
+                            pending++;
+                        }
+                    } catch (IOException ex) {
+                        channel.close();
+                        failure = suppress(failure, ex);
+                    }
+                    continue;
+                }
+                if (pending == 0) {
+                    throw failure;
+                }
+
+                long wait = deadline - now;
+                if (next < addresses.size()) {
+                    wait = Math.min(wait, nextAttemptAt - now);
+                }
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext() && winner == null) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            key.cancel();
+                            winner = channel;
+                            if ((int) key.attachment() > 0) {
+                                FALLBACKS.inc();
+                            }
+                        }
+                    } catch (IOException ex) {
+                        key.cancel();
+                        channel.close();
+                        pending--;
+                        failure = suppress(failure, ex);
+                        nextAttemptAt = now; // try the next address at once
+                    }
+                }
+            }
+        } finally {
+            for (SocketChannel attempt : attempts) {
+                if (attempt != winner) {
+                    attempt.close();
+                }
+            }
+        }
+        // the winner's key is only deregistered once the selector closes
+        winner.configureBlocking(true);
+        return winner;
+    }
+
+    private static IOException suppress(IOException first, IOException next) {
+        if (first == null) {
+            return next;
+        }
+        first.addSuppressed(next);
+        return first;
+    }
+
+    /**
+     * @param addresses - as resolved
+     * @return the addresses alternating between families, starting with the family of the first, as RFC 8305 section
+     * 4 suggests.
+     */
+    static List<InetAddress> interleave(InetAddress[] addresses) {
+        List<InetAddress> first = new ArrayList<>();
+        List<InetAddress> second = new ArrayList<>();
+        boolean firstIsV6 = addresses[0] instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            ((address instanceof Inet6Address) == firstIsV6 ? first : second).add(address);
+        }
+
+        List<InetAddress> ordered = new ArrayList<>(addresses.length);
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                ordered.add(first.get(i));
+            }
+            if (i < second.size()) {
+                ordered.add(second.get(i));
+            }
+        }
+        return ordered;
+    }
+}
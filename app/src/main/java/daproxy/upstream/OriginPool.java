@@ -0,0 +1,130 @@
+package daproxy.upstream;
+
+import java.nio.channels.SocketChannel;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+import daproxy.conf.Config;
+import daproxy.metrics.Metrics;
+import daproxy.pool.TimingWheel;
+
+/**
+ * Keeps persistent connections to origin servers after a forwarded request has completed, so the next request to the
+ * same origin skips the TCP handshake. Unlike the UpstreamPool, connections are returned after use.
+ *
+ * Each origin keeps at most maxIdle connections, most recently used first. An idle connection is closed once it has
+ * not been reused for the idle timeout, or when the origin is found to have closed it.
+ */
+public class OriginPool {
+
+    private final int maxIdle;
+    private final long idleTimeoutMillis;
+    private final TimingWheel wheel;
+    private final Map<String, Deque<Idle>> pools = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public OriginPool(int maxIdle, long idleTimeoutMillis, TimingWheel wheel) {
+        this.maxIdle = maxIdle;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.wheel = wheel;
+    }
+
+    /**
+     * @return the pool sized by the originPool settings.
+     */
+    public static OriginPool shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final OriginPool INSTANCE = create(Config.getConfig());
+
+        private static OriginPool create(Config conf) {
+            OriginPool pool = new OriginPool(conf.getOriginPoolMaxIdle(), conf.getOriginPoolIdleTimeoutMillis(),
+                    TimingWheel.shared());
+            Metrics.counter("daproxy_origin_pool_hits_total", "Forwarded requests sent on a kept-alive connection",
+                    pool::getHits);
+            Metrics.counter("daproxy_origin_pool_misses_total", "Forwarded requests that had to dial the origin",
+                    pool::getMisses);
+            return pool;
+        }
+    }
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @return a live idle connection to the origin, or null if there is none.
+     */
+    public SocketChannel poll(String host, int port) {
+        Deque<Idle> pool = pools.get(key(host, port));
+        Idle idle;
+        while (pool != null && (idle = pool.pollFirst()) != null) {
+            if (UpstreamPool.isAlive(idle.channel)) {
+                hits.increment();
+                return idle.channel;
+            }
+            UpstreamPool.closeQuietly(idle.channel);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Keeps a connection whose last response was read completely, or closes it if the origin already has maxIdle.
+     * @param host
+     * @param port
+     * @param channel - a blocking channel
+     */
+    public void release(String host, int port, SocketChannel channel) {
+        Deque<Idle> pool = pools.computeIfAbsent(key(host, port), k -> new ConcurrentLinkedDeque<>());
+        if (pool.size() >= maxIdle) {
+            UpstreamPool.closeQuietly(channel);
+            return;
+        }
+        Idle idle = new Idle(channel);
+        pool.addFirst(idle);
+        wheel.schedule(idleTimeoutMillis, () -> {
+            if (pool.remove(idle)) {
+                UpstreamPool.closeQuietly(channel);
+            }
+        });
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @return the number of idle connections currently held for the origin.
+     */
+    public int getIdleCount(String host, int port) {
+        Deque<Idle> pool = pools.get(key(host, port));
+        return pool == null ? 0 : pool.size();
+    }
+
+    /**
+     * A new wrapper per release, so the idle timeout of an earlier release never removes a later one.
+     */
+    private static final class Idle {
+        private final SocketChannel channel;
+
+        Idle(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
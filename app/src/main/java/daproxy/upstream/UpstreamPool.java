@@ -0,0 +1,296 @@
+package daproxy.upstream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import daproxy.conf.Config;
+import daproxy.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps idle, already connected upstream sockets per destination so a CONNECT can skip the TCP handshake. A borrowed
+ * socket belongs to the tunnel and is never returned.
+ *
+ * A maintenance thread tops each destination up once per refresh interval. The number of idle sockets kept follows
+ * the observed connect rate, so it covers the borrows expected until the next refresh, bounded by maxIdle.
+ * Destinations listed as prewarmed always keep at least minIdle sockets; other destinations are dropped once they
+ * stop being used. Idle sockets older than maxAge, or closed by the upstream, are discarded.
+ *
+ * Sockets are dialed on the dialing executor, one task per destination at a time, so an unreachable destination only
+ * delays its own sockets. Each dial goes through the circuit breaker like a CONNECT would, and none is made while the
+ * destination is ejected.
+ */
+@Slf4j
+public class UpstreamPool implements Runnable {
+
+    private static final double RATE_SMOOTHING = 0.3;
+    // The smoothed rate only decays towards zero, so treat a trickle of borrows as none.
+    private static final double MIN_EXPECTED_BORROWS = 0.1;
+
+    private final Dialer dialer;
+    private final CircuitBreaker breaker;
+    private final Executor dialing;
+    private final int minIdle;
+    private final int maxIdle;
+    private final long maxAge;
+    private final long refreshInterval;
+    private final LongSupplier clock;
+    private final Map<String, HostPool> pools = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public UpstreamPool(Dialer dialer, CircuitBreaker breaker, int minIdle, int maxIdle, long maxAge,
+            long refreshInterval, List<String> prewarmedDestinations, Executor dialing, LongSupplier clock) {
+        this.dialer = dialer;
+        this.breaker = breaker;
+        this.dialing = dialing;
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.maxAge = maxAge;
+        this.refreshInterval = refreshInterval;
+        this.clock = clock;
+
+        for (String destination : prewarmedDestinations) {
+            int colon = destination.lastIndexOf(':');
+            String host = destination.substring(0, colon);
+            int port = Integer.parseInt(destination.substring(colon + 1));
+            pools.put(key(host, port), new HostPool(host, port, true));
+        }
+    }
+
+    /**
+     * @return the pool configured by the upstreamPool settings. Its maintenance thread starts on first use.
+     */
+    public static UpstreamPool shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static class SharedHolder {
+        private static final UpstreamPool INSTANCE = create(Config.getConfig());
+
+        private static UpstreamPool create(Config conf) {
+            AtomicLong dialers = new AtomicLong();
+            Executor dialing = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "UpstreamPoolDialThread-" + dialers.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            UpstreamPool pool = new UpstreamPool(Dialer.shared(), CircuitBreaker.shared(),
+                    conf.getUpstreamPoolMinIdle(), conf.getUpstreamPoolMaxIdle(), conf.getUpstreamPoolMaxAgeMillis(),
+                    conf.getUpstreamPoolRefreshMillis(), conf.getUpstreamPoolPrewarm(), dialing,
+                    System::currentTimeMillis);
+            Thread thread = new Thread(pool, "UpstreamPoolThread");
+            thread.setDaemon(true);
+            thread.start();
+            Metrics.counter("daproxy_upstream_pool_hits_total", "Connects served by an idle pooled connection",
+                    pool::getHits);
+            Metrics.counter("daproxy_upstream_pool_misses_total", "Connects that had to dial the upstream",
+                    pool::getMisses);
+            return pool;
+        }
+    }
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @return an idle connection to the destination if a live one is available, otherwise a newly dialed connection.
+     * @throws IOException if a new connection could not be made
+     */
+    public SocketChannel borrow(String host, int port) throws IOException {
+        HostPool pool = pools.computeIfAbsent(key(host, port), k -> new HostPool(host, port, false));
+        pool.borrows.increment();
+
+        long now = clock.getAsLong();
+        Idle idle;
+        while ((idle = pool.idle.pollFirst()) != null) {
+            if (now - idle.createdAt < maxAge && isAlive(idle.channel)) {
+                hits.increment();
+                return idle.channel;
+            }
+            closeQuietly(idle.channel);
+        }
+
+        misses.increment();
+        return dialer.dial(host, port);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(refreshInterval);
+            } catch (InterruptedException ex) {
+                log.debug("UpstreamPool interrupted, and ceasing to maintain idle connections", ex);
+                break;
+            }
+            maintain();
+        }
+    }
+
+    /**
+     * Evicts stale sockets, closes sockets over each destination's target number, and starts dialing those missing.
+     */
+    void maintain() {
+        for (Map.Entry<String, HostPool> entry : pools.entrySet()) {
+            HostPool pool = entry.getValue();
+            pool.updateRate();
+            evictStale(pool);
+
+            int target = pool.target();
+            Idle oldest;
+            while (pool.idle.size() > target && (oldest = pool.idle.pollLast()) != null) {
+                closeQuietly(oldest.channel);
+            }
+            int missing = target - pool.idle.size();
+            if (missing > 0 && pool.dialing.compareAndSet(false, true)) {
+                dialing.execute(() -> prewarm(pool, missing));
+            }
+
+            if (!pool.prewarmed && target == 0 && pool.idle.isEmpty() && !pool.dialing.get()) {
+                pools.remove(entry.getKey(), pool);
+            }
+        }
+    }
+
+    /**
+     * Dials up to count sockets to the destination, stopping at the first failure or once its breaker rejects a dial.
+     */
+    private void prewarm(HostPool pool, int count) {
+        try {
+            for (int i = 0; i < count; i++) {
+                CircuitBreaker.Attempt attempt = breaker.tryAcquire(pool.host, pool.port);
+                if (attempt == null) {
+                    log.debug("Not prewarming connections to ejected {}", key(pool.host, pool.port));
+                    return;
+                }
+                long start = System.nanoTime();
+                SocketChannel channel;
+                try {
+                    channel = dialer.dial(pool.host, pool.port);
+                } catch (IOException ex) {
+                    attempt.failed();
+                    log.debug("Unable to prewarm connection to {}", key(pool.host, pool.port), ex);
+                    return;
+                }
+                attempt.succeeded((System.nanoTime() - start) / 1000);
+                pool.idle.addFirst(new Idle(channel, clock.getAsLong()));
+            }
+        } finally {
+            pool.dialing.set(false);
+        }
+    }
+
+    /**
+     * Takes every idle socket out while checking it, so a borrower can never receive a socket that is being checked.
+     */
+    private void evictStale(HostPool pool) {
+        long now = clock.getAsLong();
+        List<Idle> live = new ArrayList<>();
+        Idle idle;
+        while ((idle = pool.idle.pollFirst()) != null) {
+            if (now - idle.createdAt < maxAge && isAlive(idle.channel)) {
+                live.add(idle);
+            } else {
+                closeQuietly(idle.channel);
+            }
+        }
+        pool.idle.addAll(live);
+    }
+
+    /**
+     * An idle upstream has nothing to say before the client's first bytes. Anything readable, including end of
+     * stream, means the socket can no longer be used for a tunnel.
+     */
+    static boolean isAlive(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            int read = channel.read(ByteBuffer.allocate(1));
+            channel.configureBlocking(true);
+            return read == 0;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            log.error("Error trying to close idle upstream connection", ex);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @return the number of idle connections currently held for the destination.
+     */
+    public int getIdleCount(String host, int port) {
+        HostPool pool = pools.get(key(host, port));
+        return pool == null ? 0 : pool.idle.size();
+    }
+
+    private final class HostPool {
+        private final String host;
+        private final int port;
+        private final boolean prewarmed;
+        private final Deque<Idle> idle = new ConcurrentLinkedDeque<>(); // newest first
+        private final LongAdder borrows = new LongAdder();
+        private final AtomicBoolean dialing = new AtomicBoolean();
+        private double connectsPerSecond;
+
+        HostPool(String host, int port, boolean prewarmed) {
+            this.host = host;
+            this.port = port;
+            this.prewarmed = prewarmed;
+        }
+
+        void updateRate() {
+            double observed = borrows.sumThenReset() * 1000.0 / refreshInterval;
+            connectsPerSecond += RATE_SMOOTHING * (observed - connectsPerSecond);
+        }
+
+        int target() {
+            double expected = connectsPerSecond * refreshInterval / 1000.0;
+            int expectedBorrows = expected < MIN_EXPECTED_BORROWS ? 0 : (int) Math.ceil(expected);
+            int floor = prewarmed ? minIdle : 0;
+            return Math.min(maxIdle, Math.max(floor, expectedBorrows));
+        }
+    }
+
+    private static final class Idle {
+        private final SocketChannel channel;
+        private final long createdAt;
+
+        Idle(SocketChannel channel, long createdAt) {
+            this.channel = channel;
+            this.createdAt = createdAt;
+        }
+    }
+}
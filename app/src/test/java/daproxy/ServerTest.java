@@ -0,0 +1,312 @@
+package daproxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.conf.Config;
+import daproxy.http.Response;
+import daproxy.pool.Drain;
+
+public class ServerTest {
+
+    @Test
+    public void testListensOnListenPortByDefault() {
+        Config conf = Config.parse("listenPort: 8085");
+        assertThat(Server.listenAddresses(conf)).containsExactly(new InetSocketAddress(8085));
+    }
+
+    @Test
+    public void testParsesListenAddresses() {
+        Config conf = Config.parse(
+                "listenPort: 8085\nlistenAddresses: ['127.0.0.1:8086', '[::1]:8087', '8088', '*:8089']");
+        assertThat(Server.listenAddresses(conf)).containsExactly(new InetSocketAddress("127.0.0.1", 8086),
+                new InetSocketAddress("::1", 8087), new InetSocketAddress(8088), new InetSocketAddress(8089));
+
+        Config unresolved = Config.parse("listenAddresses: [localhost]");
+        assertThatThrownBy(() -> Server.listenAddresses(unresolved)).isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("localhost");
+    }
+
+    @Test
+    public void testAcceptsOnEveryAcceptor() throws Exception {
+        Config.useConfig(Config.parse("allowList: ['127.0.0.1']\nwatchConfig: false\nlistenAddresses: ['127.0.0.1:0']\n"
+                + "acceptorThreads: 4\nbacklog: 16"));
+
+        Server server = new Server();
+        int port = server.bind();
+        Thread thread = new Thread(server::serve);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            for (int i = 0; i < 32; i++) {
+                assertThat(exchange(port, "BOGUS / HTTP/1.1\r\n\r\n")).startsWith("HTTP/1.1 400");
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testDrainLetsTunnelsFinish() throws Exception {
+        try (ServerSocket upstream = echoServer()) {
+            Server server = startServer();
+            try (Socket tunnel = connect(server.getPort(), upstream.getLocalPort());
+                    Socket idle = new Socket("127.0.0.1", server.getPort())) {
+                AtomicBoolean drained = new AtomicBoolean();
+                Thread drain = new Thread(() -> drained.set(drainQuietly(server, 5000)));
+                drain.start();
+                Thread.sleep(200);
+
+                // no longer accepting, but the tunnel still works
+                assertThatThrownBy(() -> new Socket("127.0.0.1", server.getPort()).close())
+                        .isInstanceOf(IOException.class);
+                assertThat(echo(tunnel, "still open")).isEqualTo("still open");
+                assertThat(drain.isAlive()).isTrue();
+
+                idle.close();
+                tunnel.close();
+                drain.join(5000);
+                assertThat(drained.get()).isTrue();
+            } finally {
+                Drain.cancel();
+            }
+        }
+    }
+
+    @Test
+    public void testDrainClosesTunnelsAtTheDeadline() throws Exception {
+        try (ServerSocket upstream = echoServer()) {
+            Server server = startServer();
+            try (Socket tunnel = connect(server.getPort(), upstream.getLocalPort())) {
+                assertThat(server.drain(200)).isFalse();
+                assertThat(tunnel.getInputStream().read()).isEqualTo(-1);
+            } finally {
+                Drain.cancel();
+            }
+        }
+    }
+
+    @Test
+    public void testOpensMoreTunnelsThanRequestThreads() throws Exception {
+        int tunnels = Runtime.getRuntime().availableProcessors() * 2 + 4; // the platform request threads, and more
+        try (ServerSocket upstream = echoServer()) {
+            Server server = startServer();
+            List<Socket> open = new ArrayList<>();
+            try {
+                for (int i = 0; i < tunnels; i++) {
+                    open.add(connect(server.getPort(), upstream.getLocalPort()));
+                }
+                for (int i = 0; i < tunnels; i++) {
+                    assertThat(echo(open.get(i), "tunnel " + i)).isEqualTo("tunnel " + i);
+                }
+            } finally {
+                for (Socket socket : open) {
+                    socket.close();
+                }
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testKeepsAliveMoreConnectionsThanRequestThreads() throws Exception {
+        int connections = Runtime.getRuntime().availableProcessors() * 2 + 4; // the platform request threads, and more
+        try (ServerSocket origin = okServer()) {
+            Server server = startServer();
+            String request = "GET http://127.0.0.1:" + origin.getLocalPort() + "/ HTTP/1.1\r\nHost: x\r\n\r\n";
+            List<Socket> open = new ArrayList<>();
+            try {
+                for (int i = 0; i < connections; i++) {
+                    Socket socket = new Socket("127.0.0.1", server.getPort());
+                    socket.setSoTimeout(5000);
+                    open.add(socket);
+                    assertThat(get(socket, request)).startsWith("HTTP/1.1 200");
+                }
+                // every connection is idle now, none holding a request thread
+                for (Socket socket : open) {
+                    assertThat(get(socket, request)).startsWith("HTTP/1.1 200");
+                }
+            } finally {
+                for (Socket socket : open) {
+                    socket.close();
+                }
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testTunnelsDataSentWithTheConnect() throws Exception {
+        try (ServerSocket upstream = echoServer()) {
+            Server server = startServer();
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                socket.setSoTimeout(5000);
+                socket.getOutputStream().write(("CONNECT 127.0.0.1:" + upstream.getLocalPort()
+                        + " HTTP/1.1\r\nHost: x\r\n\r\nearly bytes").getBytes(StandardCharsets.US_ASCII));
+                String expected = Response.CONNECTION_ESTABLISHED + "early bytes";
+                byte[] reply = new byte[expected.length()];
+                new DataInputStream(socket.getInputStream()).readFully(reply);
+                assertThat(new String(reply, StandardCharsets.US_ASCII)).isEqualTo(expected);
+                assertThat(echo(socket, "later")).isEqualTo("later");
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testFailsFastOnceAnUpstreamIsEjected() throws Exception {
+        int closedPort;
+        try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = unused.getLocalPort();
+        }
+        Server server = startServer();
+        try {
+            String request = "CONNECT 127.0.0.1:" + closedPort + " HTTP/1.1\r\n\r\n";
+            for (int i = 0; i < Config.getConfig().getCircuitBreakerMinRequests(); i++) {
+                assertThat(exchange(server.getPort(), request)).startsWith("HTTP/1.1 502");
+            }
+            assertThat(exchange(server.getPort(), request)).startsWith("HTTP/1.1 503");
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static Server startServer() throws IOException {
+        Config.useConfig(
+                Config.parse("allowList: ['127.0.0.1']\nwatchConfig: false\nlistenAddresses: ['127.0.0.1:0']"));
+
+        Server server = new Server();
+        server.bind();
+        Thread thread = new Thread(server::serve);
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    private static boolean drainQuietly(Server server, long timeoutMillis) {
+        try {
+            return server.drain(timeoutMillis);
+        } catch (IOException | InterruptedException ex) {
+            return false;
+        }
+    }
+
+    private static ServerSocket echoServer() throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket connection = server.accept();
+                    Thread echo = new Thread(() -> {
+                        try (connection) {
+                            connection.getInputStream().transferTo(connection.getOutputStream());
+                        } catch (IOException ex) {
+                            // closed
+                        }
+                    });
+                    echo.setDaemon(true);
+                    echo.start();
+                }
+            } catch (IOException ex) {
+                // closed
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    private static ServerSocket okServer() throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket connection = server.accept();
+                    Thread answer = new Thread(() -> {
+                        try (connection) {
+                            BufferedReader in = new BufferedReader(
+                                    new InputStreamReader(connection.getInputStream(), StandardCharsets.US_ASCII));
+                            String line;
+                            while ((line = in.readLine()) != null) {
+                                if (line.isEmpty()) {
+                                    connection.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok"
+                                            .getBytes(StandardCharsets.US_ASCII));
+                                }
+                            }
+                        } catch (IOException ex) {
+                            // closed
+                        }
+                    });
+                    answer.setDaemon(true);
+                    answer.start();
+                }
+            } catch (IOException ex) {
+                // closed
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    /**
+     * @return the response, read up to the end of its "ok" body.
+     */
+    private static String get(Socket socket, String request) throws IOException {
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        InputStream in = socket.getInputStream();
+        StringBuilder response = new StringBuilder();
+        while (!response.toString().endsWith("\r\n\r\nok")) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            response.append((char) b);
+        }
+        return response.toString();
+    }
+
+    private static Socket connect(int proxyPort, int upstreamPort) throws IOException {
+        Socket socket = new Socket("127.0.0.1", proxyPort);
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(("CONNECT 127.0.0.1:" + upstreamPort + " HTTP/1.1\r\nHost: x\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        byte[] response = new byte[Response.CONNECTION_ESTABLISHED.toString().length()];
+        new DataInputStream(socket.getInputStream()).readFully(response);
+        assertThat(new String(response, StandardCharsets.US_ASCII)).startsWith("HTTP/1.1 200");
+        return socket;
+    }
+
+    private static String echo(Socket socket, String message) throws IOException {
+        socket.getOutputStream().write(message.getBytes(StandardCharsets.US_ASCII));
+        byte[] reply = new byte[message.length()];
+        new DataInputStream(socket.getInputStream()).readFully(reply);
+        return new String(reply, StandardCharsets.US_ASCII);
+    }
+
+    private static String exchange(int port, String request) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+}
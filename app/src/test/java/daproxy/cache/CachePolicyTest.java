@@ -0,0 +1,117 @@
+package daproxy.cache;
+
+import static daproxy.cache.CacheTestSupport.head;
+import static daproxy.cache.CacheTestSupport.response;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.http.HttpHead;
+
+public class CachePolicyTest {
+
+    private static final HttpHead GET = head("GET http://a/ HTTP/1.1");
+
+    @Test
+    public void testStorableResponses() {
+        assertThat(CachePolicy.isStorable(GET, head("HTTP/1.1 200 OK", "Cache-Control: max-age=60"))).isTrue();
+        assertThat(CachePolicy.isStorable(GET, head("HTTP/1.1 200 OK", "ETag: \"v1\""))).isTrue();
+        assertThat(CachePolicy.isStorable(GET, head("HTTP/1.1 404 Not Found", "Expires: 0"))).isTrue();
+
+        assertThat(CachePolicy.isStorable(GET, head("HTTP/1.1 200 OK"))).isFalse();
+        assertThat(CachePolicy.isStorable(GET, head("HTTP/1.1 200 OK", "Cache-Control: no-store, max-age=60")))
+                .isFalse();
+        assertThat(CachePolicy.isStorable(GET, head("HTTP/1.1 200 OK", "Cache-Control: private, max-age=60")))
+                .isFalse();
+        assertThat(CachePolicy.isStorable(GET, head("HTTP/1.1 200 OK", "Cache-Control: max-age=60", "Vary: Cookie")))
+                .isFalse();
+        assertThat(CachePolicy.isStorable(GET, head("HTTP/1.1 200 OK", "Cache-Control: max-age=60",
+                "Set-Cookie: id=1"))).isFalse();
+        assertThat(CachePolicy.isStorable(GET, head("HTTP/1.1 500 Internal Server Error",
+                "Cache-Control: max-age=60"))).isFalse();
+    }
+
+    @Test
+    public void testAuthorizedResponsesNeedExplicitPermission() {
+        HttpHead authorized = head("GET http://a/ HTTP/1.1", "Authorization: Basic abc");
+
+        assertThat(CachePolicy.isStorable(authorized, head("HTTP/1.1 200 OK", "Cache-Control: max-age=60")))
+                .isFalse();
+        assertThat(CachePolicy.isStorable(authorized, head("HTTP/1.1 200 OK", "Cache-Control: s-maxage=60")))
+                .isTrue();
+    }
+
+    @Test
+    public void testFreshnessLifetime() {
+        assertThat(CachePolicy.freshnessLifetime(head("HTTP/1.1 200 OK", "Cache-Control: max-age=60, s-maxage=\"5\""),
+                0)).isEqualTo(5000);
+        assertThat(CachePolicy.freshnessLifetime(head("HTTP/1.1 200 OK", "Date: Sun, 06 Nov 1994 08:49:37 GMT",
+                "Expires: Sun, 06 Nov 1994 08:50:37 GMT"), 0)).isEqualTo(60000);
+        assertThat(CachePolicy.freshnessLifetime(head("HTTP/1.1 200 OK", "Expires: 0"), 0)).isEqualTo(0);
+        // a tenth of the time since it was last modified
+        assertThat(CachePolicy.freshnessLifetime(head("HTTP/1.1 200 OK", "Date: Sun, 06 Nov 1994 08:49:37 GMT",
+                "Last-Modified: Sun, 06 Nov 1994 08:39:37 GMT"), 0)).isEqualTo(60000);
+        assertThat(CachePolicy.freshnessLifetime(head("HTTP/1.1 200 OK", "Cache-Control: no-cache, max-age=60"), 0))
+                .isEqualTo(0);
+    }
+
+    @Test
+    public void testAgeIncludesAgeHeaderAndTimeInCache() {
+        CachedResponse cached = new CachedResponse(head("HTTP/1.1 200 OK", "Age: 10", "Cache-Control: max-age=60"),
+                new byte[0], 1000, 1500);
+
+        assertThat(cached.currentAge(1500)).isEqualTo(10500);
+        assertThat(cached.currentAge(21500)).isEqualTo(30500);
+        assertThat(cached.isFresh(21500)).isTrue();
+        assertThat(cached.isFresh(51500)).isFalse();
+    }
+
+    @Test
+    public void testRequestDirectivesLimitFreshness() {
+        CachedResponse cached = new CachedResponse(head("HTTP/1.1 200 OK", "Cache-Control: max-age=60"), new byte[0],
+                0, 0);
+
+        assertThat(CachePolicy.isFresh(cached, GET, 30000)).isTrue();
+        assertThat(CachePolicy.isFresh(cached, head("GET http://a/ HTTP/1.1", "Cache-Control: max-age=10"), 30000))
+                .isFalse();
+        assertThat(CachePolicy.isFresh(cached, head("GET http://a/ HTTP/1.1", "Cache-Control: no-cache"), 0))
+                .isFalse();
+        assertThat(CachePolicy.isFresh(cached, head("GET http://a/ HTTP/1.1", "Pragma: no-cache"), 0)).isFalse();
+        assertThat(CachePolicy.isCacheableRequest(head("GET http://a/ HTTP/1.1", "Cache-Control: no-store")))
+                .isFalse();
+        assertThat(CachePolicy.isCacheableRequest(head("GET http://a/ HTTP/1.1", "Range: bytes=0-9"))).isFalse();
+        assertThat(CachePolicy.isCacheableRequest(head("POST http://a/ HTTP/1.1"))).isFalse();
+    }
+
+    @Test
+    public void testConditionalRequestsMatchValidators() {
+        CachedResponse cached = response(0, "ETag: W/\"v1\"", "Last-Modified: Sun, 06 Nov 1994 08:49:37 GMT");
+
+        assertThat(CachePolicy.isNotModified(head("GET http://a/ HTTP/1.1", "If-None-Match: \"v0\", \"v1\""),
+                cached)).isTrue();
+        assertThat(CachePolicy.isNotModified(head("GET http://a/ HTTP/1.1", "If-None-Match: \"v2\""), cached))
+                .isFalse();
+        assertThat(CachePolicy.isNotModified(head("GET http://a/ HTTP/1.1",
+                "If-Modified-Since: Sun, 06 Nov 1994 08:49:37 GMT"), cached)).isTrue();
+        assertThat(CachePolicy.isNotModified(head("GET http://a/ HTTP/1.1",
+                "If-Modified-Since: Sun, 06 Nov 1994 08:00:00 GMT"), cached)).isFalse();
+        assertThat(CachePolicy.isNotModified(GET, cached)).isFalse();
+    }
+
+    @Test
+    public void testRevalidationMergesHeaders() {
+        CachedResponse cached = response(3, "Content-Length: 3", "ETag: \"v1\"", "Cache-Control: max-age=0",
+                "X-Origin: a");
+
+        CachedResponse updated = cached.revalidated(head("HTTP/1.1 304 Not Modified", "Cache-Control: max-age=60",
+                "Content-Length: 0", "Connection: close"), 0, 0);
+
+        HttpHead merged = updated.copyHead();
+        assertThat(merged.get("Cache-Control")).isEqualTo("max-age=60");
+        assertThat(merged.get("Content-Length")).isEqualTo("3");
+        assertThat(merged.get("X-Origin")).isEqualTo("a");
+        assertThat(merged.get("Connection")).isNull();
+        assertThat(updated.isFresh(30000)).isTrue();
+        assertThat(updated.getBody()).isSameAs(cached.getBody());
+    }
+}
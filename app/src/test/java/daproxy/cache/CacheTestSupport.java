@@ -0,0 +1,28 @@
+package daproxy.cache;
+
+import java.nio.charset.StandardCharsets;
+
+import daproxy.http.HttpHead;
+import daproxy.http.exceptions.InvalidRequestException;
+
+final class CacheTestSupport {
+
+    private CacheTestSupport() {
+    }
+
+    static HttpHead head(String... lines) {
+        byte[] bytes = (String.join("\r\n", lines) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        try {
+            return HttpHead.parse(bytes, 0, bytes.length);
+        } catch (InvalidRequestException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    static CachedResponse response(int bodyLength, String... headers) {
+        String[] lines = new String[headers.length + 1];
+        lines[0] = "HTTP/1.1 200 OK";
+        System.arraycopy(headers, 0, lines, 1, headers.length);
+        return new CachedResponse(head(lines), new byte[bodyLength], 0, 0);
+    }
+}
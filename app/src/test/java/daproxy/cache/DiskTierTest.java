@@ -0,0 +1,52 @@
+package daproxy.cache;
+
+import static daproxy.cache.CacheTestSupport.response;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class DiskTierTest {
+
+    @Test
+    public void testStoresAndReadsBack() throws IOException {
+        Path file = Files.createTempFile("daproxy-cache", ".bin");
+        try {
+            DiskTier disk = new DiskTier(file, 64 * 1024);
+            CachedResponse stored = new CachedResponse(CacheTestSupport.head("HTTP/1.1 200 OK", "ETag: \"v1\"",
+                    "Cache-Control: max-age=60"), "hello".getBytes(), 1000, 2000);
+            disk.put("http://a:80/", stored);
+
+            CachedResponse read = disk.get("http://a:80/");
+            assertThat(read.getETag()).isEqualTo("\"v1\"");
+            assertThat(new String(read.getBody())).isEqualTo("hello");
+            assertThat(read.currentAge(2000)).isEqualTo(stored.currentAge(2000));
+            assertThat(read.isFresh(60999)).isTrue();
+            assertThat(read.isFresh(61000)).isFalse();
+            assertThat(disk.get("http://b:80/")).isNull();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testWrapsAroundOverwritingOldestResponses() throws IOException {
+        Path file = Files.createTempFile("daproxy-cache", ".bin");
+        try {
+            DiskTier disk = new DiskTier(file, 10_000);
+            for (int i = 0; i < 10; i++) {
+                disk.put("key" + i, response(3000));
+            }
+
+            assertThat(disk.getBytes()).isLessThanOrEqualTo(10_000L);
+            assertThat(disk.get("key9")).isNotNull();
+            assertThat(disk.get("key0")).isNull();
+            assertThat(disk.size()).isEqualTo(3);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
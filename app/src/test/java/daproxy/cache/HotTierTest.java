@@ -0,0 +1,98 @@
+package daproxy.cache;
+
+import static daproxy.cache.CacheTestSupport.response;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class HotTierTest {
+
+    @Test
+    public void testSketchCountsRecentUse() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("popular");
+        }
+        sketch.increment("rare");
+
+        assertThat(sketch.frequency("popular")).isGreaterThanOrEqualTo(5);
+        assertThat(sketch.frequency("rare")).isGreaterThanOrEqualTo(1);
+        assertThat(sketch.frequency("unseen")).isLessThan(sketch.frequency("popular"));
+    }
+
+    @Test
+    public void testSketchAgesCounts() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment("old");
+        }
+        for (int i = 0; i < 10 * 1024; i++) {
+            sketch.increment("key" + i);
+        }
+
+        assertThat(sketch.frequency("old")).isLessThan(15);
+    }
+
+    @Test
+    public void testStaysWithinMaxBytes() {
+        List<String> evicted = new ArrayList<>();
+        HotTier tier = new HotTier(100_000, (key, response) -> evicted.add(key));
+        for (int i = 0; i < 100; i++) {
+            tier.put("key" + i, response(5000));
+        }
+
+        assertThat(tier.getBytes()).isLessThanOrEqualTo(100_000L);
+        assertThat(tier.size() + evicted.size()).isEqualTo(100);
+    }
+
+    @Test
+    public void testHandsEvictedResponsesOnOutsideTheLock() {
+        List<Boolean> heldLock = new ArrayList<>();
+        HotTier[] tier = new HotTier[1];
+        tier[0] = new HotTier(100_000, (key, response) -> heldLock.add(Thread.holdsLock(tier[0])));
+        for (int i = 0; i < 100; i++) {
+            tier[0].put("key" + i, response(5000));
+        }
+        tier[0].put("huge", response(200_000));
+
+        assertThat(heldLock.size()).isGreaterThan(1);
+        assertThat(heldLock.contains(true)).isFalse();
+    }
+
+    @Test
+    public void testFrequentlyUsedResponsesSurviveAScan() {
+        HotTier tier = new HotTier(100_000, (key, response) -> { });
+        for (int i = 0; i < 10; i++) {
+            String key = "hot" + i;
+            tier.get(key);
+            tier.put(key, response(5000));
+            for (int use = 0; use < 5; use++) {
+                tier.get(key);
+            }
+        }
+
+        // a burst of responses that are only fetched once
+        for (int i = 0; i < 200; i++) {
+            String key = "scan" + i;
+            tier.get(key);
+            tier.put(key, response(5000));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(tier.contains("hot" + i)).isTrue();
+        }
+    }
+
+    @Test
+    public void testRemove() {
+        HotTier tier = new HotTier(100_000, (key, response) -> { });
+        tier.put("key", response(5000));
+        tier.remove("key");
+
+        assertThat(tier.get("key")).isNull();
+        assertThat(tier.getBytes()).isEqualTo(0L);
+    }
+}
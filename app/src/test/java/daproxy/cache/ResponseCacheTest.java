@@ -0,0 +1,85 @@
+package daproxy.cache;
+
+import static daproxy.cache.CacheTestSupport.response;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void testConcurrentMissesShareOneFill() throws Exception {
+        ResponseCache cache = new ResponseCache(1024 * 1024, 1024, null, 0, 5000);
+        ResponseCache.Fill leader = cache.startFill("key");
+        ResponseCache.Fill follower = cache.startFill("key");
+        assertThat(leader.isLeader()).isTrue();
+        assertThat(follower.isLeader()).isFalse();
+
+        CompletableFuture<CachedResponse> waiting = CompletableFuture.supplyAsync(follower::await);
+        CachedResponse filled = response(10);
+        leader.finish(filled);
+
+        assertThat(waiting.get()).isSameAs(filled);
+        assertThat(cache.get("key")).isSameAs(filled);
+        assertThat(cache.startFill("key").isLeader()).isTrue();
+    }
+
+    @Test
+    public void testFollowersFetchThemselvesWhenNothingIsStored() {
+        ResponseCache cache = new ResponseCache(1024 * 1024, 1024, null, 0, 5000);
+        ResponseCache.Fill leader = cache.startFill("key");
+        ResponseCache.Fill follower = cache.startFill("key");
+        leader.finish(null);
+        leader.finish(response(10)); // only the first finish counts
+
+        assertThat(follower.await()).isNull();
+        assertThat(cache.get("key")).isNull();
+    }
+
+    @Test
+    public void testCaptureGivesUpOnLargeBodies() throws IOException {
+        ResponseCache cache = new ResponseCache(1024 * 1024, 8, null, 0, 5000);
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+
+        ResponseCache.Fill small = cache.startFill("small");
+        OutputStream out = small.capture(client);
+        out.write("hello".getBytes());
+        assertThat(new String(small.getCapturedBody())).isEqualTo("hello");
+
+        ResponseCache.Fill large = cache.startFill("large");
+        out = large.capture(client);
+        out.write("hello".getBytes());
+        out.write("world".getBytes());
+        assertThat(large.getCapturedBody()).isNull();
+        assertThat(client.toString()).isEqualTo("hellohelloworld");
+    }
+
+    @Test
+    public void testEvictedResponsesMoveToDisk() throws IOException {
+        Path file = Files.createTempFile("daproxy-cache", ".bin");
+        try {
+            ResponseCache cache = new ResponseCache(20_000, 10_000, file, 1024 * 1024, 5000);
+            for (int i = 0; i < 20; i++) {
+                cache.put("key" + i, response(4000));
+            }
+
+            assertThat(cache.getMemoryBytes()).isLessThanOrEqualTo(20_000L);
+            assertThat(cache.getDiskBytes()).isGreaterThan(0L);
+            for (int i = 0; i < 20; i++) {
+                assertThat(cache.get("key" + i)).isNotNull();
+            }
+
+            cache.invalidate("key0");
+            assertThat(cache.get("key0")).isNull();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package daproxy.conf;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class AllowListMatcherTest {
+
+    private static final List<String> ALLOW_LIST = List.of(
+            "blog.digitalabyss.ca",
+            "api\\.example\\.org",
+            "*.cdn.example.com",
+            ".*\\.static\\.example\\.net",
+            "mirror[0-9]+\\.example\\.io");
+
+    private static Stream<Arguments> provideHosts() {
+        return Stream.of(
+                Arguments.of("blog.digitalabyss.ca", true),
+                Arguments.of("BLOG.digitalabyss.ca", true),
+                Arguments.of("blogXdigitalabyss.ca", false),
+                Arguments.of("api.example.org", true),
+                Arguments.of("a.cdn.example.com", true),
+                Arguments.of("a.b.cdn.example.com", true),
+                Arguments.of("cdn.example.com", false),
+                Arguments.of("evilcdn.example.com", false),
+                Arguments.of("img.static.example.net", true),
+                Arguments.of("static.example.net", false),
+                Arguments.of("mirror12.example.io", true),
+                Arguments.of("mirror.example.io", false),
+                Arguments.of("asdf.com", false));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideHosts")
+    public void testIsAllowed(String host, boolean expected) {
+        AllowListMatcher matcher = new AllowListMatcher(ALLOW_LIST, 16);
+
+        assertThat(matcher.isAllowed(host)).isEqualTo(expected);
+        assertThat(matcher.isAllowed(host)).as("cached decision").isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideHosts")
+    public void testEmptyAllowListDeniesEverything(String host, boolean ignored) {
+        AllowListMatcher matcher = new AllowListMatcher(null, 16);
+
+        assertThat(matcher.isAllowed(host)).isFalse();
+    }
+
+    @Test
+    public void testKeepsBackreferencesOfEachEntry() {
+        // the first entry's group would be \1 of the second if the patterns were joined
+        AllowListMatcher matcher = new AllowListMatcher(List.of("(www|api)\\.example\\.dev",
+                "([a-z]+)\\.\\1\\.example\\.com"), 16);
+
+        assertThat(matcher.isAllowed("api.example.dev")).isTrue();
+        assertThat(matcher.isAllowed("foo.foo.example.com")).isTrue();
+        assertThat(matcher.isAllowed("foo.bar.example.com")).isFalse();
+    }
+
+    @Test
+    public void testBoundsCachedDecisions() {
+        AllowListMatcher matcher = new AllowListMatcher(ALLOW_LIST, 8);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(matcher.isAllowed("mirror" + i + ".example.io")).isTrue();
+            assertThat(matcher.isAllowed("host" + i + ".example.io")).isFalse();
+        }
+        assertThat(matcher.getCachedDecisionCount()).isLessThanOrEqualTo(8);
+        assertThat(matcher.isAllowed("mirror1.example.io")).isTrue();
+    }
+}
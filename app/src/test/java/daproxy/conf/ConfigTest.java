@@ -0,0 +1,41 @@
+package daproxy.conf;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class ConfigTest {
+
+    @AfterEach
+    public void tearDown() {
+        Config.useConfig(new Config());
+    }
+
+    @Test
+    public void testParsesOverTheDefaults() {
+        Config conf = Config.parse("listenPort: 8086\nrelayMode: NIO\nupstreamPoolPrewarm: ['a.com:443']");
+        assertThat(conf.getListenPort()).isEqualTo(8086);
+        assertThat(conf.getRelayMode()).isEqualTo(RelayMode.NIO);
+        assertThat(conf.getUpstreamPoolPrewarm()).containsExactly("a.com:443");
+        assertThat(conf.getBacklog()).isEqualTo(1024);
+
+        assertThat(Config.parse("").getBacklog()).isEqualTo(1024);
+    }
+
+    @Test
+    public void testPublishesUnmodifiableLists() {
+        Config.useConfig(Config.parse("allowList: [a.com]\nlistenAddresses: ['127.0.0.1:0']\nupstreamPoolPrewarm: ~"));
+        Config conf = Config.getConfig();
+        assertThat(conf.getAllowListMatcher().isAllowed("a.com")).isTrue();
+        assertThat(conf.getUpstreamPoolPrewarm()).isEmpty();
+
+        for (List<String> list : List.of(conf.getAllowList(), conf.getListenAddresses(),
+                conf.getUpstreamPoolPrewarm())) {
+            assertThatThrownBy(() -> list.add("b.com")).isInstanceOf(UnsupportedOperationException.class);
+        }
+    }
+}
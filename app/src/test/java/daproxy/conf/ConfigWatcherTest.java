@@ -0,0 +1,93 @@
+package daproxy.conf;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ConfigWatcherTest {
+
+    private Path dir;
+    private Path file;
+    private ConfigWatcher watcher;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("daproxy-config");
+        file = dir.resolve("conf.yaml");
+        write("allowList:\n  - old.example.com\n");
+        Config.loadConfig(file.toString());
+        watcher = new ConfigWatcher(file.toString());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        watcher.stop();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(dir);
+        Config.useConfig(new Config());
+    }
+
+    @Test
+    public void testSwapsInTheChangedAllowList() throws Exception {
+        Config previous = Config.getConfig();
+        watcher.start();
+        Thread.sleep(200); // let the watch register
+        write("allowList:\n  - new.example.com\n");
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (Config.getConfig() == previous && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        AllowListMatcher matcher = Config.getConfig().getAllowListMatcher();
+        assertThat(matcher).isNotSameAs(previous.getAllowListMatcher());
+        assertThat(matcher.isAllowed("new.example.com")).isTrue();
+        assertThat(matcher.isAllowed("old.example.com")).isFalse();
+        // the old snapshot is untouched, for requests still using it
+        assertThat(previous.getAllowListMatcher().isAllowed("old.example.com")).isTrue();
+        assertThat(previous.getAllowList()).isEqualTo(List.of("old.example.com"));
+    }
+
+    @Test
+    public void testKeepsTheCurrentConfigWhenTheFileIsInvalid() throws Exception {
+        Config previous = Config.getConfig();
+
+        write("allowList: [unclosed\n");
+        watcher.reload();
+        assertThat(Config.getConfig()).isSameAs(previous);
+
+        // parses, but the matcher cannot be built, so nothing is published
+        write("allowList:\n  - \"new(.example.com\"\n");
+        watcher.reload();
+        assertThat(Config.getConfig()).isSameAs(previous);
+        assertThat(Config.getConfig().getAllowListMatcher().isAllowed("old.example.com")).isTrue();
+    }
+
+    @Test
+    public void testNamesTheChangedRestartOnlySettings() {
+        Config previous = Config.parse("adminAddress: null");
+        assertThat(ConfigWatcher.restartOnlyChanges(previous, Config.parse("adminAddress: null"))).isEmpty();
+
+        // idleTimeoutMillis is read for each connection
+        Config current = Config.parse(
+                "adminAddress: 0.0.0.0\nlistenPort: 8086\nupstreamPoolPrewarm: ['a.com:443']\nidleTimeoutMillis: 1000");
+        assertThat(ConfigWatcher.restartOnlyChanges(previous, current))
+                .containsExactly("listenPort", "upstreamPoolPrewarm", "adminAddress");
+    }
+
+    private void write(String yaml) throws IOException {
+        Files.writeString(file, yaml, StandardCharsets.UTF_8);
+    }
+}
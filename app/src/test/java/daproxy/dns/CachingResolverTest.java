@@ -0,0 +1,172 @@
+package daproxy.dns;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class CachingResolverTest {
+
+    private static final long TTL = 1000;
+    private static final long NEGATIVE_TTL = 100;
+
+    /**
+     * An in-memory stand-in for DNS which counts how often it is asked.
+     */
+    private static class InMemoryResolver implements Resolver {
+        private final Map<String, InetAddress[]> hosts;
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        InMemoryResolver(Map<String, InetAddress[]> hosts) {
+            this.hosts = hosts;
+        }
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            lookups.incrementAndGet();
+            InetAddress[] addresses = hosts.get(host);
+            if (addresses == null) {
+                throw new UnknownHostException(host);
+            }
+            return addresses;
+        }
+    }
+
+    private static InetAddress[] address(String ip, String host) throws UnknownHostException {
+        return new InetAddress[] { InetAddress.getByAddress(host, InetAddress.getByName(ip).getAddress()) };
+    }
+
+    @Test
+    public void testPositiveEntriesAreCachedUntilTheyExpire() throws UnknownHostException {
+        InMemoryResolver dns = new InMemoryResolver(Map.of("a.example", address("10.0.0.1", "a.example")));
+        AtomicLong now = new AtomicLong();
+        CachingResolver resolver = new CachingResolver(dns, TTL, NEGATIVE_TTL, 10, Runnable::run, now::get);
+
+        assertThat(resolver.resolve("a.example")[0].getHostAddress()).isEqualTo("10.0.0.1");
+        assertThat(resolver.resolve("a.example")[0].getHostAddress()).isEqualTo("10.0.0.1");
+        assertThat(dns.lookups.get()).isEqualTo(1);
+        assertThat(resolver.getHits()).isEqualTo(1);
+        assertThat(resolver.getMisses()).isEqualTo(1);
+
+        now.set(TTL);
+        resolver.resolve("a.example");
+        assertThat(dns.lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFailedLookupsAreCachedForTheNegativeTtl() {
+        InMemoryResolver dns = new InMemoryResolver(Map.of());
+        AtomicLong now = new AtomicLong();
+        CachingResolver resolver = new CachingResolver(dns, TTL, NEGATIVE_TTL, 10, Runnable::run, now::get);
+
+        assertThatThrownBy(() -> resolver.resolve("missing.example")).isInstanceOf(UnknownHostException.class);
+        assertThatThrownBy(() -> resolver.resolve("missing.example")).isInstanceOf(UnknownHostException.class);
+        assertThat(dns.lookups.get()).isEqualTo(1);
+
+        now.set(NEGATIVE_TTL);
+        assertThatThrownBy(() -> resolver.resolve("missing.example")).isInstanceOf(UnknownHostException.class);
+        assertThat(dns.lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEntriesAreRefreshedBeforeTheyExpire() throws UnknownHostException {
+        InMemoryResolver dns = new InMemoryResolver(Map.of("a.example", address("10.0.0.1", "a.example")));
+        AtomicLong now = new AtomicLong();
+        CachingResolver resolver = new CachingResolver(dns, TTL, NEGATIVE_TTL, 10, Runnable::run, now::get);
+
+        resolver.resolve("a.example");
+        now.set(TTL - 1);
+        resolver.resolve("a.example");
+        assertThat(resolver.getRefreshes()).isEqualTo(1);
+        assertThat(dns.lookups.get()).isEqualTo(2);
+
+        // the refresh restarted the TTL, so this is still a hit
+        now.set(TTL + 1);
+        resolver.resolve("a.example");
+        assertThat(resolver.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAFullCacheEvictsHostsNotHitLately() throws UnknownHostException {
+        InMemoryResolver dns = new InMemoryResolver(Map.of("a.example", address("10.0.0.1", "a.example"),
+                "b.example", address("10.0.0.2", "b.example"), "c.example", address("10.0.0.3", "c.example"),
+                "d.example", address("10.0.0.4", "d.example")));
+        AtomicLong now = new AtomicLong();
+        CachingResolver resolver = new CachingResolver(dns, TTL, NEGATIVE_TTL, 2, Runnable::run, now::get);
+
+        resolver.resolve("a.example");
+        resolver.resolve("b.example");
+        resolver.resolve("a.example");
+        resolver.resolve("c.example");
+        assertThat(resolver.size()).isEqualTo(2);
+        assertThat(resolver.getEvictions()).isEqualTo(1);
+
+        // a was hit, so b made room for c
+        resolver.resolve("a.example");
+        resolver.resolve("c.example");
+        assertThat(dns.lookups.get()).isEqualTo(3);
+
+        // every new host is cached, even when nothing has expired
+        resolver.resolve("d.example");
+        resolver.resolve("d.example");
+        assertThat(dns.lookups.get()).isEqualTo(4);
+        assertThat(resolver.size()).isEqualTo(2);
+        assertThat(resolver.getEvictions()).isEqualTo(2);
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch releaseLookup = new CountDownLatch(1);
+        AtomicInteger lookups = new AtomicInteger();
+        InetAddress[] addresses = address("10.0.0.1", "slow.example");
+        Resolver slowDns = host -> {
+            lookups.incrementAndGet();
+            lookupStarted.countDown();
+            try {
+                releaseLookup.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return addresses;
+        };
+        CachingResolver resolver = new CachingResolver(slowDns, TTL, NEGATIVE_TTL, 10, Runnable::run,
+                System::currentTimeMillis);
+
+        Thread first = new Thread(() -> {
+            try {
+                resolver.resolve("slow.example");
+            } catch (UnknownHostException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        first.start();
+        lookupStarted.await(5, TimeUnit.SECONDS);
+
+        Thread second = new Thread(() -> {
+            try {
+                resolver.resolve("slow.example");
+            } catch (UnknownHostException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        second.start();
+        while (resolver.getCoalesced() == 0 && second.isAlive()) {
+            Thread.sleep(1);
+        }
+        releaseLookup.countDown();
+        first.join(5000);
+        second.join(5000);
+
+        assertThat(lookups.get()).isEqualTo(1);
+        assertThat(resolver.getCoalesced()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,47 @@
+package daproxy.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import daproxy.http.exceptions.InvalidRequestException;
+
+public class AbsoluteUrlTest {
+
+    private static Stream<Arguments> provideAbsoluteFormTargets() {
+        return Stream.of(Arguments.of("http://example.com/a/b?c=d", "example.com", 80, "example.com", "/a/b?c=d"),
+                Arguments.of("http://Example.COM:8080", "example.com", 8080, "Example.COM:8080", "/"),
+                Arguments.of("http://example.com?q", "example.com", 80, "example.com", "/?q"),
+                Arguments.of("http://example.com/page#top", "example.com", 80, "example.com", "/page"),
+                Arguments.of("http://[::1]:8080/x", "::1", 8080, "[::1]:8080", "/x"));
+    }
+
+    private static Stream<Arguments> provideInvalidTargets() {
+        return Stream.of(Arguments.of("/relative"), Arguments.of("https://example.com/"),
+                Arguments.of("http:///nohost"), Arguments.of("http://example.com:port/"),
+                Arguments.of("http://[::1/"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideAbsoluteFormTargets")
+    public void testParse(String target, String host, int port, String authority, String pathAndQuery)
+            throws InvalidRequestException {
+        AbsoluteUrl url = AbsoluteUrl.parse(target);
+
+        assertThat(url.getHost()).isEqualTo(host);
+        assertThat(url.getPort()).isEqualTo(port);
+        assertThat(url.getAuthority()).isEqualTo(authority);
+        assertThat(url.getPathAndQuery()).isEqualTo(pathAndQuery);
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideInvalidTargets")
+    public void testInvalidTargets(String target) {
+        assertThatThrownBy(() -> AbsoluteUrl.parse(target)).isInstanceOf(InvalidRequestException.class);
+    }
+}
@@ -0,0 +1,87 @@
+package daproxy.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.pool.TimingWheel;
+
+public class HttpBodyTest {
+
+    private static final TimingWheel.Timeout IDLE = new TimingWheel(10, 8, 0).scheduleIdle(1000, () -> { });
+
+    private static HttpInput input(String message, int bufferSize) {
+        InputStream in = new ByteArrayInputStream(message.getBytes(StandardCharsets.US_ASCII));
+        return new HttpInput(in, new byte[bufferSize], new byte[0], IDLE);
+    }
+
+    private static String copyBody(HttpInput in, HttpBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.copy(in, out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testCopiesContentLengthBodyAndLeavesNextRequest() throws IOException, InvalidRequestException {
+        HttpInput in = input("POST http://a/ HTTP/1.1\r\nContent-Length: 5\r\n\r\nhelloGET http://a/ HTTP/1.1\r\n\r\n",
+                64);
+        HttpHead head = in.readHead();
+        HttpBody body = HttpBody.forRequest(head);
+
+        assertThat(body.getFraming()).isEqualTo(HttpBody.Framing.CONTENT_LENGTH);
+        assertThat(copyBody(in, body)).isEqualTo("hello");
+        assertThat(in.readHead().getMethod()).isEqualTo("GET");
+        assertThat(in.readHead()).isNull();
+    }
+
+    @Test
+    public void testCopiesChunkedBodyVerbatim() throws IOException, InvalidRequestException {
+        String chunked = "4;ext=1\r\nWiki\r\n10\r\n0123456789abcdef\r\n0\r\nX-Checksum: 1\r\n\r\n";
+        // a small buffer forces chunks and lines to be read across several fills
+        HttpInput in = input("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" + chunked, 48);
+        HttpHead head = in.readHead();
+        HttpBody body = HttpBody.forResponse("GET", head);
+
+        assertThat(body.getFraming()).isEqualTo(HttpBody.Framing.CHUNKED);
+        assertThat(copyBody(in, body)).isEqualTo(chunked);
+        assertThat(in.hasBuffered()).isFalse();
+    }
+
+    @Test
+    public void testResponseFraming() throws IOException, InvalidRequestException {
+        HttpHead ok = input("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n", 64).readHead();
+        HttpHead noLength = input("HTTP/1.0 200 OK\r\n\r\n", 64).readHead();
+        HttpHead notModified = input("HTTP/1.1 304 Not Modified\r\nContent-Length: 10\r\n\r\n", 64).readHead();
+
+        assertThat(HttpBody.forResponse("HEAD", ok).getFraming()).isEqualTo(HttpBody.Framing.NONE);
+        assertThat(HttpBody.forResponse("GET", ok).getFraming()).isEqualTo(HttpBody.Framing.CONTENT_LENGTH);
+        assertThat(HttpBody.forResponse("GET", noLength).getFraming()).isEqualTo(HttpBody.Framing.UNTIL_CLOSE);
+        assertThat(HttpBody.forResponse("GET", notModified).getFraming()).isEqualTo(HttpBody.Framing.NONE);
+    }
+
+    @Test
+    public void testRejectsAmbiguousRequestFraming() throws IOException, InvalidRequestException {
+        HttpHead conflicting = input("POST http://a/ HTTP/1.1\r\nContent-Length: 1\r\nContent-Length: 2\r\n\r\n", 128)
+                .readHead();
+        HttpHead unknownCoding = input("POST http://a/ HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n", 128).readHead();
+
+        assertThatThrownBy(() -> HttpBody.forRequest(conflicting)).isInstanceOf(InvalidRequestException.class);
+        assertThatThrownBy(() -> HttpBody.forRequest(unknownCoding)).isInstanceOf(InvalidRequestException.class);
+    }
+
+    @Test
+    public void testTruncatedBodyFails() throws IOException, InvalidRequestException {
+        HttpInput in = input("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nshort", 64);
+        HttpBody body = HttpBody.forResponse("GET", in.readHead());
+
+        assertThatThrownBy(() -> copyBody(in, body)).isInstanceOf(IOException.class);
+    }
+}
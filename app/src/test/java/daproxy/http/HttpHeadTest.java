@@ -0,0 +1,81 @@
+package daproxy.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.http.exceptions.InvalidRequestException;
+
+public class HttpHeadTest {
+
+    private static HttpHead parse(String head) throws InvalidRequestException {
+        byte[] buf = head.getBytes(StandardCharsets.US_ASCII);
+        return HttpHead.parse(buf, 0, buf.length);
+    }
+
+    @Test
+    public void testParsesRequestHead() throws InvalidRequestException {
+        HttpHead head = parse("GET http://example.com/a?b HTTP/1.1\r\nHost: example.com\r\nAccept:  */* \r\n"
+                + "accept: text/html\r\n\r\n");
+
+        assertThat(head.getMethod()).isEqualTo("GET");
+        assertThat(head.getTarget()).isEqualTo("http://example.com/a?b");
+        assertThat(head.getRequestVersion()).isEqualTo("HTTP/1.1");
+        assertThat(head.get("host")).isEqualTo("example.com");
+        assertThat(head.getAll("Accept")).containsExactly("*/*", "text/html");
+    }
+
+    @Test
+    public void testParsesResponseHeadWithoutReason() throws InvalidRequestException {
+        HttpHead head = parse("HTTP/1.1 204\nDate: today\n\n");
+
+        assertThat(head.getResponseVersion()).isEqualTo("HTTP/1.1");
+        assertThat(head.getStatus()).isEqualTo(204);
+        assertThat(head.get("Date")).isEqualTo("today");
+    }
+
+    @Test
+    public void testRejectsMalformedHeaders() {
+        assertThatThrownBy(() -> parse("GET / HTTP/1.1\r\nHost : example.com\r\n\r\n"))
+                .isInstanceOf(InvalidRequestException.class);
+        assertThatThrownBy(() -> parse("GET / HTTP/1.1\r\nX-A: 1\r\n folded\r\n\r\n"))
+                .isInstanceOf(InvalidRequestException.class);
+        assertThatThrownBy(() -> parse("GET /\r\n\r\n")).isInstanceOf(InvalidRequestException.class);
+    }
+
+    @Test
+    public void testRemovesHopByHopHeaders() throws InvalidRequestException {
+        HttpHead head = parse("GET http://example.com/ HTTP/1.1\r\nConnection: close, X-Trace\r\nX-Trace: 1\r\n"
+                + "Proxy-Authorization: Basic abc\r\nKeep-Alive: timeout=5\r\nTransfer-Encoding: chunked\r\n"
+                + "Accept: */*\r\n\r\n");
+
+        head.removeHopByHop();
+
+        assertThat(head.get("Connection")).isNull();
+        assertThat(head.get("X-Trace")).isNull();
+        assertThat(head.get("Proxy-Authorization")).isNull();
+        assertThat(head.get("Keep-Alive")).isNull();
+        assertThat(head.get("Transfer-Encoding")).isEqualTo("chunked");
+        assertThat(head.get("Accept")).isEqualTo("*/*");
+    }
+
+    @Test
+    public void testKeepAliveDependsOnVersion() throws InvalidRequestException {
+        assertThat(parse("GET / HTTP/1.1\r\n\r\n").isKeepAlive("HTTP/1.1")).isTrue();
+        assertThat(parse("GET / HTTP/1.1\r\nConnection: Close\r\n\r\n").isKeepAlive("HTTP/1.1")).isFalse();
+        assertThat(parse("GET / HTTP/1.0\r\n\r\n").isKeepAlive("HTTP/1.0")).isFalse();
+        assertThat(parse("GET / HTTP/1.0\r\nConnection: keep-alive\r\n\r\n").isKeepAlive("HTTP/1.0")).isTrue();
+    }
+
+    @Test
+    public void testWritesHeadWithNewStartLine() throws InvalidRequestException {
+        HttpHead head = parse("GET http://example.com/ HTTP/1.0\r\nAccept: */*\r\n\r\n");
+        head.set("Host", "example.com");
+
+        assertThat(new String(head.toBytes("GET / HTTP/1.1"), StandardCharsets.US_ASCII))
+                .isEqualTo("GET / HTTP/1.1\r\nAccept: */*\r\nHost: example.com\r\n\r\n");
+    }
+}
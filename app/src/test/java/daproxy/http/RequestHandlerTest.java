@@ -1,17 +1,25 @@
 package daproxy.http;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.mock;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.util.stream.Stream;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.http.exceptions.RequestTooLargeException;
+import daproxy.http.request.ConnectRequest;
+import daproxy.http.request.Request;
 
 public class RequestHandlerTest {
 
@@ -36,4 +44,38 @@ public class RequestHandlerTest {
 
     }
 
+    @Test
+    void testWaitForConnectAcrossFragmentedReads() throws IOException, InvalidRequestException {
+        byte[] request = "CONNECT asdf.com:443 HTTP/1.1\r\nHost: asdf.com:443\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII);
+        InputStream oneByteAtATime = new ByteArrayInputStream(request) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+
+        Request parsed = new RequestHandler(socketReading(oneByteAtATime)).waitForConnect();
+
+        assertThat(((ConnectRequest) parsed).getUrl().getHost()).isEqualTo("asdf.com");
+    }
+
+    @Test
+    void testWaitForConnectRejectsOversizedHeaders() {
+        String header = "X-Padding: " + "a".repeat(10000) + "\r\n";
+        byte[] request = ("CONNECT asdf.com:443 HTTP/1.1\r\n" + header + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        RequestHandler rh = new RequestHandler(socketReading(new ByteArrayInputStream(request)));
+
+        assertThatThrownBy(rh::waitForConnect).isInstanceOf(RequestTooLargeException.class);
+    }
+
+    private static Socket socketReading(InputStream in) {
+        return new Socket() {
+            @Override
+            public InputStream getInputStream() {
+                return in;
+            }
+        };
+    }
 }
@@ -42,6 +42,21 @@ public class ConnectParserTest {
         assertThat(cr.getUrl().getPort()).isEqualTo(port);
     }
 
+    @Test
+    public void testKeepsBytesSentAfterTheRequest() throws Exception {
+        byte[] request = "CONNECT asdf.com:443 HTTP/1.1\r\nHost: asdf.com:443\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] early = { 0x16, 0x03, 0x01, 0x00, 0x05, 'h', 'e', 'l', 'l', 'o' };
+        byte[] buf = new byte[request.length + early.length + 16];
+        System.arraycopy(request, 0, buf, 0, request.length);
+        System.arraycopy(early, 0, buf, request.length, early.length);
+
+        ConnectRequest req = (ConnectRequest) new ConnectParser().parse(buf, request.length + early.length);
+        assertThat(req.getFirstBytesToWrite()).containsExactly(early);
+
+        req = (ConnectRequest) new ConnectParser().parse(request, request.length);
+        assertThat(req.getFirstBytesToWrite()).isEmpty();
+    }
+
     @ParameterizedTest
     @ValueSource(strings = {
         "",
@@ -0,0 +1,62 @@
+package daproxy.http.parsers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.http.parsers.RequestScanner.Status;
+import daproxy.http.request.ConnectRequest;
+
+public class ConnectScannerTest {
+
+    private static final byte[] REQUEST = ("CONNECT blog.digitalabyss.ca:443 HTTP/1.1\r\n"
+            + "Host: blog.digitalabyss.ca:443\r\nUser-Agent: curl/7.74.0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testRequestArrivingOneByteAtATime() throws InvalidRequestException, MalformedURLException {
+        ConnectScanner scanner = new ConnectScanner();
+        for (int length = 1; length < REQUEST.length; length++) {
+            assertThat(scanner.scan(REQUEST, length)).isEqualTo(Status.NEED_MORE);
+        }
+        assertThat(scanner.scan(REQUEST, REQUEST.length)).isEqualTo(Status.COMPLETE);
+        assertThat(scanner.getEnd()).isEqualTo(REQUEST.length - 1);
+
+        ConnectRequest request = (ConnectRequest) scanner.toRequest(REQUEST, REQUEST.length);
+        assertThat(request.getUrl().getHost()).isEqualTo("blog.digitalabyss.ca");
+        assertThat(request.getUrl().getPort()).isEqualTo(443);
+    }
+
+    @Test
+    public void testInvalidAsSoonAsTheMethodDiffers() {
+        byte[] request = "CONNECTA asdf.com:443".getBytes(StandardCharsets.US_ASCII);
+        ConnectScanner scanner = new ConnectScanner();
+
+        assertThat(scanner.scan(request, 7)).isEqualTo(Status.NEED_MORE);
+        assertThat(scanner.scan(request, 8)).isEqualTo(Status.INVALID);
+        assertThat(scanner.getError()).contains("CONNECT");
+        assertThat(scanner.scan(request, request.length)).isEqualTo(Status.INVALID);
+    }
+
+    @Test
+    public void testInvalidProtocol() {
+        byte[] request = "CONNECT asdf.com:443 HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        ConnectScanner scanner = new ConnectScanner();
+
+        assertThat(scanner.scan(request, request.length)).isEqualTo(Status.INVALID);
+        assertThat(scanner.getError()).contains("HTTP/1.1");
+    }
+
+    @Test
+    public void testResetStartsANewRequest() {
+        byte[] invalid = "GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        ConnectScanner scanner = new ConnectScanner();
+        assertThat(scanner.scan(invalid, invalid.length)).isEqualTo(Status.INVALID);
+
+        scanner.reset();
+        assertThat(scanner.scan(REQUEST, REQUEST.length)).isEqualTo(Status.COMPLETE);
+    }
+}
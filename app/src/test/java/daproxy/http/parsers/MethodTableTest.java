@@ -0,0 +1,46 @@
+package daproxy.http.parsers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import daproxy.http.RequestMethod;
+import daproxy.http.exceptions.InvalidRequestException;
+
+public class MethodTableTest {
+
+    @Test
+    public void testEveryMethodResolvesWithItsParser() throws InvalidRequestException {
+        for (RequestMethod method : RequestMethod.values()) {
+            byte[] request = (method + " / HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+            MethodTable.Entry entry = MethodTable.lookup(request, request.length);
+
+            assertThat(entry.getMethod()).isEqualTo(method);
+            assertThat(entry.getParser()).isSameAs(ParserMap.get(method));
+        }
+    }
+
+    @Test
+    public void testNeedsMoreUntilTheSpaceArrives() throws InvalidRequestException {
+        byte[] request = "CONNECT a:1 HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+        for (int length = 0; length < 8; length++) {
+            assertThat(MethodTable.lookup(request, length)).isNull();
+        }
+        assertThat(MethodTable.lookup(request, 8).getMethod()).isEqualTo(RequestMethod.CONNECT);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "CONNECTA a:1", "PUTS / HTTP/1.1", "GIT / HTTP/1.1", "get / HTTP/1.1", "XYZ / HTTP/1.1",
+            " GET /", "\u00e9GET /" })
+    public void testUnknownMethods(String request) {
+        byte[] bytes = request.getBytes(StandardCharsets.ISO_8859_1);
+
+        assertThatThrownBy(() -> MethodTable.lookup(bytes, bytes.length)).isInstanceOf(InvalidRequestException.class);
+    }
+}
@@ -0,0 +1,281 @@
+package daproxy.http.request;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import daproxy.conf.Config;
+import daproxy.http.HttpBody;
+import daproxy.http.HttpHead;
+import daproxy.http.HttpInput;
+import daproxy.http.RequestHandler;
+import daproxy.http.exceptions.InvalidRequestException;
+import daproxy.pool.TimingWheel;
+
+public class ForwardRequestTest {
+
+    private static final TimingWheel.Timeout IDLE = new TimingWheel(10, 8, 0).scheduleIdle(60000, () -> { });
+
+    private ServerSocket origin;
+    private ServerSocket proxy;
+    private final AtomicInteger originConnections = new AtomicInteger();
+    private final AtomicInteger originRequests = new AtomicInteger();
+    private final AtomicInteger originNotModified = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Config.useConfig(Config.parse("allowList: ['127.0.0.1']\ncacheEnabled: true"));
+
+        origin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        proxy = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        daemon(() -> {
+            while (true) {
+                Socket connection = origin.accept();
+                originConnections.incrementAndGet();
+                daemon(() -> serveOrigin(connection));
+            }
+        });
+        daemon(() -> {
+            while (true) {
+                Socket connection = proxy.accept();
+                daemon(() -> new RequestHandler(connection).run());
+            }
+        });
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        origin.close();
+        proxy.close();
+    }
+
+    /**
+     * Answers each request with its origin-form target, Host header and body, keeping the connection alive. Paths
+     * starting with /cached can be cached for a minute, and paths starting with /validated must be revalidated. Paths
+     * ending in /chunked are answered with a chunked body.
+     */
+    private void serveOrigin(Socket connection) throws IOException, InvalidRequestException {
+        try (connection) {
+            HttpInput in = new HttpInput(connection.getInputStream(), new byte[1024], new byte[0], IDLE);
+            OutputStream out = connection.getOutputStream();
+            HttpHead request;
+            while ((request = in.readHead()) != null) {
+                originRequests.incrementAndGet();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                HttpBody.forRequest(request).copy(in, body);
+                String answer = request.getMethod() + " " + request.getTarget() + " " + request.get("Host") + " "
+                        + request.get("Proxy-Connection") + " " + body.toString(StandardCharsets.US_ASCII);
+                String cacheHeaders = "";
+                if (request.getTarget().startsWith("/cached")) {
+                    cacheHeaders = "Cache-Control: max-age=60\r\n";
+                } else if (request.getTarget().startsWith("/validated")) {
+                    cacheHeaders = "Cache-Control: no-cache\r\nETag: \"v1\"\r\n";
+                    if ("\"v1\"".equals(request.get("If-None-Match"))) {
+                        originNotModified.incrementAndGet();
+                        out.write(("HTTP/1.1 304 Not Modified\r\n" + cacheHeaders + "\r\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+                        out.flush();
+                        continue;
+                    }
+                }
+                if (request.getTarget().endsWith("/chunked")) {
+                    out.write(("HTTP/1.1 200 OK\r\n" + cacheHeaders + "Transfer-Encoding: chunked\r\n\r\n"
+                            + Integer.toHexString(answer.length()) + "\r\n" + answer + "\r\n0\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                } else {
+                    out.write(("HTTP/1.1 200 OK\r\n" + cacheHeaders + "Content-Length: " + answer.length()
+                            + "\r\n\r\n" + answer).getBytes(StandardCharsets.US_ASCII));
+                }
+                out.flush();
+            }
+        }
+    }
+
+    private static String readBody(HttpInput in) throws IOException, InvalidRequestException {
+        HttpHead response = in.readHead();
+        assertThat(response.getStatus()).isEqualTo(200);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpBody.forResponse("GET", response).copy(in, body);
+        return body.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testForwardsPipelinedRequestsOverOneOriginConnection() throws IOException, InvalidRequestException {
+        int port = origin.getLocalPort();
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), proxy.getLocalPort())) {
+            String authority = "127.0.0.1:" + port;
+            client.getOutputStream().write(("GET http://" + authority + "/a?b=c HTTP/1.1\r\nHost: " + authority
+                    + "\r\nProxy-Connection: keep-alive\r\n\r\n"
+                    + "POST http://" + authority + "/upload HTTP/1.1\r\nHost: " + authority
+                    + "\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            HttpInput in = new HttpInput(client.getInputStream(), new byte[1024], new byte[0], IDLE);
+
+            assertThat(readBody(in)).isEqualTo("GET /a?b=c " + authority + " null ");
+            assertThat(readBody(in)).isEqualTo("POST /upload " + authority + " null 5\r\nhello\r\n0\r\n\r\n");
+
+            client.getOutputStream().write(("GET http://" + authority + "/again HTTP/1.1\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            HttpHead last = in.readHead();
+            assertThat(last.get("Connection")).isEqualTo("close");
+            HttpBody.forResponse("GET", last).copy(in, OutputStream.nullOutputStream());
+            assertThat(in.readHead()).isNull();
+        }
+        assertThat(originConnections.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testServesRepeatedRequestsFromCache() throws IOException, InvalidRequestException {
+        String url = "http://127.0.0.1:" + origin.getLocalPort() + "/cached";
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), proxy.getLocalPort())) {
+            OutputStream out = client.getOutputStream();
+            HttpInput in = new HttpInput(client.getInputStream(), new byte[1024], new byte[0], IDLE);
+
+            out.write(("GET " + url + " HTTP/1.1\r\n\r\nGET " + url + " HTTP/1.1\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            String first = readBody(in);
+            assertThat(readBody(in)).isEqualTo(first);
+            assertThat(originRequests.get()).isEqualTo(1);
+
+            out.write(("HEAD " + url + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            HttpHead head = in.readHead();
+            assertThat(head.get("Age")).isNotNull();
+            assertThat(head.get("Content-Length")).isEqualTo(Integer.toString(first.length()));
+            assertThat(originRequests.get()).isEqualTo(1);
+
+            // a successful POST makes the cached response obsolete
+            out.write(("POST " + url + " HTTP/1.1\r\nContent-Length: 1\r\n\r\nx").getBytes(StandardCharsets.US_ASCII));
+            readBody(in);
+            out.write(("GET " + url + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            readBody(in);
+            assertThat(originRequests.get()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void testRevalidatesStaleResponses() throws IOException, InvalidRequestException {
+        String url = "http://127.0.0.1:" + origin.getLocalPort() + "/validated";
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), proxy.getLocalPort())) {
+            OutputStream out = client.getOutputStream();
+            HttpInput in = new HttpInput(client.getInputStream(), new byte[1024], new byte[0], IDLE);
+
+            out.write(("GET " + url + " HTTP/1.1\r\n\r\nGET " + url + " HTTP/1.1\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            String first = readBody(in);
+            assertThat(readBody(in)).isEqualTo(first);
+            assertThat(originNotModified.get()).isEqualTo(1);
+
+            // the client's own conditional request is answered from the revalidated response
+            out.write(("GET " + url + " HTTP/1.1\r\nIf-None-Match: \"v1\"\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            assertThat(in.readHead().getStatus()).isEqualTo(304);
+
+            out.write(("GET " + url + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            assertThat(readBody(in)).isEqualTo(first);
+            assertThat(originNotModified.get()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void testSendsChunkedBodiesToHttp10ClientsWithoutFraming() throws IOException, InvalidRequestException {
+        String url = "http://127.0.0.1:" + origin.getLocalPort() + "/chunked";
+        String answer = "GET /chunked 127.0.0.1:" + origin.getLocalPort() + " null ";
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), proxy.getLocalPort())) {
+            client.getOutputStream().write(("GET " + url + " HTTP/1.0\r\nProxy-Connection: keep-alive\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            HttpInput in = new HttpInput(client.getInputStream(), new byte[1024], new byte[0], IDLE);
+
+            // the body is delimited by closing the connection
+            HttpHead response = in.readHead();
+            assertThat(response.get("Transfer-Encoding")).isNull();
+            assertThat(response.get("Connection")).isEqualTo("close");
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            in.copyToEnd(body);
+            assertThat(body.toString(StandardCharsets.US_ASCII)).isEqualTo(answer);
+        }
+    }
+
+    @Test
+    public void testServesCachedChunkedBodiesToHttp10ClientsWithContentLength()
+            throws IOException, InvalidRequestException {
+        String url = "http://127.0.0.1:" + origin.getLocalPort() + "/cached/chunked";
+        String answer = "GET /cached/chunked 127.0.0.1:" + origin.getLocalPort() + " null ";
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), proxy.getLocalPort())) {
+            OutputStream out = client.getOutputStream();
+            HttpInput in = new HttpInput(client.getInputStream(), new byte[1024], new byte[0], IDLE);
+            out.write(("GET " + url + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            HttpHead response = in.readHead();
+            assertThat(response.get("Transfer-Encoding")).isEqualTo("chunked");
+            HttpBody.forResponse("GET", response).copy(in, OutputStream.nullOutputStream());
+        }
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), proxy.getLocalPort())) {
+            OutputStream out = client.getOutputStream();
+            HttpInput in = new HttpInput(client.getInputStream(), new byte[1024], new byte[0], IDLE);
+            out.write(("GET " + url + " HTTP/1.0\r\nProxy-Connection: keep-alive\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+
+            HttpHead response = in.readHead();
+            assertThat(response.get("Transfer-Encoding")).isNull();
+            assertThat(response.get("Content-Length")).isEqualTo(Integer.toString(answer.length()));
+            assertThat(response.get("Connection")).isEqualTo("keep-alive");
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            HttpBody.forResponse("GET", response).copy(in, body);
+            assertThat(body.toString(StandardCharsets.US_ASCII)).isEqualTo(answer);
+        }
+        assertThat(originRequests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRejectsHostsOutsideAllowList() throws IOException {
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), proxy.getLocalPort())) {
+            client.getOutputStream().write("GET http://example.com/ HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            InputStream in = client.getInputStream();
+
+            assertThat(new String(in.readAllBytes(), StandardCharsets.US_ASCII)).startsWith("HTTP/1.1 400");
+        }
+        assertThat(originConnections.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAnswersBadGatewayWhenOriginIsDown() throws IOException {
+        int closedPort;
+        try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = unused.getLocalPort();
+        }
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), proxy.getLocalPort())) {
+            client.getOutputStream().write(("GET http://127.0.0.1:" + closedPort + "/ HTTP/1.1\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+
+            assertThat(new String(client.getInputStream().readAllBytes(), StandardCharsets.US_ASCII))
+                    .startsWith("HTTP/1.1 502");
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static void daemon(Task task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (Exception ex) {
+                // the test closed the socket
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,75 @@
+package daproxy.http2;
+
+import static daproxy.http2.HuffmanTest.hex;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.http.exceptions.Http2Exception;
+
+public class HpackTest {
+
+    @Test
+    public void testDecodesRequestsSharingTheDynamicTable() throws Exception {
+        // RFC 7541 Appendix C.4, requests with Huffman coding
+        Hpack hpack = new Hpack(4096, 16384);
+        assertThat(decode(hpack, "828684418cf1e3c2e5f23a6ba0ab90f4ff")).isEqualTo(
+                "[:method: GET, :scheme: http, :path: /, :authority: www.example.com]");
+        assertThat(hpack.getTableSize()).isEqualTo(57);
+
+        assertThat(decode(hpack, "828684be5886a8eb10649cbf")).isEqualTo(
+                "[:method: GET, :scheme: http, :path: /, :authority: www.example.com, cache-control: no-cache]");
+        assertThat(hpack.getTableSize()).isEqualTo(110);
+
+        assertThat(decode(hpack, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf")).isEqualTo(
+                "[:method: GET, :scheme: https, :path: /index.html, :authority: www.example.com, "
+                        + "custom-key: custom-value]");
+        assertThat(hpack.getTableSize()).isEqualTo(164);
+    }
+
+    @Test
+    public void testEvictsTheOldestEntries() throws Exception {
+        // RFC 7541 Appendix C.5.1, with a 256 byte table the first response fills it
+        Hpack hpack = new Hpack(256, 16384);
+        decode(hpack, "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032303a31333a323120474d546e"
+                + "1768747470733a2f2f7777772e6578616d706c652e636f6d");
+        assertThat(hpack.getTableSize()).isEqualTo(222);
+        // C.5.2 adds :status 307, evicting :status 302
+        assertThat(decode(hpack, "4803333037c1c0bf")).isEqualTo("[:status: 307, cache-control: private, "
+                + "date: Mon, 21 Oct 2013 20:13:21 GMT, location: https://www.example.com]");
+        assertThat(hpack.getTableSize()).isEqualTo(222);
+    }
+
+    @Test
+    public void testEncodesStatus() throws Exception {
+        Hpack hpack = new Hpack(4096, 16384);
+        assertThat(Hpack.encodeStatus(200)).containsExactly((byte) 0x88);
+        assertThat(decode(hpack, Hpack.encodeStatus(400))).isEqualTo("[:status: 400]");
+        assertThat(decode(hpack, Hpack.encodeStatus(502))).isEqualTo("[:status: 502]");
+        assertThat(hpack.getTableSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRejectsInvalidBlocks() {
+        Hpack hpack = new Hpack(4096, 16384);
+        // index 0, and an index past the tables
+        assertThatThrownBy(() -> decode(hpack, "80")).isInstanceOf(Http2Exception.class);
+        assertThatThrownBy(() -> decode(hpack, "be")).isInstanceOf(Http2Exception.class);
+        // a string longer than the block
+        assertThatThrownBy(() -> decode(hpack, "400a6b6579")).isInstanceOf(Http2Exception.class);
+        // a table size update larger than allowed
+        assertThatThrownBy(() -> decode(hpack, "3fe21f")).isInstanceOf(Http2Exception.class);
+    }
+
+    private static String decode(Hpack hpack, String hex) throws Exception {
+        return decode(hpack, hex(hex));
+    }
+
+    private static String decode(Hpack hpack, byte[] block) throws Exception {
+        List<Hpack.Field> fields = hpack.decode(block, block.length);
+        return fields.toString();
+    }
+}
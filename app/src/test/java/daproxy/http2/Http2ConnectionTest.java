@@ -0,0 +1,310 @@
+package daproxy.http2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import daproxy.Server;
+import daproxy.conf.Config;
+import daproxy.pool.Drain;
+import daproxy.relay.Tunnel;
+
+public class Http2ConnectionTest {
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private ServerSocket upstream;
+    private Server server;
+    private Socket socket;
+    private FrameReader reader;
+    private FrameWriter writer;
+    private final Hpack hpack = new Hpack(4096, 16384);
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        upstream = echoServer();
+        Config.useConfig(Config.parse(
+                "allowList: ['127.0.0.1']\nwatchConfig: false\nlistenAddresses: ['127.0.0.1:0']\nhttp2Enabled: true"));
+
+        server = new Server();
+        server.bind();
+        Thread thread = new Thread(server::serve);
+        thread.setDaemon(true);
+        thread.start();
+
+        socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(5000);
+        reader = new FrameReader(socket.getInputStream(), Frame.DEFAULT_MAX_FRAME_SIZE);
+        writer = new FrameWriter(socket.getOutputStream());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        socket.close();
+        server.stop();
+        upstream.close();
+    }
+
+    @Test
+    public void testTunnelsStreamsToTheirOwnUpstreams() throws Exception {
+        handshake();
+        connect(1, "127.0.0.1:" + upstream.getLocalPort());
+        connect(3, "127.0.0.1:" + upstream.getLocalPort());
+        // the streams connect concurrently, so their responses come in either order
+        Map<Integer, String> statuses = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            next(Frame.HEADERS);
+            statuses.put(reader.streamId, decodeStatus());
+        }
+        assertThat(statuses).isEqualTo(Map.of(1, "200", 3, "200"));
+
+        send(1, "first", false);
+        assertThat(receive(1)).isEqualTo("first");
+        send(3, "second", false);
+        assertThat(receive(3)).isEqualTo("second");
+
+        // the echo server closes once the stream's request side ends
+        send(1, "bye", true);
+        assertThat(receive(1)).isEqualTo("bye");
+        next(Frame.DATA);
+        assertThat(reader.streamId).isEqualTo(1);
+        assertThat(reader.flags & Frame.FLAG_END_STREAM).isEqualTo(Frame.FLAG_END_STREAM);
+
+        send(3, "still open", false);
+        assertThat(receive(3)).isEqualTo("still open");
+    }
+
+    @Test
+    public void testAnswersInvalidStreamsLikeConnectRequests() throws Exception {
+        handshake();
+        connect(1, "example.com:443");
+        assertThat(status(1)).isEqualTo("400");
+        assertThat(reader.flags & Frame.FLAG_END_STREAM).isEqualTo(Frame.FLAG_END_STREAM);
+
+        writer.write(Frame.HEADERS, Frame.FLAG_END_HEADERS, 3, block(":method", "GET", ":scheme", "http",
+                ":path", "/", ":authority", "127.0.0.1:" + upstream.getLocalPort()));
+        assertThat(status(3)).isEqualTo("400");
+
+        int closedPort;
+        try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = unused.getLocalPort();
+        }
+        connect(5, "127.0.0.1:" + closedPort);
+        assertThat(status(5)).isEqualTo("502");
+
+        // the connection is still usable
+        connect(7, "127.0.0.1:" + upstream.getLocalPort());
+        assertThat(status(7)).isEqualTo("200");
+    }
+
+    @Test
+    public void testSendsNoMoreThanTheStreamWindow() throws Exception {
+        handshake(Frame.SETTINGS_INITIAL_WINDOW_SIZE, 4);
+        connect(1, "127.0.0.1:" + upstream.getLocalPort());
+        assertThat(status(1)).isEqualTo("200");
+
+        send(1, "0123456789", false);
+        assertThat(receive(1)).isEqualTo("0123");
+        socket.setSoTimeout(300);
+        try {
+            next(Frame.DATA);
+            throw new AssertionError("Sent DATA beyond the window");
+        } catch (SocketTimeoutException ex) {
+            // expected
+        }
+        socket.setSoTimeout(5000);
+
+        writer.windowUpdate(1, 100);
+        StringBuilder rest = new StringBuilder();
+        while (rest.length() < 6) {
+            rest.append(receive(1));
+        }
+        assertThat(rest.toString()).isEqualTo("456789");
+    }
+
+    @Test
+    public void testCountsStreamsAsTunnels() throws Exception {
+        awaitOpenTunnels(0); // streams of earlier tests finish in the background
+        handshake();
+        connect(1, "127.0.0.1:" + upstream.getLocalPort());
+        assertThat(status(1)).isEqualTo("200");
+        assertThat(Tunnel.getOpenCount()).isEqualTo(1);
+
+        // as at a drain's deadline
+        Tunnel.closeAll();
+        next(Frame.RST_STREAM);
+        assertThat(reader.streamId).isEqualTo(1);
+        assertThat(FrameReader.readInt(reader.payload(), 0)).isEqualTo(Frame.CANCEL);
+        awaitOpenTunnels(0);
+
+        // the connection is still usable
+        connect(3, "127.0.0.1:" + upstream.getLocalPort());
+        assertThat(status(3)).isEqualTo("200");
+    }
+
+    @Test
+    public void testLetsOpenStreamsFinishWhenDraining() throws Exception {
+        handshake();
+        connect(1, "127.0.0.1:" + upstream.getLocalPort());
+        assertThat(status(1)).isEqualTo("200");
+
+        try {
+            Drain.begin();
+            next(Frame.GOAWAY);
+            assertThat(FrameReader.readInt(reader.payload(), 0)).isEqualTo(1);
+            assertThat(FrameReader.readInt(reader.payload(), 4)).isEqualTo(Frame.NO_ERROR);
+
+            connect(3, "127.0.0.1:" + upstream.getLocalPort());
+            next(Frame.RST_STREAM);
+            assertThat(reader.streamId).isEqualTo(3);
+            assertThat(FrameReader.readInt(reader.payload(), 0)).isEqualTo(Frame.REFUSED_STREAM);
+
+            send(1, "still open", false);
+            assertThat(receive(1)).isEqualTo("still open");
+
+            // the connection closes once its last stream has finished
+            send(1, "bye", true);
+            assertThat(receive(1)).isEqualTo("bye");
+            next(Frame.DATA);
+            assertThat(reader.flags & Frame.FLAG_END_STREAM).isEqualTo(Frame.FLAG_END_STREAM);
+            while (reader.next()) {
+                assertThat(reader.type).isNotEqualTo(Frame.DATA);
+            }
+        } finally {
+            Drain.cancel();
+        }
+    }
+
+    @Test
+    public void testAnswersPings() throws Exception {
+        handshake();
+        byte[] ping = "8 bytes!".getBytes(StandardCharsets.US_ASCII);
+        writer.write(Frame.PING, 0, 0, ping);
+        next(Frame.PING);
+        assertThat(reader.flags).isEqualTo(Frame.FLAG_ACK);
+        assertThat(Arrays.copyOf(reader.payload(), reader.length)).containsExactly(ping);
+    }
+
+    @Test
+    public void testClosesTheConnectionOnAProtocolError() throws Exception {
+        socket.getOutputStream().write(PREFACE);
+        writer.write(Frame.PING, 0, 0, new byte[8]); // SETTINGS must come first
+        next(Frame.GOAWAY);
+        assertThat(FrameReader.readInt(reader.payload(), 4)).isEqualTo(Frame.PROTOCOL_ERROR);
+        assertThat(reader.next()).isFalse();
+    }
+
+    private static void awaitOpenTunnels(int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && Tunnel.getOpenCount() != expected; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(Tunnel.getOpenCount()).isEqualTo(expected);
+    }
+
+    private void handshake(int... settings) throws IOException {
+        socket.getOutputStream().write(PREFACE);
+        writer.settings(settings);
+        next(Frame.SETTINGS);
+        assertThat(reader.flags & Frame.FLAG_ACK).isEqualTo(0);
+        writer.write(Frame.SETTINGS, Frame.FLAG_ACK, 0, new byte[0]);
+    }
+
+    private void connect(int streamId, String authority) throws IOException {
+        writer.write(Frame.HEADERS, Frame.FLAG_END_HEADERS, streamId, block(":method", "CONNECT",
+                ":authority", authority));
+    }
+
+    private String status(int streamId) throws Exception {
+        next(Frame.HEADERS);
+        assertThat(reader.streamId).isEqualTo(streamId);
+        return decodeStatus();
+    }
+
+    private String decodeStatus() throws Exception {
+        List<Hpack.Field> fields = hpack.decode(Arrays.copyOf(reader.payload(), reader.length), reader.length);
+        assertThat(fields.get(0).name).isEqualTo(":status");
+        return fields.get(0).value;
+    }
+
+    private void send(int streamId, String data, boolean endStream) throws IOException {
+        writer.write(Frame.DATA, endStream ? Frame.FLAG_END_STREAM : 0, streamId,
+                data.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String receive(int streamId) throws IOException {
+        next(Frame.DATA);
+        assertThat(reader.streamId).isEqualTo(streamId);
+        return new String(reader.payload(), 0, reader.length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Skips frames until one of the type, e.g. past SETTINGS acknowledgements and WINDOW_UPDATEs.
+     */
+    private void next(int type) throws IOException {
+        while (true) {
+            assertThat(reader.next()).isTrue();
+            if (reader.type == type) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the fields as literals without indexing, not Huffman coded.
+     */
+    private static byte[] block(String... namesAndValues) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            block.write(0);
+            literal(block, namesAndValues[i]);
+            literal(block, namesAndValues[i + 1]);
+        }
+        return block.toByteArray();
+    }
+
+    private static void literal(ByteArrayOutputStream block, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        block.write(bytes.length); // short strings only
+        block.write(bytes, 0, bytes.length);
+    }
+
+    private static ServerSocket echoServer() throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket connection = server.accept();
+                    Thread echo = new Thread(() -> {
+                        try (connection; InputStream in = connection.getInputStream()) {
+                            in.transferTo(connection.getOutputStream());
+                        } catch (IOException ex) {
+                            // closed
+                        }
+                    });
+                    echo.setDaemon(true);
+                    echo.start();
+                }
+            } catch (IOException ex) {
+                // closed
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+}
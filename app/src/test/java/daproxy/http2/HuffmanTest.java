@@ -0,0 +1,45 @@
+package daproxy.http2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.http.exceptions.Http2Exception;
+
+public class HuffmanTest {
+
+    @Test
+    public void testDecodesTheRfcExamples() throws Exception {
+        // RFC 7541 Appendix C.4 and C.6
+        assertThat(decode("f1e3c2e5f23a6ba0ab90f4ff")).isEqualTo("www.example.com");
+        assertThat(decode("a8eb10649cbf")).isEqualTo("no-cache");
+        assertThat(decode("25a849e95ba97d7f")).isEqualTo("custom-key");
+        assertThat(decode("25a849e95bb8e8b4bf")).isEqualTo("custom-value");
+        assertThat(decode("6402")).isEqualTo("302");
+        assertThat(decode("aec3771a4b")).isEqualTo("private");
+    }
+
+    @Test
+    public void testRejectsInvalidPadding() {
+        // padding must be the most significant bits of EOS, all ones
+        assertThatThrownBy(() -> decode("f1e3c2e5f23a6ba0ab90f4fe")).isInstanceOf(Http2Exception.class);
+        // and shorter than a byte
+        assertThatThrownBy(() -> decode("f1e3c2e5f23a6ba0ab90f4ffff")).isInstanceOf(Http2Exception.class);
+    }
+
+    static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String decode(String hex) throws Exception {
+        byte[] encoded = hex(hex);
+        return new String(Huffman.decode(encoded, 0, encoded.length), StandardCharsets.US_ASCII);
+    }
+}
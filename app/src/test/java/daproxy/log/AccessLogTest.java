@@ -0,0 +1,81 @@
+package daproxy.log;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.log.AccessRecord.Outcome;
+
+public class AccessLogTest {
+
+    private static AccessRecord record(String target, Outcome outcome) throws Exception {
+        return new AccessRecord(0, InetAddress.getByName("10.0.0.1"), target, outcome, 1500, 10, 20, 30,
+                outcome == Outcome.ALLOWED ? "client_closed" : null);
+    }
+
+    @Test
+    public void testFormatsRecordsAsJson() throws Exception {
+        assertThat(record("example.com:443", Outcome.ALLOWED).toString()).isEqualTo(
+                "{\"time\":\"1970-01-01T00:00:00Z\",\"client\":\"10.0.0.1\",\"target\":\"example.com:443\","
+                        + "\"outcome\":\"allowed\",\"connect_us\":1500,\"bytes_up\":10,\"bytes_down\":20,"
+                        + "\"duration_ms\":30,\"close\":\"client_closed\"}");
+
+        AccessRecord denied = new AccessRecord(0, null, "a\"b\\c\n:443", Outcome.DENIED, -1, 0, 0, 1, null);
+        assertThat(denied.toString()).isEqualTo("{\"time\":\"1970-01-01T00:00:00Z\",\"client\":null,"
+                + "\"target\":\"a\\\"b\\\\c\\u000a:443\",\"outcome\":\"denied\",\"bytes_up\":0,\"bytes_down\":0,"
+                + "\"duration_ms\":1}");
+    }
+
+    @Test
+    public void testWritesQueuedRecordsInOrder() throws Exception {
+        Path file = Files.createTempFile("daproxy-access", ".log");
+        try {
+            AccessLog accessLog = new AccessLog(file, 16, 10);
+            accessLog.start();
+            for (int i = 0; i < 10; i++) {
+                accessLog.log(record("host" + i + ":443", Outcome.ALLOWED));
+            }
+            accessLog.close(5000);
+
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            assertThat(lines).hasSize(10);
+            assertThat(lines.get(0)).contains("\"target\":\"host0:443\"");
+            assertThat(lines.get(9)).contains("\"target\":\"host9:443\"");
+            assertThat(accessLog.getWritten()).isEqualTo(10L);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDropsRecordsWhenTheWriterFallsBehind() throws Exception {
+        Path file = Files.createTempFile("daproxy-access", ".log");
+        try {
+            AccessLog accessLog = new AccessLog(file, 8, 10);
+            for (int i = 0; i < 12; i++) {
+                accessLog.log(record("host" + i + ":443", Outcome.FAILED));
+            }
+            assertThat(accessLog.getDropped()).isEqualTo(4L);
+
+            accessLog.start();
+            accessLog.close(5000);
+            assertThat(Files.readAllLines(file, StandardCharsets.UTF_8)).hasSize(8);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDiscardsEverythingWithoutAFile() throws Exception {
+        AccessLog accessLog = new AccessLog(null, 8, 10);
+        assertThat(accessLog.isEnabled()).isFalse();
+        accessLog.log(record("host:443", Outcome.DENIED));
+        assertThat(accessLog.getDropped()).isEqualTo(0L);
+    }
+}
@@ -0,0 +1,81 @@
+package daproxy.log;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class RingBufferTest {
+
+    @Test
+    public void testRoundsCapacityUpToAPowerOfTwo() {
+        assertThat(new RingBuffer<Integer>(5).capacity()).isEqualTo(8);
+        assertThat(new RingBuffer<Integer>(8).capacity()).isEqualTo(8);
+    }
+
+    @Test
+    public void testRejectsOffersWhenFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer(i)).isTrue();
+        }
+        assertThat(buffer.offer(4)).isFalse();
+
+        List<Integer> drained = new ArrayList<>();
+        assertThat(buffer.drainTo(drained, 2)).isEqualTo(2);
+        assertThat(buffer.offer(5)).isTrue();
+        assertThat(buffer.offer(6)).isTrue();
+        assertThat(buffer.offer(7)).isFalse();
+
+        assertThat(buffer.drainTo(drained, 100)).isEqualTo(4);
+        assertThat(drained).containsExactly(0, 1, 2, 3, 5, 6);
+        assertThat(buffer.drainTo(drained, 100)).isEqualTo(0);
+    }
+
+    @Test
+    public void testConcurrentProducersLoseNothing() throws InterruptedException {
+        RingBuffer<Integer> buffer = new RingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 20000;
+        AtomicInteger rejected = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(base + i)) {
+                        rejected.incrementAndGet();
+                        Thread.yield();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        Set<Integer> seen = new HashSet<>();
+        List<Integer> batch = new ArrayList<>();
+        int[] lastPerProducer = new int[producers];
+        Arrays.fill(lastPerProducer, -1);
+        while (seen.size() < producers * perProducer) {
+            batch.clear();
+            buffer.drainTo(batch, 16);
+            for (int item : batch) {
+                assertThat(seen.add(item)).isTrue();
+                // each producer's items arrive in the order it offered them
+                assertThat(item % perProducer).isGreaterThan(lastPerProducer[item / perProducer]);
+                lastPerProducer[item / perProducer] = item % perProducer;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(seen).hasSize(producers * perProducer);
+    }
+}
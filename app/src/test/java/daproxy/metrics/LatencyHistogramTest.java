@@ -0,0 +1,42 @@
+package daproxy.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverEveryValueWithBoundedError() {
+        long[] values = { 0, 1, 15, 16, 17, 31, 32, 1000, 123_456, 60_000_000, Long.MAX_VALUE };
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long upperBound = LatencyHistogram.upperBoundOf(bucket);
+            assertThat(upperBound).isGreaterThanOrEqualTo(value);
+            assertThat(upperBound - value).isLessThanOrEqualTo(value / 16);
+            if (bucket > 0) {
+                assertThat(LatencyHistogram.upperBoundOf(bucket - 1)).isLessThan(value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 10);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(1000);
+        assertThat(snapshot.getSum()).isEqualTo(5_005_000);
+        assertThat(snapshot.percentile(0.5)).isBetween(5000L, 5000L + 5000 / 16);
+        assertThat(snapshot.percentile(0.99)).isBetween(9900L, 9900L + 9900 / 16);
+        assertThat(snapshot.percentile(1.0)).isBetween(10_000L, 10_000L + 10_000 / 16);
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        assertThat(new LatencyHistogram().snapshot().percentile(0.99)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,22 @@
+package daproxy.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void testScrapeFormat() {
+        Counter counter = Metrics.counter("test_events_total", "Events seen by the test", "kind", "a");
+        counter.add(3);
+        Metrics.gauge("test_level", "A level", () -> 7);
+        Metrics.histogram("test_latency_seconds", "A latency").record(2_000_000);
+
+        String scrape = Metrics.scrape();
+        assertThat(scrape).contains("# TYPE test_events_total counter\n", "test_events_total{kind=\"a\"} 3\n",
+                "# TYPE test_level gauge\n", "test_level 7\n", "# TYPE test_latency_seconds summary\n",
+                "test_latency_seconds_count 1\n", "test_latency_seconds_sum 2.0\n");
+        assertThat(Metrics.counter("test_events_total", "Events seen by the test", "kind", "a")).isSameAs(counter);
+    }
+}
@@ -0,0 +1,106 @@
+package daproxy.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class AdmissionControllerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private static InetAddress client(int n) throws Exception {
+        return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) n });
+    }
+
+    @Test
+    public void testTurnsAwayRequestsOverTheLimit() throws Exception {
+        AdmissionController admission = new AdmissionController(10, 10, 10, 0, 1000, clock::get);
+        List<AdmissionController.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            AdmissionController.Permit permit = admission.tryAcquire(client(i));
+            assertThat(permit).isNotNull();
+            permits.add(permit);
+        }
+        assertThat(admission.tryAcquire(client(10))).isNull();
+        assertThat(admission.getInFlight()).isEqualTo(10);
+
+        permits.get(0).served();
+        permits.get(0).release(); // releasing twice frees one slot
+        assertThat(admission.getInFlight()).isEqualTo(9);
+        assertThat(admission.tryAcquire(client(10))).isNotNull();
+        assertThat(admission.tryAcquire(client(11))).isNull();
+    }
+
+    @Test
+    public void testHoldsBusyClientsToTheirFairShare() throws Exception {
+        AdmissionController admission = new AdmissionController(10, 10, 10, 0, 1000, clock::get);
+        int admitted = 0;
+        while (admission.tryAcquire(client(1)) != null) {
+            admitted++;
+        }
+        // Alone, a client may use the whole limit
+        assertThat(admitted).isEqualTo(10);
+
+        admission = new AdmissionController(10, 10, 10, 0, 1000, clock::get);
+        AdmissionController.Permit other = admission.tryAcquire(client(2));
+        admitted = 0;
+        while (admission.tryAcquire(client(1)) != null) {
+            admitted++;
+        }
+        assertThat(admitted).isEqualTo(5);
+        assertThat(admission.tryAcquire(client(2))).isNotNull();
+
+        other.release();
+        assertThat(admission.getInFlight()).isEqualTo(6);
+    }
+
+    @Test
+    public void testCapsEachClient() throws Exception {
+        AdmissionController admission = new AdmissionController(100, 100, 100, 2, 1000, clock::get);
+        assertThat(admission.tryAcquire(client(1))).isNotNull();
+        assertThat(admission.tryAcquire(client(1))).isNotNull();
+        assertThat(admission.tryAcquire(client(1))).isNull();
+        assertThat(admission.tryAcquire(client(2))).isNotNull();
+    }
+
+    @Test
+    public void testTurnsAwayRequestsThatWaitedTooLong() throws Exception {
+        AdmissionController admission = new AdmissionController(10, 10, 10, 0, 1000, clock::get);
+        AdmissionController.Permit quick = admission.tryAcquire(client(1));
+        clock.addAndGet(999_000_000L);
+        assertThat(quick.start()).isTrue();
+
+        AdmissionController.Permit slow = admission.tryAcquire(client(1));
+        clock.addAndGet(1_001_000_000L);
+        assertThat(slow.start()).isFalse();
+        assertThat(admission.getInFlight()).isEqualTo(1);
+
+        quick.served();
+        assertThat(admission.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSamplesTheWaitForAThreadNotTheClientsSendTime() throws Exception {
+        AdmissionController admission = new AdmissionController(20, 1, 100, 0, 1000, clock::get);
+        for (int window = 0; window < 6; window++) {
+            List<AdmissionController.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                AdmissionController.Permit permit = admission.tryAcquire(client(i));
+                clock.addAndGet(1_000_000L);
+                assertThat(permit.start()).isTrue();
+                permits.add(permit);
+            }
+            // after a quiet start, the clients take their time sending their requests
+            clock.addAndGet(window < 3 ? 1_000_000L : 500_000_000L);
+            permits.forEach(AdmissionController.Permit::served);
+            clock.addAndGet(100_000_000L);
+        }
+        assertThat(admission.getLimit()).isGreaterThanOrEqualTo(20);
+        assertThat(admission.getInFlight()).isEqualTo(0);
+    }
+}
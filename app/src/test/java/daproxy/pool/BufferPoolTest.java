@@ -0,0 +1,53 @@
+package daproxy.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReleasedBuffersAreReused() {
+        BufferPool pool = new BufferPool(1024, 4096);
+
+        ByteBuffer first = pool.acquire();
+        first.put((byte) 1);
+        pool.release(first);
+
+        ByteBuffer second = pool.acquire();
+        assertThat(second).isSameAs(first);
+        assertThat(second.position()).isEqualTo(0);
+        assertThat(pool.getAllocatedDirectMemory()).isEqualTo(1024);
+    }
+
+    @Test
+    public void testHeapBuffersAreHandedOutOverTheCap() {
+        BufferPool pool = new BufferPool(1024, 2048);
+
+        assertThat(pool.acquire().isDirect()).isTrue();
+        assertThat(pool.acquire().isDirect()).isTrue();
+        ByteBuffer overCap = pool.acquire();
+        assertThat(overCap.isDirect()).isFalse();
+        assertThat(overCap.capacity()).isEqualTo(1024);
+        assertThat(pool.getAllocatedDirectMemory()).isEqualTo(2048);
+
+        pool.release(overCap);
+        assertThat(pool.acquire().isDirect()).isFalse();
+    }
+
+    @Test
+    public void testThreadCacheServesReleasedBuffers() {
+        BufferPool pool = new BufferPool(1024, 4096);
+        pool.enableThreadCache();
+
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+
+        assertThat(pool.acquire()).isSameAs(second);
+        assertThat(pool.acquire()).isSameAs(first);
+    }
+}
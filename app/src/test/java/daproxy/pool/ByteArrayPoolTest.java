@@ -0,0 +1,33 @@
+package daproxy.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class ByteArrayPoolTest {
+
+    @Test
+    public void testReusesReleasedArrays() {
+        ByteArrayPool pool = new ByteArrayPool(16, 2);
+        byte[] first = pool.acquire();
+        assertThat(first.length).isEqualTo(16);
+        pool.release(first);
+        assertThat(pool.getPooledCount()).isEqualTo(1);
+        assertThat(pool.acquire()).isSameAs(first);
+        assertThat(pool.getPooledCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testKeepsNoMoreThanItsSlots() {
+        ByteArrayPool pool = new ByteArrayPool(16, 2);
+        byte[][] arrays = { pool.acquire(), pool.acquire(), pool.acquire() };
+        for (byte[] array : arrays) {
+            pool.release(array);
+        }
+        assertThat(pool.getPooledCount()).isEqualTo(2);
+
+        pool.acquire();
+        pool.release(new byte[8]); // not from this pool
+        assertThat(pool.getPooledCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,87 @@
+package daproxy.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class GradientLimitTest {
+
+    private static final long WINDOW = 100_000_000L;
+    private static final long MILLI = 1_000_000L;
+
+    private long now;
+
+    /**
+     * Fills one sampling window with requests of the same latency.
+     */
+    private void window(GradientLimit limit, long rtt, int inFlight, boolean dropped) {
+        now += WINDOW;
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(now, rtt, inFlight, dropped);
+        }
+    }
+
+    @Test
+    public void testGrowsWhileLatencyHoldsAndTheLimitIsUsed() {
+        GradientLimit limit = new GradientLimit(20, 8, 1000, now);
+        for (int i = 0; i < 50; i++) {
+            window(limit, MILLI, limit.getLimit(), false);
+        }
+        assertThat(limit.getLimit()).isGreaterThan(60);
+    }
+
+    @Test
+    public void testStaysWithinMaximum() {
+        GradientLimit limit = new GradientLimit(20, 8, 40, now);
+        for (int i = 0; i < 200; i++) {
+            window(limit, MILLI, limit.getLimit(), false);
+        }
+        assertThat(limit.getLimit()).isEqualTo(40);
+    }
+
+    @Test
+    public void testShrinksWhenLatencyClimbs() {
+        GradientLimit limit = new GradientLimit(100, 8, 100, now);
+        for (int i = 0; i < 20; i++) {
+            window(limit, MILLI, 100, false);
+        }
+        assertThat(limit.getLimit()).isEqualTo(100);
+
+        for (int i = 0; i < 20; i++) {
+            window(limit, 20 * MILLI, limit.getLimit(), false);
+        }
+        assertThat(limit.getLimit()).isLessThan(30);
+        assertThat(limit.getLimit()).isGreaterThanOrEqualTo(8);
+    }
+
+    @Test
+    public void testBacksOffOnDrops() {
+        GradientLimit limit = new GradientLimit(100, 8, 1000, now);
+        window(limit, MILLI, 100, true);
+        assertThat(limit.getLimit()).isEqualTo(90);
+
+        for (int i = 0; i < 100; i++) {
+            window(limit, MILLI, 100, true);
+        }
+        assertThat(limit.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    public void testDoesNotGrowWhileMostlyUnused() {
+        GradientLimit limit = new GradientLimit(20, 8, 1000, now);
+        for (int i = 0; i < 50; i++) {
+            window(limit, MILLI, 2, false);
+        }
+        assertThat(limit.getLimit()).isEqualTo(20);
+    }
+
+    @Test
+    public void testWaitsForAFullWindow() {
+        GradientLimit limit = new GradientLimit(100, 8, 1000, now);
+        limit.onSample(now + WINDOW, MILLI, 100, true); // too few samples
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(now + WINDOW / 2, MILLI, 100, true); // too early
+        }
+        assertThat(limit.getLimit()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,107 @@
+package daproxy.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class KeepAliveTest {
+
+    private static final int TIMEOUT = 5000;
+
+    private ServerSocketChannel listener;
+    private Selector selector;
+    private TimingWheel wheel;
+    private KeepAlive keepAlive;
+    private Socket client;
+    private Socket clientSide;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(listener.getLocalAddress()).socket();
+        client.setSoTimeout(TIMEOUT);
+        clientSide = listener.accept().socket();
+
+        selector = Selector.open();
+        wheel = new TimingWheel(100, 8, 0);
+        keepAlive = new KeepAlive(selector, wheel);
+        Thread thread = new Thread(keepAlive, "KeepAliveTestThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Drain.cancel();
+        client.close();
+        clientSide.close();
+        selector.close();
+        listener.close();
+    }
+
+    @Test
+    public void testHandsTheConnectionBackOnceBytesArrive() throws Exception {
+        CountDownLatch resumed = new CountDownLatch(1);
+        AtomicBoolean blocking = new AtomicBoolean();
+        keepAlive.park(clientSide, 1000, () -> {
+            blocking.set(clientSide.getChannel().isBlocking());
+            Drain.exitIdle(clientSide);
+            resumed.countDown();
+        });
+        assertThat(keepAlive.getParkedCount()).isEqualTo(1);
+        Thread.sleep(100);
+        assertThat(resumed.getCount()).isEqualTo(1L);
+
+        client.getOutputStream().write('G');
+        assertThat(resumed.await(TIMEOUT, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(blocking.get()).isTrue();
+        assertThat(keepAlive.getParkedCount()).isEqualTo(0);
+        assertThat(clientSide.getInputStream().read()).isEqualTo((int) 'G');
+
+        // the timeout no longer applies
+        wheel.advance(1000);
+        assertThat(clientSide.isClosed()).isFalse();
+    }
+
+    @Test
+    public void testClosesConnectionsThatStayQuiet() throws Exception {
+        AtomicBoolean resumed = new AtomicBoolean();
+        keepAlive.park(clientSide, 1000, () -> resumed.set(true));
+
+        wheel.advance(900);
+        assertThat(clientSide.isClosed()).isFalse();
+        wheel.advance(1000);
+        assertThat(client.getInputStream().read()).isEqualTo(-1);
+        assertThat(resumed.get()).isFalse();
+        assertThat(keepAlive.getParkedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testADrainClosesParkedConnections() throws Exception {
+        keepAlive.park(clientSide, 1000, () -> { });
+        Drain.begin();
+        assertThat(client.getInputStream().read()).isEqualTo(-1);
+
+        // and connections parked once it has begun are closed straight away
+        try (Socket late = SocketChannel.open(listener.getLocalAddress()).socket();
+                Socket lateSide = listener.accept().socket()) {
+            late.setSoTimeout(TIMEOUT);
+            keepAlive.park(lateSide, 1000, () -> { });
+            assertThat(late.getInputStream().read()).isEqualTo(-1);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package daproxy.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTest {
+
+    private static final long TICK = 100;
+    private static final int WHEEL_SIZE = 8;
+
+    @Test
+    public void testDeadlineExpiresOnce() {
+        TimingWheel wheel = new TimingWheel(TICK, WHEEL_SIZE, 0);
+        AtomicInteger expired = new AtomicInteger();
+        wheel.schedule(250, expired::incrementAndGet);
+
+        wheel.advance(200);
+        assertThat(expired.get()).isEqualTo(0);
+
+        wheel.advance(300);
+        assertThat(expired.get()).isEqualTo(1);
+
+        wheel.advance(10000);
+        assertThat(expired.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDeadlinesLongerThanOneRotation() {
+        TimingWheel wheel = new TimingWheel(TICK, WHEEL_SIZE, 0);
+        AtomicInteger expired = new AtomicInteger();
+        wheel.schedule(TICK * WHEEL_SIZE * 3, expired::incrementAndGet);
+
+        for (long now = 0; now < TICK * WHEEL_SIZE * 3; now += TICK) {
+            wheel.advance(now);
+        }
+        assertThat(expired.get()).isEqualTo(0);
+
+        wheel.advance(TICK * WHEEL_SIZE * 3);
+        assertThat(expired.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCancelledTimeoutsDoNotRun() {
+        TimingWheel wheel = new TimingWheel(TICK, WHEEL_SIZE, 0);
+        AtomicInteger expired = new AtomicInteger();
+        TimingWheel.Timeout timeout = wheel.schedule(100, expired::incrementAndGet);
+        wheel.advance(50);
+
+        timeout.cancel();
+        wheel.advance(1000);
+        assertThat(expired.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testTouchPostponesIdleTimeout() {
+        TimingWheel wheel = new TimingWheel(TICK, WHEEL_SIZE, 0);
+        AtomicInteger expired = new AtomicInteger();
+        TimingWheel.Timeout idle = wheel.scheduleIdle(500, expired::incrementAndGet);
+
+        for (long now = 0; now <= 2000; now += TICK) {
+            wheel.advance(now);
+            idle.touch();
+        }
+        assertThat(expired.get()).isEqualTo(0);
+
+        wheel.advance(2400);
+        assertThat(expired.get()).isEqualTo(0);
+        wheel.advance(2500);
+        assertThat(expired.get()).isEqualTo(1);
+        assertThat(idle.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testStartsAtAnyClockReading() {
+        // System.nanoTime() may be negative
+        long start = -TimeUnit.DAYS.toMillis(3);
+        TimingWheel wheel = new TimingWheel(TICK, WHEEL_SIZE, start);
+        AtomicInteger expired = new AtomicInteger();
+        wheel.schedule(250, expired::incrementAndGet);
+
+        wheel.advance(start + 200);
+        assertThat(expired.get()).isEqualTo(0);
+        wheel.advance(start + 300);
+        assertThat(expired.get()).isEqualTo(1);
+    }
+}
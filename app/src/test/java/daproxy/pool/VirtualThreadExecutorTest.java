@@ -0,0 +1,62 @@
+package daproxy.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.http.RequestHandler;
+
+public class VirtualThreadExecutorTest {
+
+    @Test
+    public void testRejectsAtTheLimitAndFreesPermitsAsHandlersFinish() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(2);
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        assertThat(executor.execute(blocking(started, first))).isTrue();
+        assertThat(executor.execute(blocking(started, first))).isTrue();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(executor.execute(blocking(new CountDownLatch(1), first))).isFalse();
+
+        first.countDown();
+        // both permits come back, and the new handlers hold them again
+        CountDownLatch second = new CountDownLatch(1);
+        int accepted = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (accepted < 2 && System.currentTimeMillis() < deadline) {
+            if (executor.execute(blocking(new CountDownLatch(1), second))) {
+                accepted++;
+            } else {
+                Thread.sleep(10);
+            }
+        }
+        assertThat(accepted).isEqualTo(2);
+        assertThat(executor.execute(blocking(new CountDownLatch(1), second))).isFalse();
+        second.countDown();
+    }
+
+    @Test
+    public void testNamesThreadsWithACounter() {
+        ThreadFactory factory = VirtualThreads.platformFactory("Relay-");
+        assertThat(factory.newThread(() -> { }).getName()).isEqualTo("Relay-0");
+        assertThat(factory.newThread(() -> { }).getName()).isEqualTo("Relay-1");
+    }
+
+    private static RequestHandler blocking(CountDownLatch started, CountDownLatch release) {
+        return new RequestHandler(null) {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
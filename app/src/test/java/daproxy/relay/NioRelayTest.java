@@ -0,0 +1,88 @@
+package daproxy.relay;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.pool.BufferPool;
+import daproxy.pool.TimingWheel;
+
+public class NioRelayTest {
+
+    private static final int TIMEOUT = 5000;
+
+    @Test
+    public void testRelaysBytesInBothDirections() throws IOException {
+        NioRelay relay = new NioRelay(1, new BufferPool(1024, 1024 * 1024));
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            Socket client = SocketChannel.open(listener.getLocalAddress()).socket();
+            Socket clientSide = listener.accept().socket();
+            Socket upstream = SocketChannel.open(listener.getLocalAddress()).socket();
+            Socket upstreamSide = listener.accept().socket();
+            client.setSoTimeout(TIMEOUT);
+            upstream.setSoTimeout(TIMEOUT);
+
+            Tunnel tunnel = new Tunnel(clientSide, upstreamSide, new TimingWheel(100, 8, 0), 60000);
+            relay.relay(tunnel);
+            assertThat(NioRelay.isHandedOff(clientSide)).isTrue();
+
+            client.getOutputStream().write("ping".getBytes(StandardCharsets.US_ASCII));
+            assertThat(new String(upstream.getInputStream().readNBytes(4), StandardCharsets.US_ASCII)).isEqualTo("ping");
+
+            upstream.getOutputStream().write("pong".getBytes(StandardCharsets.US_ASCII));
+            assertThat(new String(client.getInputStream().readNBytes(4), StandardCharsets.US_ASCII)).isEqualTo("pong");
+
+            client.close();
+            assertThat(upstream.getInputStream().read()).isEqualTo(-1);
+            assertThat(tunnel.isClosed()).isTrue();
+            assertThat(tunnel.getCloseReason()).isEqualTo(CloseReason.CLIENT_CLOSED);
+            upstream.close();
+        }
+    }
+
+    @Test
+    public void testPausesReadsOfAShapedTunnel() throws Exception {
+        NioRelay relay = new NioRelay(1, new BufferPool(1024, 1024 * 1024));
+        Shaper shaper = new Shaper(0, 0, 8 * 1024, 1024, System::nanoTime);
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            Socket client = SocketChannel.open(listener.getLocalAddress()).socket();
+            Socket clientSide = listener.accept().socket();
+            Socket upstream = SocketChannel.open(listener.getLocalAddress()).socket();
+            Socket upstreamSide = listener.accept().socket();
+            client.setSoTimeout(TIMEOUT);
+
+            Tunnel tunnel = new Tunnel(clientSide, upstreamSide, new TimingWheel(100, 8, 0), 60000);
+            tunnel.shape(shaper.forTunnel(client.getInetAddress(), "a.com"));
+            relay.relay(tunnel);
+
+            long start = System.nanoTime();
+            upstream.getOutputStream().write(new byte[5 * 1024]);
+            assertThat(client.getInputStream().readNBytes(5 * 1024)).hasSize(5 * 1024);
+            // the last 1KB is only read after the 3KB before it beyond the burst, at 8KB/s
+            assertThat(System.nanoTime() - start).isGreaterThan(300_000_000L);
+
+            client.close();
+            upstream.close();
+            // released once the relay notices the close
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (shaper.getDestinationCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(shaper.getDestinationCount()).isEqualTo(0);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package daproxy.relay;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class ShaperTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final AtomicLong clock = new AtomicLong(SECOND);
+
+    private static InetAddress client(int n) throws Exception {
+        return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) n });
+    }
+
+    @Test
+    public void testBucketPausesOnceTheBurstIsUsed() {
+        TokenBucket bucket = new TokenBucket(1000, 500, clock.get());
+        assertThat(bucket.take(500, clock.get())).isEqualTo(0);
+        // 250 bytes over the burst take a quarter of a second to repay
+        assertThat(bucket.take(250, clock.get())).isEqualTo(SECOND / 4);
+
+        clock.addAndGet(SECOND / 4);
+        assertThat(bucket.take(250, clock.get())).isEqualTo(SECOND / 4);
+
+        // refills at the rate, but never beyond the burst
+        clock.addAndGet(10 * SECOND);
+        assertThat(bucket.take(500, clock.get())).isEqualTo(0);
+        assertThat(bucket.take(100, clock.get())).isEqualTo(SECOND / 10);
+    }
+
+    @Test
+    public void testUnlimitedByDefault() throws Exception {
+        assertThat(new Shaper(0, 0, 0, 1000, clock::get).forTunnel(client(1), "a.com")).isNull();
+    }
+
+    @Test
+    public void testClientsShareTheirBucketButNotOtherClients() throws Exception {
+        Shaper shaper = new Shaper(0, 1000, 0, 1000, clock::get);
+        Shaper.Limit first = shaper.forTunnel(client(1), "a.com");
+        Shaper.Limit second = shaper.forTunnel(client(1), "b.com");
+        Shaper.Limit other = shaper.forTunnel(client(2), "a.com");
+
+        assertThat(first.take(Direction.DOWNSTREAM, 1000)).isEqualTo(0);
+        assertThat(second.take(Direction.DOWNSTREAM, 500)).isEqualTo(SECOND / 2);
+        assertThat(other.take(Direction.DOWNSTREAM, 1000)).isEqualTo(0);
+        // each direction has its own bucket
+        assertThat(second.take(Direction.UPSTREAM, 1000)).isEqualTo(0);
+
+        assertThat(shaper.getClientCount()).isEqualTo(2);
+        first.release();
+        first.release();
+        assertThat(shaper.getClientCount()).isEqualTo(2);
+        second.release();
+        other.release();
+        assertThat(shaper.getClientCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPausesForTheTightestLimit() throws Exception {
+        Shaper shaper = new Shaper(4000, 2000, 1000, 1000, clock::get);
+        Shaper.Limit limit = shaper.forTunnel(client(1), "a.com");
+        // the destination's bucket is the furthest behind
+        assertThat(limit.take(Direction.DOWNSTREAM, 1500)).isEqualTo(SECOND / 2);
+        assertThat(shaper.getDestinationCount()).isEqualTo(1);
+
+        Shaper.Limit elsewhere = shaper.forTunnel(client(2), "b.com");
+        // its own buckets have room, but the global one is shared
+        assertThat(elsewhere.take(Direction.DOWNSTREAM, 1000)).isEqualTo(3 * SECOND / 8);
+    }
+}
@@ -0,0 +1,110 @@
+package daproxy.relay;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.conf.RelayMode;
+import daproxy.pool.TimingWheel;
+
+public class SpliceRelayTest {
+
+    private static final int TIMEOUT = 5000;
+
+    @Test
+    public void testFallsBackToBlockingWhenUnavailable() {
+        if (Splice.get() == null) {
+            assertThat(Relays.get(RelayMode.SPLICE)).isSameAs(Relays.get(RelayMode.BLOCKING));
+        } else {
+            assertThat(Relays.get(RelayMode.SPLICE)).isInstanceOf(SpliceRelay.class);
+        }
+    }
+
+    @Test
+    public void testRelaysBytesInBothDirections() throws Exception {
+        Splice splice = Splice.get();
+        if (splice == null) {
+            return; // needs the JVM flags in build.gradle, and Linux
+        }
+        SpliceRelay relay = new SpliceRelay(splice, new BlockingRelay());
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            Socket client = SocketChannel.open(listener.getLocalAddress()).socket();
+            Socket clientSide = listener.accept().socket();
+            Socket upstream = SocketChannel.open(listener.getLocalAddress()).socket();
+            Socket upstreamSide = listener.accept().socket();
+            client.setSoTimeout(TIMEOUT);
+            upstream.setSoTimeout(TIMEOUT);
+
+            Tunnel tunnel = new Tunnel(clientSide, upstreamSide, new TimingWheel(100, 8, 0), 60000);
+            relay.relay(tunnel);
+            assertThat(Tunnel.isOpen(clientSide)).isTrue();
+
+            client.getOutputStream().write("ping".getBytes(StandardCharsets.US_ASCII));
+            assertThat(new String(upstream.getInputStream().readNBytes(4), StandardCharsets.US_ASCII)).isEqualTo("ping");
+
+            byte[] large = new byte[1024 * 1024];
+            upstream.getOutputStream().write(large);
+            assertThat(client.getInputStream().readNBytes(large.length)).hasSize(large.length);
+            assertThat(tunnel.getBytes(Direction.UPSTREAM)).isEqualTo(4L);
+            assertThat(tunnel.getBytes(Direction.DOWNSTREAM)).isEqualTo((long) large.length);
+
+            client.close();
+            assertThat(upstream.getInputStream().read()).isEqualTo(-1);
+            assertThat(tunnel.getCloseReason()).isEqualTo(CloseReason.CLIENT_CLOSED);
+            awaitClosed(clientSide);
+            upstream.close();
+        }
+    }
+
+    @Test
+    public void testClosingTheTunnelWakesBothDirections() throws Exception {
+        Splice splice = Splice.get();
+        if (splice == null) {
+            return;
+        }
+        SpliceRelay relay = new SpliceRelay(splice, new BlockingRelay());
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            Socket client = SocketChannel.open(listener.getLocalAddress()).socket();
+            Socket clientSide = listener.accept().socket();
+            Socket upstream = SocketChannel.open(listener.getLocalAddress()).socket();
+            Socket upstreamSide = listener.accept().socket();
+            client.setSoTimeout(TIMEOUT);
+            upstream.setSoTimeout(TIMEOUT);
+
+            Tunnel tunnel = new Tunnel(clientSide, upstreamSide, new TimingWheel(100, 8, 0), 60000);
+            relay.relay(tunnel);
+            // both threads are blocked in splice with nothing to read
+            Thread.sleep(100);
+
+            tunnel.close(CloseReason.DRAIN);
+            assertThat(client.getInputStream().read()).isEqualTo(-1);
+            assertThat(upstream.getInputStream().read()).isEqualTo(-1);
+            assertThat(tunnel.getCloseReason()).isEqualTo(CloseReason.DRAIN);
+            awaitClosed(clientSide);
+            client.close();
+            upstream.close();
+        }
+    }
+
+    private static void awaitClosed(Socket clientSide) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (Tunnel.isOpen(clientSide) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(Tunnel.isOpen(clientSide)).isFalse();
+    }
+}
@@ -0,0 +1,109 @@
+package daproxy.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import daproxy.upstream.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    private CircuitBreaker breaker() {
+        // 10s window, 4 connects, half failing, slow over 1s, ejected for 5s up to 20s, 2 probes
+        return new CircuitBreaker(true, 10000, 4, 0.5, 1000, 5000, 20000, 2, clock::get);
+    }
+
+    private static void fail(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.tryAcquire("a.com", 443).failed();
+        }
+    }
+
+    @Test
+    public void testOpensOnceEnoughConnectsFail() {
+        CircuitBreaker breaker = breaker();
+        fail(breaker, 3);
+        // too few connects to judge
+        assertThat(breaker.getState("a.com", 443)).isEqualTo(State.CLOSED);
+
+        breaker.tryAcquire("a.com", 443).succeeded(100);
+        assertThat(breaker.getState("a.com", 443)).isEqualTo(State.CLOSED);
+        fail(breaker, 1);
+        assertThat(breaker.getState("a.com", 443)).isEqualTo(State.OPEN);
+        assertThat(breaker.tryAcquire("a.com", 443)).isNull();
+        assertThat(breaker.getOpenCount()).isEqualTo(1);
+
+        // other destinations are unaffected
+        assertThat(breaker.tryAcquire("a.com", 8443)).isNotNull();
+        assertThat(breaker.tryAcquire("b.com", 443)).isNotNull();
+    }
+
+    @Test
+    public void testCountsSlowConnectsAsFailures() {
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.tryAcquire("a.com", 443).succeeded(2_000_000);
+        }
+        assertThat(breaker.getState("a.com", 443)).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    public void testForgetsFailuresOutsideTheWindow() {
+        CircuitBreaker breaker = breaker();
+        fail(breaker, 3);
+        clock.addAndGet(11000);
+        fail(breaker, 1);
+        breaker.tryAcquire("a.com", 443).succeeded(100);
+        assertThat(breaker.getState("a.com", 443)).isEqualTo(State.CLOSED);
+    }
+
+    @Test
+    public void testClosesAfterProbesSucceed() {
+        CircuitBreaker breaker = breaker();
+        fail(breaker, 4);
+        clock.addAndGet(5000);
+        assertThat(breaker.getState("a.com", 443)).isEqualTo(State.HALF_OPEN);
+
+        CircuitBreaker.Attempt first = breaker.tryAcquire("a.com", 443);
+        CircuitBreaker.Attempt second = breaker.tryAcquire("a.com", 443);
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+        assertThat(breaker.tryAcquire("a.com", 443)).isNull();
+
+        first.succeeded(100);
+        assertThat(breaker.tryAcquire("a.com", 443)).isNull();
+        second.succeeded(100);
+        assertThat(breaker.getState("a.com", 443)).isEqualTo(State.CLOSED);
+        assertThat(breaker.tryAcquire("a.com", 443)).isNotNull();
+        assertThat(breaker.getOpenCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testEjectsForLongerEachTime() {
+        CircuitBreaker breaker = breaker();
+        fail(breaker, 4);
+        clock.addAndGet(5000);
+        breaker.tryAcquire("a.com", 443).failed();
+        assertThat(breaker.getState("a.com", 443)).isEqualTo(State.OPEN);
+        assertThat(breaker.describe()).contains("a.com:443 open").contains("ejections=2").contains("open_ms=10000");
+
+        clock.addAndGet(9999);
+        assertThat(breaker.tryAcquire("a.com", 443)).isNull();
+        clock.addAndGet(1);
+        assertThat(breaker.tryAcquire("a.com", 443)).isNotNull();
+    }
+
+    @Test
+    public void testLetsEverythingThroughWhenDisabled() {
+        CircuitBreaker breaker = new CircuitBreaker(false, 10000, 1, 0.5, 1000, 5000, 20000, 1, clock::get);
+        for (int i = 0; i < 10; i++) {
+            breaker.tryAcquire("a.com", 443).failed();
+        }
+        assertThat(breaker.getState("a.com", 443)).isEqualTo(State.CLOSED);
+        assertThat(breaker.describe()).isEmpty();
+    }
+}
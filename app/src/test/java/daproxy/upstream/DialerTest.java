@@ -0,0 +1,139 @@
+package daproxy.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class DialerTest {
+
+    private static final InetAddress V4_A = address("127.0.0.1");
+    private static final InetAddress V4_B = address("127.0.0.2");
+    private static final InetAddress V6_A = address("::1");
+    private static final InetAddress V6_B = address("fe80::1");
+
+    private static InetAddress address(String literal) {
+        try {
+            return InetAddress.getByName(literal);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static Dialer dialer(long connectTimeout, long attemptDelay, InetAddress... addresses) {
+        return new Dialer(host -> addresses.clone(), connectTimeout, attemptDelay);
+    }
+
+    private static ServerSocketChannel listen(InetAddress address, int port) throws IOException {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(address, port));
+        return listener;
+    }
+
+    /**
+     * A listener that never accepts, with its accept queue already full, so further connects to it hang until they
+     * time out.
+     */
+    private static ServerSocketChannel blackhole(InetAddress address, List<SocketChannel> fillers) throws IOException {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(address, 0), 1);
+        for (int i = 0; i < 4; i++) {
+            SocketChannel filler = SocketChannel.open();
+            filler.configureBlocking(false);
+            filler.connect(listener.getLocalAddress());
+            fillers.add(filler);
+        }
+        return listener;
+    }
+
+    private static void closeAll(List<SocketChannel> channels) throws IOException {
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testInterleavesAddressFamilies() {
+        assertThat(Dialer.interleave(new InetAddress[] { V6_A, V6_B, V4_A, V4_B }))
+                .containsExactly(V6_A, V4_A, V6_B, V4_B);
+        assertThat(Dialer.interleave(new InetAddress[] { V4_A, V4_B, V6_A }))
+                .containsExactly(V4_A, V6_A, V4_B);
+        assertThat(Dialer.interleave(new InetAddress[] { V4_A })).containsExactly(V4_A);
+    }
+
+    @Test
+    public void testConnectsToASingleAddress() throws IOException {
+        try (ServerSocketChannel upstream = listen(V4_A, 0);
+                SocketChannel channel = dialer(1000, 250, V4_A).dial("upstream",
+                        upstream.socket().getLocalPort())) {
+            assertThat(channel.isConnected()).isTrue();
+            assertThat(channel.isBlocking()).isTrue();
+        }
+    }
+
+    @Test
+    public void testTimesOutOnAnUnresponsiveAddress() throws IOException {
+        List<SocketChannel> fillers = new ArrayList<>();
+        try (ServerSocketChannel upstream = blackhole(V4_A, fillers)) {
+            int port = upstream.socket().getLocalPort();
+            long start = System.nanoTime();
+            assertThatThrownBy(() -> dialer(300, 100, V4_A).dial("upstream", port))
+                    .isInstanceOf(SocketTimeoutException.class);
+            assertThatThrownBy(() -> dialer(300, 100, V4_A, V4_A).dial("upstream", port))
+                    .isInstanceOf(SocketTimeoutException.class);
+            assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(3000L);
+        } finally {
+            closeAll(fillers);
+        }
+    }
+
+    @Test
+    public void testRacesTheNextAddressAfterTheAttemptDelay() throws IOException {
+        List<SocketChannel> fillers = new ArrayList<>();
+        try (ServerSocketChannel slow = blackhole(V4_A, fillers);
+                ServerSocketChannel upstream = listen(V4_B, slow.socket().getLocalPort())) {
+            long start = System.nanoTime();
+            try (SocketChannel channel = dialer(5000, 50, V4_A, V4_B).dial("upstream",
+                    upstream.socket().getLocalPort())) {
+                assertThat(((InetSocketAddress) channel.getRemoteAddress()).getAddress()).isEqualTo(V4_B);
+                assertThat(channel.isBlocking()).isTrue();
+            }
+            assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(2000L);
+        } finally {
+            closeAll(fillers);
+        }
+    }
+
+    @Test
+    public void testMovesOnAtOnceWhenAnAttemptFails() throws IOException {
+        try (ServerSocketChannel upstream = listen(V4_B, 0)) {
+            int port = upstream.socket().getLocalPort();
+            long start = System.nanoTime();
+            // nothing listens on V4_A, so it is refused straight away rather than waiting out the delay
+            try (SocketChannel channel = dialer(5000, 3000, V4_A, V4_B).dial("upstream", port)) {
+                assertThat(((InetSocketAddress) channel.getRemoteAddress()).getAddress()).isEqualTo(V4_B);
+            }
+            assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(2000L);
+        }
+    }
+
+    @Test
+    public void testFailsWhenEveryAddressIsRefused() throws IOException {
+        int port;
+        try (ServerSocketChannel closed = listen(V4_A, 0)) {
+            port = closed.socket().getLocalPort();
+        }
+        assertThatThrownBy(() -> dialer(1000, 50, V4_A, V4_B).dial("upstream", port))
+                .isInstanceOf(ConnectException.class);
+    }
+}
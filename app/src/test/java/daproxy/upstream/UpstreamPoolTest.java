@@ -0,0 +1,155 @@
+package daproxy.upstream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class UpstreamPoolTest {
+
+    private static final long MAX_AGE = 10000;
+    private static final long REFRESH = 1000;
+
+    private static ServerSocketChannel listen() throws IOException {
+        ServerSocketChannel upstream = ServerSocketChannel.open();
+        upstream.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return upstream;
+    }
+
+    private static Dialer loopbackDialer() {
+        return new Dialer(host -> new InetAddress[] { InetAddress.getLoopbackAddress() }, 1000, 250);
+    }
+
+    private static CircuitBreaker unguarded() {
+        return new CircuitBreaker(false, 10000, 1, 0.5, 1000, 5000, 20000, 1, System::currentTimeMillis);
+    }
+
+    @Test
+    public void testPrewarmedDestinationsKeepMinIdle() throws IOException {
+        try (ServerSocketChannel upstream = listen()) {
+            int port = upstream.socket().getLocalPort();
+            AtomicLong now = new AtomicLong();
+            UpstreamPool pool = new UpstreamPool(loopbackDialer(), unguarded(), 2, 8, MAX_AGE, REFRESH,
+                    List.of("upstream:" + port), Runnable::run, now::get);
+
+            pool.maintain();
+            assertThat(pool.getIdleCount("upstream", port)).isEqualTo(2);
+
+            SocketChannel borrowed = pool.borrow("upstream", port);
+            assertThat(borrowed.isConnected()).isTrue();
+            assertThat(borrowed.isBlocking()).isTrue();
+            assertThat(pool.getHits()).isEqualTo(1);
+            assertThat(pool.getIdleCount("upstream", port)).isEqualTo(1);
+            borrowed.close();
+        }
+    }
+
+    @Test
+    public void testClosedAndExpiredConnectionsAreNotBorrowed() throws IOException {
+        try (ServerSocketChannel upstream = listen()) {
+            int port = upstream.socket().getLocalPort();
+            AtomicLong now = new AtomicLong();
+            UpstreamPool pool = new UpstreamPool(loopbackDialer(), unguarded(), 1, 8, MAX_AGE, REFRESH,
+                    List.of("upstream:" + port), Runnable::run, now::get);
+
+            pool.maintain();
+            upstream.accept().close(); // the upstream hangs up on the idle connection
+
+            SocketChannel borrowed = pool.borrow("upstream", port);
+            assertThat(pool.getHits()).isEqualTo(0);
+            assertThat(pool.getMisses()).isEqualTo(1);
+            borrowed.close();
+
+            pool.maintain();
+            now.set(MAX_AGE);
+            pool.borrow("upstream", port).close();
+            assertThat(pool.getHits()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testIdleCountFollowsConnectRate() throws IOException {
+        try (ServerSocketChannel upstream = listen()) {
+            int port = upstream.socket().getLocalPort();
+            UpstreamPool pool = new UpstreamPool(loopbackDialer(), unguarded(), 1, 3, MAX_AGE, REFRESH, List.of(),
+                    Runnable::run, System::currentTimeMillis);
+
+            for (int i = 0; i < 20; i++) {
+                pool.borrow("busy", port).close();
+            }
+            pool.maintain();
+            assertThat(pool.getIdleCount("busy", port)).isEqualTo(3);
+
+            for (int i = 0; i < 30; i++) {
+                pool.maintain();
+            }
+            assertThat(pool.getIdleCount("busy", port)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testEjectedDestinationsAreNotPrewarmed() throws IOException {
+        try (ServerSocketChannel upstream = listen()) {
+            int port = upstream.socket().getLocalPort();
+            CircuitBreaker breaker = new CircuitBreaker(true, 10000, 1, 0.5, 1000, 5000, 20000, 1,
+                    System::currentTimeMillis);
+            breaker.tryAcquire("upstream", port).failed();
+            UpstreamPool pool = new UpstreamPool(loopbackDialer(), breaker, 2, 8, MAX_AGE, REFRESH,
+                    List.of("upstream:" + port), Runnable::run, System::currentTimeMillis);
+
+            pool.maintain();
+            assertThat(pool.getIdleCount("upstream", port)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testAnUnreachableDestinationDoesNotDelayOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Dialer blackholing = new Dialer(host -> new InetAddress[] { InetAddress.getLoopbackAddress() }, 1000, 250) {
+            @Override
+            public SocketChannel dial(String host, int port) throws IOException {
+                if (host.equals("blackhole")) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IOException("connect timed out");
+                }
+                return super.dial(host, port);
+            }
+        };
+        ExecutorService dialing = Executors.newCachedThreadPool();
+        try (ServerSocketChannel upstream = listen()) {
+            int port = upstream.socket().getLocalPort();
+            UpstreamPool pool = new UpstreamPool(blackholing, unguarded(), 1, 8, MAX_AGE, REFRESH,
+                    List.of("blackhole:" + port, "upstream:" + port), dialing, System::currentTimeMillis);
+
+            long start = System.nanoTime();
+            pool.maintain();
+            long deadline = System.currentTimeMillis() + 2000;
+            while (pool.getIdleCount("upstream", port) == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(pool.getIdleCount("upstream", port)).isEqualTo(1);
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+
+            // a second pass does not pile more dials onto the one still blocked
+            pool.maintain();
+            release.countDown();
+        } finally {
+            dialing.shutdown();
+        }
+    }
+}